@@ -0,0 +1,92 @@
+package com.google.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openqa.selenium.json.Json;
+
+/**
+ * Compares two JMH JSON result files, e.g. from two commits:
+ * {@code java -cp target/benchmarks.jar com.google.benchmarks.CompareResults base.json head.json [percent]}.
+ * Prints the change of every benchmark present in both files and exits with
+ * status 1 if any got worse by more than the threshold (default 10%) and by
+ * more than the combined error margins.
+ */
+public class CompareResults {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: CompareResults <baseline.json> <current.json> [threshold percent]");
+			System.exit(2);
+		}
+		double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+		Map<String, Map<String, Object>> baseline = load(args[0]);
+		Map<String, Map<String, Object>> current = load(args[1]);
+
+		int regressions = 0;
+		System.out.println(String.format(Locale.ROOT, "%-70s %14s %14s %9s", "Benchmark", "Baseline", "Current",
+				"Change"));
+		for (Map.Entry<String, Map<String, Object>> entry : new TreeMap<>(current).entrySet()) {
+			Map<String, Object> before = baseline.get(entry.getKey());
+			if (before == null) {
+				continue;
+			}
+			Map<?, ?> oldMetric = (Map<?, ?>) before.get("primaryMetric");
+			Map<?, ?> newMetric = (Map<?, ?>) entry.getValue().get("primaryMetric");
+			double oldScore = number(oldMetric.get("score"));
+			double newScore = number(newMetric.get("score"));
+			double change = oldScore == 0 ? 0 : (newScore - oldScore) * 100 / oldScore;
+			// Throughput is better when higher, every other mode measures time
+			boolean higherIsBetter = "thrpt".equals(entry.getValue().get("mode"));
+			double worsening = higherIsBetter ? -change : change;
+			double margin = number(oldMetric.get("scoreError")) + number(newMetric.get("scoreError"));
+			boolean regression = worsening > threshold && Math.abs(newScore - oldScore) > margin;
+			if (regression) {
+				regressions++;
+			}
+			System.out.println(String.format(Locale.ROOT, "%-70s %14.3f %14.3f %+8.1f%% %s%s", entry.getKey(),
+					oldScore, newScore, change, newMetric.get("scoreUnit"), regression ? "  REGRESSION" : ""));
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) regressed by more than " + threshold + "%");
+			System.exit(1);
+		}
+	}
+
+	// Results keyed by benchmark name plus parameters, e.g. ScreenshotBenchmark.encode{quality=LOW}
+	private static Map<String, Map<String, Object>> load(String file) throws IOException {
+		Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+		try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+			List<Map<String, Object>> runs = new Json().toType(reader, Json.LIST_OF_MAPS_TYPE);
+			for (Map<String, Object> run : runs) {
+				String name = String.valueOf(run.get("benchmark")).replace("com.google.benchmarks.", "");
+				Object params = run.get("params");
+				if (params instanceof Map && !((Map<?, ?>) params).isEmpty()) {
+					name += new TreeMap<>((Map<?, ?>) params);
+				}
+				results.put(name, run);
+			}
+		}
+		return results;
+	}
+
+	private static double number(Object value) {
+		double number;
+		try {
+			number = value instanceof Number ? ((Number) value).doubleValue()
+					: value == null ? 0 : Double.parseDouble(String.valueOf(value));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+		// JMH writes NaN when a score has no error estimate, e.g. a single iteration
+		return Double.isNaN(number) ? 0 : number;
+	}
+}
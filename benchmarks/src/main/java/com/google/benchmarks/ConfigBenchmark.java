@@ -0,0 +1,78 @@
+package com.google.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.utils.ConfigManager;
+import com.google.utils.ExtentUtility;
+
+/**
+ * Configuration lookups through {@code ConfigManager}'s snapshot, compared with
+ * reading the property file on every call as {@code getPropertyValue} used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+	private Path dataProperties;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dataProperties = Files.createTempFile("data", ".properties");
+		try (InputStream in = ConfigManager.class.getClassLoader().getResourceAsStream("data.properties")) {
+			Files.copy(in, dataProperties, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(dataProperties);
+	}
+
+	@Benchmark
+	public String getPropertyValue() {
+		return ExtentUtility.getPropertyValue("releaseName");
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String getPropertyValueContended() {
+		return ExtentUtility.getPropertyValue("releaseName");
+	}
+
+	@Benchmark
+	public int getInt() {
+		return ConfigManager.getInt("screenshotQueueSize", 64);
+	}
+
+	@Benchmark
+	public String readFromDisk() throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(dataProperties)) {
+			properties.load(in);
+		}
+		return properties.getProperty("releaseName");
+	}
+}
@@ -0,0 +1,104 @@
+package com.google.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.utils.ConfigManager;
+import com.google.utils.ExtentUtility;
+import com.relevantcodes.extentreports.ExtentTest;
+import com.relevantcodes.extentreports.LogStatus;
+
+/**
+ * Cost of starting, looking up and ending report tests, with one thread and
+ * with four threads contending. Uses the streaming report, which writes every
+ * ended test to the journal; the in-memory ExtentReports mode keeps every test
+ * until the end of the suite and would exhaust the heap at benchmark rates.
+ * The report folder is deleted after each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtentUtilityBenchmark {
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		System.setProperty("report.streaming", "true");
+		System.setProperty("report.resume", "false");
+		ConfigManager.reload();
+		ExtentUtility.getReporter();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Path folder = Paths.get("ReportGenerator", ExtentUtility.reportFolder);
+		if (Files.exists(folder)) {
+			try (Stream<Path> files = Files.walk(folder)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+	/**
+	 * Test bound to the benchmark thread, as TestNG binds one per invocation.
+	 */
+	@State(Scope.Thread)
+	public static class BoundTest {
+		@Setup(Level.Iteration)
+		public void start() {
+			ExtentUtility.startTest("ExtentUtilityBenchmark::getTest");
+		}
+
+		@TearDown(Level.Iteration)
+		public void end() {
+			ExtentUtility.endTest();
+		}
+	}
+
+	@Benchmark
+	public ExtentTest startLogEnd() {
+		ExtentTest test = ExtentUtility.startTest("ExtentUtilityBenchmark::startLogEnd", "benchmark");
+		test.log(LogStatus.PASS, "Step", "details");
+		ExtentUtility.endTest();
+		return test;
+	}
+
+	@Benchmark
+	@Threads(4)
+	public ExtentTest startLogEndContended() {
+		return startLogEnd();
+	}
+
+	@Benchmark
+	public ExtentTest getTest(BoundTest bound) {
+		return ExtentUtility.getTest();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public ExtentTest getTestContended(BoundTest bound) {
+		return ExtentUtility.getTest();
+	}
+}
@@ -0,0 +1,35 @@
+package com.google.benchmarks;
+
+import java.nio.file.Paths;
+
+import org.openqa.selenium.Dimension;
+
+import com.google.utils.fake.FakeDriver;
+
+/**
+ * Opens the framework's {@link FakeDriver} on one of the fixture pages of its
+ * tests. The fixtures are found from the benchmarks directory, or wherever
+ * {@code -Dfake.fixtures} points.
+ */
+final class FakePages {
+	// Image results for "Zomato", the page the image tests work on
+	static final String IMAGE_RESULTS = "https://www.google.com/search?q=Zomato&tbm=isch";
+
+	// Private constructor to prevent instantiation
+	private FakePages() {
+	}
+
+	/**
+	 * @param url    Fixture URL to open
+	 * @param width  Window width, and width of the screenshots
+	 * @param height Window height, and height of the screenshots
+	 * @return Fake driver showing the page
+	 */
+	static FakeDriver open(String url, int width, int height) {
+		FakeDriver driver = new FakeDriver(
+				Paths.get(System.getProperty("fake.fixtures", "../src/test/resources/fixtures")));
+		driver.manage().window().setSize(new Dimension(width, height));
+		driver.get(url);
+		return driver;
+	}
+}
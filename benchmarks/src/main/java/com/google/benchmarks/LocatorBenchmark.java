@@ -0,0 +1,80 @@
+package com.google.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import com.google.utils.ElementCache;
+import com.google.utils.fake.FakeDriver;
+
+import base.BaseClass;
+
+/**
+ * Locator construction, element lookup directly and through
+ * {@code ElementCache}, and the {@code highlightElement} script call, on the
+ * fake driver's image results page. A direct lookup evaluates the XPath in
+ * the fake, which stands in for the browser round trip a cache hit saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocatorBenchmark {
+	private static final By FIRST_IMAGE = By.xpath("(//div[@class='H8Rx8c']//img)[1]");
+
+	private FakeDriver driver;
+	private ElementCache elements;
+	private WebElement element;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		driver = FakePages.open(FakePages.IMAGE_RESULTS, 320, 240);
+		elements = new ElementCache(driver);
+		element = driver.findElement(FIRST_IMAGE);
+	}
+
+	@Benchmark
+	public By xpathLocator() {
+		return By.xpath("(//div[@class='H8Rx8c']//img)[1]");
+	}
+
+	@Benchmark
+	public By nameLocator() {
+		return By.name("q");
+	}
+
+	@Benchmark
+	public boolean directFind() {
+		return driver.findElement(FIRST_IMAGE).isDisplayed();
+	}
+
+	@Benchmark
+	public boolean cachedFind() {
+		return elements.find(FIRST_IMAGE).isDisplayed();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		driver.quit();
+	}
+
+	@Benchmark
+	public void highlightElement() {
+		BaseClass.highlightElement(driver, element);
+	}
+}
@@ -0,0 +1,102 @@
+package com.google.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.OutputType;
+
+import com.google.utils.ScreenshotEncoder;
+import com.google.utils.fake.FakeDriver;
+
+/**
+ * Screenshot paths: capturing bytes (what the framework does now), capturing
+ * a temporary file and copying it (what it used to do), and encoding at each
+ * {@code imageQuality}. The fake driver renders its 1366x768 image results page
+ * once and then returns a copy, so capture measures the conversion and
+ * copying, not the browser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScreenshotBenchmark {
+	private FakeDriver driver;
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		driver = FakePages.open(FakePages.IMAGE_RESULTS, 1366, 768);
+		driver.getScreenshotAs(OutputType.BYTES); // rendered here rather than in the first measured call
+		directory = Files.createTempDirectory("screenshots");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		driver.quit();
+		Files.deleteIfExists(directory.resolve("screenshot.png"));
+		Files.deleteIfExists(directory);
+	}
+
+	/**
+	 * Encoder for one quality setting, with the page's PNG to encode.
+	 */
+	@State(Scope.Benchmark)
+	public static class Encoding {
+		@Param({ "LOW", "MEDIUM", "HIGH" })
+		public ScreenshotEncoder.Quality quality;
+
+		private ScreenshotEncoder encoder;
+		private byte[] png;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			encoder = new ScreenshotEncoder(quality, 0.5, 0.75f);
+			FakeDriver driver = FakePages.open(FakePages.IMAGE_RESULTS, 1366, 768);
+			try {
+				png = driver.getScreenshotAs(OutputType.BYTES);
+			} finally {
+				driver.quit();
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[] captureBytes() {
+		return driver.getScreenshotAs(OutputType.BYTES);
+	}
+
+	@Benchmark
+	public Path captureFileAndCopy() throws IOException {
+		File screenshot = driver.getScreenshotAs(OutputType.FILE);
+		try {
+			return Files.copy(screenshot.toPath(), directory.resolve("screenshot.png"),
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			screenshot.delete();
+		}
+	}
+
+	@Benchmark
+	public byte[] encode(Encoding encoding) throws IOException {
+		return encoding.encoder.encode(encoding.png);
+	}
+}
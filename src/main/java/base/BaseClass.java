@@ -1,35 +1,45 @@
 package base;
 
+import com.google.utils.ConfigManager;
+import com.google.utils.DriverBinaryCache;
 import com.google.utils.DriverManager;
+import com.google.utils.DurationAwareInterceptor;
+import com.google.utils.ElementCache;
 import com.google.utils.ExtentUtility;
-import com.relevantcodes.extentreports.ExtentReports;
+import com.google.utils.PagePerformance;
+import com.google.utils.ParallelSuiteListener;
+import com.google.utils.ReplayServer;
+import com.google.utils.ReportIndex;
+import com.google.utils.ReportRetention;
+import com.google.utils.StepMetrics;
+import com.google.utils.StepPolicy;
+import com.google.utils.VisualCheck;
+import com.google.utils.Waits;
 import com.relevantcodes.extentreports.ExtentTest;
+import com.relevantcodes.extentreports.LogStatus;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.support.PageFactory;
 import org.testng.ITestContext;
+import org.testng.ITestResult;
 import org.testng.annotations.*;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
-import java.util.Properties;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class BaseClass {
 	protected WebDriver driver;
-	private static Properties properties;
-	public static ExtentTest test;
-	public static ExtentReports extent;
 	String browser = getProperty("browser").toLowerCase();
+	// Set on threads whose driver was checked out for a single test method
+	private static final ThreadLocal<Boolean> methodScopedDriver = new ThreadLocal<>();
 
-	// Constructor to initialize the WebDriver
+	// Constructor to initialize the WebDriver; the browser is launched by the first command sent to it
 	public BaseClass() {
-		this.driver = DriverManager.getDriver();
+		this.driver = DriverManager.lazyDriver();
 	}
 
 	@BeforeSuite
@@ -37,33 +47,83 @@ public class BaseClass {
 		ExtentUtility.getReporter();
 	}
 
+	@BeforeSuite
+	public void startReplayServer() throws IOException {
+		// Must run before any page is opened, so pages resolve to the local server
+		ReplayServer.startFromConfig();
+	}
+
+	@BeforeSuite
+	public void warmUpDrivers() {
+		DriverManager.warmUpPool();
+	}
+
 	@BeforeClass
 	public void setUp() {
-		driver = DriverManager.initializeDriver();
-		if (driver == null) {
-			throw new RuntimeException("Driver is not initialized.");
+		// In parallel mode every test method owns the driver its thread acquires, see beforeMethod
+		if (ParallelSuiteListener.isParallel()) {
+			return;
 		}
-		driver.manage().timeouts().implicitlyWait(10, TimeUnit.SECONDS);
-		driver.manage().window().maximize();
+		// The class owns the driver its tests share; it is launched lazily and quit in tearDown
+		DriverManager.bindScope(getClass().getSimpleName() + " (class)");
+	}
+
+	/**
+	 * Returns the driver of the current thread. It is the same lazy driver as
+	 * the {@code driver} field: each command goes to the driver of the thread
+	 * sending it, which is launched on the first command.
+	 *
+	 * @return WebDriver instance for the current thread
+	 */
+	protected WebDriver getThreadDriver() {
+		return DriverManager.lazyDriver();
 	}
 
 	@BeforeMethod(alwaysRun = true)
-	public void beforeMethod(Method method, ITestContext context) throws IOException {
+	public void beforeMethod(Method method, ITestContext context, ITestResult result) throws IOException {
 
 		String testName = this.getClass().getSimpleName() + "::" + method.getName() + "::" + browser;
-		test = ExtentUtility.startTest(testName, method.getName());
+		// Data-driven invocations share a method name; their parameters tell them apart in the report
+		if (result.getParameters().length > 0) {
+			testName += Arrays.toString(result.getParameters());
+		}
+		ExtentTest test = ExtentUtility.startTest(result, testName, method.getName());
 		test.assignCategory("Web Automation");
+		ElementCache.resetTestStats();
+		StepMetrics.resetTestSteps();
+		StepPolicy.startTest();
+		VisualCheck.startTest(testName);
 
-		String buildName = System.getProperty("releaseName");
+		// Parallel invocations each own the driver their thread acquires and return it afterwards
+		if (ParallelSuiteListener.isParallel()) {
+			DriverManager.bindScope(testName + " (method)");
+			methodScopedDriver.set(Boolean.TRUE);
+		}
+
+		String buildName = ExtentUtility.reportFolder;
 		DesiredCapabilities capabilities = new DesiredCapabilities();
 		capabilities.setCapability("name", method.getName());
 		capabilities.setCapability("build", buildName);
 	}
 
 	@AfterMethod(alwaysRun = true)
-	public void afterMethod(Method method, ITestContext context) {
+	public void afterMethod(Method method, ITestContext context, ITestResult result) {
 
-		ExtentUtility.endTest();
+		ExtentTest test = ExtentUtility.getTest(result);
+		if (test != null) {
+			test.log(LogStatus.INFO, "Element cache: " + ElementCache.getTestStats());
+		}
+		String policySummary = StepPolicy.endTest();
+		if (test != null && policySummary != null) {
+			test.log(LogStatus.INFO, "Step policy: " + policySummary);
+		}
+		ExtentUtility.endTest(result);
+		if (methodScopedDriver.get() != null) {
+			methodScopedDriver.remove();
+			// Nothing to quit if the test never sent a command
+			DriverManager.quitDriver();
+			DriverManager.bindScope(null);
+		}
 		// Adding system info
 //        extent.addSystemInfo("isEmulation", String.valueOf(Session.isEmulation()));
 //        extent.addSystemInfo("isDesktop", String.valueOf(Session.isDesktop()));
@@ -76,61 +136,110 @@ public class BaseClass {
 	}
 
 	/**
-	 * Retrieves a value from the properties file.
+	 * Retrieves a value from the configuration (data.properties and overrides).
 	 * 
-	 * @param key Key to look up in the properties file
+	 * @param key Key to look up in the configuration
 	 * @return Value associated with the given key
-	 * @throws IOException if reading from the properties file fails
 	 */
-	public static String getPropertyValue(String key) throws IOException {
-		String value = "";
-		FileInputStream fileInputStream = null;
-		try {
-			String filePath = System.getProperty("user.dir") + "/src/main/resources/data.properties";
-			File file = new File(filePath);
-			if (!file.exists()) {
-				throw new FileNotFoundException("data.properties file not found at: " + filePath);
-			}
-			fileInputStream = new FileInputStream(file);
-			Properties property = new Properties();
-			property.load(fileInputStream);
-			value = property.getProperty(key);
-		} finally {
-			if (fileInputStream != null) {
-				fileInputStream.close();
-			}
-		}
-		return value;
+	public static String getPropertyValue(String key) {
+		return ConfigManager.get(key);
 	}
 
 	@AfterClass
 	public void tearDown() {
 		DriverManager.quitDriver();
+		DriverManager.bindScope(null);
 	}
 
 	@AfterSuite
 	public void tearDownExtentReports() {
-		ExtentUtility.extent.flush();
-		ExtentUtility.extent.close();
 		DriverManager.quitDriver();
-	}
-
-	// Load properties file when the class is loaded
-	static {
-		properties = new Properties();
-		String filePath = System.getProperty("user.dir") + "/src/main/resources/config.properties";
-		try {
-			FileInputStream inputStream = new FileInputStream(filePath);
-			properties.load(inputStream);
-			inputStream.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		String poolStats = DriverManager.getPoolStats();
+		if (poolStats != null) {
+			ExtentUtility.addSystemInfo("Driver Pool", poolStats);
+		}
+		DriverManager.shutdownPool();
+		DriverManager.LeakReport leaks = DriverManager.checkLeaks();
+		ExtentUtility.addSystemInfo("Browser Leaks", leaks.toString());
+		String screenshotStats = ExtentUtility.flushScreenshots();
+		if (screenshotStats != null) {
+			ExtentUtility.addSystemInfo("Screenshots", screenshotStats);
+		}
+		VisualCheck visualChecks = ExtentUtility.finishVisualChecks();
+		if (visualChecks != null) {
+			ExtentUtility.addSystemInfo("Visual Checks", visualChecks.getStats().replace("\n", "<br>"));
+		}
+		String driverStats = DriverBinaryCache.getStats();
+		if (driverStats != null) {
+			ExtentUtility.addSystemInfo("Driver Binaries", driverStats.replace("\n", "<br>"));
+		}
+		String launchStats = DriverManager.getLaunchStats();
+		if (launchStats != null) {
+			ExtentUtility.addSystemInfo("Browser Launch", launchStats.replace("\n", "<br>"));
+		}
+		String cacheStats = ElementCache.getStats();
+		if (cacheStats != null) {
+			ExtentUtility.addSystemInfo("Element Cache", cacheStats);
+		}
+		String waitStats = Waits.getStats();
+		if (waitStats != null) {
+			ExtentUtility.addSystemInfo("Waits", waitStats.replace("\n", "<br>"));
+		}
+		String stepStats = StepMetrics.getStats();
+		if (stepStats != null) {
+			ExtentUtility.addSystemInfo("Step Metrics", stepStats.replace("\n", "<br>"));
+			try {
+				StepMetrics.writePrometheus(Paths.get("ReportGenerator", ExtentUtility.reportFolder, "metrics.prom"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		String performanceStats = PagePerformance.getStats();
+		if (performanceStats != null) {
+			ExtentUtility.addSystemInfo("Page Performance", performanceStats.replace("\n", "<br>"));
+		}
+		String policyStats = StepPolicy.getStats();
+		if (policyStats != null) {
+			ExtentUtility.addSystemInfo("Step Policy", policyStats);
+		}
+		String schedule = DurationAwareInterceptor.getSummary();
+		if (schedule != null) {
+			ExtentUtility.addSystemInfo("Schedule", schedule);
+		}
+		String replayStats = ReplayServer.stopActive();
+		if (replayStats != null) {
+			ExtentUtility.addSystemInfo("Record/Replay", replayStats);
+		}
+		ExtentUtility.flushReport();
+		if (ConfigManager.getBoolean("report.index", true)) {
+			try {
+				// Adds this run to the cross-run index once its report is complete
+				ReportIndex.update(Paths.get("ReportGenerator"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (ConfigManager.getBoolean("retention.enabled", true)) {
+			try {
+				// Archives old reports and removes stray downloads once this run's report is complete
+				ReportRetention.fromConfig().run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		// Fails the suite once its report is written, so the report shows which scope leaked
+		if (!leaks.isClean() && ConfigManager.getBoolean("driver.failOnLeak", true)) {
+			throw new IllegalStateException("Browsers or their processes outlived the suite: " + leaks);
+		}
+		if (visualChecks != null && visualChecks.getChanged() > 0 && ConfigManager.getBoolean("visual.failOnChange", false)) {
+			throw new IllegalStateException(visualChecks.getChanged() + " screenshot(s) differ from their visual baselines; "
+					+ "see the Visual Checks entry of the report");
 		}
 	}
 
 	// Method to get a property value based on the key
 	public static String getProperty(String key) {
-		return properties.getProperty(key);
+		return ConfigManager.get(key);
 	}
 
 	// Method to highlight an element using JavaScript
@@ -1,14 +1,14 @@
 package com.google.pages;
 
-import java.time.Duration;
-
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.WebDriverWait;
 
+import com.google.utils.ElementCache;
 import com.google.utils.ExtentUtility;
+import com.google.utils.PagePerformance;
+import com.google.utils.ReplayServer;
+import com.google.utils.StepPolicy;
 import com.relevantcodes.extentreports.LogStatus;
 
 import base.BaseClass;
@@ -17,6 +17,8 @@ public class GoogleHomePage extends BaseClass {
 
     // Locator for the Google search box
     private By searchBox = By.name("q");
+    // Elements located by this page, reused across its methods
+    private final ElementCache elements = new ElementCache(driver);
 
     // Constructor to initialize WebDriver and call the BaseClass constructor
     public GoogleHomePage(WebDriver driver) {
@@ -26,46 +28,55 @@ public class GoogleHomePage extends BaseClass {
     // Method to navigate to the Google homepage
     public void open() {
         try {
-            // Navigate to the URL specified in the properties file
-            driver.get(getProperty("url"));
+            StepPolicy.run("GoogleHomePage.open", () -> {
+                // Navigate to the URL specified in the properties file, or its recording when replaying
+                driver.get(ReplayServer.resolve(getProperty("url")));
+                // Read the page's load timings and check them against its budgets
+                PagePerformance.record(driver);
 
-            // Log the successful navigation and capture a screenshot
-            ExtentUtility.getTest().log(LogStatus.PASS, "Opened URL: " + getProperty("url"),
-                    ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+                // Log the successful navigation and capture a screenshot
+                ExtentUtility.getTest().log(LogStatus.PASS, "Opened URL: " + getProperty("url"),
+                        ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
 
-            System.out.println("Navigated to Google homepage.");
-        } catch (Exception e) {
-            // Log any error that occurs during navigation
+                System.out.println("Navigated to Google homepage.");
+            });
+        } catch (RuntimeException | AssertionError e) {
+            // Log the error and fail the test; StepPolicy skips its remaining steps
             ExtentUtility.getTest().log(LogStatus.FAIL, "Error navigating to URL: " + e.getMessage());
             System.out.println("Error navigating to URL: " + e.getMessage());
+            throw e;
         }
     }
 
     // Method to perform a search on Google
     public void searchFor(String searchTerm) {
         try {
-            // Create a WebDriverWait instance to handle dynamic elements
-            WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(10));
-            
-            // Wait for the search box to be clickable
-            WebElement searchBoxElement = wait.until(ExpectedConditions.elementToBeClickable(searchBox));
-            
-            // Highlight the search box element for visibility
-            highlightElement(driver, searchBoxElement);
-            
-            // Enter the search term and submit the search
-            searchBoxElement.sendKeys(searchTerm);
-            searchBoxElement.submit();
+            StepPolicy.run("GoogleHomePage.searchFor", () -> {
+                // Wait for the search box to be clickable
+                WebElement searchBoxElement = elements.clickable(searchBox);
+
+                // Highlight the search box element for visibility
+                highlightElement(driver, searchBoxElement);
+
+                // Enter the search term and submit the search; clearing first keeps a retry from typing it twice
+                String homePageUrl = driver.getCurrentUrl();
+                searchBoxElement.clear();
+                searchBoxElement.sendKeys(searchTerm);
+                searchBoxElement.submit();
+                // Read the results page's load timings and check them against its budgets
+                PagePerformance.record(driver, homePageUrl);
 
-            // Log the search action and capture a screenshot
-            ExtentUtility.getTest().log(LogStatus.PASS, "Searched for: " + searchTerm,
-                    ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+                // Log the search action and capture a screenshot
+                ExtentUtility.getTest().log(LogStatus.PASS, "Searched for: " + searchTerm,
+                        ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
 
-            System.out.println("Performed search for: " + searchTerm);
-        } catch (Exception e) {
-            // Log any error that occurs during the search
+                System.out.println("Performed search for: " + searchTerm);
+            });
+        } catch (RuntimeException | AssertionError e) {
+            // Log the error and fail the test; StepPolicy skips its remaining steps
             ExtentUtility.getTest().log(LogStatus.FAIL, "Error during search: " + e.getMessage());
             System.out.println("Error during search: " + e.getMessage());
+            throw e;
         }
     }
 }
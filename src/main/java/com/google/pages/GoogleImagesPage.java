@@ -3,30 +3,33 @@ package com.google.pages;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.interactions.Actions;
-import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.WebDriverWait;
 import org.testng.Assert;
 import org.testng.asserts.SoftAssert;
 
 import com.aventstack.extentreports.ExtentReports;
+import com.google.utils.ConfigManager;
+import com.google.utils.ElementCache;
 import com.google.utils.ExtentUtility;
+import com.google.utils.ImageDownloader;
+import com.google.utils.ImageHarvester;
+import com.google.utils.PagePerformance;
+import com.google.utils.StepPolicy;
 import com.relevantcodes.extentreports.LogStatus;
 import base.BaseClass;
 
-import java.awt.*;
-import java.awt.datatransfer.StringSelection;
-import java.awt.event.KeyEvent;
 import java.io.File;
-import java.time.Duration;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 public class GoogleImagesPage extends BaseClass {
 
     private By imagesTab = By.xpath("(//div[contains(text(),'Images')])[1]");
     private By firstImage = By.xpath("(//div[@class='H8Rx8c']//img)[1]");
+    // Elements located by this page, reused across its methods
+    private final ElementCache elements = new ElementCache(driver);
     private SoftAssert softAssert = new SoftAssert(); // Create a SoftAssert object
 
     public String downloadPath;
@@ -41,19 +44,25 @@ public class GoogleImagesPage extends BaseClass {
      */
     public void clickImagesTab() {
         try {
-            WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(10));
-            WebElement imagesTabElement = wait.until(ExpectedConditions.elementToBeClickable(imagesTab));
-            highlightElement(driver, imagesTabElement); // Highlight the element for visibility
- 
-
-            // Assertion to verify the click action
-            softAssert.assertTrue(imagesTabElement.isDisplayed(), "Images tab is not displayed.");
-            imagesTabElement.click(); // Click the Images tab
-            ExtentUtility.getTest().log(LogStatus.PASS, "Images Tab Clicked",
-                    ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
-        } catch (Exception e) {
+            boolean displayed = StepPolicy.call("GoogleImagesPage.clickImagesTab", () -> {
+                WebElement imagesTabElement = elements.clickable(imagesTab);
+                highlightElement(driver, imagesTabElement); // Highlight the element for visibility
+
+                boolean tabDisplayed = imagesTabElement.isDisplayed();
+                String resultsUrl = driver.getCurrentUrl();
+                imagesTabElement.click(); // Click the Images tab
+                // Read the image results' load timings and check them against their budgets
+                PagePerformance.record(driver, resultsUrl);
+                ExtentUtility.getTest().log(LogStatus.PASS, "Images Tab Clicked",
+                        ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+                return tabDisplayed;
+            });
+            // Assertion to verify the click action, recorded once rather than on every retry
+            softAssert.assertTrue(displayed, "Images tab is not displayed.");
+        } catch (RuntimeException | AssertionError e) {
             ExtentUtility.getTest().log(LogStatus.FAIL, "Failed to click Images Tab: " + e.getMessage(),
                     ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+            throw e;
         }
     }
 
@@ -62,81 +71,94 @@ public class GoogleImagesPage extends BaseClass {
      */
     public void clickFirstImage() {
         try {
-            WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(10));
-            WebElement firstImageElement = wait.until(ExpectedConditions.elementToBeClickable(firstImage));
-            highlightElement(driver, firstImageElement); // Highlight the element for visibility
-            firstImageElement.click(); // Click the first image
-
+            boolean displayed = StepPolicy.call("GoogleImagesPage.clickFirstImage", () -> {
+                WebElement firstImageElement = elements.clickable(firstImage);
+                highlightElement(driver, firstImageElement); // Highlight the element for visibility
+                firstImageElement.click(); // Click the first image
+
+                boolean imageDisplayed = firstImageElement.isDisplayed();
+                ExtentUtility.getTest().log(LogStatus.PASS, "First Image Clicked",
+                        ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+                return imageDisplayed;
+            });
             // Assertion to verify the image is displayed
-            softAssert.assertTrue(firstImageElement.isDisplayed(), "First image is not displayed.");
-            ExtentUtility.getTest().log(LogStatus.PASS, "First Image Clicked",
-                    ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
-        } catch (Exception e) {
+            softAssert.assertTrue(displayed, "First image is not displayed.");
+        } catch (RuntimeException | AssertionError e) {
             ExtentUtility.getTest().log(LogStatus.FAIL, "Failed to click First Image: " + e.getMessage(),
                     ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+            throw e;
         }
     }
 
     /**
-     * Downloads the first image by simulating right-click and saving it.
+     * Downloads the first image directly from its source URL and saves it to the
+     * configured download directory.
      */
     public void downloadFirstImage() {
         try {
-            WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(10));
-            WebElement firstImageElement = wait.until(ExpectedConditions.elementToBeClickable(firstImage));
-            Actions actions = new Actions(driver);
-            actions.contextClick(firstImageElement).perform(); // Right-click on the first image
-
-            // Short implicit wait to allow context menu to appear
-            driver.manage().timeouts().implicitlyWait(2, TimeUnit.SECONDS);
-
-            Robot robot = new Robot();
-            for (int i = 0; i < 7; i++) {
-                robot.keyPress(KeyEvent.VK_DOWN);
-                robot.keyRelease(KeyEvent.VK_DOWN);
-                Thread.sleep(400); // Reduced sleep time to avoid unnecessary delay
-            }
-            robot.keyPress(KeyEvent.VK_ENTER);
-            robot.keyRelease(KeyEvent.VK_ENTER);
-
-            // Generate a filename for the image
-            String fileName = firstImageElement.getAttribute("alt");
-            if (fileName == null || fileName.trim().isEmpty()) {
-                fileName = getProperty("fileNameIfNotExist");
-            }
-            fileName = fileName.replaceAll("[^a-zA-Z0-9\\.\\-]", "_");
-
-            LocalDateTime now = LocalDateTime.now();
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("ddMMyyyyHHmmss");
-            String timestamp = now.format(formatter);
-            modifiedFileName = fileName + "_" + timestamp;
-
-            // Set the path where the image will be saved
-            downloadPath = System.getProperty("user.dir") + File.separator + modifiedFileName + ".png";
-            StringSelection filePath = new StringSelection(downloadPath);
-            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(filePath, null);
+            ImageDownloader.DownloadResult result = StepPolicy.call("GoogleImagesPage.downloadFirstImage", () -> {
+                // Reuses the element clicked in clickFirstImage; re-located only if it went stale
+                WebElement firstImageElement = elements.present(firstImage);
+
+                // Generate a filename for the image
+                String fileName = firstImageElement.getAttribute("alt");
+                if (fileName == null || fileName.trim().isEmpty()) {
+                    fileName = getProperty("fileNameIfNotExist");
+                }
+                fileName = fileName.replaceAll("[^a-zA-Z0-9\\.\\-]", "_");
+
+                LocalDateTime now = LocalDateTime.now();
+                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("ddMMyyyyHHmmss");
+                String timestamp = now.format(formatter);
+                modifiedFileName = fileName + "_" + timestamp;
+
+                // Resolve the displayed image (src, srcset or data: URI) and fetch it without the context menu
+                String imageUrl = ImageDownloader.resolveImageUrl(driver, firstImageElement);
+                Path downloadDirectory = Paths.get(ConfigManager.get("download.dir", System.getProperty("user.dir")));
+                return ImageDownloader.download(driver, imageUrl, downloadDirectory, modifiedFileName);
+            });
+            downloadPath = result.getPath().toAbsolutePath().toString();
             System.out.println("Download Path: " + downloadPath);
 
-            // Simulate key presses for paste operation and save the file
-            Thread.sleep(2000);
-            robot.keyPress(KeyEvent.VK_CONTROL);
-            robot.keyPress(KeyEvent.VK_V);
-            robot.keyRelease(KeyEvent.VK_V);
-            robot.keyRelease(KeyEvent.VK_CONTROL);
-
-            Thread.sleep(1000);
-            robot.keyPress(KeyEvent.VK_ENTER);
-            robot.keyRelease(KeyEvent.VK_ENTER);
-
             // Assertion to verify that the file is downloaded by checking file path
             File downloadedFile = new File(downloadPath);
             softAssert.assertTrue(downloadedFile.exists(), "Failed to download the image.");
 
-            ExtentUtility.getTest().log(LogStatus.PASS, "First image successfully downloaded",
+            ExtentUtility.getTest().log(LogStatus.PASS, "First image successfully downloaded: " + result,
                     ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
-        } catch (AWTException | InterruptedException e) {
+        } catch (RuntimeException | AssertionError e) {
             ExtentUtility.getTest().log(LogStatus.FAIL, "Failed to download First Image: " + e.getMessage(),
                     ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+            throw e;
+        }
+    }
+
+    /**
+     * Downloads the top images for every configured search term (the
+     * {@code harvest.termsFile} CSV or the comma-separated {@code searchText})
+     * into {@code harvest.dir}, together with a manifest.json.
+     * @param imagesPerTerm Number of images to fetch per search term
+     * @return Summary of the harvest
+     */
+    public ImageHarvester.HarvestReport harvestImages(int imagesPerTerm) {
+        try {
+            ImageHarvester.HarvestReport report = StepPolicy.call("GoogleImagesPage.harvestImages", () -> {
+                List<String> terms = ImageHarvester.loadTerms();
+                Path harvestDirectory = Paths.get(ConfigManager.get("harvest.dir", "downloads/harvest"));
+                ImageHarvester.HarvestReport harvested = ImageHarvester.fromConfig().harvest(driver, terms,
+                        imagesPerTerm, harvestDirectory);
+
+                ExtentUtility.getTest().log(harvested.getFailed() == 0 ? LogStatus.PASS : LogStatus.WARNING,
+                        "Harvested images for " + terms + ": " + harvested + " (manifest: " + harvested.getManifest()
+                                + ")");
+                return harvested;
+            });
+            softAssert.assertTrue(report.getDownloaded() > 0, "No images were harvested.");
+            return report;
+        } catch (RuntimeException | AssertionError e) {
+            ExtentUtility.getTest().log(LogStatus.FAIL, "Failed to harvest images: " + e.getMessage(),
+                    ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
+            throw e;
         }
     }
 
@@ -145,15 +167,16 @@ public class GoogleImagesPage extends BaseClass {
      */
     public void verifyFileExistence() {
         try {
-            File downloadedFile = new File(downloadPath);
-            softAssert.assertTrue(downloadedFile.exists(), "Image download failed.");
+            boolean exists = StepPolicy.call("GoogleImagesPage.verifyFileExistence",
+                    () -> new File(downloadPath).exists());
+            softAssert.assertTrue(exists, "Image download failed.");
             ExtentUtility.getTest().log(LogStatus.PASS,
                     "Verified the existence of the downloaded file: " + modifiedFileName + " in " + downloadPath);
-        } catch (AssertionError e) {
+            softAssert.assertAll(); // Ensure all soft assertions are reported
+        } catch (RuntimeException | AssertionError e) {
             ExtentUtility.getTest().log(LogStatus.FAIL, "Failed to verify file existence: " + e.getMessage(),
                     ExtentUtility.getTest().addScreenCapture(ExtentUtility.takeScreenShotForExtentReport(driver)));
-        } finally {
-            softAssert.assertAll(); // Ensure all soft assertions are reported
+            throw e;
         }
     }
 }
@@ -0,0 +1,140 @@
+package com.google.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the driver and browser processes started by this JVM from
+ * {@code /proc}, so their memory can be measured and left-over processes
+ * detected. Only supported on Linux; elsewhere every lookup is empty.
+ */
+public final class BrowserProcesses {
+	private static final File PROC = new File("/proc");
+
+	// Private constructor to prevent instantiation
+	private BrowserProcesses() {
+	}
+
+	/**
+	 * @return true if process information is available on this platform
+	 */
+	public static boolean isSupported() {
+		return new File(PROC, "self/stat").exists();
+	}
+
+	/**
+	 * @return PID of this JVM
+	 */
+	public static long currentPid() {
+		// "pid@hostname" on every mainstream JVM
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		return Long.parseLong(name.substring(0, name.indexOf('@')));
+	}
+
+	/**
+	 * @return PIDs of every live process descended from this JVM, e.g.
+	 *         chromedriver and all of its browser processes
+	 */
+	public static Set<Long> descendants() {
+		return descendants(currentPid());
+	}
+
+	/**
+	 * @param root PID to start from
+	 * @return PIDs of every live process descended from {@code root}; zombies,
+	 *         which have exited and only wait to be reaped, are left out
+	 */
+	public static Set<Long> descendants(long root) {
+		Set<Long> result = new LinkedHashSet<>();
+		if (!isSupported()) {
+			return result;
+		}
+		Map<Long, List<Long>> children = new HashMap<>();
+		Set<Long> zombies = new HashSet<>();
+		File[] entries = PROC.listFiles();
+		for (File entry : entries == null ? new File[0] : entries) {
+			if (!entry.getName().matches("\\d+")) {
+				continue;
+			}
+			String[] stat = statOf(entry);
+			if (stat == null) {
+				continue;
+			}
+			long pid = Long.parseLong(entry.getName());
+			if ("Z".equals(stat[0])) {
+				zombies.add(pid);
+			}
+			long parent = Long.parseLong(stat[1]);
+			if (parent > 0) {
+				children.computeIfAbsent(parent, p -> new ArrayList<>()).add(pid);
+			}
+		}
+		Deque<Long> pending = new ArrayDeque<>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			List<Long> direct = children.get(pending.poll());
+			if (direct != null) {
+				for (Long child : direct) {
+					if (result.add(child)) {
+						pending.add(child);
+					}
+				}
+			}
+		}
+		result.removeAll(zombies);
+		return result;
+	}
+
+	/**
+	 * @param pids Processes to measure
+	 * @return combined resident set size of the processes in KB; processes that
+	 *         have exited count as 0
+	 */
+	public static long residentKb(Collection<Long> pids) {
+		long total = 0;
+		for (Long pid : pids) {
+			try {
+				for (String line : Files.readAllLines(Paths.get("/proc", pid.toString(), "status"),
+						StandardCharsets.UTF_8)) {
+					if (line.startsWith("VmRSS:")) {
+						total += Long.parseLong(line.replaceAll("[^0-9]", ""));
+						break;
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				// The process exited while it was being measured
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Reads the parent PID from {@code /proc/<pid>/stat}. The command name in
+	 * field 2 may contain spaces and parentheses, so fields are counted from the
+	 * last ')'.
+	 */
+	// Fields of /proc/<pid>/stat after the command name: state first, then the parent PID
+	private static String[] statOf(File processDir) {
+		try {
+			String stat = new String(Files.readAllBytes(new File(processDir, "stat").toPath()), StandardCharsets.UTF_8);
+			String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+			return fields.length > 1 ? fields : null;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.google.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.PageLoadStrategy;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.chromium.ChromiumOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Named set of browser launch settings, read from {@code profile.<name>.*} in
+ * config.properties. The active profile is selected with
+ * {@code browserProfile}. A profile can inherit every setting it does not
+ * define from another one with {@code profile.<name>.extends}.
+ * <p>
+ * Supported settings: {@code headless}, {@code disableGpu},
+ * {@code disableExtensions}, {@code disableBackgroundNetworking},
+ * {@code blockImages}, {@code blockFonts}, {@code windowSize} (e.g.
+ * {@code 1366x768}; empty maximizes the window) and {@code pageLoadStrategy}
+ * ({@code normal}, {@code eager} or {@code none}).
+ */
+public final class BrowserProfile {
+	// Logger to record profile settings that could not be applied
+	private static final Logger logger = LoggerFactory.getLogger(BrowserProfile.class);
+	// Font requests blocked through CDP when blockFonts is set; Chromium has no switch for it
+	private static final String[] FONT_PATTERNS = { "*.woff2", "*.woff", "*.ttf", "*.otf" };
+
+	private final String name;
+	private final boolean headless;
+	private final boolean disableGpu;
+	private final boolean disableExtensions;
+	private final boolean disableBackgroundNetworking;
+	private final boolean blockImages;
+	private final boolean blockFonts;
+	private final Dimension windowSize;
+	private final PageLoadStrategy pageLoadStrategy;
+
+	private BrowserProfile(String name) {
+		this.name = name;
+		this.headless = Boolean.parseBoolean(setting(name, "headless", "false"));
+		this.disableGpu = Boolean.parseBoolean(setting(name, "disableGpu", "false"));
+		this.disableExtensions = Boolean.parseBoolean(setting(name, "disableExtensions", "false"));
+		this.disableBackgroundNetworking = Boolean.parseBoolean(setting(name, "disableBackgroundNetworking", "false"));
+		this.blockImages = Boolean.parseBoolean(setting(name, "blockImages", "false"));
+		this.blockFonts = Boolean.parseBoolean(setting(name, "blockFonts", "false"));
+		this.windowSize = parseWindowSize(name, setting(name, "windowSize", ""));
+		this.pageLoadStrategy = PageLoadStrategy
+				.valueOf(setting(name, "pageLoadStrategy", "normal").toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * @return the profile selected by {@code browserProfile}, or "default"
+	 */
+	public static BrowserProfile active() {
+		return named(ConfigManager.get("browserProfile", "default"));
+	}
+
+	/**
+	 * @param name Profile name as used in {@code profile.<name>.*}
+	 * @return the profile; settings that are not configured keep their defaults
+	 */
+	public static BrowserProfile named(String name) {
+		return new BrowserProfile(name.trim());
+	}
+
+	/**
+	 * Adds the profile's switches, preferences and page load strategy to Chrome
+	 * or Edge options.
+	 *
+	 * @param options Options the browser is launched with
+	 * @return the same options
+	 */
+	public <T extends ChromiumOptions<?>> T applyTo(T options) {
+		if (headless) {
+			options.addArguments("--headless=new");
+		}
+		if (disableGpu) {
+			options.addArguments("--disable-gpu");
+		}
+		if (disableExtensions) {
+			options.addArguments("--disable-extensions");
+		}
+		if (disableBackgroundNetworking) {
+			options.addArguments("--disable-background-networking", "--disable-component-update",
+					"--disable-default-apps", "--disable-sync", "--no-first-run");
+		}
+		if (windowSize != null) {
+			options.addArguments("--window-size=" + windowSize.getWidth() + "," + windowSize.getHeight());
+		} else if (!headless) {
+			options.addArguments("--start-maximized");
+		}
+		if (blockImages) {
+			Map<String, Object> prefs = new HashMap<>();
+			prefs.put("profile.managed_default_content_settings.images", 2);
+			options.setExperimentalOption("prefs", prefs);
+		}
+		options.setPageLoadStrategy(pageLoadStrategy);
+		return options;
+	}
+
+	/**
+	 * Applies the settings that can only be set on a running browser.
+	 *
+	 * @param driver Newly launched driver
+	 */
+	public void afterLaunch(WebDriver driver) {
+		if (blockFonts && driver instanceof ChromiumDriver) {
+			try {
+				ChromiumDriver chromium = (ChromiumDriver) driver;
+				chromium.executeCdpCommand("Network.enable", new HashMap<>());
+				Map<String, Object> blocked = new HashMap<>();
+				blocked.put("urls", Arrays.asList(FONT_PATTERNS));
+				chromium.executeCdpCommand("Network.setBlockedURLs", blocked);
+			} catch (RuntimeException e) {
+				logger.warn("Profile {}: failed to block fonts", name, e);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the profile sets a window size, in which case the window
+	 *         must not be maximized afterwards
+	 */
+	public boolean hasFixedViewport() {
+		return windowSize != null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT,
+				"%s (headless=%s, disableGpu=%s, disableExtensions=%s, disableBackgroundNetworking=%s, "
+						+ "blockImages=%s, blockFonts=%s, windowSize=%s, pageLoadStrategy=%s)",
+				name, headless, disableGpu, disableExtensions, disableBackgroundNetworking, blockImages, blockFonts,
+				windowSize == null ? "maximized" : windowSize.getWidth() + "x" + windowSize.getHeight(),
+				pageLoadStrategy.toString());
+	}
+
+	/**
+	 * Looks a setting up on the profile, then on the profiles it extends.
+	 */
+	private static String setting(String name, String key, String defaultValue) {
+		String profile = name;
+		for (int depth = 0; profile != null && depth < 10; depth++) {
+			String value = ConfigManager.get("profile." + profile + "." + key, null);
+			if (value != null) {
+				return value;
+			}
+			profile = ConfigManager.get("profile." + profile + ".extends", null);
+		}
+		return defaultValue;
+	}
+
+	private static Dimension parseWindowSize(String name, String value) {
+		if (value.isEmpty()) {
+			return null;
+		}
+		String[] parts = value.toLowerCase(Locale.ROOT).split("x");
+		try {
+			return new Dimension(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("Invalid windowSize '" + value + "' in profile " + name, e);
+		}
+	}
+}
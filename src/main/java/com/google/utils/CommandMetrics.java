@@ -0,0 +1,155 @@
+package com.google.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openqa.selenium.Alert;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsDriver;
+import org.openqa.selenium.WrapsElement;
+
+/**
+ * Counts every WebDriver command against the {@link StepMetrics} step running
+ * on the calling thread. {@link DriverManager} wraps each launched driver with
+ * {@link #decorate(WebDriver)}; elements, options, navigation and window
+ * handles obtained from it are wrapped too, and implement {@code WrapsDriver}
+ * or {@code WrapsElement} for code that needs the original object.
+ * <p>
+ * Uses JDK proxies rather than Selenium's {@code EventFiringDecorator}, which
+ * in Selenium 4.9 generates a new proxy class for every element it returns and
+ * adds several milliseconds to each lookup.
+ */
+final class CommandMetrics implements InvocationHandler {
+	// Interfaces to proxy per implementation class, computed once
+	private static final Map<Class<?>, Class<?>[]> INTERFACES = new ConcurrentHashMap<>();
+
+	private final Object target;
+	// Counting driver the target belongs to; set once for the driver's own handler
+	private WebDriver driverProxy;
+
+	private CommandMetrics(Object target, WebDriver driverProxy) {
+		this.target = target;
+		this.driverProxy = driverProxy;
+	}
+
+	/**
+	 * @param driver Driver to count the commands of
+	 * @return Counting driver implementing the same interfaces as the driver
+	 */
+	static WebDriver decorate(WebDriver driver) {
+		CommandMetrics handler = new CommandMetrics(driver, null);
+		handler.driverProxy = (WebDriver) newProxy(driver, WrapsDriver.class, handler);
+		return handler.driverProxy;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Class<?> declaringClass = method.getDeclaringClass();
+		if (declaringClass == Object.class) {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0] || target.equals(unwrap(args[0]));
+			case "hashCode":
+				return target.hashCode();
+			default:
+				return target.toString();
+			}
+		}
+		// Accessors of the wrapper itself do not reach the browser
+		if (declaringClass == WrapsDriver.class) {
+			return target instanceof WebDriver ? target : driverProxy;
+		}
+		if (declaringClass == WrapsElement.class) {
+			return target;
+		}
+
+		StepMetrics.recordCommand(method.getName());
+		Object result;
+		try {
+			result = method.invoke(target, unwrapArguments(args));
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+		return wrap(result, method.getReturnType());
+	}
+
+	// Wraps what a command returns so that follow-up commands are counted as well
+	private Object wrap(Object result, Class<?> declaredType) {
+		if (result == null) {
+			return null;
+		}
+		WebDriver driver = driverProxy;
+		if (result == ((WrapsDriver) driver).getWrappedDriver()) {
+			// e.g. switchTo().window() returns the driver itself
+			return driver;
+		}
+		if (result instanceof WebElement) {
+			return newProxy(result, WrapsElement.class, new CommandMetrics(result, driver));
+		}
+		if (result instanceof List) {
+			List<Object> wrapped = new ArrayList<>(((List<?>) result).size());
+			for (Object item : (List<?>) result) {
+				wrapped.add(item instanceof WebElement ? wrap(item, WebElement.class) : item);
+			}
+			return wrapped;
+		}
+		// Options, Navigation, TargetLocator, Window, Timeouts and Alert
+		if (declaredType.getEnclosingClass() == WebDriver.class || declaredType == Alert.class) {
+			return Proxy.newProxyInstance(CommandMetrics.class.getClassLoader(), new Class<?>[] { declaredType },
+					new CommandMetrics(result, driver));
+		}
+		return result;
+	}
+
+	private static Object newProxy(Object target, Class<?> wrapperInterface, CommandMetrics handler) {
+		Class<?>[] interfaces = INTERFACES.computeIfAbsent(target.getClass(), type -> {
+			Set<Class<?>> all = new LinkedHashSet<>();
+			for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+				Collections.addAll(all, current.getInterfaces());
+			}
+			all.add(wrapperInterface);
+			return all.toArray(new Class<?>[0]);
+		});
+		return Proxy.newProxyInstance(CommandMetrics.class.getClassLoader(), interfaces, handler);
+	}
+
+	// The wrapped driver expects its own elements, also inside script arguments
+	private static Object[] unwrapArguments(Object[] args) {
+		if (args == null) {
+			return null;
+		}
+		Object[] unwrapped = new Object[args.length];
+		for (int i = 0; i < args.length; i++) {
+			unwrapped[i] = unwrap(args[i]);
+		}
+		return unwrapped;
+	}
+
+	private static Object unwrap(Object argument) {
+		if (argument != null && Proxy.isProxyClass(argument.getClass())
+				&& Proxy.getInvocationHandler(argument) instanceof CommandMetrics) {
+			return ((CommandMetrics) Proxy.getInvocationHandler(argument)).target;
+		}
+		if (argument instanceof Object[] && argument.getClass() == Object[].class) {
+			return unwrapArguments((Object[]) argument);
+		}
+		if (argument instanceof List) {
+			List<Object> list = new ArrayList<>(((List<?>) argument).size());
+			for (Object item : (List<?>) argument) {
+				list.add(unwrap(item));
+			}
+			return list;
+		}
+		return argument;
+	}
+}
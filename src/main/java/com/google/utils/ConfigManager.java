@@ -0,0 +1,240 @@
+package com.google.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConfigManager loads config.properties and data.properties once into an
+ * immutable snapshot and serves typed lookups from it without locking.
+ * Environment variables and system properties are overlaid on the file values,
+ * so any setting can be overridden per run, e.g. {@code -Dbrowser=edge} or
+ * {@code BROWSER=edge}. When {@code config.hotReload=true} the files are
+ * watched and a new snapshot is swapped in whenever one of them changes.
+ */
+public final class ConfigManager {
+	// Logger to record configuration loading events
+	private static final Logger logger = LoggerFactory.getLogger(ConfigManager.class);
+	// Property files in load order; later files win on duplicate keys
+	private static final String[] SOURCES = { "config.properties", "data.properties" };
+
+	// Current snapshot; replaced as a whole on reload, never mutated
+	private static volatile Map<String, String> snapshot = load();
+	private static Thread watcher;
+
+	static {
+		if (getBoolean("config.hotReload", false)) {
+			watchForChanges();
+		}
+	}
+
+	// Private constructor to prevent instantiation
+	private ConfigManager() {
+	}
+
+	/**
+	 * @param key Key to look up
+	 * @return Value for the key, or null if it is not configured
+	 */
+	public static String get(String key) {
+		return snapshot.get(key);
+	}
+
+	/**
+	 * @param key          Key to look up
+	 * @param defaultValue Value returned when the key is missing or blank
+	 * @return Trimmed value for the key, or the default
+	 */
+	public static String get(String key, String defaultValue) {
+		String value = snapshot.get(key);
+		return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+	}
+
+	/**
+	 * @param key          Key to look up
+	 * @param defaultValue Value returned when the key is missing or blank
+	 * @return Value for the key parsed as an int, or the default
+	 */
+	public static int getInt(String key, int defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : parse(key, value, Integer::parseInt);
+	}
+
+	/**
+	 * @param key          Key to look up
+	 * @param defaultValue Value returned when the key is missing or blank
+	 * @return Value for the key parsed as a long, or the default
+	 */
+	public static long getLong(String key, long defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : parse(key, value, Long::parseLong);
+	}
+
+	/**
+	 * @param key          Key to look up
+	 * @param defaultValue Value returned when the key is missing or blank
+	 * @return Value for the key parsed as a double, or the default
+	 */
+	public static double getDouble(String key, double defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : parse(key, value, Double::parseDouble);
+	}
+
+	/**
+	 * @param key          Key to look up
+	 * @param defaultValue Value returned when the key is missing or blank
+	 * @return Value for the key parsed as a boolean, or the default
+	 */
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Looks up an enum constant by name, ignoring case.
+	 *
+	 * @param key          Key to look up
+	 * @param type         Enum type of the value
+	 * @param defaultValue Value returned when the key is missing or blank
+	 * @return Matching enum constant, or the default
+	 */
+	public static <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+		String value = get(key, null);
+		return value == null ? defaultValue : parse(key, value, v -> Enum.valueOf(type, v.toUpperCase(Locale.ROOT)));
+	}
+
+	/**
+	 * Re-reads every source and atomically replaces the snapshot.
+	 */
+	public static void reload() {
+		snapshot = load();
+		logger.info("Configuration reloaded");
+	}
+
+	/**
+	 * Starts a daemon thread that reloads the configuration whenever one of the
+	 * property files changes. Calling it again has no effect.
+	 */
+	public static synchronized void watchForChanges() {
+		if (watcher != null) {
+			return;
+		}
+		Path directory = configDirectory().toPath();
+		watcher = new Thread(() -> watch(directory), "config-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+		logger.info("Watching {} for configuration changes", directory);
+	}
+
+	private static void watch(Path directory) {
+		try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					changed |= isSource(String.valueOf(event.context()));
+				}
+				if (changed) {
+					try {
+						reload();
+					} catch (IllegalStateException e) {
+						// Keep serving the previous snapshot if a file is mid-write or broken
+						logger.error("Failed to reload configuration", e);
+					}
+				}
+				if (!key.reset()) {
+					logger.warn("Configuration directory {} is no longer watchable", directory);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.error("Configuration watcher stopped", e);
+		}
+	}
+
+	private static boolean isSource(String fileName) {
+		for (String source : SOURCES) {
+			if (source.equals(fileName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Map<String, String> load() {
+		Map<String, String> values = new HashMap<>();
+		for (String source : SOURCES) {
+			Properties properties = readSource(source);
+			for (String name : properties.stringPropertyNames()) {
+				values.put(name, properties.getProperty(name));
+			}
+		}
+
+		// Environment variables override file values, e.g. DRIVERPOOL_SIZE for driverPool.size
+		Map<String, String> environment = System.getenv();
+		for (String name : values.keySet().toArray(new String[0])) {
+			String override = environment.get(name.toUpperCase(Locale.ROOT).replace('.', '_'));
+			if (override != null) {
+				values.put(name, override);
+			}
+		}
+
+		// System properties override everything
+		Properties system = System.getProperties();
+		for (String name : system.stringPropertyNames()) {
+			values.put(name, system.getProperty(name));
+		}
+		return Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * Reads a property file from the configuration directory, falling back to the
+	 * classpath when the project sources are not present (e.g. a packaged jar).
+	 */
+	private static Properties readSource(String source) {
+		Properties properties = new Properties();
+		File file = new File(configDirectory(), source);
+		try (InputStream in = file.exists() ? new FileInputStream(file)
+				: ConfigManager.class.getClassLoader().getResourceAsStream(source)) {
+			if (in == null) {
+				throw new IllegalStateException(source + " not found at " + file.getAbsolutePath() + " or on the classpath");
+			}
+			properties.load(in);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read " + source, e);
+		}
+		return properties;
+	}
+
+	private static File configDirectory() {
+		String directory = System.getProperty("config.dir");
+		return new File(directory != null ? directory : System.getProperty("user.dir") + "/src/main/resources");
+	}
+
+	private static <T> T parse(String key, String value, Function<String, T> parser) {
+		try {
+			return parser.apply(value);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("Invalid value '" + value + "' for configuration key " + key, e);
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package com.google.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.bonigarcia.wdm.WebDriverManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DriverBinaryCache resolves the chromedriver/msedgedriver binary once per JVM
+ * instead of running WebDriverManager for every browser launch. The installed
+ * browser's major version is detected (or pinned with
+ * {@code driverCache.browserVersion}) and the driver is taken from
+ * {@code <driverCache.dir>/<browser>/<major>/}. Every cached binary has a
+ * {@code .sha256} sidecar that is verified before use.
+ * <p>
+ * On a cache miss WebDriverManager downloads the driver, which is then copied
+ * into the cache. With {@code driverCache.offline=true} the network is never
+ * used: a miss fails with a message naming the directory to seed.
+ */
+public final class DriverBinaryCache {
+	// Logger to record driver resolution
+	private static final Logger logger = LoggerFactory.getLogger(DriverBinaryCache.class);
+	private static final Pattern VERSION = Pattern.compile("(\\d+)\\.\\d+\\.\\d+(\\.\\d+)?");
+	private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT)
+			.contains("win");
+
+	// Resolved driver per browser, memoized for the lifetime of the JVM
+	private static final Map<String, Path> resolved = new ConcurrentHashMap<>();
+	private static final Map<String, String> resolutionStats = new ConcurrentHashMap<>();
+
+	// Private constructor to prevent instantiation
+	private DriverBinaryCache() {
+	}
+
+	/**
+	 * Makes the driver binary for a browser available to Selenium. The first call
+	 * per browser resolves it; later calls return immediately.
+	 *
+	 * @param browser "chrome" or "edge"
+	 * @return path of the driver binary, or null when the cache is disabled and
+	 *         WebDriverManager manages the driver
+	 */
+	public static Path setup(String browser) {
+		String key = browser.toLowerCase(Locale.ROOT);
+		if (!ConfigManager.getBoolean("driverCache.enabled", true)) {
+			resolved.computeIfAbsent(key, DriverBinaryCache::setupWithWebDriverManager);
+			return null;
+		}
+		return resolved.computeIfAbsent(key, DriverBinaryCache::resolve);
+	}
+
+	/**
+	 * @return how each driver was resolved and how long it took, or null if no
+	 *         driver was resolved yet
+	 */
+	public static String getStats() {
+		if (resolutionStats.isEmpty()) {
+			return null;
+		}
+		StringBuilder stats = new StringBuilder();
+		for (Map.Entry<String, String> entry : resolutionStats.entrySet()) {
+			stats.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+		return stats.toString().trim();
+	}
+
+	private static Path resolve(String browser) {
+		long start = System.nanoTime();
+		Driver driver = Driver.of(browser);
+		boolean offline = ConfigManager.getBoolean("driverCache.offline", false);
+		Path browserDir = Paths.get(ConfigManager.get("driverCache.dir", "drivers"), browser);
+
+		String major = browserMajorVersion(driver);
+		if (major == null && offline) {
+			// Nothing to match against; use the newest seeded version
+			major = newestCachedVersion(browserDir);
+		}
+
+		String source = "cache";
+		Path binary = major == null ? null : browserDir.resolve(major).resolve(driver.fileName());
+		if (binary == null || !isValid(binary)) {
+			if (offline) {
+				throw new IllegalStateException("No verified " + driver.fileName() + " for " + browser + " "
+						+ (major == null ? "(version unknown)" : major) + " in " + browserDir.toAbsolutePath()
+						+ " and driverCache.offline=true. Seed it with the driver binary and a "
+						+ driver.fileName() + ".sha256 file.");
+			}
+			binary = download(driver, browserDir, major);
+			source = "download";
+		}
+
+		System.setProperty(driver.systemProperty, binary.toAbsolutePath().toString());
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		resolutionStats.put(browser, String.format(Locale.ROOT, "%s from %s in %d ms", binary, source, elapsedMs));
+		logger.info("Resolved {} for {} {} from {} in {} ms", driver.fileName(), browser, major, source, elapsedMs);
+		return binary;
+	}
+
+	private static Path setupWithWebDriverManager(String browser) {
+		long start = System.nanoTime();
+		Driver.of(browser).manager().setup();
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		resolutionStats.put(browser, "WebDriverManager in " + elapsedMs + " ms");
+		logger.info("Resolved {} driver with WebDriverManager in {} ms", browser, elapsedMs);
+		return Paths.get("");
+	}
+
+	/**
+	 * Downloads the driver with WebDriverManager and copies it into the cache
+	 * together with its checksum.
+	 */
+	private static Path download(Driver driver, Path browserDir, String major) {
+		WebDriverManager manager = driver.manager();
+		if (major != null) {
+			manager.browserVersion(major);
+		}
+		manager.setup();
+		Path downloaded = Paths.get(manager.getDownloadedDriverPath());
+		if (major == null) {
+			major = majorOf(manager.getDownloadedDriverVersion());
+		}
+		Path target = browserDir.resolve(major == null ? "unknown" : major).resolve(driver.fileName());
+		try {
+			Files.createDirectories(target.getParent());
+			Path temp = Files.createTempFile(target.getParent(), driver.fileName(), ".part");
+			Files.copy(downloaded, temp, StandardCopyOption.REPLACE_EXISTING);
+			temp.toFile().setExecutable(true);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.write(checksumFile(target),
+					(ImageDownloader.checksumOf(target) + "  " + driver.fileName() + "\n").getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			// The driver still works from WebDriverManager's own cache
+			logger.warn("Failed to copy {} into the driver cache", downloaded, e);
+			return downloaded;
+		}
+		return target;
+	}
+
+	/**
+	 * A cached binary is only used if its sidecar checksum matches; a corrupt or
+	 * partial copy is treated as a miss.
+	 */
+	private static boolean isValid(Path binary) {
+		Path checksum = checksumFile(binary);
+		if (!Files.isRegularFile(binary) || !Files.isRegularFile(checksum)) {
+			return false;
+		}
+		try {
+			String expected = new String(Files.readAllBytes(checksum), StandardCharsets.UTF_8).trim().split("\\s+")[0];
+			String actual = ImageDownloader.checksumOf(binary);
+			if (!expected.equalsIgnoreCase(actual)) {
+				logger.warn("Checksum mismatch for {}: expected {} but was {}", binary, expected, actual);
+				return false;
+			}
+			if (!Files.isExecutable(binary)) {
+				binary.toFile().setExecutable(true);
+			}
+			return true;
+		} catch (IOException e) {
+			logger.warn("Failed to verify {}", binary, e);
+			return false;
+		}
+	}
+
+	private static Path checksumFile(Path binary) {
+		return binary.resolveSibling(binary.getFileName() + ".sha256");
+	}
+
+	private static String newestCachedVersion(Path browserDir) {
+		if (!Files.isDirectory(browserDir)) {
+			return null;
+		}
+		String newest = null;
+		try (DirectoryStream<Path> versions = Files.newDirectoryStream(browserDir)) {
+			for (Path version : versions) {
+				String name = version.getFileName().toString();
+				if (name.matches("\\d+") && (newest == null || Integer.parseInt(name) > Integer.parseInt(newest))) {
+					newest = name;
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to list {}", browserDir, e);
+		}
+		return newest;
+	}
+
+	/**
+	 * @return major version of the installed browser, from
+	 *         {@code driverCache.browserVersion} or the browser itself; null if it
+	 *         cannot be detected
+	 */
+	private static String browserMajorVersion(Driver driver) {
+		String pinned = ConfigManager.get("driverCache.browserVersion", null);
+		if (pinned != null) {
+			return majorOf(pinned);
+		}
+		for (List<String> command : driver.versionCommands()) {
+			String version = majorOf(run(command));
+			if (version != null) {
+				return version;
+			}
+		}
+		logger.warn("Could not detect the installed {} version", driver.browser);
+		return null;
+	}
+
+	private static String run(List<String> command) {
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try (InputStream in = process.getInputStream()) {
+				byte[] buffer = new byte[1024];
+				for (int read; (read = in.read(buffer)) != -1;) {
+					output.write(buffer, 0, read);
+				}
+			}
+			if (!process.waitFor(10, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				return null;
+			}
+			return process.exitValue() == 0 ? output.toString("UTF-8") : null;
+		} catch (IOException e) {
+			// Binary not installed at this location
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static String majorOf(String version) {
+		if (version == null) {
+			return null;
+		}
+		Matcher matcher = VERSION.matcher(version);
+		if (matcher.find()) {
+			return matcher.group(1);
+		}
+		return version.trim().matches("\\d+") ? version.trim() : null;
+	}
+
+	/**
+	 * Driver binary names, system properties and version detection per browser.
+	 */
+	private enum Driver {
+		CHROME("chrome", "chromedriver", "webdriver.chrome.driver", "Google\\Chrome",
+				"google-chrome", "google-chrome-stable", "chromium", "chromium-browser",
+				"/Applications/Google Chrome.app/Contents/MacOS/Google Chrome"),
+		EDGE("edge", "msedgedriver", "webdriver.edge.driver", "Microsoft\\Edge",
+				"microsoft-edge", "microsoft-edge-stable",
+				"/Applications/Microsoft Edge.app/Contents/MacOS/Microsoft Edge");
+
+		private final String browser;
+		private final String executable;
+		private final String systemProperty;
+		private final String registryKey;
+		private final List<String> binaries;
+
+		Driver(String browser, String executable, String systemProperty, String registryKey, String... binaries) {
+			this.browser = browser;
+			this.executable = executable;
+			this.systemProperty = systemProperty;
+			this.registryKey = registryKey;
+			this.binaries = Arrays.asList(binaries);
+		}
+
+		static Driver of(String browser) {
+			return "edge".equals(browser) ? EDGE : CHROME;
+		}
+
+		String fileName() {
+			return WINDOWS ? executable + ".exe" : executable;
+		}
+
+		WebDriverManager manager() {
+			return this == EDGE ? WebDriverManager.edgedriver() : WebDriverManager.chromedriver();
+		}
+
+		List<List<String>> versionCommands() {
+			List<List<String>> commands = new ArrayList<>();
+			String binary = ConfigManager.get("driverCache.browserBinary", null);
+			if (binary != null) {
+				commands.add(Arrays.asList(binary, "--version"));
+			}
+			if (WINDOWS) {
+				// Windows browsers do not print their version; it is kept in the registry
+				commands.add(Arrays.asList("reg", "query", "HKCU\\Software\\" + registryKey + "\\BLBeacon", "/v",
+						"version"));
+			} else {
+				for (String candidate : binaries) {
+					if (!candidate.startsWith(File.separator) || new File(candidate).exists()) {
+						commands.add(Arrays.asList(candidate, "--version"));
+					}
+				}
+			}
+			return commands;
+		}
+	}
+}
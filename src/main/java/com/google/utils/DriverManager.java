@@ -1,114 +1,211 @@
 package com.google.utils;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.edge.EdgeDriver;
 import org.openqa.selenium.edge.EdgeOptions;
-import io.github.bonigarcia.wdm.WebDriverManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.utils.fake.FakeDriver;
+
 import base.BaseClass;
 
 /**
  * DriverManager class is responsible for initializing, managing, and quitting
  * WebDriver instances. It supports multiple browsers (e.g., Chrome and Edge)
- * based on the configuration.
+ * based on the configuration, and an in-process fake browser for runs without
+ * one.
+ * <p>
+ * Tests hold the {@link #lazyDriver()}, so a browser is only launched by the
+ * first command a thread sends. Every launch and quit is counted, and
+ * {@link #checkLeaks()} reports browsers that were never quit and driver or
+ * browser processes that outlived them.
  */
 public class DriverManager extends BaseClass {
 	// ThreadLocal variable to ensure each thread has its own WebDriver instance
 	private static ThreadLocal<WebDriver> driver = new ThreadLocal<>();
 	// Logger to record WebDriver-related events
 	private static final Logger logger = LoggerFactory.getLogger(DriverManager.class);
+	// Shared pool of warm browser sessions, created on first use when enabled
+	private static volatile DriverPool pool;
+	// Browser launch times per profile name
+	private static final Map<String, LatencyHistogram> launchTimes = new ConcurrentHashMap<>();
+	// TestNG scope the current thread's driver belongs to, e.g. "GoogleHomePageTest (class)"
+	private static final ThreadLocal<String> scope = new ThreadLocal<>();
+	// Launched browsers that have not been quit yet, with the scope that acquired them
+	private static final Map<WebDriver, String> openDrivers = new ConcurrentHashMap<>();
+	private static final LongAdder launchCount = new LongAdder();
+	private static final LongAdder quitCount = new LongAdder();
 
 	/**
-	 * Initializes the WebDriver based on the specified browser type from the
-	 * configuration. It determines which browser to use and sets up the
-	 * corresponding WebDriver.
+	 * Initializes the WebDriver for the current thread. When the driver pool is
+	 * enabled a warm session is borrowed from the pool, otherwise a new browser
+	 * is launched. Any session the thread already holds is released first.
 	 *
-	 * @return WebDriver instance for the specified browser
+	 * @return WebDriver instance for the current thread
 	 */
 	public static WebDriver initializeDriver() {
+		quitDriver();
+		WebDriver webDriver = isPoolEnabled() ? getPool().checkout() : launchDriver();
+		driver.set(webDriver);
+		String owner = scope.get();
+		openDrivers.replace(webDriver, owner != null ? owner : Thread.currentThread().getName());
+		return configure(webDriver);
+	}
+
+	// Applies the session settings every test relies on to a freshly acquired driver
+	private static WebDriver configure(WebDriver webDriver) {
+		// Implicit waits stack with explicit ones; all waiting goes through Waits instead
+		webDriver.manage().timeouts().implicitlyWait(Duration.ZERO);
+		// A fixed viewport comes from the browser profile; maximizing would override it
+		if (!BrowserProfile.active().hasFixedViewport()) {
+			webDriver.manage().window().maximize();
+		}
+		return webDriver;
+	}
+
+	/**
+	 * Returns a driver that sends each command to the calling thread's driver and
+	 * launches it on the first command. Unlike {@link #getDriver()} this never
+	 * launches a browser by itself, and the same instance can be shared by all
+	 * threads.
+	 *
+	 * @return Lazy driver of the calling thread
+	 */
+	public static WebDriver lazyDriver() {
+		return LazyDriver.INSTANCE;
+	}
+
+	/**
+	 * Names the TestNG scope (class or method) that owns the drivers the current
+	 * thread acquires from now on, so that a browser left open can be traced back
+	 * to it.
+	 *
+	 * @param owner Description of the scope, or null to clear it
+	 */
+	public static void bindScope(String owner) {
+		if (owner == null) {
+			scope.remove();
+		} else {
+			scope.set(owner);
+		}
+	}
+
+	/**
+	 * Launches a new WebDriver based on the specified browser type from the
+	 * configuration, using the active browser profile.
+	 *
+	 * @return WebDriver instance for the specified browser
+	 */
+	private static WebDriver launchDriver() {
+		return launchDriver(BrowserProfile.active());
+	}
+
+	/**
+	 * Launches a new WebDriver for the configured browser type with the given
+	 * profile, and records how long the launch took.
+	 *
+	 * @param profile Browser profile to launch with
+	 * @return WebDriver instance for the specified browser
+	 */
+	public static WebDriver launchDriver(BrowserProfile profile) {
 		// Retrieve the browser type from configuration (e.g., config.properties)
 		String browser = getProperty("browser").toLowerCase();
 
+		long start = System.nanoTime();
+		WebDriver webDriver;
 		// Switch based on the browser type and initialize the corresponding WebDriver
 		switch (browser) {
 		case "edge":
-			return initializeEdgeDriver();
+			webDriver = initializeEdgeDriver(profile);
+			break;
+		case "fake":
+			// In-process browser serving recorded pages; no driver binary or browser options apply
+			webDriver = FakeDriver.fromConfig();
+			logger.info("Fake browser is launched with fixtures from {}", ConfigManager.get("fake.fixtures",
+					"src/test/resources/fixtures"));
+			break;
 		case "chrome":
 		default:
-			return initializeChromeDriver();
+			webDriver = initializeChromeDriver(profile);
+			break;
 		}
+		profile.afterLaunch(webDriver);
+		if (ConfigManager.getBoolean("metrics.commands", true)) {
+			// Counts each command against the running step; afterLaunch needs the undecorated driver
+			webDriver = CommandMetrics.decorate(webDriver);
+		}
+		long elapsed = System.nanoTime() - start;
+		launchCount.increment();
+		openDrivers.put(webDriver, Thread.currentThread().getName());
+		launchTimes.computeIfAbsent(profile.getName(), name -> new LatencyHistogram()).record(elapsed);
+		logger.info("Browser launched with profile {} in {} ms", profile.getName(), elapsed / 1_000_000);
+		return webDriver;
 	}
 
 	/**
 	 * Initializes the Chrome WebDriver with specific options and configurations.
 	 *
+	 * @param profile Browser profile to apply
 	 * @return WebDriver instance for Chrome
 	 */
-	private static WebDriver initializeChromeDriver() {
-
-//    	// Set the download directory and auto download preference
-//        String downloadPath = System.getProperty("user.dir") + "/downloads";
+	private static WebDriver initializeChromeDriver(BrowserProfile profile) {
 		// ChromeOptions to set various Chrome-specific configurations
 		ChromeOptions options = new ChromeOptions();
-		options.addArguments("--inprivate"); // Open Chrome in InPrivate mode
+		options.addArguments("--incognito"); // Open Chrome in incognito mode
 		options.addArguments("--disable-popup-blocking"); // Disable pop-up blocking
 		options.setAcceptInsecureCerts(true); // Accept insecure certificates
-		options.addArguments("--start-maximized"); // Start Chrome maximized
-		options.addArguments("--incognito"); // Open Chrome in incognito mode
-//        options.addArguments("--disable-popup-blocking");  // Disable pop-up blocking
-//        options.setAcceptInsecureCerts(true);  // Accept insecure certificates
-//        options.addArguments("--remote-allow-origins=*");  // Allow remote origins
-//        options.addArguments("--start-maximized");  // Start Chrome maximized
-
-//        //options.addArguments("download.default_directory=" + downloadPath);
-//        options.addArguments("download.prompt_for_download=false");
-//        options.addArguments("download.directory_upgrade=true");
-		options.addArguments("safebrowsing.enabled=true");
+		profile.applyTo(options); // Headless, window size, resource blocking and page load strategy
 		try {
-			// Set up the ChromeDriver using WebDriverManager
-			WebDriverManager.chromedriver().setup();
+			// Resolve the driver binary once per JVM from the local driver cache
+			DriverBinaryCache.setup("chrome");
 			// Initialize ChromeDriver with the specified options
-			driver.set(new ChromeDriver(options));
+			WebDriver chromeDriver = new ChromeDriver(options);
 			logger.info("Chrome Browser is launched");
+			return chromeDriver;
 		} catch (Exception e) {
 			// Log any errors encountered during initialization
 			logger.error("Failed to initialize Chrome WebDriver", e);
 			throw new RuntimeException("Chrome WebDriver initialization failed", e);
 		}
-
-		return driver.get();
 	}
 
 	/**
 	 * Initializes the Edge WebDriver with specific options and configurations.
 	 *
+	 * @param profile Browser profile to apply
 	 * @return WebDriver instance for Edge
 	 */
-	private static WebDriver initializeEdgeDriver() {
+	private static WebDriver initializeEdgeDriver(BrowserProfile profile) {
 		// EdgeOptions to set various Edge-specific configurations
 		EdgeOptions options = new EdgeOptions();
 		options.addArguments("--inprivate"); // Open Edge in InPrivate mode
 		options.addArguments("--disable-popup-blocking"); // Disable pop-up blocking
 		options.setAcceptInsecureCerts(true); // Accept insecure certificates
-		options.addArguments("--start-maximized"); // Start Edge maximized
+		profile.applyTo(options); // Headless, window size, resource blocking and page load strategy
 
 		try {
-			// Set up the EdgeDriver using WebDriverManager
-			WebDriverManager.edgedriver().setup();
+			// Resolve the driver binary once per JVM from the local driver cache
+			DriverBinaryCache.setup("edge");
 			// Initialize EdgeDriver with the specified options
-			driver.set(new EdgeDriver(options));
+			WebDriver edgeDriver = new EdgeDriver(options);
 			logger.info("Edge Browser is launched");
+			return edgeDriver;
 		} catch (Exception e) {
 			// Log any errors encountered during initialization
 			logger.error("Failed to initialize Edge WebDriver", e);
 			throw new RuntimeException("Edge WebDriver initialization failed", e);
 		}
-
-		return driver.get();
 	}
 
 	/**
@@ -124,23 +221,224 @@ public class DriverManager extends BaseClass {
 		return driver.get();
 	}
 
+	/**
+	 * @return true if the current thread holds a driver
+	 */
+	public static boolean hasDriver() {
+		return driver.get() != null;
+	}
+
 	/**
 	 * Quits the WebDriver instance for the current thread and cleans up resources.
+	 * Pooled sessions are returned to the pool instead of being quit.
 	 */
 	public static void quitDriver() {
 		WebDriver webDriver = driver.get();
-		if (webDriver != null) {
+		if (webDriver != null && pool != null && pool.isLeased(webDriver)) {
+			driver.remove();
+			// An idle pooled session belongs to the pool until it is checked out again
+			openDrivers.replace(webDriver, "driver pool");
+			pool.checkin(webDriver);
+		} else if (webDriver != null) {
 			try {
-				// Quit the WebDriver instance
+				// Close the window first; quit below ends the session either way
 				webDriver.close();
-				webDriver.quit();
 			} catch (Exception e) {
-				// Log any errors encountered during quitting
-				logger.error("Failed to quit WebDriver", e);
+				logger.debug("Failed to close WebDriver window", e);
 			} finally {
 				// Remove the WebDriver instance from ThreadLocal
 				driver.remove();
+				quit(webDriver);
+			}
+		}
+	}
+
+	/**
+	 * Quits a browser obtained from {@link #launchDriver(BrowserProfile)} and
+	 * records it as closed. Code that launches browsers directly must quit them
+	 * through this method rather than {@code WebDriver.quit()}, or they are
+	 * reported as leaked.
+	 *
+	 * @param webDriver Driver to quit
+	 */
+	public static void quit(WebDriver webDriver) {
+		Waits.release(webDriver);
+		try {
+			// Quit the WebDriver instance
+			webDriver.quit();
+		} catch (Exception e) {
+			// Log any errors encountered during quitting
+			logger.error("Failed to quit WebDriver", e);
+		} finally {
+			if (openDrivers.remove(webDriver) != null) {
+				quitCount.increment();
+			}
+		}
+	}
+
+	/**
+	 * @return scopes holding a browser that has not been quit yet, once per
+	 *         browser; idle pooled sessions are held by "driver pool"
+	 */
+	public static List<String> getOpenScopes() {
+		return new ArrayList<>(openDrivers.values());
+	}
+
+	/**
+	 * Checks that every browser launched so far has been quit and that no driver
+	 * or browser process outlives them. Browsers still open are logged with the
+	 * scope that acquired them and quit. Processes get
+	 * {@code driver.leakGraceSeconds} to exit before they count as survivors.
+	 * Call it at the end of the suite, after {@link #shutdownPool()}.
+	 *
+	 * @return Summary of launched, quit and leaked browsers and surviving
+	 *         processes
+	 */
+	public static LeakReport checkLeaks() {
+		List<String> leaked = new ArrayList<>();
+		for (Map.Entry<WebDriver, String> entry : openDrivers.entrySet()) {
+			leaked.add(entry.getValue());
+			logger.error("Browser acquired by {} was never quit", entry.getValue());
+			// Removed first so that cleaning up the leak does not count as a quit
+			openDrivers.remove(entry.getKey());
+			quit(entry.getKey());
+		}
+		long deadline = System.currentTimeMillis() + ConfigManager.getLong("driver.leakGraceSeconds", 5) * 1000;
+		Set<Long> processes = BrowserProcesses.descendants();
+		while (!processes.isEmpty() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
 			}
+			processes = BrowserProcesses.descendants();
+		}
+		if (!processes.isEmpty()) {
+			logger.error("Driver or browser processes survived the suite: {}", processes);
+		}
+		return new LeakReport(launchCount.sum(), quitCount.sum(), leaked, processes);
+	}
+
+	/**
+	 * Pre-launches the configured number of pooled sessions. Does nothing when
+	 * the driver pool is disabled.
+	 */
+	public static void warmUpPool() {
+		if (isPoolEnabled()) {
+			getPool().warmUp(ConfigManager.getInt("driverPool.warmup", 0));
+		}
+	}
+
+	/**
+	 * Quits all idle pooled sessions. Called once at the end of the suite.
+	 */
+	public static synchronized void shutdownPool() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * @return pool hit/miss and wait-time metrics, or null when pooling is off
+	 */
+	public static String getPoolStats() {
+		DriverPool current = pool;
+		return current == null ? null : current.getStats();
+	}
+
+	/**
+	 * @return launch time statistics per browser profile, or null if no browser
+	 *         was launched
+	 */
+	public static String getLaunchStats() {
+		if (launchTimes.isEmpty()) {
+			return null;
+		}
+		StringBuilder stats = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry : launchTimes.entrySet()) {
+			stats.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+		return stats.toString().trim();
+	}
+
+	/**
+	 * Result of {@link #checkLeaks()}.
+	 */
+	public static final class LeakReport {
+		private final long launched;
+		private final long quit;
+		private final List<String> leakedScopes;
+		private final Set<Long> survivingProcesses;
+
+		LeakReport(long launched, long quit, List<String> leakedScopes, Set<Long> survivingProcesses) {
+			this.launched = launched;
+			this.quit = quit;
+			this.leakedScopes = leakedScopes;
+			this.survivingProcesses = survivingProcesses;
+		}
+
+		/**
+		 * @return browsers launched during the run, including pooled ones
+		 */
+		public long getLaunched() {
+			return launched;
+		}
+
+		/**
+		 * @return browsers quit before the leak check
+		 */
+		public long getQuit() {
+			return quit;
+		}
+
+		/**
+		 * @return scopes that acquired a browser and never quit it
+		 */
+		public List<String> getLeakedScopes() {
+			return leakedScopes;
+		}
+
+		/**
+		 * @return PIDs of driver or browser processes still running after the
+		 *         grace period
+		 */
+		public Set<Long> getSurvivingProcesses() {
+			return survivingProcesses;
+		}
+
+		/**
+		 * @return true if no browser was leaked and no process survived
+		 */
+		public boolean isClean() {
+			return leakedScopes.isEmpty() && survivingProcesses.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			String summary = String.format("launched=%d, quit=%d, leaked=%d, survivingProcesses=%d", launched, quit,
+					leakedScopes.size(), survivingProcesses.size());
+			if (!leakedScopes.isEmpty()) {
+				summary += ", leaked by " + leakedScopes;
+			}
+			if (!survivingProcesses.isEmpty()) {
+				summary += ", pids " + survivingProcesses;
+			}
+			return summary;
+		}
+	}
+
+	private static boolean isPoolEnabled() {
+		return ConfigManager.getBoolean("driverPool.enabled", false);
+	}
+
+	private static synchronized DriverPool getPool() {
+		if (pool == null) {
+			pool = new DriverPool(DriverManager::launchDriver, ConfigManager.getInt("driverPool.size", 1),
+					ConfigManager.getInt("driverPool.maxSessionAgeMinutes", 30) * 60_000L,
+					ConfigManager.getInt("driverPool.checkoutTimeoutSeconds", 120) * 1000L);
 		}
+		return pool;
 	}
 }
@@ -0,0 +1,305 @@
+package com.google.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WrapsDriver;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DriverPool keeps a bounded set of warm browser sessions so that test classes
+ * can borrow a live browser instead of launching a new one. Sessions are reset
+ * (cookies, storage, extra tabs) when they are returned, and evicted when they
+ * stop responding or exceed their maximum age.
+ */
+public class DriverPool {
+	// Logger to record pool events and metrics
+	private static final Logger logger = LoggerFactory.getLogger(DriverPool.class);
+
+	// Creates a brand-new browser session when the pool has no reusable one
+	private final Supplier<WebDriver> factory;
+	private final int maxSize;
+	private final long maxAgeMillis;
+	private final long checkoutTimeoutMillis;
+
+	// One permit per session that may be leased at the same time
+	private final Semaphore permits;
+	// Idle sessions, most recently returned first so the warmest one is reused
+	private final BlockingDeque<PooledSession> idle = new LinkedBlockingDeque<>();
+	// Sessions currently borrowed by a test, keyed by the driver handed out
+	private final Map<WebDriver, PooledSession> leased = new ConcurrentHashMap<>();
+	private volatile boolean closed;
+
+	// Metrics reported at the end of the suite
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Creates a pool that launches sessions through the given factory.
+	 *
+	 * @param factory               supplier that launches a new browser session
+	 * @param maxSize               maximum number of sessions alive at once
+	 * @param maxAgeMillis          sessions older than this are evicted on return
+	 *                              or checkout
+	 * @param checkoutTimeoutMillis how long a caller waits for a free session
+	 */
+	public DriverPool(Supplier<WebDriver> factory, int maxSize, long maxAgeMillis, long checkoutTimeoutMillis) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Driver pool size must be at least 1 but was " + maxSize);
+		}
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.maxAgeMillis = maxAgeMillis;
+		this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Launches up to {@code count} sessions in parallel and parks them in the
+	 * pool so the first test classes do not pay the browser cold start.
+	 *
+	 * @param count number of sessions to pre-launch (capped at the pool size)
+	 */
+	public void warmUp(int count) {
+		int target = Math.min(count, maxSize) - idle.size() - leased.size();
+		if (target <= 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		ExecutorService launcher = Executors.newFixedThreadPool(target);
+		try {
+			List<Future<PooledSession>> launches = new ArrayList<>();
+			for (int i = 0; i < target; i++) {
+				if (!permits.tryAcquire()) {
+					break;
+				}
+				launches.add(launcher.submit(() -> new PooledSession(factory.get())));
+			}
+			for (Future<PooledSession> launch : launches) {
+				try {
+					idle.offerLast(launch.get());
+				} catch (Exception e) {
+					logger.error("Failed to warm up a browser session", e);
+				} finally {
+					permits.release();
+				}
+			}
+		} finally {
+			launcher.shutdown();
+		}
+		logger.info("Driver pool warmed up with {} session(s) in {} ms", idle.size(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * Borrows a session from the pool, launching a new one if no healthy idle
+	 * session is available. Blocks while the pool is at capacity.
+	 *
+	 * @return WebDriver instance owned by the caller until {@link #checkin}
+	 */
+	public WebDriver checkout() {
+		if (closed) {
+			throw new IllegalStateException("Driver pool has been shut down");
+		}
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException("Timed out after " + checkoutTimeoutMillis
+						+ " ms waiting for a browser session (pool size " + maxSize + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a browser session", e);
+		}
+		recordWait(System.nanoTime() - start);
+
+		try {
+			PooledSession session;
+			while ((session = idle.pollFirst()) != null) {
+				if (isExpired(session)) {
+					evict(session, "exceeded max age");
+				} else if (!isHealthy(session)) {
+					evict(session, "failed health check");
+				} else {
+					hits.increment();
+					leased.put(session.driver, session);
+					return session.driver;
+				}
+			}
+			misses.increment();
+			session = new PooledSession(factory.get());
+			leased.put(session.driver, session);
+			return session.driver;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a borrowed session to the pool. The session is reset first and
+	 * evicted instead if the reset fails, it is too old or the pool is closed.
+	 *
+	 * @param webDriver driver previously obtained from {@link #checkout()}
+	 */
+	public void checkin(WebDriver webDriver) {
+		PooledSession session = leased.remove(webDriver);
+		if (session == null) {
+			logger.warn("Ignoring check-in of a driver that is not leased from this pool");
+			return;
+		}
+		try {
+			if (closed) {
+				quit(session);
+			} else if (isExpired(session)) {
+				evict(session, "exceeded max age");
+			} else if (!reset(session)) {
+				evict(session, "state reset failed");
+			} else {
+				idle.offerFirst(session);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * @param webDriver driver to look up
+	 * @return true if the driver is currently leased from this pool
+	 */
+	public boolean isLeased(WebDriver webDriver) {
+		return webDriver != null && leased.containsKey(webDriver);
+	}
+
+	/**
+	 * Quits every idle session and marks the pool closed. Sessions that are
+	 * still leased are quit when they are checked in.
+	 */
+	public void shutdown() {
+		closed = true;
+		PooledSession session;
+		while ((session = idle.pollFirst()) != null) {
+			quit(session);
+		}
+		logger.info("Driver pool shut down: {}", getStats());
+	}
+
+	/**
+	 * @return one-line summary of hit/miss, eviction and wait-time metrics
+	 */
+	public String getStats() {
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		long checkouts = hitCount + missCount;
+		double hitRate = checkouts == 0 ? 0 : (100.0 * hitCount) / checkouts;
+		double avgWaitMs = checkouts == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / checkouts;
+		return String.format("size=%d, checkouts=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, "
+				+ "avgWaitMs=%.1f, maxWaitMs=%.1f", maxSize, checkouts, hitCount, missCount, hitRate,
+				evictions.sum(), avgWaitMs, maxWaitNanos.get() / 1_000_000.0);
+	}
+
+	private void recordWait(long nanos) {
+		waitNanos.add(nanos);
+		maxWaitNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	private boolean isExpired(PooledSession session) {
+		return maxAgeMillis > 0 && System.currentTimeMillis() - session.createdAt > maxAgeMillis;
+	}
+
+	private boolean isHealthy(PooledSession session) {
+		try {
+			session.driver.getWindowHandle();
+			return true;
+		} catch (WebDriverException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Clears cookies, web storage and extra tabs so the next borrower starts from
+	 * a clean browser.
+	 */
+	private boolean reset(PooledSession session) {
+		WebDriver webDriver = session.driver;
+		try {
+			// Close every tab except the one the session was created with
+			Set<String> handles = webDriver.getWindowHandles();
+			String keep = handles.contains(session.primaryHandle) ? session.primaryHandle : handles.iterator().next();
+			for (String handle : handles) {
+				if (!handle.equals(keep)) {
+					webDriver.switchTo().window(handle).close();
+				}
+			}
+			webDriver.switchTo().window(keep);
+			session.primaryHandle = keep;
+
+			// Storage is only reachable for the origin currently loaded
+			((JavascriptExecutor) webDriver).executeScript(
+					"try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}");
+			// Drivers decorated for command metrics wrap the ChromiumDriver
+			WebDriver unwrapped = webDriver instanceof WrapsDriver ? ((WrapsDriver) webDriver).getWrappedDriver()
+					: webDriver;
+			if (unwrapped instanceof ChromiumDriver) {
+				// CDP clears cookies for every domain, not only the current one
+				((ChromiumDriver) unwrapped).executeCdpCommand("Network.clearBrowserCookies",
+						new HashMap<String, Object>());
+			} else {
+				webDriver.manage().deleteAllCookies();
+			}
+			webDriver.get("about:blank");
+			return true;
+		} catch (WebDriverException | NoSuchElementException e) {
+			logger.warn("Failed to reset pooled browser session", e);
+			return false;
+		}
+	}
+
+	private void evict(PooledSession session, String reason) {
+		evictions.increment();
+		logger.info("Evicting browser session ({})", reason);
+		quit(session);
+	}
+
+	private void quit(PooledSession session) {
+		// Counts the quit against the launch for leak detection
+		DriverManager.quit(session.driver);
+	}
+
+	/**
+	 * A browser session together with the bookkeeping needed for eviction.
+	 */
+	private static class PooledSession {
+		final WebDriver driver;
+		final long createdAt = System.currentTimeMillis();
+		String primaryHandle;
+
+		PooledSession(WebDriver driver) {
+			this.driver = driver;
+			this.primaryHandle = driver.getWindowHandle();
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package com.google.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.annotations.Test;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Orders test methods so that the suite finishes as early as possible on its
+ * threads. Each method is estimated from the previous run's
+ * {@code schedule.resultsFile} ({@code test-output/testng-results.xml}), or
+ * from the {@link ReportIndex} through {@link TestDurations} when that file
+ * does not know it. New methods are estimated from the other methods of their
+ * class, then from all known methods, then from
+ * {@code schedule.defaultTestSeconds}. The rows of a data-driven method run
+ * on the suite's data-provider threads, so the method takes one invocation per
+ * round of rows.
+ * <p>
+ * When the suite runs in parallel the methods are started longest first, so
+ * the threads pick up the long ones early and the short ones fill the gaps at
+ * the end (longest processing time first). Methods with an explicit priority
+ * keep their priority order. Serial suites keep the declaration order, which
+ * cannot change their duration. The predicted wall time of the schedule is
+ * logged and compared with the actual one when the suite ends.
+ * <p>
+ * Registered in testng.xml; disable it with {@code schedule.enabled=false}.
+ */
+public class DurationAwareInterceptor implements IMethodInterceptor, ISuiteListener {
+	// Logger to record the schedule and how well it was predicted
+	private static final Logger logger = LoggerFactory.getLogger(DurationAwareInterceptor.class);
+
+	private static volatile long suiteStart = System.nanoTime();
+	private static final AtomicLong predictedMillis = new AtomicLong();
+	private static final AtomicInteger scheduledMethods = new AtomicInteger();
+	private static final AtomicInteger estimatedMethods = new AtomicInteger();
+	private static volatile int threads = 1;
+
+	@Override
+	public void onStart(ISuite suite) {
+		suiteStart = System.nanoTime();
+		predictedMillis.set(0);
+		scheduledMethods.set(0);
+		estimatedMethods.set(0);
+	}
+
+	@Override
+	public void onFinish(ISuite suite) {
+		String summary = getSummary();
+		if (summary != null) {
+			logger.info("Suite {}: {}", suite.getName(), summary);
+		}
+	}
+
+	@Override
+	public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+		if (!ConfigManager.getBoolean("schedule.enabled", true) || methods.isEmpty()) {
+			return methods;
+		}
+		XmlSuite suite = context.getSuite().getXmlSuite();
+		boolean parallel = suite.getParallel() != null && suite.getParallel() != XmlSuite.ParallelMode.NONE;
+		int threadCount = parallel ? Math.max(1, suite.getThreadCount()) : 1;
+		int dataProviderThreads = Math.max(1, suite.getDataProviderThreadCount());
+		threads = threadCount;
+
+		History history = History.load(Paths.get(ConfigManager.get("schedule.resultsFile",
+				"test-output/testng-results.xml")), TestDurations.fromConfig(),
+				ConfigManager.getLong("schedule.defaultTestSeconds", 30) * 1000);
+		Map<IMethodInstance, Long> estimates = new IdentityHashMap<>();
+		for (IMethodInstance instance : methods) {
+			ITestNGMethod method = instance.getMethod();
+			String testClass = method.getRealClass().getName();
+			if (!history.isKnown(testClass, method.getMethodName())) {
+				estimatedMethods.incrementAndGet();
+			}
+			estimates.put(instance, history.estimate(testClass, method.getMethodName(),
+					rows(method.getRealClass(), method.getConstructorOrMethod().getMethod()), dataProviderThreads));
+		}
+
+		List<IMethodInstance> ordered = new ArrayList<>(methods);
+		if (threadCount > 1) {
+			ordered.sort(Comparator.comparingInt((IMethodInstance instance) -> instance.getMethod().getPriority())
+					.thenComparing(Comparator.comparingLong((IMethodInstance instance) -> estimates.get(instance))
+							.reversed()));
+		}
+		List<Long> durations = new ArrayList<>();
+		for (IMethodInstance instance : ordered) {
+			durations.add(estimates.get(instance));
+		}
+		long makespan = makespan(durations, threadCount);
+		predictedMillis.addAndGet(makespan);
+		scheduledMethods.addAndGet(ordered.size());
+		if (logger.isInfoEnabled()) {
+			List<String> plan = new ArrayList<>();
+			for (IMethodInstance instance : ordered) {
+				plan.add(instance.getMethod().getRealClass().getSimpleName() + "." + instance.getMethod().getMethodName()
+						+ " " + estimates.get(instance) / 1000 + "s");
+			}
+			logger.info("Test {}: predicted {} s on {} thread(s), order {}", context.getName(), makespan / 1000,
+					threadCount, plan);
+		}
+		return ordered;
+	}
+
+	/**
+	 * Simulates the suite's thread pool: each job starts, in the given order, on
+	 * the thread that becomes free first.
+	 *
+	 * @param durations Estimated duration of each job, in start order
+	 * @param threads   Number of threads
+	 * @return Time until the last job ends
+	 */
+	public static long makespan(List<Long> durations, int threads) {
+		PriorityQueue<Long> freeAt = new PriorityQueue<>();
+		for (int i = 0; i < Math.max(1, threads); i++) {
+			freeAt.add(0L);
+		}
+		long end = 0;
+		for (long duration : durations) {
+			long finish = freeAt.poll() + duration;
+			freeAt.add(finish);
+			end = Math.max(end, finish);
+		}
+		return end;
+	}
+
+	/**
+	 * @return Predicted and actual wall time of the suite so far, or null if no
+	 *         method was scheduled
+	 */
+	public static String getSummary() {
+		if (scheduledMethods.get() == 0) {
+			return null;
+		}
+		long actual = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - suiteStart);
+		long predicted = predictedMillis.get();
+		return String.format(Locale.ROOT, "%d method(s) on %d thread(s), %d without history; predicted %.1f s, "
+				+ "actual %.1f s (%+.0f%%)", scheduledMethods.get(), threads, estimatedMethods.get(),
+				predicted / 1000.0, actual / 1000.0, predicted == 0 ? 0 : 100.0 * (actual - predicted) / predicted);
+	}
+
+	// Number of invocations of a method fed by the search terms, otherwise 1
+	private static int rows(Class<?> testClass, Method method) {
+		Test test = method == null ? null : method.getAnnotation(Test.class);
+		if (test == null || !"searchTerms".equals(test.dataProvider())) {
+			return 1;
+		}
+		try {
+			return Math.max(1, SearchTerms.forClass(testClass, SearchTerms.fromConfig("searchTerms.file")).size());
+		} catch (IOException e) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Durations of the test methods of a previous run, with the fallbacks used
+	 * for methods it does not know.
+	 */
+	public static final class History {
+		// Total duration and number of invocations per "<class>#<method>"
+		private final Map<String, long[]> methods;
+		private final TestDurations durations;
+		private final long defaultMillis;
+
+		History(Map<String, long[]> methods, TestDurations durations, long defaultMillis) {
+			this.methods = methods;
+			this.durations = durations;
+			this.defaultMillis = defaultMillis;
+		}
+
+		/**
+		 * Reads the test method durations of a {@code testng-results.xml} file;
+		 * configuration methods are skipped. A missing or unreadable file leaves
+		 * only the other sources.
+		 *
+		 * @param resultsFile   TestNG results of a previous run
+		 * @param durations     Durations from the report index
+		 * @param defaultMillis Estimate per invocation when nothing is known
+		 * @return History of the run
+		 */
+		public static History load(Path resultsFile, TestDurations durations, long defaultMillis) {
+			Map<String, long[]> methods = new HashMap<>();
+			if (Files.exists(resultsFile)) {
+				try (InputStream in = Files.newInputStream(resultsFile)) {
+					XMLInputFactory factory = XMLInputFactory.newInstance();
+					factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+					XMLStreamReader reader = factory.createXMLStreamReader(in);
+					String testClass = null;
+					while (reader.hasNext()) {
+						if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+							continue;
+						}
+						if (reader.getLocalName().equals("class")) {
+							testClass = reader.getAttributeValue(null, "name");
+						} else if (reader.getLocalName().equals("test-method") && testClass != null
+								&& !"true".equals(reader.getAttributeValue(null, "is-config"))) {
+							String duration = reader.getAttributeValue(null, "duration-ms");
+							long[] total = methods.computeIfAbsent(testClass + "#"
+									+ reader.getAttributeValue(null, "name"), key -> new long[2]);
+							total[0] += duration == null ? 0 : Long.parseLong(duration);
+							total[1]++;
+						}
+					}
+					reader.close();
+				} catch (IOException | XMLStreamException | NumberFormatException e) {
+					logger.warn("Failed to read test durations from {}", resultsFile, e);
+				}
+			}
+			return new History(methods, durations, defaultMillis);
+		}
+
+		/**
+		 * @param testClass Fully qualified test class name
+		 * @param method    Test method name
+		 * @return true if a previous run measured the method
+		 */
+		public boolean isKnown(String testClass, String method) {
+			return methods.containsKey(testClass + "#" + method)
+					|| durations.perInvocation(simpleName(testClass), method) >= 0;
+		}
+
+		/**
+		 * Estimates a method whose invocations run one after another.
+		 *
+		 * @param testClass Fully qualified test class name
+		 * @param method    Test method name
+		 * @param rows      Number of invocations, e.g. data rows
+		 * @return Estimated duration of all invocations
+		 * @see #estimate(String, String, int, int)
+		 */
+		public long estimate(String testClass, String method, int rows) {
+			return estimate(testClass, method, rows, 1);
+		}
+
+		/**
+		 * Estimates a method from its measured duration per invocation or, when it
+		 * is new, from the median of the other methods of its class, of all known
+		 * methods, or the default. Its invocations run {@code threads} at a time.
+		 *
+		 * @param testClass Fully qualified test class name
+		 * @param method    Test method name
+		 * @param rows      Number of invocations, e.g. data rows
+		 * @param threads   Number of invocations running at once, e.g. the
+		 *                  data-provider thread count
+		 * @return Estimated wall time of all invocations
+		 */
+		public long estimate(String testClass, String method, int rows, int threads) {
+			long[] measured = methods.get(testClass + "#" + method);
+			long perInvocation = measured != null ? measured[0] / Math.max(1, measured[1])
+					: durations.perInvocation(simpleName(testClass), method);
+			if (perInvocation < 0) {
+				perInvocation = median(testClass + "#");
+			}
+			if (perInvocation < 0) {
+				perInvocation = median("");
+			}
+			if (perInvocation < 0) {
+				perInvocation = defaultMillis;
+			}
+			int parallelRows = Math.max(1, threads);
+			return perInvocation * ((Math.max(1, rows) + parallelRows - 1) / parallelRows);
+		}
+
+		// Median duration per invocation of the known methods whose key starts with the prefix
+		private long median(String prefix) {
+			List<Long> values = new ArrayList<>();
+			for (Map.Entry<String, long[]> entry : methods.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					values.add(entry.getValue()[0] / Math.max(1, entry.getValue()[1]));
+				}
+			}
+			if (values.isEmpty()) {
+				return -1;
+			}
+			Collections.sort(values);
+			return values.get(values.size() / 2);
+		}
+
+		private static String simpleName(String testClass) {
+			return testClass.substring(testClass.lastIndexOf('.') + 1);
+		}
+	}
+}
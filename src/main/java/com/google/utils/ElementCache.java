@@ -0,0 +1,209 @@
+package com.google.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsElement;
+import org.openqa.selenium.interactions.Locatable;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Page-scoped cache of located elements. {@link #find(By)} returns a proxy per
+ * locator that is resolved on first use and then reused, so a page method that
+ * needs an element another method already located costs no extra
+ * {@code findElement} round trip. When the cached element goes stale the proxy
+ * looks it up again and retries the call once.
+ * <p>
+ * Lookups, cache hits and stale re-lookups are counted per
+ * thread (reset at the start of each test) and for the whole run.
+ * <p>
+ * Locators are resolved one at a time on purpose: no page needs several
+ * elements at once, so a batched {@code findElements} would not save a round
+ * trip.
+ */
+public class ElementCache {
+	// Logger to record stale element re-lookups
+	private static final Logger logger = LoggerFactory.getLogger(ElementCache.class);
+
+	private static final ThreadLocal<Counters> TEST_COUNTERS = ThreadLocal.withInitial(Counters::new);
+	private static final Counters TOTAL_COUNTERS = new Counters();
+
+	private final WebDriver driver;
+	private final Map<By, CachedElement> elements = new ConcurrentHashMap<>();
+
+	/**
+	 * @param driver Driver used to locate elements
+	 */
+	public ElementCache(WebDriver driver) {
+		this.driver = driver;
+	}
+
+	/**
+	 * Returns the cached element for a locator. The element is located on first
+	 * use, not by this call, so asking for an element that is not on the page yet
+	 * is fine; using it throws {@link NoSuchElementException} until it appears.
+	 *
+	 * @param locator Element locator
+	 * @return Proxy element that re-locates itself when it goes stale
+	 */
+	public WebElement find(By locator) {
+		CachedElement cached = elements.computeIfAbsent(locator, CachedElement::new);
+		if (cached.target != null) {
+			count(counters -> counters.hits.increment());
+		}
+		return cached.proxy;
+	}
+
+	/**
+	 * Waits until the element is present in the DOM.
+	 *
+	 * @param locator Element locator
+	 * @return The cached element
+	 */
+	public WebElement present(By locator) {
+		WebElement element = find(locator);
+		Waits.forDriver(driver).until(locator.toString(), d -> ((WrapsElement) element).getWrappedElement());
+		return element;
+	}
+
+	/**
+	 * Waits until the element is visible and enabled.
+	 *
+	 * @param locator Element locator
+	 * @return The cached element
+	 */
+	public WebElement clickable(By locator) {
+		WebElement element = find(locator);
+		Waits.forDriver(driver).until(locator.toString(), ExpectedConditions.elementToBeClickable(element));
+		return element;
+	}
+
+	/**
+	 * Forgets every cached element, e.g. after navigating to another page.
+	 */
+	public void invalidate() {
+		for (CachedElement cached : elements.values()) {
+			cached.target = null;
+		}
+	}
+
+	/**
+	 * Resets the current thread's counters; called when a test starts.
+	 */
+	public static void resetTestStats() {
+		TEST_COUNTERS.remove();
+	}
+
+	/**
+	 * @return Counters of the test running on the current thread
+	 */
+	public static String getTestStats() {
+		return TEST_COUNTERS.get().toString();
+	}
+
+	/**
+	 * @return Counters for the whole run, or null if no element was cached
+	 */
+	public static String getStats() {
+		return TOTAL_COUNTERS.lookups.sum() == 0 ? null : TOTAL_COUNTERS.toString();
+	}
+
+	private static void count(Consumer<Counters> update) {
+		update.accept(TEST_COUNTERS.get());
+		update.accept(TOTAL_COUNTERS);
+	}
+
+	/**
+	 * One cached locator: the proxy handed out to page objects and the element
+	 * it currently points at.
+	 */
+	private class CachedElement implements InvocationHandler {
+		private final By locator;
+		private final WebElement proxy;
+		private volatile WebElement target;
+
+		CachedElement(By locator) {
+			this.locator = locator;
+			this.proxy = (WebElement) Proxy.newProxyInstance(ElementCache.class.getClassLoader(),
+					new Class<?>[] { WebElement.class, WrapsElement.class, Locatable.class }, this);
+		}
+
+		WebElement resolve() {
+			WebElement current = target;
+			if (current == null) {
+				current = driver.findElement(locator);
+				count(counters -> counters.lookups.increment());
+				target = current;
+			}
+			return current;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "CachedElement[" + locator + "]";
+			case "getWrappedElement":
+				return resolve();
+			default:
+				break;
+			}
+
+			WebElement current = resolve();
+			try {
+				return method.invoke(current, args);
+			} catch (InvocationTargetException e) {
+				if (!(e.getCause() instanceof StaleElementReferenceException)) {
+					throw e.getCause();
+				}
+			}
+
+			// The page re-rendered the element; locate it again and retry once
+			logger.debug("Element {} went stale, locating it again", locator);
+			count(counters -> counters.staleRelookups.increment());
+			if (target == current) {
+				target = null;
+			}
+			try {
+				return method.invoke(resolve(), args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Lookup counters. A cache hit saves one {@code findElement} unless the
+	 * cached element went stale and had to be located again.
+	 */
+	private static class Counters {
+		private final LongAdder lookups = new LongAdder();
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder staleRelookups = new LongAdder();
+
+		@Override
+		public String toString() {
+			long stale = staleRelookups.sum();
+			return String.format(Locale.ROOT, "lookups=%d, cacheHits=%d, staleRelookups=%d, roundTripsSaved=%d",
+					lookups.sum(), hits.sum(), stale, Math.max(0, hits.sum() - stale));
+		}
+	}
+}
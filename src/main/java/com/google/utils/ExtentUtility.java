@@ -2,153 +2,352 @@ package com.google.utils;
 
 import com.relevantcodes.extentreports.ExtentReports;
 import com.relevantcodes.extentreports.ExtentTest;
-import org.apache.commons.io.FileUtils;
+import com.relevantcodes.extentreports.LogStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
+import org.testng.ITestResult;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class ExtentUtility {
     final static Logger LOGGER = LogManager.getLogger(ExtentUtility.class);
-    public static ExtentReports extent;
-    public static ExtentTest test;
-    private static ThreadLocal<String>methodName=new ThreadLocal<String>();
-    public static String reportFolder = "";
-    
-    private static Map<Integer, ExtentTest> a = new HashMap<>();
+    public static volatile ExtentReports extent;
+    // Journal of finished tests in streaming mode, in which extent stays null
+    private static volatile ReportJournal journal;
+    // Folder of the running report under ReportGenerator; the releaseName setting stays the release
+    public static volatile String reportFolder = "";
+
+    // Tests started for each TestNG method invocation, keyed by the invocation's result
+    private static final Map<ITestResult, ExtentTest> tests = new ConcurrentHashMap<>();
+    // Test of the invocation running on this thread; read lock-free on every log call
+    private static final ThreadLocal<ExtentTest> currentTest = new ThreadLocal<>();
+    // Background writers for report screenshots, created on the first capture
+    private static volatile ScreenshotPipeline screenshots;
+    // Visual check of the pipeline's frames, kept after the pipeline stops so its baselines can be saved
+    private static volatile VisualCheck visualChecks;
 
     // Private constructor to prevent instantiation
     private ExtentUtility() {}
 
     /**
-     * Initializes and returns the ExtentReports instance.
-     * @return ExtentReports object
+     * Initializes and returns the ExtentReports instance. With
+     * {@code report.streaming=true} (the default) no ExtentReports instance is
+     * created and null is returned: finished tests are appended to the folder's
+     * {@link ReportJournal} and {@link #flushReport()} renders the HTML from it.
+     * With {@code report.resume=true} the newest report of the release whose run
+     * did not finish is continued instead of starting a new folder.
+     * {@code report.folder} names the folder under ReportGenerator explicitly.
+     * @return ExtentReports object, or null in streaming mode
      * @throws IOException if configuration file loading fails
      */
     public static synchronized ExtentReports getReporter() throws IOException {
-        if (extent == null) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy-HH-mm-ss");
-            Date date = new Date();
-            String releaseName = getPropertyValue("releaseName");
-            reportFolder = releaseName + "-" + dateFormat.format(date);
-            String reportPath = new File("ReportGenerator/" + reportFolder + "/TestReport.html").getPath();
-
-            extent = new ExtentReports(reportPath, true, Locale.ENGLISH);
-            extent.loadConfig(new File("src/test/resources/extent-config.xml"));
-            extent.addSystemInfo("Environment", "QA");
-            extent.addSystemInfo("Selenium", "3.141.59");
-            System.setProperty("releaseName", reportFolder);
+        if (extent == null && journal == null) {
+            String releaseName = ConfigManager.get("releaseName");
+            // Set by ShardedSuiteRunner, which merges the folders of its workers into one report
+            String fixedFolder = ConfigManager.get("report.folder", "");
+            File resumed = fixedFolder.isEmpty() && ConfigManager.getBoolean("report.resume", false)
+                    ? findUnfinishedReport(releaseName) : null;
+            if (!fixedFolder.isEmpty()) {
+                reportFolder = fixedFolder;
+            } else if (resumed != null) {
+                reportFolder = resumed.getName();
+            } else {
+                SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy-HH-mm-ss");
+                reportFolder = releaseName + "-" + dateFormat.format(new Date());
+            }
+            File folder = new File("ReportGenerator/" + reportFolder);
+
+            if (ConfigManager.getBoolean("report.streaming", true)) {
+                journal = ReportJournal.open(folder.toPath());
+                journal.runEvent(resumed != null ? "resume" : "start");
+                LOGGER.info((resumed != null ? "Resuming" : "Writing") + " report journal " + journal.getFile());
+            } else {
+                String reportPath = new File(folder, ReportRenderer.REPORT_FILE).getPath();
+                extent = new ExtentReports(reportPath, true, Locale.ENGLISH);
+                extent.loadConfig(new File("src/test/resources/extent-config.xml"));
+            }
+            addSystemInfo("Environment", "QA");
+            addSystemInfo("Selenium", "3.141.59");
         }
         return extent;
     }
 
+    // Newest report folder of the release whose journal has no "end" event
+    private static File findUnfinishedReport(String releaseName) throws IOException {
+        File[] folders = new File("ReportGenerator").listFiles(
+                file -> file.isDirectory() && file.getName().startsWith(releaseName + "-"));
+        if (folders == null) {
+            return null;
+        }
+        File newest = null;
+        for (File folder : folders) {
+            if (newest == null || folder.lastModified() > newest.lastModified()) {
+                newest = folder;
+            }
+        }
+        if (newest == null) {
+            return null;
+        }
+        File file = new File(newest, ReportJournal.FILE_NAME);
+        return file.isFile() && !ReportJournal.isComplete(file.toPath()) ? newest : null;
+    }
+
+    /**
+     * Adds an entry to the report's system information.
+     * @param key Name of the entry
+     * @param value Value of the entry
+     */
+    public static void addSystemInfo(String key, String value) {
+        if (journal != null) {
+            journal.systemInfo(key, value);
+        } else if (extent != null) {
+            extent.addSystemInfo(key, value);
+        }
+    }
+
+    /**
+     * Completes the report. In streaming mode the journal is closed and the HTML
+     * is rendered from it; otherwise ExtentReports writes and closes its file.
+     * Called once from {@code @AfterSuite}.
+     */
+    public static synchronized void flushReport() {
+        if (journal != null) {
+            ReportJournal finished = journal;
+            journal = null;
+            finished.runEvent("end");
+            try {
+                finished.close();
+                ReportRenderer.render(finished.getFile().getParent());
+            } catch (IOException e) {
+                LOGGER.error("Failed to render report from " + finished.getFile(), e);
+            }
+        } else if (extent != null) {
+            extent.flush();
+            extent.close();
+        }
+    }
+
     /**
-     * Retrieves the current test instance.
+     * Retrieves the test bound to the invocation running on the current thread.
      * @return ExtentTest object representing the current test
      */
-    public static synchronized ExtentTest getTest() {
-        return a.get((int) Thread.currentThread().getId());
+    public static ExtentTest getTest() {
+        return currentTest.get();
+    }
+
+    /**
+     * Retrieves the test started for a specific TestNG method invocation.
+     * @param invocation TestNG result of the method invocation
+     * @return ExtentTest object, or null if no test was started for it
+     */
+    public static ExtentTest getTest(ITestResult invocation) {
+        return tests.get(invocation);
     }
 
     /**
-     * Ends the current test instance.
+     * Ends the test bound to the current thread.
      */
-    public static synchronized void endTest() {
-        extent.endTest(a.get((int) Thread.currentThread().getId()));
+    public static void endTest() {
+        ExtentTest testInstance = currentTest.get();
+        currentTest.remove();
+        if (testInstance != null) {
+            finishTest(testInstance);
+        }
     }
 
     /**
-     * Starts a new test instance.
+     * Ends the test started for a TestNG method invocation and unbinds it from the
+     * current thread.
+     * @param invocation TestNG result of the method invocation
+     */
+    public static void endTest(ITestResult invocation) {
+        ExtentTest testInstance = tests.remove(invocation);
+        if (testInstance != null && testInstance == currentTest.get()) {
+            currentTest.remove();
+        }
+        if (testInstance instanceof JournaledTest) {
+            recordOutcome((JournaledTest) testInstance, invocation);
+        }
+        if (testInstance != null) {
+            finishTest(testInstance);
+        }
+    }
+
+    /**
+     * Starts a new test instance bound to the current thread.
      * @param testName Name of the test
      * @return ExtentTest object representing the started test
      */
-    public static synchronized ExtentTest startTest(String testName) {
+    public static ExtentTest startTest(String testName) {
         return startTest(testName, "");
     }
 
     /**
-     * Starts a new test instance with a description.
+     * Starts a new test instance with a description, bound to the current thread.
      * @param testName Name of the test
      * @param desc Description of the test
      * @return ExtentTest object representing the started test
      */
-    public static synchronized ExtentTest startTest(String testName, String desc) {
-        ExtentTest testInstance = extent.startTest(testName, desc);
-        a.put((int) Thread.currentThread().getId(), testInstance);
+    public static ExtentTest startTest(String testName, String desc) {
+        ExtentTest testInstance = createTest(testName, desc);
+        currentTest.set(testInstance);
         return testInstance;
     }
 
     /**
-     * Captures a screenshot for the Extent Report.
-     * @param driver WebDriver instance to capture screenshot from
-     * @return Path of the captured screenshot
+     * Starts a new test instance for a TestNG method invocation and binds it to
+     * the current thread, which TestNG uses for the whole invocation.
+     * @param invocation TestNG result of the method invocation
+     * @param testName Name of the test
+     * @param desc Description of the test
+     * @return ExtentTest object representing the started test
      */
-    public static String takeScreenShotForExtentReport(WebDriver driver) {
-        Calendar cal = Calendar.getInstance();
-        long timestamp = cal.getTimeInMillis();
-        File screenshotFile = null;
+    public static ExtentTest startTest(ITestResult invocation, String testName, String desc) {
+        ExtentTest testInstance = startTest(testName, desc);
+        tests.put(invocation, testInstance);
+        return testInstance;
+    }
 
-        try {
-            // Get image quality from properties file
-            String imgQuality = getPropertyValue("imageQuality");
+    // ExtentReports 2.x keeps its test list in plain collections, so only the
+    // once-per-test start and end calls are serialized; logging is not.
+    // Journaled tests are never registered with it and need no lock.
+    private static ExtentTest createTest(String testName, String desc) {
+        if (journal != null) {
+            return new JournaledTest(testName, desc);
+        }
+        synchronized (extent) {
+            return extent.startTest(testName, desc);
+        }
+    }
 
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Img Quality: " + imgQuality);
+    private static void finishTest(ExtentTest testInstance) {
+        if (testInstance instanceof JournaledTest) {
+            ReportJournal current = journal;
+            if (current != null) {
+                current.append(((JournaledTest) testInstance).toRecord());
             }
+            return;
+        }
+        synchronized (extent) {
+            extent.endTest(testInstance);
+        }
+    }
 
-            // Take screenshot
-            screenshotFile = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
-
-            // Define file path based on image quality
-            String filePath;
-            if ("low".equalsIgnoreCase(imgQuality)) {
-                filePath = "ReportGenerator/" + ExtentUtility.reportFolder + "/Screenshots/image_" + timestamp + ".png";
-            } else if ("high".equalsIgnoreCase(imgQuality)) {
-                filePath = "ReportGenerator/" + ExtentUtility.reportFolder + "/Screenshots/img_" + timestamp + ".png";
-            } else {
-                filePath = "ReportGenerator/" + ExtentUtility.reportFolder + "/Screenshots/screenshot_" + timestamp + ".png";
-            }
+    // A failure or skip that the test did not log itself (e.g. an assertion) is
+    // added so the journaled status matches TestNG's
+    private static void recordOutcome(JournaledTest testInstance, ITestResult invocation) {
+        LogStatus status = invocation.getStatus() == ITestResult.FAILURE ? LogStatus.FAIL
+                : invocation.getStatus() == ITestResult.SKIP ? LogStatus.SKIP : null;
+        if (status != null && testInstance.getStatus() != status && testInstance.getStatus() != LogStatus.FATAL) {
+            Throwable throwable = invocation.getThrowable();
+            // Details are rendered as HTML, and assertion messages often contain angle brackets
+            testInstance.log(status, throwable == null ? status.toString()
+                    : throwable.toString().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+        }
+    }
 
-            // Save screenshot to file
-            FileUtils.copyFile(screenshotFile, new File(filePath));
+    /**
+     * Captures a screenshot for the Extent Report. Only the capture itself runs on
+     * the calling thread; the file is written by the background screenshot pipeline.
+     * @param driver WebDriver instance to capture screenshot from
+     * @return Path of the captured screenshot
+     */
+    public static String takeScreenShotForExtentReport(WebDriver driver) {
+        // Named after the step being captured, before the screenshot step opens
+        String checkpoint = VisualCheck.checkpoint();
+        try (StepMetrics.Step step = StepMetrics.step("screenshot")) {
+            // Take screenshot as raw bytes; the driver is not thread-safe, so this stays on the test thread
+            byte[] screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+            StepMetrics.recordScreenshot(screenshot.length);
 
-            // Verify if file exists
-            File file = new File(filePath);
-            if (file.exists()) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug(filePath + " exists");
-                }
-            } else {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug(filePath + " does not exist");
-                }
-            }
+            // Hand the bytes to the background writers, which encode them at the configured quality
+            String fileName = getScreenshotPipeline().submit(screenshot,
+                    new File("ReportGenerator/" + ExtentUtility.reportFolder + "/Screenshots"), checkpoint);
 
-            return "Screenshots/screenshot_" + timestamp + ".png";
+            return "Screenshots/" + fileName;
         } catch (Exception e) {
             LOGGER.error("Error while capturing screenshot", e);
             return null;
-        } finally {
-            // Clean up the screenshot file if it exists
-            if (screenshotFile != null && screenshotFile.exists()) {
-                //screenshotFile.delete();
+        }
+    }
+
+    /**
+     * Waits for all queued screenshots to be written and stops the writer threads.
+     * Called once from {@code @AfterSuite} before the report is flushed.
+     * @return Summary of the pipeline's counters, or null if no screenshot was taken
+     */
+    public static synchronized String flushScreenshots() {
+        ScreenshotPipeline pipeline = screenshots;
+        if (pipeline == null) {
+            return null;
+        }
+        long timeout = ConfigManager.getLong("screenshotFlushTimeoutSeconds", 60);
+        pipeline.shutdown(timeout, TimeUnit.SECONDS);
+        screenshots = null;
+        return pipeline.getStats();
+    }
+
+    /**
+     * Saves the visual baselines recorded by this run. Call it after
+     * {@link #flushScreenshots()}, once every frame has been checked.
+     * @return Visual check of the run, or null if visual checks are disabled or no screenshot was taken
+     */
+    public static synchronized VisualCheck finishVisualChecks() {
+        VisualCheck check = visualChecks;
+        if (check == null) {
+            return null;
+        }
+        try {
+            check.save();
+        } catch (IOException e) {
+            LOGGER.error("Error while saving visual baselines", e);
+        }
+        visualChecks = null;
+        return check;
+    }
+
+    private static ScreenshotPipeline getScreenshotPipeline() {
+        ScreenshotPipeline pipeline = screenshots;
+        if (pipeline == null) {
+            synchronized (ExtentUtility.class) {
+                pipeline = screenshots;
+                if (pipeline == null) {
+                    int threads = ConfigManager.getInt("screenshotWriterThreads", 2);
+                    int queueSize = ConfigManager.getInt("screenshotQueueSize", 64);
+                    ScreenshotPipeline.BackPressure backPressure = ConfigManager.getEnum("screenshotBackPressure",
+                            ScreenshotPipeline.BackPressure.class, ScreenshotPipeline.BackPressure.BLOCK);
+                    ScreenshotEncoder encoder = new ScreenshotEncoder(
+                            ScreenshotEncoder.Quality.fromProperty(ConfigManager.get("imageQuality")),
+                            ConfigManager.getDouble("imageScale", 0.5),
+                            (float) ConfigManager.getDouble("imageCompression", 0.75));
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Img Quality: " + encoder);
+                    }
+                    VisualCheck check = null;
+                    try {
+                        check = VisualCheck.fromConfig(new File("ReportGenerator/" + ExtentUtility.reportFolder).toPath());
+                    } catch (IOException e) {
+                        LOGGER.error("Error while loading visual baselines; screenshots will not be checked", e);
+                    }
+                    visualChecks = check;
+                    pipeline = new ScreenshotPipeline(threads, queueSize, backPressure, encoder, check);
+                    screenshots = pipeline;
+                }
             }
         }
+        return pipeline;
     }
-    
+
     /**
      * Adds a screenshot to the ExtentTest instance.
      * @param screenshotPath Relative path to the screenshot
@@ -167,30 +366,12 @@ public class ExtentUtility {
     
 
     /**
-     * Retrieves a value from the properties file.
-     * @param key Key to look up in the properties file
+     * Retrieves a value from the configuration (data.properties and overrides).
+     * @param key Key to look up in the configuration
      * @return Value associated with the given key
-     * @throws IOException if reading from the properties file fails
      */
-    public static String getPropertyValue(String key) throws IOException {
-        String value = "";
-        FileInputStream fileInputStream = null;
-        try {
-            String filePath = System.getProperty("user.dir") + "/src/main/resources/data.properties";
-            File file = new File(filePath);
-            if (!file.exists()) {
-                throw new FileNotFoundException("data.properties file not found at: " + filePath);
-            }
-            fileInputStream = new FileInputStream(file);
-            Properties property = new Properties();
-            property.load(fileInputStream);
-            value = property.getProperty(key);
-        } finally {
-            if (fileInputStream != null) {
-                fileInputStream.close();
-            }
-        }
-        return value;
+    public static String getPropertyValue(String key) {
+        return ConfigManager.get(key);
     }
 
 }
@@ -0,0 +1,399 @@
+package com.google.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ImageDownloader saves the image behind an {@code <img>} element straight to
+ * disk, without going through the browser's context menu or save dialog. The
+ * image URL is resolved from {@code currentSrc}, {@code srcset} or {@code src};
+ * {@code data:} URIs are decoded in process, other URLs are fetched over HTTP
+ * on a shared executor or, with {@code download.mode=browser}, by the browser
+ * itself so that its cookies and network stack are used. Every file is
+ * streamed to a {@code .part} file, verified and then moved into place.
+ */
+public class ImageDownloader {
+	// Logger to record download events
+	private static final Logger logger = LoggerFactory.getLogger(ImageDownloader.class);
+
+	// Shared by every download; connections are kept alive and reused by the JDK
+	private static final ExecutorService HTTP_EXECUTOR = Executors.newFixedThreadPool(
+			ConfigManager.getInt("download.threads", 8), new DaemonThreadFactory());
+
+	private static final String RESOLVE_SCRIPT = "var img = arguments[0];"
+			+ "return { currentSrc: img.currentSrc || '', srcset: img.getAttribute('srcset') || '',"
+			+ " src: img.getAttribute('src') || img.getAttribute('data-src') || '' };";
+
+	private static final String BROWSER_FETCH_SCRIPT = "var done = arguments[arguments.length - 1];"
+			+ "fetch(arguments[0], { credentials: 'include' })"
+			+ ".then(function (r) { if (!r.ok) { throw new Error('HTTP ' + r.status); } return r.blob(); })"
+			+ ".then(function (b) { var reader = new FileReader();"
+			+ " reader.onload = function () { done({ dataUrl: reader.result }); };"
+			+ " reader.onerror = function () { done({ error: 'read failed' }); };"
+			+ " reader.readAsDataURL(b); })"
+			+ ".catch(function (e) { done({ error: String(e) }); });";
+
+	// Private constructor to prevent instantiation
+	private ImageDownloader() {
+	}
+
+	/**
+	 * Resolves the URL of the image actually displayed by an {@code <img>}
+	 * element, in a single script round trip.
+	 *
+	 * @param driver WebDriver the element belongs to
+	 * @param image  the {@code <img>} element
+	 * @return absolute or {@code data:} URL of the image
+	 */
+	@SuppressWarnings("unchecked")
+	public static String resolveImageUrl(WebDriver driver, WebElement image) {
+		Map<String, Object> sources = (Map<String, Object>) ((JavascriptExecutor) driver).executeScript(RESOLVE_SCRIPT,
+				image);
+		String url = firstNonEmpty((String) sources.get("currentSrc"),
+				largestCandidate((String) sources.get("srcset")), (String) sources.get("src"));
+		if (url == null) {
+			throw new IllegalStateException("Image element has no src, srcset or currentSrc");
+		}
+		return url;
+	}
+
+	/**
+	 * Picks the largest candidate from a {@code srcset} attribute, e.g.
+	 * {@code "a.jpg 320w, b.jpg 640w"} yields {@code b.jpg}.
+	 *
+	 * @param srcset value of the srcset attribute, may be null
+	 * @return URL of the largest candidate, or null if there is none
+	 */
+	static String largestCandidate(String srcset) {
+		if (srcset == null || srcset.trim().isEmpty()) {
+			return null;
+		}
+		String best = null;
+		double bestSize = -1;
+		for (String candidate : srcset.split(",\\s+")) {
+			String[] parts = candidate.trim().split("\\s+");
+			double size = 1;
+			if (parts.length > 1 && parts[1].length() > 1) {
+				try {
+					size = Double.parseDouble(parts[1].substring(0, parts[1].length() - 1));
+				} catch (NumberFormatException e) {
+					size = 1;
+				}
+			}
+			if (size > bestSize) {
+				bestSize = size;
+				best = parts[0];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Downloads an image using the mode configured by {@code download.mode}.
+	 *
+	 * @param driver    WebDriver used when the browser performs the download
+	 * @param url       image URL as returned by {@link #resolveImageUrl}
+	 * @param directory directory the image is written to
+	 * @param baseName  file name without extension
+	 * @return details of the verified file
+	 * @throws IOException if the image cannot be fetched or written
+	 */
+	public static DownloadResult download(WebDriver driver, String url, Path directory, String baseName)
+			throws IOException {
+		if (!url.startsWith("data:") && "browser".equalsIgnoreCase(ConfigManager.get("download.mode", "http"))) {
+			return downloadWithBrowser(driver, url, directory, baseName);
+		}
+		try {
+			return downloadAsync(url, directory, baseName).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Downloads an image over HTTP on the shared executor. {@code data:} URIs are
+	 * decoded without any network access.
+	 *
+	 * @param url       image URL
+	 * @param directory directory the image is written to
+	 * @param baseName  file name without extension
+	 * @return future completed with the verified file, or exceptionally with an
+	 *         IOException
+	 */
+	public static CompletableFuture<DownloadResult> downloadAsync(String url, Path directory, String baseName) {
+		if (url.startsWith("data:")) {
+			CompletableFuture<DownloadResult> result = new CompletableFuture<>();
+			try {
+				result.complete(saveDataUri(url, directory, baseName));
+			} catch (IOException | RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+			return result;
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return fetch(url, directory, baseName);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, HTTP_EXECUTOR);
+	}
+
+	/**
+	 * Lets the browser fetch the image with its own cookies and network stack and
+	 * hand the bytes back to the test. Works in headless mode and leaves no
+	 * partial downloads in the browser's download folder.
+	 */
+	private static DownloadResult downloadWithBrowser(WebDriver driver, String url, Path directory, String baseName)
+			throws IOException {
+		long start = System.nanoTime();
+		driver.manage().timeouts().scriptTimeout(Duration.ofSeconds(timeoutSeconds()));
+		Object response = ((JavascriptExecutor) driver).executeAsyncScript(BROWSER_FETCH_SCRIPT, url);
+		Map<?, ?> result = response instanceof Map ? (Map<?, ?>) response : new HashMap<String, Object>();
+		if (result.get("dataUrl") == null) {
+			throw new IOException("Browser failed to fetch " + url + ": " + result.get("error"));
+		}
+		DownloadResult saved = saveDataUri((String) result.get("dataUrl"), directory, baseName);
+		return new DownloadResult(url, saved.path, saved.bytes, saved.sha256, saved.contentType,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	private static DownloadResult fetch(String url, Path directory, String baseName) throws IOException {
+		long start = System.nanoTime();
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		int timeout = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds());
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		connection.setInstanceFollowRedirects(true);
+		connection.setRequestProperty("Accept", "image/*");
+		try {
+			int status = connection.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				InputStream error = connection.getErrorStream();
+				if (error != null) {
+					error.close();
+				}
+				throw new IOException("HTTP " + status + " while downloading " + url);
+			}
+			String contentType = connection.getContentType();
+			if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("image/")) {
+				throw new IOException("Expected an image from " + url + " but got " + contentType);
+			}
+			try (InputStream in = connection.getInputStream()) {
+				DownloadResult result = write(in, directory, baseName, contentType, connection.getContentLengthLong());
+				return new DownloadResult(url, result.path, result.bytes, result.sha256, contentType,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		} catch (IOException e) {
+			connection.disconnect();
+			throw e;
+		}
+	}
+
+	private static DownloadResult saveDataUri(String dataUri, Path directory, String baseName) throws IOException {
+		long start = System.nanoTime();
+		int comma = dataUri.indexOf(',');
+		if (comma < 0) {
+			throw new IOException("Malformed data URI");
+		}
+		String header = dataUri.substring("data:".length(), comma);
+		String payload = dataUri.substring(comma + 1);
+		// Plain percent-decoding: outside form encoding a '+' is a literal plus, not a space
+		byte[] bytes = header.endsWith(";base64") ? Base64.getMimeDecoder().decode(payload)
+				: URLDecoder.decode(payload.replace("+", "%2B"), "UTF-8").getBytes(StandardCharsets.UTF_8);
+		String contentType = header.split(";")[0];
+		try (InputStream in = new ByteArrayInputStream(bytes)) {
+			DownloadResult result = write(in, directory, baseName, contentType, bytes.length);
+			return new DownloadResult("data:" + header, result.path, result.bytes, result.sha256, contentType,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * Streams the body to a {@code .part} file while hashing it, checks the length
+	 * against the declared one and only then moves it to its final name. The
+	 * checksum is the digest of the bytes as they were written.
+	 */
+	private static DownloadResult write(InputStream body, Path directory, String baseName, String contentType,
+			long expectedLength) throws IOException {
+		Files.createDirectories(directory);
+		Path target = directory.resolve(baseName + "." + extensionFor(contentType));
+		Path part = directory.resolve(target.getFileName() + ".part");
+		MessageDigest streamed = sha256();
+		long bytes = 0;
+		try {
+			try (OutputStream out = new DigestOutputStream(Files.newOutputStream(part), streamed)) {
+				byte[] buffer = new byte[16 * 1024];
+				int read;
+				while ((read = body.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+					bytes += read;
+				}
+			}
+			if (expectedLength >= 0 && bytes != expectedLength) {
+				throw new IOException("Truncated download: expected " + expectedLength + " bytes but got " + bytes);
+			}
+			String checksum = toHex(streamed.digest());
+			Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logger.info("Downloaded {} ({} bytes, sha256 {})", target, bytes, checksum);
+			return new DownloadResult(null, target, bytes, checksum, contentType, 0);
+		} finally {
+			Files.deleteIfExists(part);
+		}
+	}
+
+	/**
+	 * @param file file to hash
+	 * @return hex-encoded SHA-256 of the file's content
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String checksumOf(Path file) throws IOException {
+		MessageDigest digest = sha256();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+			byte[] buffer = new byte[16 * 1024];
+			while (in.read(buffer) != -1) {
+				// reading feeds the digest
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private static String extensionFor(String contentType) {
+		String type = contentType == null ? "" : contentType.toLowerCase(Locale.ROOT);
+		if (type.contains("jpeg") || type.contains("jpg")) {
+			return "jpg";
+		} else if (type.contains("gif")) {
+			return "gif";
+		} else if (type.contains("webp")) {
+			return "webp";
+		} else if (type.contains("svg")) {
+			return "svg";
+		}
+		return "png";
+	}
+
+	private static long timeoutSeconds() {
+		return ConfigManager.getLong("download.timeoutSeconds", 30);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private static String toHex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	private static String firstNonEmpty(String... values) {
+		for (String value : values) {
+			if (value != null && !value.trim().isEmpty()) {
+				return value.trim();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Outcome of a verified download.
+	 */
+	public static class DownloadResult {
+		private final String source;
+		private final Path path;
+		private final long bytes;
+		private final String sha256;
+		private final String contentType;
+		private final long elapsedMillis;
+
+		DownloadResult(String source, Path path, long bytes, String sha256, String contentType, long elapsedMillis) {
+			this.source = source;
+			this.path = path;
+			this.bytes = bytes;
+			this.sha256 = sha256;
+			this.contentType = contentType;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public String getSha256() {
+			return sha256;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return path.getFileName() + " (" + bytes + " bytes, " + contentType + ", sha256 " + sha256.substring(0, 12)
+					+ "..., " + elapsedMillis + " ms)";
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "image-download-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package com.google.utils;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.json.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ImageHarvester pulls the top N images for a list of search terms. It runs as
+ * a pipeline: while the browser scrolls the results of one term and collects
+ * image URLs, the URLs already collected are de-duplicated and downloaded
+ * concurrently with a bounded number of requests in flight and a per-host rate
+ * limit. Every run writes a {@code manifest.json} with one entry per image and
+ * throughput statistics.
+ */
+public class ImageHarvester {
+	// Logger to record harvesting progress
+	private static final Logger logger = LoggerFactory.getLogger(ImageHarvester.class);
+
+	// Absolute URLs only: the src property is resolved by the browser, a lazy data-src against the page
+	private static final String COLLECT_SCRIPT = "var limit = arguments[1], urls = [];"
+			+ "var images = document.querySelectorAll(arguments[0]);"
+			+ "for (var i = 0; i < images.length && urls.length < limit; i++) {"
+			+ "  var img = images[i], url = img.currentSrc || img.src, lazy = img.getAttribute('data-src');"
+			+ "  if (!url && lazy) { try { url = new URL(lazy, document.baseURI).href; } catch (e) { url = null; } }"
+			+ "  if (url) { urls.push(url); }"
+			+ "}"
+			+ "window.scrollTo(0, document.body.scrollHeight);"
+			+ "return urls;";
+
+	// Delays the start of rate-limited downloads; shared, since it only hands them to ImageDownloader
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "image-harvest-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final int maxInFlight;
+	private final long hostIntervalNanos;
+	// Earliest time (System.nanoTime) the next request to each host may start
+	private final Map<String, AtomicLong> nextSlotByHost = new ConcurrentHashMap<>();
+
+	/**
+	 * @param maxInFlight              maximum number of downloads running at once
+	 * @param requestsPerSecondPerHost maximum request rate for any single host
+	 */
+	public ImageHarvester(int maxInFlight, double requestsPerSecondPerHost) {
+		if (maxInFlight < 1 || requestsPerSecondPerHost <= 0) {
+			throw new IllegalArgumentException("maxInFlight and requestsPerSecondPerHost must be positive");
+		}
+		this.maxInFlight = maxInFlight;
+		this.hostIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecondPerHost);
+	}
+
+	/**
+	 * @return harvester configured from {@code harvest.maxInFlight} and
+	 *         {@code harvest.requestsPerSecondPerHost}
+	 */
+	public static ImageHarvester fromConfig() {
+		return new ImageHarvester(ConfigManager.getInt("harvest.maxInFlight", 8),
+				ConfigManager.getDouble("harvest.requestsPerSecondPerHost", 4));
+	}
+
+	/**
+	 * Loads the search terms from the CSV or JSONL file named by
+	 * {@code harvest.termsFile}, or from the comma-separated {@code searchText}
+	 * property when no file is configured (see {@link SearchTerms}).
+	 *
+	 * @return search terms in order, without duplicates
+	 * @throws IOException if the terms file cannot be read
+	 */
+	public static List<String> loadTerms() throws IOException {
+		return SearchTerms.fromConfig("harvest.termsFile");
+	}
+
+	/**
+	 * Runs the whole pipeline: searches every term in the browser, collects up to
+	 * {@code perTerm} image URLs each, and downloads them into {@code outputDir}
+	 * while the next term is being collected.
+	 *
+	 * @param driver    WebDriver used to run the searches
+	 * @param terms     search terms
+	 * @param perTerm   number of images to fetch per term
+	 * @param outputDir directory for images and the manifest
+	 * @return summary of the run
+	 * @throws IOException if the manifest cannot be written
+	 */
+	public HarvestReport harvest(WebDriver driver, List<String> terms, int perTerm, Path outputDir) throws IOException {
+		HarvestRun run = new HarvestRun(outputDir);
+		for (String term : terms) {
+			List<String> urls = collectImageUrls(driver, term, perTerm);
+			for (int rank = 0; rank < urls.size(); rank++) {
+				run.submit(new HarvestItem(term, rank + 1, urls.get(rank)));
+			}
+		}
+		return run.finish(terms);
+	}
+
+	/**
+	 * Downloads already collected items; the download half of {@link #harvest}.
+	 *
+	 * @param items     images to download, possibly with duplicate URLs
+	 * @param outputDir directory for images and the manifest
+	 * @return summary of the run
+	 * @throws IOException if the manifest cannot be written
+	 */
+	public HarvestReport download(List<HarvestItem> items, Path outputDir) throws IOException {
+		HarvestRun run = new HarvestRun(outputDir);
+		Set<String> terms = new LinkedHashSet<>();
+		for (HarvestItem item : items) {
+			terms.add(item.term);
+			run.submit(item);
+		}
+		return run.finish(new ArrayList<>(terms));
+	}
+
+	/**
+	 * Opens the results page for a term and scrolls until {@code limit} distinct
+	 * image URLs are found or scrolling stops producing new ones.
+	 *
+	 * @param driver WebDriver used to run the search
+	 * @param term   search term
+	 * @param limit  number of URLs wanted
+	 * @return distinct image URLs in result order
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> collectImageUrls(WebDriver driver, String term, int limit) {
+		try {
+			driver.get(ReplayServer.resolve(ConfigManager
+					.get("harvest.searchUrl", "https://www.google.com/search?tbm=isch&q={term}")
+					.replace("{term}", URLEncoder.encode(term, "UTF-8"))));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		String selector = ConfigManager.get("harvest.imageSelector", "div.H8Rx8c img");
+		int maxScrolls = ConfigManager.getInt("harvest.maxScrolls", 10);
+		Set<String> urls = new LinkedHashSet<>();
+		for (int scroll = 0; scroll <= maxScrolls && urls.size() < limit; scroll++) {
+			int before = urls.size();
+			List<Object> found = (List<Object>) ((JavascriptExecutor) driver).executeScript(COLLECT_SCRIPT, selector,
+					limit * 2);
+			for (Object url : found) {
+				if (urls.size() < limit) {
+					urls.add(String.valueOf(url));
+				}
+			}
+			if (scroll > 0 && urls.size() == before) {
+				break;
+			}
+		}
+		logger.info("Collected {} image URL(s) for '{}'", urls.size(), term);
+		return new ArrayList<>(urls);
+	}
+
+	/**
+	 * Reserves the next request slot for a host and returns how long the caller
+	 * has to wait for it. Slots are spaced by the per-host interval.
+	 */
+	long reserveSlot(String host) {
+		AtomicLong nextSlot = nextSlotByHost.computeIfAbsent(host, h -> new AtomicLong(System.nanoTime()));
+		long now = System.nanoTime();
+		long slot = nextSlot.getAndAccumulate(now, (next, current) -> Math.max(next, current) + hostIntervalNanos);
+		return Math.max(0, Math.max(slot, now) - now);
+	}
+
+	/**
+	 * One image to fetch: the term it was found for, its rank and URL.
+	 */
+	public static class HarvestItem {
+		private final String term;
+		private final int rank;
+		private final String url;
+
+		public HarvestItem(String term, int rank, String url) {
+			this.term = term;
+			this.rank = rank;
+			this.url = url;
+		}
+
+		public String getTerm() {
+			return term;
+		}
+
+		public int getRank() {
+			return rank;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+	}
+
+	/**
+	 * Throughput summary of a harvest; the full per-image detail is in the
+	 * manifest.
+	 */
+	public static class HarvestReport {
+		private final Path manifest;
+		private final int downloaded;
+		private final int failed;
+		private final int duplicates;
+		private final long bytes;
+		private final long elapsedMillis;
+
+		HarvestReport(Path manifest, int downloaded, int failed, int duplicates, long bytes, long elapsedMillis) {
+			this.manifest = manifest;
+			this.downloaded = downloaded;
+			this.failed = failed;
+			this.duplicates = duplicates;
+			this.bytes = bytes;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public Path getManifest() {
+			return manifest;
+		}
+
+		public int getDownloaded() {
+			return downloaded;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public int getDuplicates() {
+			return duplicates;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public double getImagesPerSecond() {
+			return elapsedMillis == 0 ? 0 : downloaded * 1000.0 / elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("downloaded=%d, failed=%d, duplicates=%d, bytes=%d, elapsedMs=%d, imagesPerSecond=%.1f",
+					downloaded, failed, duplicates, bytes, elapsedMillis, getImagesPerSecond());
+		}
+	}
+
+	/**
+	 * State of a single harvest: de-duplication, in-flight downloads and the
+	 * manifest entries they produce.
+	 */
+	private class HarvestRun {
+		private final Path outputDir;
+		private final long started = System.currentTimeMillis();
+		private final Semaphore inFlight = new Semaphore(maxInFlight);
+		private final Set<String> seenUrls = new LinkedHashSet<>();
+		// Content hashes already stored, so the same image behind two URLs is kept once
+		private final Set<String> seenContent = ConcurrentHashMap.newKeySet();
+		private final List<CompletableFuture<Void>> downloads = new ArrayList<>();
+		private final List<Map<String, Object>> entries = Collections.synchronizedList(new ArrayList<>());
+		private int duplicates;
+
+		HarvestRun(Path outputDir) {
+			this.outputDir = outputDir;
+		}
+
+		/**
+		 * Starts downloading an item, blocking while the in-flight limit is
+		 * reached. The request itself is delayed by the host's rate limit.
+		 */
+		void submit(HarvestItem item) {
+			if (!seenUrls.add(item.url)) {
+				duplicates++;
+				return;
+			}
+			String host;
+			try {
+				host = item.url.startsWith("data:") ? null : hostOf(item.url);
+			} catch (MalformedURLException e) {
+				// Recorded before taking a slot, so a bad URL neither holds a permit nor stops the run
+				record(item, null, e);
+				return;
+			}
+			inFlight.acquireUninterruptibly();
+			long delay = host == null ? 0 : reserveSlot(host);
+			CompletableFuture<Void> download = new CompletableFuture<>();
+			SCHEDULER.schedule(() -> {
+				String baseName = sanitize(item.term) + "_" + item.rank;
+				ImageDownloader.downloadAsync(item.url, outputDir.resolve(sanitize(item.term)), baseName)
+						.whenComplete((result, error) -> {
+							record(item, result, error);
+							inFlight.release();
+							download.complete(null);
+						});
+			}, delay, TimeUnit.NANOSECONDS);
+			downloads.add(download);
+		}
+
+		private void record(HarvestItem item, ImageDownloader.DownloadResult result, Throwable error) {
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("term", item.term);
+			entry.put("rank", item.rank);
+			entry.put("url", item.url.startsWith("data:") ? "data:" : item.url);
+			if (error != null) {
+				Throwable cause = error.getCause() != null ? error.getCause() : error;
+				entry.put("status", "failed");
+				entry.put("error", cause.toString());
+			} else if (!seenContent.add(result.getSha256())) {
+				entry.put("status", "duplicate");
+				entry.put("sha256", result.getSha256());
+				try {
+					Files.deleteIfExists(result.getPath());
+				} catch (IOException e) {
+					logger.warn("Failed to remove duplicate image {}", result.getPath(), e);
+				}
+			} else {
+				entry.put("status", "downloaded");
+				entry.put("file", outputDir.relativize(result.getPath()).toString().replace('\\', '/'));
+				entry.put("bytes", result.getBytes());
+				entry.put("sha256", result.getSha256());
+				entry.put("contentType", result.getContentType());
+				entry.put("elapsedMs", result.getElapsedMillis());
+			}
+			entries.add(entry);
+		}
+
+		HarvestReport finish(List<String> terms) throws IOException {
+			CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).join();
+			long elapsed = Math.max(1, System.currentTimeMillis() - started);
+
+			int downloaded = 0;
+			int failed = 0;
+			int contentDuplicates = 0;
+			long bytes = 0;
+			List<Map<String, Object>> images = new ArrayList<>(entries);
+			for (Map<String, Object> entry : images) {
+				if ("downloaded".equals(entry.get("status"))) {
+					downloaded++;
+					bytes += (Long) entry.get("bytes");
+				} else if ("failed".equals(entry.get("status"))) {
+					failed++;
+				} else {
+					contentDuplicates++;
+				}
+			}
+
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put("downloaded", downloaded);
+			stats.put("failed", failed);
+			stats.put("duplicateUrls", duplicates);
+			stats.put("duplicateContent", contentDuplicates);
+			stats.put("bytes", bytes);
+			stats.put("elapsedMs", elapsed);
+			stats.put("imagesPerSecond", downloaded * 1000.0 / elapsed);
+			stats.put("megabytesPerSecond", bytes / 1048576.0 * 1000.0 / elapsed);
+			stats.put("maxInFlight", maxInFlight);
+			stats.put("requestsPerSecondPerHost", TimeUnit.SECONDS.toNanos(1) / (double) hostIntervalNanos);
+
+			Map<String, Object> manifest = new LinkedHashMap<>();
+			manifest.put("terms", terms);
+			manifest.put("startedAt", started);
+			manifest.put("stats", stats);
+			manifest.put("images", images);
+
+			Files.createDirectories(outputDir);
+			Path manifestFile = outputDir.resolve("manifest.json");
+			Files.write(manifestFile, new Json().toJson(manifest).getBytes(StandardCharsets.UTF_8));
+
+			HarvestReport report = new HarvestReport(manifestFile, downloaded, failed, duplicates + contentDuplicates,
+					bytes, elapsed);
+			logger.info("Harvest finished: {}", report);
+			return report;
+		}
+	}
+
+	// Result URLs are not always valid URIs (unescaped spaces, brackets or pipes); URL is more lenient
+	private static String hostOf(String url) throws MalformedURLException {
+		String host;
+		try {
+			host = URI.create(url).getHost();
+		} catch (IllegalArgumentException e) {
+			host = new URL(url).getHost();
+		}
+		return host == null ? "" : host.toLowerCase(Locale.ROOT);
+	}
+
+	private static String sanitize(String value) {
+		return value.replaceAll("[^a-zA-Z0-9\\.\\-]", "_");
+	}
+}
@@ -0,0 +1,86 @@
+package com.google.utils;
+
+import com.relevantcodes.extentreports.ExtentTest;
+import com.relevantcodes.extentreports.LogStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extent test that is not registered with an {@code ExtentReports} instance.
+ * It records its own log entries so that, when it ends, it can be written to
+ * the {@link ReportJournal} as one record and then dropped.
+ */
+class JournaledTest extends ExtentTest {
+    // Statuses from least to most severe; the test's status is the most severe one logged
+    private static final List<LogStatus> SEVERITY = Arrays.asList(LogStatus.UNKNOWN, LogStatus.INFO,
+            LogStatus.PASS, LogStatus.SKIP, LogStatus.WARNING, LogStatus.ERROR, LogStatus.FAIL, LogStatus.FATAL);
+
+    private final String name;
+    private final String description;
+    private final long startedAt = System.currentTimeMillis();
+    private final List<Map<String, Object>> entries = new ArrayList<>();
+    private LogStatus status = LogStatus.UNKNOWN;
+
+    JournaledTest(String name, String description) {
+        super(name, description);
+        this.name = name;
+        this.description = description;
+    }
+
+    @Override
+    public void log(LogStatus logStatus, String details) {
+        log(logStatus, null, details);
+    }
+
+    @Override
+    public void log(LogStatus logStatus, String stepName, String details) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("time", System.currentTimeMillis());
+        entry.put("status", logStatus.toString());
+        if (stepName != null && !stepName.isEmpty()) {
+            entry.put("step", stepName);
+        }
+        entry.put("details", details);
+        synchronized (this) {
+            entries.add(entry);
+            if (SEVERITY.indexOf(logStatus) > SEVERITY.indexOf(status)) {
+                status = logStatus;
+            }
+        }
+        super.log(logStatus, stepName, details);
+    }
+
+    /**
+     * @return Most severe status logged so far
+     */
+    synchronized LogStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Journal record of the test, ended now
+     */
+    synchronized Map<String, Object> toRecord() {
+        long endedAt = System.currentTimeMillis();
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", "test");
+        record.put("name", name);
+        record.put("description", description);
+        record.put("status", status.toString());
+        record.put("startedAt", startedAt);
+        record.put("endedAt", endedAt);
+        record.put("durationMs", endedAt - startedAt);
+        record.put("thread", Thread.currentThread().getName());
+        record.put("logs", new ArrayList<>(entries));
+        // Ended on the thread that ran the test, so these are the test's own steps
+        Map<String, Long> steps = StepMetrics.takeTestSteps();
+        if (!steps.isEmpty()) {
+            record.put("steps", steps);
+        }
+        return record;
+    }
+}
@@ -0,0 +1,123 @@
+package com.google.utils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets: bucket
+ * {@code i} counts samples below {@code 2^i} microseconds. Recording is a
+ * couple of adder increments, so it is cheap enough to call on every wait or
+ * command. Percentiles are approximate (upper bound of the bucket).
+ */
+public class LatencyHistogram {
+	// 2^40 us is about 12 days; anything longer lands in the last bucket
+	private static final int BUCKETS = 41;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalMicros = new LongAdder();
+	private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param nanos Duration of one sample in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets[bucket].increment();
+		count.increment();
+		totalMicros.add(micros);
+		maxMicros.accumulate(micros);
+	}
+
+	/**
+	 * @return Number of recorded samples
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return Sum of all samples in milliseconds
+	 */
+	public double getTotalMillis() {
+		return totalMicros.sum() / 1000.0;
+	}
+
+	/**
+	 * @return Largest sample in milliseconds
+	 */
+	public double getMaxMillis() {
+		return maxMicros.get() / 1000.0;
+	}
+
+	/**
+	 * @return Mean sample in milliseconds, or 0 when nothing was recorded
+	 */
+	public double getMeanMillis() {
+		long samples = count.sum();
+		return samples == 0 ? 0 : totalMicros.sum() / 1000.0 / samples;
+	}
+
+	/**
+	 * @return Snapshot of the bucket counts; element {@code i} counts samples
+	 *         below {@code 2^i} microseconds, the last one also longer samples
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	/**
+	 * @param percentile Percentile between 0 and 100, e.g. 95
+	 * @return Upper bound in milliseconds of the bucket holding the percentile,
+	 *         capped at the largest sample
+	 */
+	public double getPercentileMillis(double percentile) {
+		long samples = count.sum();
+		if (samples == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(samples * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i].sum();
+			if (seen >= rank) {
+				return Math.min(1L << i, maxMicros.get()) / 1000.0;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * Adds every sample of another histogram to this one.
+	 *
+	 * @param other Histogram to merge in
+	 */
+	public void merge(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i].add(other.buckets[i].sum());
+		}
+		count.add(other.count.sum());
+		totalMicros.add(other.totalMicros.sum());
+		maxMicros.accumulate(other.maxMicros.get());
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "count=%d, total=%.1fms, mean=%.1fms, p50=%.1fms, p95=%.1fms, max=%.1fms",
+				getCount(), getTotalMillis(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(95),
+				getMaxMillis());
+	}
+}
@@ -0,0 +1,83 @@
+package com.google.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WrapsDriver;
+import org.openqa.selenium.interactions.Interactive;
+
+/**
+ * A driver that stands for the driver of whichever thread uses it. Nothing is
+ * launched until the first real command, which acquires the thread's driver
+ * through {@link DriverManager#getDriver()}; test classes and page objects can
+ * therefore hold it from construction without starting a browser.
+ * <p>
+ * {@code quit()} releases the thread's driver through
+ * {@link DriverManager#quitDriver()} so that launches and quits stay balanced,
+ * and {@code quit()} or {@code close()} before any command does nothing.
+ */
+final class LazyDriver implements InvocationHandler {
+	// Interfaces code casts the driver to; calls the actual driver lacks fail with UnsupportedCommandException
+	private static final Class<?>[] INTERFACES = { WebDriver.class, JavascriptExecutor.class,
+			TakesScreenshot.class, HasCapabilities.class, Interactive.class, WrapsDriver.class };
+
+	static final WebDriver INSTANCE = (WebDriver) Proxy.newProxyInstance(LazyDriver.class.getClassLoader(),
+			INTERFACES, new LazyDriver());
+
+	private LazyDriver() {
+	}
+
+	/**
+	 * @param driver Driver as held by the caller
+	 * @return The thread's actual driver if {@code driver} is the lazy one,
+	 *         otherwise {@code driver} itself
+	 */
+	static WebDriver resolve(WebDriver driver) {
+		return driver == INSTANCE ? DriverManager.getDriver() : driver;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Class<?> declaringClass = method.getDeclaringClass();
+		if (declaringClass == Object.class) {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				return "LazyDriver[" + (DriverManager.hasDriver() ? DriverManager.getDriver() : "not launched") + "]";
+			}
+		}
+		if (declaringClass == WrapsDriver.class) {
+			return DriverManager.getDriver();
+		}
+		if (method.getName().equals("quit") || method.getName().equals("close")) {
+			if (!DriverManager.hasDriver()) {
+				return null;
+			}
+			if (method.getName().equals("quit")) {
+				DriverManager.quitDriver();
+				return null;
+			}
+		}
+
+		WebDriver target = DriverManager.getDriver();
+		if (!declaringClass.isInstance(target)) {
+			throw new UnsupportedCommandException(
+					target.getClass().getSimpleName() + " does not implement " + declaringClass.getSimpleName());
+		}
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
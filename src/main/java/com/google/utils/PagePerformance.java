@@ -0,0 +1,494 @@
+package com.google.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chromium.HasCdp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.relevantcodes.extentreports.ExtentTest;
+import com.relevantcodes.extentreports.LogStatus;
+
+/**
+ * Page performance of page-object steps, read from the browser's performance
+ * timeline once a navigation or form submission has loaded:
+ * <ul>
+ * <li>Navigation Timing: {@code ttfb}, {@code domContentLoaded} and
+ * {@code load}, in milliseconds since the navigation started;</li>
+ * <li>Paint Timing: {@code fcp}, and {@code lcp} where the browser reports
+ * Largest Contentful Paint (Chromium does, Firefox and Safari do not);</li>
+ * <li>Resource Timing: {@code resources} and their {@code transferSize} in
+ * KB, including the document;</li>
+ * <li>on Chrome and Edge, unless {@code perf.cdp=false}, DevTools
+ * {@code Performance.getMetrics}: {@code jsHeap} in MB, {@code nodes},
+ * {@code layouts}, and {@code scriptTime} and {@code taskTime} in
+ * milliseconds.</li>
+ * </ul>
+ * {@link #record(WebDriver)} captures a {@link Sample} for the current
+ * {@link StepMetrics} step and checks it against the budgets in the
+ * configuration: {@code perf.budget.<metric>} for every step, overridden by
+ * {@code perf.budget.<step>.<metric>} for one step, e.g.
+ * {@code perf.budget.GoogleHomePage.open.lcp=4000}. The sample is logged to
+ * the current report test as one line. A sample over budget fails the step
+ * with {@link BudgetExceededException} if {@code perf.failOnBudget=true}; when
+ * that is blank, only while {@code replay.mode=replay}, since live timings
+ * depend on the network. Otherwise it is a warning.
+ * When the step did not load a new document, only the resources loaded since
+ * the previous sample are reported.
+ */
+public final class PagePerformance {
+	// Logger to record samples and missing DevTools metrics
+	private static final Logger logger = LoggerFactory.getLogger(PagePerformance.class);
+
+	// Metrics in milliseconds, summarized per step for the report
+	private static final List<String> TIMINGS = Arrays.asList("ttfb", "fcp", "lcp", "domContentLoaded", "load");
+	private static final Map<String, String> UNITS = new LinkedHashMap<>();
+
+	static {
+		for (String timing : TIMINGS) {
+			UNITS.put(timing, "ms");
+		}
+		UNITS.put("resources", "");
+		UNITS.put("transferSize", " KB");
+		UNITS.put("jsHeap", " MB");
+		UNITS.put("nodes", "");
+		UNITS.put("layouts", "");
+		UNITS.put("scriptTime", "ms");
+		UNITS.put("taskTime", "ms");
+	}
+
+	// Returns the page's timeline once it has loaded
+	private static final String TIMELINE_SCRIPT = "var done = arguments[arguments.length - 1];"
+			+ "function pick(entry, keys) { var picked = {}; keys.forEach(function(key) { picked[key] = entry[key]; }); return picked; }"
+			+ "function collect() {"
+			+ "  var navigation = performance.getEntriesByType('navigation')[0];"
+			+ "  var result = { url: location.href, timeOrigin: performance.timeOrigin, now: performance.now(),"
+			+ "    navigation: navigation ? pick(navigation, ['name', 'type', 'startTime', 'responseStart', 'responseEnd',"
+			+ "      'domContentLoadedEventEnd', 'loadEventEnd', 'transferSize']) : null,"
+			+ "    paint: performance.getEntriesByType('paint').map(function(entry) { return pick(entry, ['name', 'startTime']); }),"
+			+ "    resources: performance.getEntriesByType('resource').map(function(entry) { return pick(entry, ['name', 'initiatorType', 'startTime', 'duration', 'transferSize']); }),"
+			+ "    lcp: null };"
+			+ "  function finish() { if (done) { var callback = done; done = null; callback(result); } }"
+			+ "  try {"
+			+ "    var observer = new PerformanceObserver(function(list) {"
+			+ "      var entries = list.getEntries(); result.lcp = entries[entries.length - 1].startTime; finish(); });"
+			+ "    observer.observe({ type: 'largest-contentful-paint', buffered: true });"
+			+ "    setTimeout(function() { observer.disconnect(); finish(); }, 100);"
+			+ "  } catch (e) { finish(); }"
+			+ "}"
+			+ "if (document.readyState === 'complete') { collect(); }"
+			+ "else { window.addEventListener('load', function() { setTimeout(collect, 0); }); }";
+
+	// DevTools metric, the name it is reported as and the factor to its unit
+	private static final String[][] CDP_METRICS = { { "JSHeapUsedSize", "jsHeap", String.valueOf(1.0 / (1024 * 1024)) },
+			{ "Nodes", "nodes", "1" }, { "LayoutCount", "layouts", "1" }, { "ScriptDuration", "scriptTime", "1000" },
+			{ "TaskDuration", "taskTime", "1000" } };
+
+	// Document of the previous sample on this thread and when it was taken, in its own time
+	private static final ThreadLocal<Object[]> previous = new ThreadLocal<>();
+	private static final Map<String, Stats> STEPS = new ConcurrentHashMap<>();
+
+	// Private constructor to prevent instantiation
+	private PagePerformance() {
+	}
+
+	/**
+	 * Captures the performance of the page loaded by the current step, logs it
+	 * to the current report test and checks it against the configured budgets.
+	 *
+	 * @param driver Driver showing the page
+	 * @return Sample of the page, or null if {@code perf.enabled=false}
+	 * @throws BudgetExceededException if the sample is over budget and
+	 *                                 {@code perf.failOnBudget} is set
+	 */
+	public static Sample record(WebDriver driver) {
+		if (!ConfigManager.getBoolean("perf.enabled", true)) {
+			return null;
+		}
+		return record(driver, Budgets.fromConfig());
+	}
+
+	/**
+	 * Like {@link #record(WebDriver)}, with the given budgets instead of the
+	 * configured ones.
+	 *
+	 * @param driver  Driver showing the page
+	 * @param budgets Budgets to check the sample against
+	 * @return Sample of the page
+	 * @throws BudgetExceededException if the sample is over budget and the
+	 *                                 budgets fail steps
+	 */
+	public static Sample record(WebDriver driver, Budgets budgets) {
+		Sample sample = capture(driver, StepMetrics.currentStep(), budgets);
+		stats(sample.getStep()).record(sample);
+		ExtentTest test = ExtentUtility.getTest();
+		if (test != null) {
+			test.log(sample.isWithinBudget() ? LogStatus.INFO : LogStatus.WARNING, sample.getStep(),
+					"Performance: " + sample);
+		}
+		logger.debug("{}: {}", sample.getStep(), sample);
+		if (!sample.isWithinBudget() && budgets.failOnBudget) {
+			throw new BudgetExceededException(sample);
+		}
+		return sample;
+	}
+
+	/**
+	 * Like {@link #record(WebDriver)}, for a step that started a navigation
+	 * without waiting for it, e.g. by submitting a form: waits until the
+	 * browser has left the previous page first, so the new page is measured.
+	 *
+	 * @param driver      Driver showing the page
+	 * @param previousUrl URL of the page before the step
+	 * @return Sample of the new page, or null if {@code perf.enabled=false}
+	 * @throws BudgetExceededException if the sample is over budget and
+	 *                                 {@code perf.failOnBudget} is set
+	 */
+	public static Sample record(WebDriver driver, String previousUrl) {
+		if (!ConfigManager.getBoolean("perf.enabled", true)) {
+			return null;
+		}
+		Waits.forDriver(driver).until("navigation from " + previousUrl, d -> !previousUrl.equals(d.getCurrentUrl()));
+		return record(driver);
+	}
+
+	/**
+	 * Captures the performance of the page without logging or failing.
+	 *
+	 * @param driver Driver showing the page
+	 * @param step   Name of the step the sample belongs to, used for its budgets
+	 * @return Sample of the page, checked against the configured budgets
+	 */
+	public static Sample capture(WebDriver driver, String step) {
+		return capture(driver, step, Budgets.fromConfig());
+	}
+
+	/**
+	 * Captures the performance of the page without logging or failing.
+	 *
+	 * @param driver  Driver showing the page
+	 * @param step    Name of the step the sample belongs to
+	 * @param budgets Budgets to check the sample against
+	 * @return Sample of the page
+	 */
+	@SuppressWarnings("unchecked")
+	public static Sample capture(WebDriver driver, String step, Budgets budgets) {
+		Map<String, Object> timeline = (Map<String, Object>) ((JavascriptExecutor) driver)
+				.executeAsyncScript(TIMELINE_SCRIPT);
+		Object[] last = previous.get();
+		boolean sameDocument = last != null && last[0].equals(timeline.get("url"))
+				&& (Double) last[1] == number(timeline.get("timeOrigin"));
+		// Resources of a page that was already sampled count for the step that loaded them
+		double since = sameDocument ? (Double) last[2] : 0;
+		previous.set(new Object[] { timeline.get("url"), number(timeline.get("timeOrigin")),
+				number(timeline.get("now")) });
+
+		Map<String, Double> metrics = new LinkedHashMap<>();
+		double transferBytes = 0;
+		Map<String, Object> navigation = (Map<String, Object>) timeline.get("navigation");
+		if (!sameDocument && navigation != null) {
+			metrics.put("ttfb", number(navigation.get("responseStart")));
+			for (Object paint : (List<Object>) timeline.get("paint")) {
+				if ("first-contentful-paint".equals(((Map<String, Object>) paint).get("name"))) {
+					metrics.put("fcp", number(((Map<String, Object>) paint).get("startTime")));
+				}
+			}
+			if (timeline.get("lcp") != null) {
+				metrics.put("lcp", number(timeline.get("lcp")));
+			}
+			metrics.put("domContentLoaded", number(navigation.get("domContentLoadedEventEnd")));
+			metrics.put("load", number(navigation.get("loadEventEnd")));
+			transferBytes += number(navigation.get("transferSize"));
+		}
+		int resources = 0;
+		for (Object resource : (List<Object>) timeline.get("resources")) {
+			if (number(((Map<String, Object>) resource).get("startTime")) >= since) {
+				transferBytes += number(((Map<String, Object>) resource).get("transferSize"));
+				resources++;
+			}
+		}
+		metrics.put("resources", (double) resources + (sameDocument || navigation == null ? 0 : 1));
+		metrics.put("transferSize", transferBytes / 1024);
+		metrics.putAll(devToolsMetrics(driver));
+		return new Sample(step, String.valueOf(timeline.get("url")), !sameDocument, metrics,
+				violations(step, metrics, budgets));
+	}
+
+	/**
+	 * @return One line per step with samples: budget violations and the median
+	 *         and 95th percentile of each timing; or null if nothing was recorded
+	 */
+	public static String getStats() {
+		if (STEPS.isEmpty()) {
+			return null;
+		}
+		StringBuilder stats = new StringBuilder();
+		for (Map.Entry<String, Stats> entry : new TreeMap<>(STEPS).entrySet()) {
+			Stats step = entry.getValue();
+			stats.append(entry.getKey()).append(": samples=").append(step.samples.sum()).append(", overBudget=")
+					.append(step.overBudget.sum());
+			for (String timing : TIMINGS) {
+				LatencyHistogram histogram = step.timings.get(timing);
+				if (histogram != null) {
+					stats.append(String.format(Locale.ROOT, ", %s p50=%.0fms p95=%.0fms", timing,
+							histogram.getPercentileMillis(50), histogram.getPercentileMillis(95)));
+				}
+			}
+			stats.append('\n');
+		}
+		return stats.toString().trim();
+	}
+
+	/**
+	 * Clears the recorded statistics.
+	 */
+	public static void resetStats() {
+		STEPS.clear();
+	}
+
+	// Chromium DevTools metrics; empty for other browsers or when disabled
+	private static Map<String, Double> devToolsMetrics(WebDriver driver) {
+		WebDriver target = LazyDriver.resolve(driver);
+		if (!(target instanceof HasCdp) || !ConfigManager.getBoolean("perf.cdp", true)) {
+			return Collections.emptyMap();
+		}
+		Map<String, Double> metrics = new LinkedHashMap<>();
+		try {
+			HasCdp devTools = (HasCdp) target;
+			devTools.executeCdpCommand("Performance.enable", Collections.emptyMap());
+			Map<String, Double> reported = new LinkedHashMap<>();
+			for (Object metric : (List<?>) devTools.executeCdpCommand("Performance.getMetrics", Collections.emptyMap())
+					.get("metrics")) {
+				Map<?, ?> entry = (Map<?, ?>) metric;
+				reported.put(String.valueOf(entry.get("name")), number(entry.get("value")));
+			}
+			for (String[] metric : CDP_METRICS) {
+				if (reported.containsKey(metric[0])) {
+					metrics.put(metric[1], reported.get(metric[0]) * Double.parseDouble(metric[2]));
+				}
+			}
+		} catch (WebDriverException | ClassCastException e) {
+			// The timeline is still useful without them, e.g. on a remote driver without DevTools
+			logger.debug("DevTools performance metrics are not available: {}", e.toString());
+		}
+		return metrics;
+	}
+
+	// "<metric> <value> > <budget>" for each metric over its budget
+	private static List<String> violations(String step, Map<String, Double> metrics, Budgets budgets) {
+		List<String> violations = new ArrayList<>();
+		for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+			double budget = budgets.limit(step, metric.getKey());
+			if (!Double.isNaN(budget) && metric.getValue() > budget) {
+				violations.add(metric.getKey() + " " + format(metric.getKey(), metric.getValue()) + " > "
+						+ format(metric.getKey(), budget));
+			}
+		}
+		return violations;
+	}
+
+	private static Stats stats(String step) {
+		return STEPS.computeIfAbsent(step, name -> new Stats());
+	}
+
+	private static double number(Object value) {
+		return value instanceof Number ? ((Number) value).doubleValue() : 0;
+	}
+
+	private static String format(String metric, double value) {
+		String unit = UNITS.containsKey(metric) ? UNITS.get(metric) : "";
+		return (value == Math.rint(value) || Math.abs(value) >= 100 ? String.format(Locale.ROOT, "%.0f", value)
+				: String.format(Locale.ROOT, "%.1f", value)) + unit;
+	}
+
+	/**
+	 * Budgets samples are checked against, and whether a sample over budget
+	 * fails its step.
+	 */
+	public static final class Budgets {
+		// Budget per "<metric>" or "<step>.<metric>"; null to read perf.budget.* from the configuration
+		private final Map<String, Double> limits;
+		private final boolean failOnBudget;
+
+		/**
+		 * @param limits       Budget per {@code <metric>} for every step, or per
+		 *                     {@code <step>.<metric>} for one step
+		 * @param failOnBudget true to fail a step over budget, false to only warn
+		 */
+		public Budgets(Map<String, Double> limits, boolean failOnBudget) {
+			this.limits = new LinkedHashMap<>(limits);
+			this.failOnBudget = failOnBudget;
+		}
+
+		private Budgets(boolean failOnBudget) {
+			this.limits = null;
+			this.failOnBudget = failOnBudget;
+		}
+
+		/**
+		 * @return The {@code perf.budget.*} budgets; they fail steps if
+		 *         {@code perf.failOnBudget=true}, or if it is blank and
+		 *         {@code replay.mode=replay}
+		 */
+		public static Budgets fromConfig() {
+			return new Budgets(ConfigManager.getBoolean("perf.failOnBudget",
+					ConfigManager.getEnum("replay.mode", ReplayServer.Mode.class,
+							ReplayServer.Mode.OFF) == ReplayServer.Mode.REPLAY));
+		}
+
+		// Budget of a metric in a step, or NaN if it has none
+		double limit(String step, String metric) {
+			if (limits == null) {
+				return ConfigManager.getDouble("perf.budget." + step + "." + metric,
+						ConfigManager.getDouble("perf.budget." + metric, Double.NaN));
+			}
+			Double limit = limits.containsKey(step + "." + metric) ? limits.get(step + "." + metric)
+					: limits.get(metric);
+			return limit == null ? Double.NaN : limit;
+		}
+	}
+
+	/**
+	 * Performance of one page load, or of the resources a step loaded into the
+	 * current page.
+	 */
+	public static final class Sample {
+		private final String step;
+		private final String url;
+		private final boolean navigation;
+		private final Map<String, Double> metrics;
+		private final List<String> violations;
+
+		Sample(String step, String url, boolean navigation, Map<String, Double> metrics, List<String> violations) {
+			this.step = step;
+			this.url = url;
+			this.navigation = navigation;
+			this.metrics = Collections.unmodifiableMap(metrics);
+			this.violations = Collections.unmodifiableList(violations);
+		}
+
+		/**
+		 * @return Step the sample was taken in
+		 */
+		public String getStep() {
+			return step;
+		}
+
+		/**
+		 * @return URL of the page
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return true if the step loaded a new document, false if it only loaded
+		 *         resources into the current one
+		 */
+		public boolean isNavigation() {
+			return navigation;
+		}
+
+		/**
+		 * @param metric Name of a metric, e.g. {@code lcp}
+		 * @return Value of the metric, or null if it was not measured
+		 */
+		public Double get(String metric) {
+			return metrics.get(metric);
+		}
+
+		/**
+		 * @return Measured metrics, in the order they are reported
+		 */
+		public Map<String, Double> getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 * @return One {@code <metric> <value> > <budget>} entry per metric over
+		 *         its budget
+		 */
+		public List<String> getViolations() {
+			return violations;
+		}
+
+		/**
+		 * @return true if no metric is over its budget
+		 */
+		public boolean isWithinBudget() {
+			return violations.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+				text.append(text.length() == 0 ? "" : ", ").append(metric.getKey()).append('=')
+						.append(format(metric.getKey(), metric.getValue()));
+			}
+			if (!navigation) {
+				text.append(" (same document)");
+			}
+			if (!violations.isEmpty()) {
+				text.append("; over budget: ").append(String.join(", ", violations));
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * Thrown by {@link PagePerformance#record(WebDriver)} when a page is over
+	 * its budget. It is an assertion failure, so the step is not retried.
+	 */
+	public static class BudgetExceededException extends AssertionError {
+		private static final long serialVersionUID = 1L;
+
+		private final transient Sample sample;
+
+		BudgetExceededException(Sample sample) {
+			super(sample.getStep() + " is over its performance budget: " + String.join(", ", sample.getViolations()));
+			this.sample = sample;
+		}
+
+		/**
+		 * @return Sample that is over budget
+		 */
+		public Sample getSample() {
+			return sample;
+		}
+	}
+
+	// Run-wide samples of one step
+	private static final class Stats {
+		private final LongAdder samples = new LongAdder();
+		private final LongAdder overBudget = new LongAdder();
+		private final Map<String, LatencyHistogram> timings = new ConcurrentHashMap<>();
+
+		void record(Sample sample) {
+			samples.increment();
+			if (!sample.isWithinBudget()) {
+				overBudget.increment();
+			}
+			for (String timing : TIMINGS) {
+				Double millis = sample.get(timing);
+				if (millis != null) {
+					timings.computeIfAbsent(timing, name -> new LatencyHistogram())
+							.record((long) (millis * TimeUnit.MILLISECONDS.toNanos(1)));
+				}
+			}
+		}
+	}
+}
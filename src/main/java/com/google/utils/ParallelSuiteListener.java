@@ -0,0 +1,72 @@
+package com.google.utils;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.IAlterSuiteListener;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Sizes TestNG's thread pools to the browser capacity before the suite
+ * starts. With {@code parallel.enabled=true} at most {@code parallel.threads}
+ * test invocations run at once; when that is 0 the count is the number of
+ * cores, capped at {@code driverPool.size} when the driver pool is enabled so
+ * no thread waits for a browser. Each thread gets its own driver through
+ * {@link DriverManager}'s ThreadLocal, acquired per test method by
+ * {@code BaseClass}.
+ * <p>
+ * TestNG gives every parallel data-driven method a data-provider pool of its
+ * own next to the method threads, so up to method threads times data-provider
+ * threads invocations run at once. The rows of a method get
+ * {@code parallel.dataProviderThreads} of the threads (default 0: all of them,
+ * since the suite is mostly data-driven) and the methods the rest, so the
+ * product stays within the thread count.
+ * <p>
+ * Registered in testng.xml; runs that do not use the listener stay serial.
+ */
+public class ParallelSuiteListener implements IAlterSuiteListener {
+	// Logger to record the chosen thread counts
+	private static final Logger logger = LoggerFactory.getLogger(ParallelSuiteListener.class);
+
+	private static volatile boolean parallel;
+
+	@Override
+	public void alter(List<XmlSuite> suites) {
+		parallel = ConfigManager.getBoolean("parallel.enabled", false);
+		int threads = parallel ? threadCount() : 1;
+		int configured = ConfigManager.getInt("parallel.dataProviderThreads", 0);
+		int dataProviderThreads = configured <= 0 ? threads : Math.min(threads, configured);
+		int methodThreads = threads / dataProviderThreads;
+		for (XmlSuite suite : suites) {
+			suite.setParallel(parallel ? XmlSuite.ParallelMode.METHODS : XmlSuite.ParallelMode.NONE);
+			suite.setThreadCount(methodThreads);
+			suite.setDataProviderThreadCount(dataProviderThreads);
+			logger.info("Suite {}: parallel={}, method threads={}, data-provider threads={}", suite.getName(), parallel,
+					methodThreads, dataProviderThreads);
+		}
+	}
+
+	/**
+	 * @return true if the running suite executes test methods in parallel, in
+	 *         which case every test method checks out its own driver
+	 */
+	public static boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @return configured thread count, or cores capped at the driver pool size
+	 */
+	static int threadCount() {
+		int configured = ConfigManager.getInt("parallel.threads", 0);
+		if (configured > 0) {
+			return configured;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (ConfigManager.getBoolean("driverPool.enabled", false)) {
+			threads = Math.min(threads, ConfigManager.getInt("driverPool.size", 1));
+		}
+		return Math.max(1, threads);
+	}
+}
@@ -0,0 +1,68 @@
+package com.google.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares launch time, page load time and memory of browser profiles. Each
+ * profile is launched {@code profile.compare.runs} times, one browser at a
+ * time; after loading {@code url} the resident memory of all driver and
+ * browser processes is summed from {@code /proc} (Linux only).
+ * <p>
+ * Usage: {@code ProfileComparison [profile ...]}; without arguments the
+ * profiles listed in {@code profile.compare} are compared.
+ */
+public class ProfileComparison {
+	// Logger to record comparison progress
+	private static final Logger logger = LoggerFactory.getLogger(ProfileComparison.class);
+
+	public static void main(String[] args) {
+		List<String> profiles = args.length > 0 ? Arrays.asList(args)
+				: Arrays.asList(ConfigManager.get("profile.compare", "default").split(","));
+		int runs = ConfigManager.getInt("profile.compare.runs", 3);
+		String url = ConfigManager.get("url");
+
+		List<String> rows = new ArrayList<>();
+		rows.add(String.format(Locale.ROOT, "%-12s %6s %12s %12s %10s %10s", "profile", "runs", "startup ms",
+				"load ms", "RSS MB", "processes"));
+		for (String name : profiles) {
+			rows.add(measure(BrowserProfile.named(name), runs, url));
+		}
+		logger.info("Browser profile comparison:\n{}", String.join("\n", rows));
+		System.out.println(String.join(System.lineSeparator(), rows));
+	}
+
+	private static String measure(BrowserProfile profile, int runs, String url) {
+		LatencyHistogram startup = new LatencyHistogram();
+		LatencyHistogram load = new LatencyHistogram();
+		long rssKb = 0;
+		long processes = 0;
+		for (int run = 0; run < runs; run++) {
+			long start = System.nanoTime();
+			WebDriver driver = DriverManager.launchDriver(profile);
+			try {
+				startup.record(System.nanoTime() - start);
+				start = System.nanoTime();
+				driver.get(url);
+				load.record(System.nanoTime() - start);
+				Set<Long> pids = BrowserProcesses.descendants();
+				rssKb += BrowserProcesses.residentKb(pids);
+				processes += pids.size();
+			} finally {
+				DriverManager.quit(driver);
+			}
+		}
+		logger.info("Profile {}: startup {}, load {}", profile, startup, load);
+		return String.format(Locale.ROOT, "%-12s %6d %12.0f %12.0f %10s %10d", profile.getName(), runs,
+				startup.getMeanMillis(), load.getMeanMillis(),
+				BrowserProcesses.isSupported() ? String.format(Locale.ROOT, "%.0f", rssKb / 1024.0 / runs) : "n/a",
+				processes / runs);
+	}
+}
@@ -0,0 +1,521 @@
+package com.google.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openqa.selenium.json.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server that records the site under test and replays it, so
+ * suites do not depend on the latency and markup of the live site.
+ * <ul>
+ * <li>{@code record}: requests are forwarded to the upstream origin (the
+ * {@code url} property by default) and every response is saved under
+ * {@code replay.dir}.</li>
+ * <li>{@code replay}: responses are served from {@code replay.dir} only; a
+ * request that was never recorded gets a 404 and is counted as a miss.</li>
+ * </ul>
+ * The browser is pointed at the server through {@link #resolve(String)}.
+ * Absolute links to the upstream origin and to {@code replay.extraOrigins}
+ * (e.g. the image CDN) are rewritten to the local server when a response is
+ * served, so recordings stay valid whatever port the server gets. Requests
+ * are matched on method, origin, path and query, ignoring the query
+ * parameters in {@code replay.ignoreParams} that change on every visit.
+ * <p>
+ * Each recording keeps the time the live site took to answer, so
+ * {@link #getStats()} compares the live latency of the requests a run made
+ * with the time the local server needed for them.
+ */
+public class ReplayServer {
+	// Logger to record misses and the latency summary
+	private static final Logger logger = LoggerFactory.getLogger(ReplayServer.class);
+
+	// Path prefix under which extra origins are served, e.g. /_replay/www.gstatic.com/images/x.png
+	private static final String ORIGIN_PREFIX = "/_replay/";
+	private static final Set<String> FORWARDED_RESPONSE_HEADERS = new HashSet<>(Arrays.asList("content-type",
+			"location", "set-cookie", "cache-control", "expires", "last-modified", "etag", "content-language"));
+	private static final Pattern CHARSET = Pattern.compile("charset=\"?([\\w.:-]+)");
+	private static final Set<String> SKIPPED_REQUEST_HEADERS = new HashSet<>(Arrays.asList("host", "connection",
+			"accept-encoding", "content-length", "keep-alive", "transfer-encoding", "origin", "referer"));
+
+	private static volatile ReplayServer active;
+
+	public enum Mode {
+		OFF, RECORD, REPLAY
+	}
+
+	private final Mode mode;
+	private final Path directory;
+	private final String upstream;
+	// Extra origins by authority, e.g. www.gstatic.com -> https://www.gstatic.com
+	private final Map<String, String> extraOrigins = new LinkedHashMap<>();
+	private final Set<String> ignoredParams;
+	private final Map<String, Recording> recordings = new ConcurrentHashMap<>();
+	private final LatencyHistogram liveLatency = new LatencyHistogram();
+	private final LatencyHistogram localLatency = new LatencyHistogram();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final Json json = new Json();
+	private HttpServer server;
+	private ExecutorService executor;
+	private String localOrigin;
+
+	/**
+	 * @param mode          {@link Mode#RECORD} or {@link Mode#REPLAY}
+	 * @param directory     Directory the recordings are written to and read from
+	 * @param upstream      Origin served at the root of the server, e.g.
+	 *                      {@code https://www.google.com}
+	 * @param extraOrigins  Further origins served under {@code /_replay/<host>}
+	 * @param ignoredParams Query parameters left out when matching requests
+	 */
+	public ReplayServer(Mode mode, Path directory, String upstream, List<String> extraOrigins,
+			Set<String> ignoredParams) {
+		if (mode == Mode.OFF) {
+			throw new IllegalArgumentException("A replay server needs mode RECORD or REPLAY");
+		}
+		this.mode = mode;
+		this.directory = directory;
+		this.upstream = origin(upstream);
+		for (String extra : extraOrigins) {
+			String origin = origin(extra);
+			this.extraOrigins.put(URI.create(origin).getRawAuthority(), origin);
+		}
+		this.ignoredParams = ignoredParams;
+	}
+
+	/**
+	 * Starts the server configured by {@code replay.*} unless
+	 * {@code replay.mode} is {@code off}, and makes it the one
+	 * {@link #resolve(String)} points the browser at.
+	 *
+	 * @return The running server, or null when record/replay is off
+	 * @throws IOException if the server cannot be started
+	 */
+	public static synchronized ReplayServer startFromConfig() throws IOException {
+		Mode mode = ConfigManager.getEnum("replay.mode", Mode.class, Mode.OFF);
+		if (mode == Mode.OFF || active != null) {
+			return active;
+		}
+		if ("fake".equalsIgnoreCase(ConfigManager.get("browser", ""))) {
+			logger.info("Record/replay is not used with the fake browser, which serves its own fixtures");
+			return null;
+		}
+		ReplayServer replayServer = new ReplayServer(mode, Paths.get(ConfigManager.get("replay.dir", "replay")),
+				ConfigManager.get("replay.upstream", ConfigManager.get("url")),
+				split(ConfigManager.get("replay.extraOrigins", "")),
+				new HashSet<>(split(ConfigManager.get("replay.ignoreParams", ""))));
+		replayServer.start(ConfigManager.getInt("replay.port", 0));
+		active = replayServer;
+		return replayServer;
+	}
+
+	/**
+	 * Stops the server started by {@link #startFromConfig()}.
+	 *
+	 * @return Latency summary of the run, or null when no server was running
+	 */
+	public static synchronized String stopActive() {
+		ReplayServer replayServer = active;
+		if (replayServer == null) {
+			return null;
+		}
+		active = null;
+		replayServer.stop();
+		String stats = replayServer.getStats();
+		logger.info("Record/replay: {}", stats);
+		return stats;
+	}
+
+	/**
+	 * Maps a URL of a recorded origin to the running replay server; other URLs,
+	 * or any URL while record/replay is off, are returned unchanged.
+	 *
+	 * @param url URL of the live site, e.g. the {@code url} property
+	 * @return URL to open in the browser
+	 */
+	public static String resolve(String url) {
+		ReplayServer replayServer = active;
+		return replayServer == null ? url : replayServer.toLocal(url);
+	}
+
+	/**
+	 * @param port Port to listen on, 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public synchronized void start(int port) throws IOException {
+		AtomicInteger threads = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "replay-server-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+		localOrigin = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+				+ server.getAddress().getPort();
+		logger.info("{} {} at {} using {}", mode == Mode.RECORD ? "Recording" : "Replaying", upstream, localOrigin,
+				directory.toAbsolutePath());
+	}
+
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * @return Origin of the local server, e.g. {@code http://127.0.0.1:52114}
+	 */
+	public String getLocalOrigin() {
+		return localOrigin;
+	}
+
+	/**
+	 * @param url URL of a recorded origin
+	 * @return The same resource on the local server, or the URL unchanged if its
+	 *         origin is not recorded
+	 */
+	public String toLocal(String url) {
+		URI uri = URI.create(url);
+		if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+			return url;
+		}
+		String origin = uri.getScheme().toLowerCase(Locale.ROOT) + "://"
+				+ uri.getRawAuthority().toLowerCase(Locale.ROOT);
+		String rest = url.substring(url.indexOf(uri.getRawAuthority()) + uri.getRawAuthority().length());
+		if (origin.equals(upstream)) {
+			return localOrigin + rest;
+		}
+		if (extraOrigins.containsValue(origin)) {
+			return localOrigin + ORIGIN_PREFIX + uri.getRawAuthority().toLowerCase(Locale.ROOT) + rest;
+		}
+		return url;
+	}
+
+	/**
+	 * @return Requests served, misses, and live versus local latency
+	 */
+	public String getStats() {
+		double live = liveLatency.getTotalMillis();
+		double local = localLatency.getTotalMillis();
+		return String.format(Locale.ROOT,
+				"mode=%s, requests=%d, misses=%d, live p50=%.1fms p95=%.1fms total=%.0fms, "
+						+ "local p50=%.1fms p95=%.1fms total=%.0fms, %.1fx faster",
+				mode.name().toLowerCase(Locale.ROOT), requests.sum(), misses.sum(),
+				liveLatency.getPercentileMillis(50), liveLatency.getPercentileMillis(95), live,
+				localLatency.getPercentileMillis(50), localLatency.getPercentileMillis(95), local,
+				local > 0 ? live / local : 0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		requests.increment();
+		try {
+			String path = exchange.getRequestURI().getRawPath();
+			String query = exchange.getRequestURI().getRawQuery();
+			String origin = upstream;
+			if (path.startsWith(ORIGIN_PREFIX)) {
+				int slash = path.indexOf('/', ORIGIN_PREFIX.length());
+				origin = extraOrigins.get(path.substring(ORIGIN_PREFIX.length(), slash < 0 ? path.length() : slash));
+				path = slash < 0 ? "/" : path.substring(slash);
+			}
+			String target = path + (query == null ? "" : "?" + query);
+			Recording recording = null;
+			if (origin != null) {
+				String key = key(exchange.getRequestMethod(), origin, path, query);
+				if (mode == Mode.RECORD) {
+					recording = fetch(exchange, origin + target);
+					save(key, recording);
+				} else {
+					recording = load(key);
+				}
+			}
+			if (recording == null) {
+				misses.increment();
+				logger.warn("No recording for {} {}{}", exchange.getRequestMethod(), origin, target);
+				byte[] body = ("Not recorded: " + target).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(404, body.length);
+				exchange.getResponseBody().write(body);
+				return;
+			}
+			send(exchange, recording);
+			liveLatency.record(recording.liveNanos);
+		} finally {
+			exchange.close();
+			localLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	// Forwards the request to the live site and captures the whole response
+	private Recording fetch(HttpExchange exchange, String url) throws IOException {
+		long start = System.nanoTime();
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		connection.setRequestMethod(exchange.getRequestMethod());
+		for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+			if (!SKIPPED_REQUEST_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+				for (String value : header.getValue()) {
+					connection.addRequestProperty(header.getKey(), value);
+				}
+			}
+		}
+		// Bodies are rewritten when served, so they must not be compressed
+		connection.setRequestProperty("Accept-Encoding", "identity");
+		byte[] requestBody = readFully(exchange.getRequestBody());
+		if (requestBody.length > 0) {
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(requestBody);
+			}
+		}
+		Recording recording = new Recording();
+		recording.url = url;
+		recording.status = connection.getResponseCode();
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			if (header.getKey() != null && FORWARDED_RESPONSE_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+				recording.headers.put(header.getKey(), header.getValue());
+			}
+		}
+		InputStream in = recording.status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		recording.body = in == null ? new byte[0] : readFully(in);
+		recording.liveNanos = System.nanoTime() - start;
+		return recording;
+	}
+
+	private void send(HttpExchange exchange, Recording recording) throws IOException {
+		String contentType = "";
+		for (Map.Entry<String, List<String>> header : recording.headers.entrySet()) {
+			String name = header.getKey().toLowerCase(Locale.ROOT);
+			for (String value : header.getValue()) {
+				if ("location".equals(name)) {
+					value = rewrite(value);
+				} else if ("set-cookie".equals(name)) {
+					// The local server is plain http on another host
+					value = value.replaceAll("(?i);\\s*(secure|domain=[^;]*|samesite=none)", "");
+				} else if ("content-type".equals(name)) {
+					contentType = value.toLowerCase(Locale.ROOT);
+				}
+				exchange.getResponseHeaders().add(header.getKey(), value);
+			}
+		}
+		byte[] body = recording.body;
+		if (isText(contentType)) {
+			Charset charset = charset(contentType);
+			body = rewrite(new String(body, charset)).getBytes(charset);
+		}
+		boolean noBody = "HEAD".equals(exchange.getRequestMethod()) || recording.status == 204
+				|| recording.status == 304;
+		exchange.sendResponseHeaders(recording.status, noBody ? -1 : body.length);
+		if (!noBody) {
+			exchange.getResponseBody().write(body);
+		}
+	}
+
+	// Replaces absolute and protocol-relative links to recorded origins with local ones
+	private String rewrite(String text) {
+		String rewritten = rewriteOrigin(text, upstream, localOrigin);
+		for (Map.Entry<String, String> extra : extraOrigins.entrySet()) {
+			rewritten = rewriteOrigin(rewritten, extra.getValue(), localOrigin + ORIGIN_PREFIX + extra.getKey());
+		}
+		return rewritten;
+	}
+
+	private static String rewriteOrigin(String text, String origin, String local) {
+		String authority = origin.substring(origin.indexOf("://") + 3);
+		String localAuthority = local.substring(local.indexOf("://") + 3);
+		return text.replace(origin, local)
+				// Escaped slashes, as in JSON and inline scripts
+				.replace(origin.replace("/", "\\/"), local.replace("/", "\\/"))
+				.replace("//" + authority, "//" + localAuthority);
+	}
+
+	private static Charset charset(String contentType) {
+		Matcher matcher = CHARSET.matcher(contentType);
+		try {
+			return matcher.find() ? Charset.forName(matcher.group(1)) : StandardCharsets.UTF_8;
+		} catch (IllegalArgumentException e) {
+			return StandardCharsets.UTF_8;
+		}
+	}
+
+	private static boolean isText(String contentType) {
+		return contentType.startsWith("text/") || contentType.contains("javascript") || contentType.contains("json")
+				|| contentType.contains("xml");
+	}
+
+	// Method, origin, path and the query parameters that matter, in a stable order
+	private String key(String method, String origin, String path, String query) {
+		Map<String, List<String>> params = new TreeMap<>();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				if (pair.isEmpty()) {
+					continue;
+				}
+				int equals = pair.indexOf('=');
+				String name = decode(equals < 0 ? pair : pair.substring(0, equals));
+				if (!ignoredParams.contains(name)) {
+					params.computeIfAbsent(name, n -> new ArrayList<>()).add(equals < 0 ? "" : decode(pair.substring(equals + 1)));
+				}
+			}
+		}
+		return method + " " + origin + path + (params.isEmpty() ? "" : "?" + params);
+	}
+
+	private Path fileFor(String key, String extension) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (int i = 0; i < 10; i++) {
+				name.append(String.format("%02x", digest[i]));
+			}
+			return directory.resolve(name + extension);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void save(String key, Recording recording) throws IOException {
+		recordings.put(key, recording);
+		Files.createDirectories(directory);
+		Path bodyFile = fileFor(key, ".body");
+		Path metaFile = fileFor(key, ".json");
+		writeAtomically(bodyFile, recording.body);
+		Map<String, Object> meta = new LinkedHashMap<>();
+		meta.put("key", key);
+		meta.put("url", recording.url);
+		meta.put("status", recording.status);
+		meta.put("headers", recording.headers);
+		meta.put("liveMillis", recording.liveNanos / 1_000_000.0);
+		writeAtomically(metaFile, json.toJson(meta).getBytes(StandardCharsets.UTF_8));
+	}
+
+	// Loads a recording from disk once and keeps it in memory for later requests
+	@SuppressWarnings("unchecked")
+	private Recording load(String key) throws IOException {
+		Recording cached = recordings.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		Path metaFile = fileFor(key, ".json");
+		if (!Files.exists(metaFile)) {
+			return null;
+		}
+		Map<String, Object> meta;
+		try (Reader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+			meta = json.toType(reader, Json.MAP_TYPE);
+		}
+		Recording recording = new Recording();
+		recording.url = String.valueOf(meta.get("url"));
+		recording.status = ((Number) meta.get("status")).intValue();
+		for (Map.Entry<String, Object> header : ((Map<String, Object>) meta.get("headers")).entrySet()) {
+			List<String> values = new ArrayList<>();
+			for (Object value : (List<Object>) header.getValue()) {
+				values.add(String.valueOf(value));
+			}
+			recording.headers.put(header.getKey(), values);
+		}
+		recording.liveNanos = (long) (((Number) meta.get("liveMillis")).doubleValue() * 1_000_000);
+		recording.body = Files.readAllBytes(fileFor(key, ".body"));
+		recordings.put(key, recording);
+		return recording;
+	}
+
+	// Concurrent recordings of the same request each write their own temporary file
+	private static void writeAtomically(Path file, byte[] content) throws IOException {
+		Path part = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".part");
+		Files.write(part, content);
+		Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try (InputStream input = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[16384];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	// scheme://authority in lower case, without path
+	private static String origin(String url) {
+		URI uri = URI.create(url.trim());
+		if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+			throw new IllegalArgumentException("Not an absolute URL: " + url);
+		}
+		return uri.getScheme().toLowerCase(Locale.ROOT) + "://" + uri.getRawAuthority().toLowerCase(Locale.ROOT);
+	}
+
+	private static List<String> split(String list) {
+		List<String> values = new ArrayList<>();
+		for (String value : list.split(",")) {
+			if (!value.trim().isEmpty()) {
+				values.add(value.trim());
+			}
+		}
+		return values;
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			return value;
+		}
+	}
+
+	// One captured response
+	private static final class Recording {
+		private String url;
+		private int status;
+		private final Map<String, List<String>> headers = new LinkedHashMap<>();
+		private byte[] body;
+		private long liveNanos;
+	}
+}
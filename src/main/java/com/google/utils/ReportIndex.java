@@ -0,0 +1,726 @@
+package com.google.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compact index of every report run under {@code ReportGenerator}, for trends
+ * across runs and releases. For each test of each run it keeps the name,
+ * status, duration, screenshot count and the time spent in each
+ * {@link StepMetrics} step, read from the run's {@link ReportJournal}; runs
+ * that only have a {@code TestReport.html} (written before streaming reports)
+ * are read from the HTML once instead.
+ * <p>
+ * The index lives in {@code ReportGenerator/report-index.bin}. Names are
+ * stored once in a string table and numbers as varints, so a run of ten
+ * tests takes a few hundred bytes. {@link #update(Path)} indexes only new or
+ * changed run folders, appending them to the file; a deleted or changed run
+ * makes it rewrite the file. Runs moved into the archive by
+ * {@link ReportRetention} stay indexed. Queries run on the loaded index and
+ * never touch the reports:
+ * {@code ReportIndex [ReportGenerator] [<baseline release> <release>]}.
+ */
+public class ReportIndex {
+    final static Logger LOGGER = LogManager.getLogger(ReportIndex.class);
+    public static final String FILE_NAME = "report-index.bin";
+
+    private static final int MAGIC = 0x52494458; // "RIDX"
+    private static final int VERSION = 1;
+    // Report folders are named <releaseName>-<MM-dd-yyyy-HH-mm-ss>
+    private static final Pattern RUN_FOLDER = Pattern.compile("(.+)-(\\d{2}-\\d{2}-\\d{4}-\\d{2}-\\d{2}-\\d{2})");
+    // Statuses in JournaledTest's order of severity; stored as their index
+    private static final List<String> STATUSES = Arrays.asList("unknown", "info", "pass", "skip", "warning", "error",
+            "fail", "fatal");
+    private static final int FIRST_FAILED_STATUS = STATUSES.indexOf("error");
+    private static final Pattern HTML_TEST_NAME = Pattern.compile("<span class='test-name'>([^<]*)</span>");
+    private static final Pattern HTML_STATUS = Pattern.compile("class='test-status[^']*'>(\\w+)<");
+    private static final Pattern HTML_TIME_TAKEN = Pattern.compile("(\\d+)h (\\d+)m (\\d+)s\\+(\\d+)ms");
+
+    private final Path root;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    // Runs by folder name, in the order they were indexed
+    private final Map<String, Run> runs = new LinkedHashMap<>();
+    // Strings already written to the file
+    private int persistedStrings;
+
+    private ReportIndex(Path root) {
+        this.root = root;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 0 && args.length != 1 && args.length != 3) {
+            System.err.println("Usage: ReportIndex [report root] [<baseline release> <release>]");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        ReportIndex index = update(Paths.get(args.length > 0 ? args[0] : "ReportGenerator"));
+        System.out.printf(Locale.ROOT, "%d run(s) of %d release(s) indexed in %.1f ms%n", index.getRunCount(),
+                index.getReleases().size(), (System.nanoTime() - start) / 1e6);
+        for (String release : index.getReleases()) {
+            System.out.println(release + ":");
+            for (Map.Entry<String, Summary> test : index.testDurations(release).entrySet()) {
+                System.out.println("  " + test.getKey() + ": " + test.getValue());
+            }
+            for (Map.Entry<String, Summary> step : index.stepLatency(release).entrySet()) {
+                System.out.println("  " + step.getKey() + ": " + step.getValue());
+            }
+        }
+        List<String> releases = index.getReleases();
+        if (args.length == 3 || releases.size() > 1) {
+            String baseline = args.length == 3 ? args[1] : releases.get(releases.size() - 2);
+            String release = args.length == 3 ? args[2] : releases.get(releases.size() - 1);
+            System.out.println("Slowest tests in " + release + " compared with " + baseline + ":");
+            for (Regression regression : index.regressions(baseline, release, 1.1, 10)) {
+                System.out.println("  " + regression);
+            }
+        }
+    }
+
+    /**
+     * Loads the index of a report root and brings it up to date with the run
+     * folders on disk. Concurrent updates of the same root wait for each other.
+     * @param root Directory holding the report folders, e.g. {@code ReportGenerator}
+     * @return Up-to-date index
+     * @throws IOException if the index cannot be written
+     */
+    public static ReportIndex update(Path root) throws IOException {
+        Files.createDirectories(root);
+        Path file = root.resolve(FILE_NAME);
+        try (FileChannel lockChannel = FileChannel.open(root.resolve(FILE_NAME + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE); FileLock lock = lockChannel.lock()) {
+            ReportIndex index = new ReportIndex(root);
+            boolean intact = index.read(file);
+            List<Run> added = new ArrayList<>();
+            boolean changed = index.scan(added);
+            if (!intact || changed) {
+                index.rewrite(file);
+            } else if (!added.isEmpty()) {
+                index.append(file, added);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Loads the index of a report root as last written, without scanning the
+     * run folders.
+     * @param root Directory holding the report folders
+     * @return Index, empty if none was written yet
+     * @throws IOException if the index cannot be read
+     */
+    public static ReportIndex load(Path root) throws IOException {
+        ReportIndex index = new ReportIndex(root);
+        index.read(root.resolve(FILE_NAME));
+        return index;
+    }
+
+    /**
+     * @return Number of indexed runs
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return Folder names of the indexed runs, oldest first; includes runs
+     *         that were moved into the archive
+     */
+    public List<String> getRuns() {
+        List<String> folders = new ArrayList<>();
+        for (Run run : sortedRuns()) {
+            folders.add(run.folder);
+        }
+        return folders;
+    }
+
+    /**
+     * @param folder Folder name of a run
+     * @return true if a test of the run ended with error, fail or fatal
+     */
+    public boolean hasFailures(String folder) {
+        Run run = runs.get(folder);
+        if (run != null) {
+            for (TestRow test : run.tests) {
+                if (test.status >= FIRST_FAILED_STATUS) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Release names, ordered by their first run
+     */
+    public List<String> getReleases() {
+        Set<String> releases = new LinkedHashSet<>();
+        for (Run run : sortedRuns()) {
+            releases.add(strings.get(run.release));
+        }
+        return new ArrayList<>(releases);
+    }
+
+    /**
+     * Time spent in each step per test, over all runs of a release. A step that
+     * runs several times in one test (e.g. {@code screenshot}) counts with its
+     * total for that test.
+     * @param release Release name, or null for all releases
+     * @return Latency summary per step name, slowest p95 first
+     */
+    public Map<String, Summary> stepLatency(String release) {
+        Map<Integer, Samples> samples = new HashMap<>();
+        for (Run run : runsOf(release)) {
+            for (TestRow test : run.tests) {
+                for (int i = 0; i < test.steps.length; i++) {
+                    samples.computeIfAbsent(test.steps[i], k -> new Samples()).add(test.stepMillis[i], false);
+                }
+            }
+        }
+        return summarize(samples);
+    }
+
+    /**
+     * Duration of each test over all runs of a release.
+     * @param release Release name, or null for all releases
+     * @return Duration summary per test name, slowest p95 first
+     */
+    public Map<String, Summary> testDurations(String release) {
+        Map<Integer, Samples> samples = new HashMap<>();
+        for (Run run : runsOf(release)) {
+            for (TestRow test : run.tests) {
+                samples.computeIfAbsent(test.name, k -> new Samples()).add(test.durationMs,
+                        test.status >= FIRST_FAILED_STATUS);
+            }
+        }
+        return summarize(samples);
+    }
+
+    /**
+     * Tests whose median duration grew between two releases.
+     * @param baseline Release to compare with
+     * @param release Release to check
+     * @param minRatio Smallest growth of the median to report, e.g. 1.2 for 20%
+     * @param limit Maximum number of regressions to return
+     * @return Regressions, largest increase first
+     */
+    public List<Regression> regressions(String baseline, String release, double minRatio, int limit) {
+        Map<String, Summary> before = testDurations(baseline);
+        List<Regression> regressions = new ArrayList<>();
+        for (Map.Entry<String, Summary> entry : testDurations(release).entrySet()) {
+            Summary old = before.get(entry.getKey());
+            long now = entry.getValue().getP50Millis();
+            if (old != null && now > old.getP50Millis() * minRatio) {
+                regressions.add(new Regression(entry.getKey(), old.getP50Millis(), now));
+            }
+        }
+        regressions.sort(Comparator.comparingLong(
+                (Regression r) -> r.getP50Millis() - r.getBaselineP50Millis()).reversed());
+        return regressions.size() > limit ? new ArrayList<>(regressions.subList(0, limit)) : regressions;
+    }
+
+    private List<Run> sortedRuns() {
+        List<Run> sorted = new ArrayList<>(runs.values());
+        sorted.sort(Comparator.comparingLong((Run run) -> run.startedAt).thenComparing(run -> run.folder));
+        return sorted;
+    }
+
+    private List<Run> runsOf(String release) {
+        Integer id = release == null ? null : stringIds.get(release);
+        if (release != null && id == null) {
+            return new ArrayList<>();
+        }
+        List<Run> matching = new ArrayList<>();
+        for (Run run : runs.values()) {
+            if (id == null || run.release == id) {
+                matching.add(run);
+            }
+        }
+        return matching;
+    }
+
+    private Map<String, Summary> summarize(Map<Integer, Samples> samples) {
+        List<Map.Entry<String, Summary>> entries = new ArrayList<>();
+        for (Map.Entry<Integer, Samples> entry : samples.entrySet()) {
+            entries.add(new java.util.AbstractMap.SimpleEntry<>(strings.get(entry.getKey()),
+                    entry.getValue().summarize()));
+        }
+        entries.sort(Comparator.comparingLong((Map.Entry<String, Summary> e) -> e.getValue().getP95Millis())
+                .reversed().thenComparing(Map.Entry::getKey));
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        for (Map.Entry<String, Summary> entry : entries) {
+            summaries.put(entry.getKey(), entry.getValue());
+        }
+        return summaries;
+    }
+
+    // Indexes new and changed run folders and forgets removed ones; true if the file must be rewritten
+    private boolean scan(List<Run> added) throws IOException {
+        boolean rewrite = false;
+        Set<String> present = new HashSet<>();
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path folder : folders) {
+                Path source = folder.resolve(ReportJournal.FILE_NAME);
+                if (!Files.exists(source)) {
+                    source = folder.resolve(ReportRenderer.REPORT_FILE);
+                    if (!Files.exists(source)) {
+                        continue;
+                    }
+                }
+                String name = folder.getFileName().toString();
+                present.add(name);
+                long size = Files.size(source);
+                long modified = Files.getLastModifiedTime(source).toMillis();
+                Run existing = runs.get(name);
+                if (existing != null && existing.sourceSize == size && existing.sourceModified == modified) {
+                    continue;
+                }
+                Run run;
+                try {
+                    run = read(folder, source, size, modified);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warn("Skipping report " + folder + " that cannot be indexed: " + e);
+                    continue;
+                }
+                // A run still in progress (or resumed) changes after it was indexed
+                rewrite |= existing != null;
+                runs.put(name, run);
+                if (existing == null) {
+                    added.add(run);
+                }
+            }
+        }
+        // Runs moved into the archive by ReportRetention stay in the trends
+        Set<String> missing = new HashSet<>(runs.keySet());
+        missing.removeAll(present);
+        if (!missing.isEmpty()) {
+            missing.removeAll(ReportRetention.archivedRuns(root));
+            rewrite |= runs.keySet().removeAll(missing);
+        }
+        return rewrite;
+    }
+
+    private Run read(Path folder, Path source, long size, long modified) throws IOException {
+        String name = folder.getFileName().toString();
+        Matcher matcher = RUN_FOLDER.matcher(name);
+        Run run = new Run(name, intern(matcher.matches() ? matcher.group(1) : name), modified, modified, size);
+        if (matcher.matches()) {
+            try {
+                run.startedAt = new SimpleDateFormat("MM-dd-yyyy-HH-mm-ss").parse(matcher.group(2)).getTime();
+            } catch (ParseException e) {
+                // Keep the modification time
+            }
+        }
+        if (source.getFileName().toString().equals(ReportJournal.FILE_NAME)) {
+            readJournal(source, run);
+        } else {
+            readHtml(source, run);
+        }
+        return run;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readJournal(Path journal, Run run) throws IOException {
+        ReportJournal.forEach(journal, record -> {
+            if (!"test".equals(record.get("type"))) {
+                return;
+            }
+            TestRow test = new TestRow();
+            test.name = intern(String.valueOf(record.get("name")));
+            test.status = status(String.valueOf(record.get("status")));
+            test.durationMs = record.get("durationMs") instanceof Number ? ((Number) record.get("durationMs")).longValue()
+                    : 0;
+            Object logs = record.get("logs");
+            if (logs instanceof List) {
+                for (Object entry : (List<Object>) logs) {
+                    Object details = entry instanceof Map ? ((Map<String, Object>) entry).get("details") : null;
+                    if (details != null) {
+                        test.screenshots += count(details.toString(), "<img ");
+                    }
+                }
+            }
+            Object steps = record.get("steps");
+            if (steps instanceof Map) {
+                Map<String, Object> stepMap = (Map<String, Object>) steps;
+                test.steps = new int[stepMap.size()];
+                test.stepMillis = new long[stepMap.size()];
+                int i = 0;
+                for (Map.Entry<String, Object> step : stepMap.entrySet()) {
+                    test.steps[i] = intern(step.getKey());
+                    test.stepMillis[i++] = step.getValue() instanceof Number ? ((Number) step.getValue()).longValue()
+                            : 0;
+                }
+            }
+            run.tests.add(test);
+        });
+    }
+
+    // Reports rendered by ExtentReports 2.x, before results.jsonl existed
+    private void readHtml(Path html, Run run) throws IOException {
+        String page = new String(Files.readAllBytes(html), StandardCharsets.UTF_8);
+        Matcher name = HTML_TEST_NAME.matcher(page);
+        List<int[]> bounds = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        while (name.find()) {
+            if (!bounds.isEmpty()) {
+                bounds.get(bounds.size() - 1)[1] = name.start();
+            }
+            bounds.add(new int[] { name.end(), page.length() });
+            names.add(name.group(1).trim());
+        }
+        for (int i = 0; i < names.size(); i++) {
+            String section = page.substring(bounds.get(i)[0], bounds.get(i)[1]);
+            TestRow test = new TestRow();
+            test.name = intern(names.get(i));
+            Matcher status = HTML_STATUS.matcher(section);
+            test.status = status(status.find() ? status.group(1) : "unknown");
+            Matcher time = HTML_TIME_TAKEN.matcher(section);
+            if (time.find()) {
+                test.durationMs = ((Long.parseLong(time.group(1)) * 60 + Long.parseLong(time.group(2))) * 60
+                        + Long.parseLong(time.group(3))) * 1000 + Long.parseLong(time.group(4));
+            }
+            test.screenshots = count(section, "<img ");
+            run.tests.add(test);
+        }
+    }
+
+    private static byte status(String status) {
+        int index = STATUSES.indexOf(status.toLowerCase(Locale.ROOT));
+        return (byte) Math.max(index, 0);
+    }
+
+    private static int count(String text, String token) {
+        int count = 0;
+        for (int at = text.indexOf(token); at >= 0; at = text.indexOf(token, at + token.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private int intern(String value) {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    // Reads the index file; false if it is missing a tail or unreadable and must be rewritten
+    private boolean read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return true;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.warn("Rebuilding " + file + " written by another version");
+                return false;
+            }
+            while (true) {
+                int tag = in.read();
+                if (tag == -1) {
+                    persistedStrings = strings.size();
+                    return true;
+                }
+                Run run = readRun(in);
+                runs.put(run.folder, run);
+            }
+        } catch (EOFException | IllegalArgumentException e) {
+            LOGGER.warn("Rebuilding damaged index " + file);
+            return false;
+        }
+    }
+
+    private Run readRun(DataInputStream in) throws IOException {
+        for (int n = readVarInt(in); n > 0; n--) {
+            intern(in.readUTF());
+        }
+        String folder = in.readUTF();
+        Run run = new Run(folder, readId(in), in.readLong(), in.readLong(), in.readLong());
+        for (int n = readVarInt(in); n > 0; n--) {
+            TestRow test = new TestRow();
+            test.name = readId(in);
+            test.status = in.readByte();
+            test.durationMs = readVarLong(in);
+            test.screenshots = readVarInt(in);
+            int steps = readVarInt(in);
+            test.steps = new int[steps];
+            test.stepMillis = new long[steps];
+            for (int i = 0; i < steps; i++) {
+                test.steps[i] = readId(in);
+                test.stepMillis[i] = readVarLong(in);
+            }
+            run.tests.add(test);
+        }
+        return run;
+    }
+
+    private int readId(DataInputStream in) throws IOException {
+        int id = readVarInt(in);
+        if (id >= strings.size()) {
+            throw new IllegalArgumentException("Unknown string " + id);
+        }
+        return id;
+    }
+
+    // Writes the whole index next to the file and moves it into place
+    private void rewrite(Path file) throws IOException {
+        Path temp = file.resolveSibling(FILE_NAME + ".part");
+        persistedStrings = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Run run : runs.values()) {
+                writeRun(out, run);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Wrote report index of " + runs.size() + " run(s) to " + file);
+    }
+
+    private void append(Path file, List<Run> added) throws IOException {
+        boolean created = !Files.exists(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            if (created) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (Run run : added) {
+                writeRun(out, run);
+            }
+        }
+        LOGGER.info("Added " + added.size() + " run(s) to report index " + file);
+    }
+
+    private void writeRun(DataOutputStream out, Run run) throws IOException {
+        out.write('R');
+        // Strings first seen in this run, so the file can be read in one pass
+        writeVarLong(out, strings.size() - persistedStrings);
+        for (int i = persistedStrings; i < strings.size(); i++) {
+            out.writeUTF(strings.get(i));
+        }
+        persistedStrings = strings.size();
+        out.writeUTF(run.folder);
+        writeVarLong(out, run.release);
+        out.writeLong(run.startedAt);
+        out.writeLong(run.sourceModified);
+        out.writeLong(run.sourceSize);
+        writeVarLong(out, run.tests.size());
+        for (TestRow test : run.tests) {
+            writeVarLong(out, test.name);
+            out.writeByte(test.status);
+            writeVarLong(out, test.durationMs);
+            writeVarLong(out, test.screenshots);
+            writeVarLong(out, test.steps.length);
+            for (int i = 0; i < test.steps.length; i++) {
+                writeVarLong(out, test.steps[i]);
+                writeVarLong(out, test.stepMillis[i]);
+            }
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        long remaining = Math.max(value, 0);
+        while (remaining >= 0x80) {
+            out.write((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Malformed varint");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Sample count, failures and percentiles of a set of durations.
+     */
+    public static class Summary {
+        private final int count;
+        private final int failures;
+        private final long p50Millis;
+        private final long p95Millis;
+        private final long maxMillis;
+
+        Summary(int count, int failures, long p50Millis, long p95Millis, long maxMillis) {
+            this.count = count;
+            this.failures = failures;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return Number of samples from tests that ended with error, fail or fatal
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        public long getP50Millis() {
+            return p50Millis;
+        }
+
+        public long getP95Millis() {
+            return p95Millis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "n=%d, p50=%d ms, p95=%d ms, max=%d ms%s", count, p50Millis, p95Millis,
+                    maxMillis, failures == 0 ? "" : ", failures=" + failures);
+        }
+    }
+
+    /**
+     * A test whose median duration grew between two releases.
+     */
+    public static class Regression {
+        private final String test;
+        private final long baselineP50Millis;
+        private final long p50Millis;
+
+        Regression(String test, long baselineP50Millis, long p50Millis) {
+            this.test = test;
+            this.baselineP50Millis = baselineP50Millis;
+            this.p50Millis = p50Millis;
+        }
+
+        public String getTest() {
+            return test;
+        }
+
+        public long getBaselineP50Millis() {
+            return baselineP50Millis;
+        }
+
+        public long getP50Millis() {
+            return p50Millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: p50 %d ms -> %d ms (%+.0f%%)", test, baselineP50Millis, p50Millis,
+                    baselineP50Millis == 0 ? 100.0 : (p50Millis - baselineP50Millis) * 100.0 / baselineP50Millis);
+        }
+    }
+
+    // One report folder
+    private static final class Run {
+        private final String folder;
+        private final int release;
+        private long startedAt;
+        private final long sourceModified;
+        private final long sourceSize;
+        private final List<TestRow> tests = new ArrayList<>();
+
+        Run(String folder, int release, long startedAt, long sourceModified, long sourceSize) {
+            this.folder = folder;
+            this.release = release;
+            this.startedAt = startedAt;
+            this.sourceModified = sourceModified;
+            this.sourceSize = sourceSize;
+        }
+    }
+
+    // One test of a run; step names are string ids
+    private static final class TestRow {
+        private int name;
+        private byte status;
+        private long durationMs;
+        private int screenshots;
+        private int[] steps = new int[0];
+        private long[] stepMillis = new long[0];
+    }
+
+    // Growable list of durations with its failure count
+    private static final class Samples {
+        private long[] values = new long[8];
+        private int size;
+        private int failures;
+
+        void add(long value, boolean failed) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            if (failed) {
+                failures++;
+            }
+        }
+
+        Summary summarize() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return new Summary(size, failures, percentile(sorted, 0.50), percentile(sorted, 0.95), sorted[size - 1]);
+        }
+
+        // Nearest-rank percentile
+        private static long percentile(long[] sorted, double percentile) {
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            return sorted[Math.max(rank - 1, 0)];
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.google.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Append-only JSON Lines journal of a report run, stored as
+ * {@code ReportGenerator/<reportFolder>/results.jsonl}. Every finished test is
+ * written as one line as soon as it ends, so nothing is held in memory and a
+ * crashed JVM loses at most the test that was running. Besides test records
+ * the journal holds {@code run} events (start, resume, end) and
+ * {@code systemInfo} entries. {@link ReportRenderer} turns it into HTML.
+ */
+public class ReportJournal implements Closeable {
+    final static Logger LOGGER = LogManager.getLogger(ReportJournal.class);
+    public static final String FILE_NAME = "results.jsonl";
+
+    private final Path file;
+    private final Writer writer;
+    private final Json json = new Json();
+
+    private ReportJournal(Path file) throws IOException {
+        this.file = file;
+        this.writer = new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens the journal of a report folder for appending. A line left incomplete
+     * by a crash is cut off first so the file stays valid JSON Lines.
+     * @param folder Report folder
+     * @return Open journal
+     * @throws IOException if the journal cannot be created or repaired
+     */
+    public static ReportJournal open(Path folder) throws IOException {
+        Files.createDirectories(folder);
+        Path file = folder.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            repair(file);
+        }
+        return new ReportJournal(file);
+    }
+
+    /**
+     * @return Path of the journal file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Appends one record and flushes it to the operating system.
+     * @param record Record to write; must be convertible to JSON
+     */
+    public synchronized void append(Map<String, Object> record) {
+        try {
+            writer.write(json.toJson(record).replace('\n', ' '));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            LOGGER.error("Failed to append to report journal " + file, e);
+        }
+    }
+
+    /**
+     * Appends a run lifecycle event.
+     * @param event "start", "resume" or "end"
+     */
+    public void runEvent(String event) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", "run");
+        record.put("event", event);
+        record.put("time", System.currentTimeMillis());
+        append(record);
+    }
+
+    /**
+     * Appends a system information entry shown in the report header.
+     * @param key Name of the entry
+     * @param value Value of the entry
+     */
+    public void systemInfo(String key, String value) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", "systemInfo");
+        record.put("key", key);
+        record.put("value", value);
+        append(record);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Streams the records of a journal one at a time. An unparseable line (e.g.
+     * the tail of a crashed run) is logged and skipped.
+     * @param file Journal file
+     * @param consumer Receives each record
+     * @throws IOException if the file cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public static void forEach(Path file, Consumer<Map<String, Object>> consumer) throws IOException {
+        Json json = new Json();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    consumer.accept(json.toType(line, Map.class));
+                } catch (JsonException e) {
+                    LOGGER.warn("Skipping unreadable line " + lineNumber + " of " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param file Journal file
+     * @return true if the run that wrote the journal ended normally
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isComplete(Path file) throws IOException {
+        final String[] lastEvent = { null };
+        forEach(file, record -> {
+            if ("run".equals(record.get("type"))) {
+                lastEvent[0] = String.valueOf(record.get("event"));
+            }
+        });
+        return "end".equals(lastEvent[0]);
+    }
+
+    // Truncates the file after its last newline, dropping a partially written record
+    private static void repair(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long length = raf.length();
+            long end = length;
+            while (end > 0) {
+                raf.seek(end - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < length) {
+                raf.setLength(end);
+                LOGGER.warn("Dropped " + (length - end) + " bytes of an incomplete record from " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.google.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Renders {@code TestReport.html} from a report folder's
+ * {@link ReportJournal}. The journal is streamed twice, once for the summary
+ * and once for the test details, so memory use does not grow with the number
+ * of tests. Rendering happens at the end of the suite, and can be repeated at
+ * any time, e.g. for a run that crashed:
+ * {@code ReportRenderer "ReportGenerator/<reportFolder>"}.
+ */
+public class ReportRenderer {
+    final static Logger LOGGER = LogManager.getLogger(ReportRenderer.class);
+    public static final String REPORT_FILE = "TestReport.html";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ReportRenderer <report folder>");
+            System.exit(2);
+        }
+        System.out.println(renderIfStale(Paths.get(args[0])));
+    }
+
+    /**
+     * Renders the report of a folder unless the HTML is already newer than the
+     * journal.
+     * @param folder Report folder containing results.jsonl
+     * @return Path of the rendered report
+     * @throws IOException if the journal cannot be read or the report written
+     */
+    public static Path renderIfStale(Path folder) throws IOException {
+        Path journal = folder.resolve(ReportJournal.FILE_NAME);
+        Path report = folder.resolve(REPORT_FILE);
+        if (Files.exists(report) && Files.exists(journal)
+                && Files.getLastModifiedTime(report).compareTo(Files.getLastModifiedTime(journal)) >= 0) {
+            return report;
+        }
+        return render(folder);
+    }
+
+    /**
+     * Renders the report of a folder.
+     * @param folder Report folder containing results.jsonl
+     * @return Path of the rendered report
+     * @throws IOException if the journal cannot be read or the report written
+     */
+    public static Path render(Path folder) throws IOException {
+        Path journal = folder.resolve(ReportJournal.FILE_NAME);
+        Summary summary = new Summary();
+        ReportJournal.forEach(journal, summary::add);
+
+        // Written next to the report and moved into place, so a reader never sees half a page
+        Path report = folder.resolve(REPORT_FILE);
+        Path temp = folder.resolve(REPORT_FILE + ".part");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writeHeader(out, folder.getFileName().toString(), summary);
+            try {
+                ReportJournal.forEach(journal, record -> {
+                    try {
+                        writeRecord(out, record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.write("</main></body></html>\n");
+        }
+        Files.move(temp, report, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Rendered " + report + " from " + summary.tests + " test record(s)");
+        return report;
+    }
+
+    private static void writeHeader(Writer out, String title, Summary summary) throws IOException {
+        out.write("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>" + escape(title) + "</title><style>"
+                + "body{font-family:sans-serif;margin:0;background:#f5f5f5}header{background:#263238;color:#fff;padding:16px 24px}"
+                + "main{padding:16px 24px}table{border-collapse:collapse;background:#fff;margin-bottom:16px}"
+                + "td,th{border:1px solid #ddd;padding:4px 8px;text-align:left;vertical-align:top}"
+                + "details{background:#fff;margin:4px 0;padding:6px 10px;border-left:4px solid #9e9e9e}"
+                + "summary{cursor:pointer}.PASS{border-color:#43a047}.FAIL,.FATAL,.ERROR{border-color:#e53935}"
+                + ".WARNING{border-color:#fb8c00}.SKIP{border-color:#1e88e5}.run{color:#666;margin:12px 0 4px}"
+                + "img{max-width:480px}</style></head><body>\n");
+        out.write("<header><h2>" + escape(title) + "</h2>");
+        out.write(String.format(Locale.ROOT, "%d test(s), %s, total test time %.1f s%s</header><main>\n",
+                summary.tests, summary.statuses, summary.totalMillis / 1000.0,
+                summary.complete ? "" : " &mdash; run did not finish (partial report)"));
+        if (!summary.systemInfo.isEmpty()) {
+            out.write("<table><tr><th colspan=\"2\">System info</th></tr>\n");
+            for (Map.Entry<String, String> entry : summary.systemInfo.entrySet()) {
+                out.write("<tr><td>" + escape(entry.getKey()) + "</td><td>"
+                        + escape(entry.getValue()).replace("&lt;br&gt;", "<br>") + "</td></tr>\n");
+            }
+            out.write("</table>\n");
+        }
+    }
+
+    private static void writeRecord(Writer out, Map<String, Object> record) throws IOException {
+        Object type = record.get("type");
+        if ("run".equals(type)) {
+            out.write("<div class=\"run\">Run " + escape(String.valueOf(record.get("event"))) + " at "
+                    + formatTime(record.get("time")) + "</div>\n");
+        } else if ("test".equals(type)) {
+            String status = String.valueOf(record.get("status"));
+            out.write("<details class=\"" + escape(status) + "\"><summary><b>" + escape(status) + "</b> "
+                    + escape(String.valueOf(record.get("name"))) + " &mdash; " + record.get("durationMs")
+                    + " ms</summary>\n<table><tr><th>Time</th><th>Status</th><th>Details</th></tr>\n");
+            Object logs = record.get("logs");
+            if (logs instanceof List) {
+                for (Object item : (List<?>) logs) {
+                    Map<?, ?> entry = (Map<?, ?>) item;
+                    Object step = entry.get("step");
+                    // Details are written by the framework and may contain the screenshot <img> markup
+                    out.write("<tr><td>" + formatTime(entry.get("time")) + "</td><td>"
+                            + escape(String.valueOf(entry.get("status"))) + "</td><td>"
+                            + (step == null ? "" : "<b>" + escape(String.valueOf(step)) + "</b> ")
+                            + (entry.get("details") == null ? "" : entry.get("details")) + "</td></tr>\n");
+                }
+            }
+            out.write("</table></details>\n");
+        }
+    }
+
+    private static String formatTime(Object millis) {
+        return millis instanceof Number ? new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(((Number) millis).longValue()))
+                : "";
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Totals collected in the first pass; its size depends only on the number
+     * of distinct statuses and system info keys.
+     */
+    private static class Summary {
+        private int tests;
+        private long totalMillis;
+        private boolean complete;
+        private final Map<String, Integer> statuses = new TreeMap<>();
+        private final Map<String, String> systemInfo = new LinkedHashMap<>();
+
+        void add(Map<String, Object> record) {
+            Object type = record.get("type");
+            if ("test".equals(type)) {
+                tests++;
+                statuses.merge(String.valueOf(record.get("status")), 1, Integer::sum);
+                if (record.get("durationMs") instanceof Number) {
+                    totalMillis += ((Number) record.get("durationMs")).longValue();
+                }
+            } else if ("systemInfo".equals(type)) {
+                systemInfo.put(String.valueOf(record.get("key")), String.valueOf(record.get("value")));
+            } else if ("run".equals(type)) {
+                complete = "end".equals(record.get("event"));
+            }
+        }
+    }
+}
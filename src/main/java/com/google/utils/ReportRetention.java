@@ -0,0 +1,567 @@
+package com.google.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Keeps {@code ReportGenerator} and the download directories from growing
+ * forever. Each run of the job:
+ * <ul>
+ * <li>deletes partial downloads ({@code *.crdownload}, {@code *.part}) left in
+ * the project root, the download directories and the report folders;</li>
+ * <li>deletes images saved by {@code downloadFirstImage}
+ * ({@code <name>_<ddMMyyyyHHmmss>.<ext>}) in the project root and
+ * {@code download.dir} once they are older than
+ * {@code retention.downloadMaxAgeDays};</li>
+ * <li>moves report folders into {@code ReportGenerator/archive.zip}, except the
+ * newest {@code retention.keepRuns} runs and the newest
+ * {@code retention.keepFailedRuns} runs with a failed test. Screenshots are
+ * stored once per content under {@code screenshots/}, and the archived
+ * reports link to them, so the archive stays browsable when extracted;</li>
+ * <li>while the report folders and the archive together exceed
+ * {@code retention.maxMegabytes}, archives more of the oldest folders and then
+ * drops the oldest runs from the archive.</li>
+ * </ul>
+ * Nothing modified within the last {@code retention.minAgeMinutes} is
+ * touched, so a run or download in progress is safe. By default
+ * ({@code retention.dryRun=true}) the job only reports what it would do and
+ * how many bytes that would reclaim; it deletes and archives files only with
+ * {@code retention.dryRun=false} or {@code ReportRetention --apply}.
+ */
+public class ReportRetention {
+    final static Logger LOGGER = LogManager.getLogger(ReportRetention.class);
+    public static final String ARCHIVE_FILE = "archive.zip";
+
+    private static final String RUNS = "runs/";
+    private static final String SCREENSHOTS = "screenshots/";
+    private static final Pattern PARTIAL_DOWNLOAD = Pattern.compile("(?i).+\\.(crdownload|part)");
+    // Images saved by GoogleImagesPage.downloadFirstImage
+    private static final Pattern SAVED_IMAGE = Pattern.compile("(?i).+_\\d{14}\\.(png|jpe?g|gif|webp|bmp|svg)");
+    // Screenshot links in TestReport.html and results.jsonl
+    private static final Pattern SCREENSHOT_LINK = Pattern.compile("Screenshots/([^'\"\\\\\\s<>]+)");
+    private static final Pattern ARCHIVED_SCREENSHOT = Pattern.compile(SCREENSHOTS + "([0-9a-f]{64}\\.\\w+)");
+
+    private final Path root;
+    private final int keepRuns;
+    private final int keepFailedRuns;
+    private final long maxBytes;
+    private final long minAgeMillis;
+    private final long downloadMaxAgeMillis;
+    private final List<Path> downloadDirectories;
+    private final boolean dryRun;
+
+    /**
+     * @param root Directory holding the report folders, e.g. {@code ReportGenerator}
+     * @param keepRuns Newest runs to keep as folders; at least 1
+     * @param keepFailedRuns Newest runs with a failed test to keep as folders
+     * @param maxBytes Limit for report folders plus archive, 0 for none
+     * @param minAgeMillis Files and runs modified more recently are never touched
+     * @param downloadMaxAgeMillis Age after which saved images are deleted, 0 to keep them
+     * @param downloadDirectories Directories to clean of partial and saved downloads
+     * @param dryRun Only report what would be done
+     */
+    public ReportRetention(Path root, int keepRuns, int keepFailedRuns, long maxBytes, long minAgeMillis,
+            long downloadMaxAgeMillis, List<Path> downloadDirectories, boolean dryRun) {
+        this.root = root;
+        this.keepRuns = Math.max(keepRuns, 1);
+        this.keepFailedRuns = keepFailedRuns;
+        this.maxBytes = maxBytes;
+        this.minAgeMillis = minAgeMillis;
+        this.downloadMaxAgeMillis = downloadMaxAgeMillis;
+        this.downloadDirectories = downloadDirectories;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * @return Job configured by the {@code retention.*} keys for
+     *         {@code ReportGenerator}, the project root and {@code download.dir}
+     */
+    public static ReportRetention fromConfig() {
+        Set<Path> downloads = new LinkedHashSet<>();
+        downloads.add(Paths.get(System.getProperty("user.dir")).toAbsolutePath().normalize());
+        downloads.add(Paths.get(ConfigManager.get("download.dir", System.getProperty("user.dir"))).toAbsolutePath()
+                .normalize());
+        return new ReportRetention(Paths.get("ReportGenerator"), ConfigManager.getInt("retention.keepRuns", 10),
+                ConfigManager.getInt("retention.keepFailedRuns", 30),
+                ConfigManager.getLong("retention.maxMegabytes", 500) * 1024 * 1024,
+                TimeUnit.MINUTES.toMillis(ConfigManager.getLong("retention.minAgeMinutes", 60)),
+                TimeUnit.DAYS.toMillis(ConfigManager.getLong("retention.downloadMaxAgeDays", 7)), new ArrayList<>(downloads),
+                ConfigManager.getBoolean("retention.dryRun", true));
+    }
+
+    public static void main(String[] args) throws IOException {
+        ReportRetention configured = fromConfig();
+        List<String> options = Arrays.asList(args);
+        boolean dryRun = options.contains("--dry-run") || (configured.dryRun && !options.contains("--apply"));
+        ReportRetention job = new ReportRetention(configured.root, configured.keepRuns, configured.keepFailedRuns,
+                configured.maxBytes, configured.minAgeMillis, configured.downloadMaxAgeMillis,
+                configured.downloadDirectories, dryRun);
+        Result result = job.run();
+        for (String action : result.getActions()) {
+            System.out.println(action);
+        }
+        System.out.println(result);
+    }
+
+    /**
+     * @param root Directory holding the report folders
+     * @return Folder names of the runs stored in the root's archive
+     * @throws IOException if the archive cannot be read
+     */
+    public static Set<String> archivedRuns(Path root) throws IOException {
+        Path archive = root.resolve(ARCHIVE_FILE);
+        if (!Files.exists(archive)) {
+            return Collections.emptySet();
+        }
+        try (FileSystem zip = openArchive(archive, false)) {
+            return listRuns(zip);
+        }
+    }
+
+    /**
+     * Applies the retention policy once.
+     * @return What was done (or would be, in a dry run) and the bytes reclaimed
+     * @throws IOException if a report or the archive cannot be read or written
+     */
+    public Result run() throws IOException {
+        Result result = new Result(dryRun);
+        long now = System.currentTimeMillis();
+        for (Path directory : downloadDirectories) {
+            cleanDownloads(directory, now, result);
+        }
+        if (!Files.isDirectory(root)) {
+            return result;
+        }
+        try (Stream<Path> files = Files.walk(root, 3)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (PARTIAL_DOWNLOAD.matcher(file.getFileName().toString()).matches() && isOld(file, now)) {
+                    delete(file, "partial file", result);
+                }
+            }
+        }
+
+        ReportIndex index = ReportIndex.update(root);
+        List<Path> folders = new ArrayList<>();
+        for (String run : index.getRuns()) {
+            Path folder = root.resolve(run);
+            if (Files.isDirectory(folder)) {
+                folders.add(folder);
+            }
+        }
+        List<Path> toArchive = selectRuns(index, folders, now);
+        long folderBytes = 0;
+        for (Path folder : folders) {
+            folderBytes += size(folder);
+        }
+        Path archive = root.resolve(ARCHIVE_FILE);
+        long archiveBytes = Files.exists(archive) ? Files.size(archive) : 0;
+        long projected = folderBytes + archiveBytes;
+        for (Path folder : toArchive) {
+            projected -= size(folder);
+        }
+        // Over the limit: archive the oldest of the kept folders too, except the newest run
+        for (Path folder : folders) {
+            if (maxBytes <= 0 || projected <= maxBytes || folder.equals(folders.get(folders.size() - 1))) {
+                break;
+            }
+            if (!toArchive.contains(folder) && isOld(folder, now)) {
+                toArchive.add(folder);
+                projected -= size(folder);
+            }
+        }
+        if (!toArchive.isEmpty()) {
+            archive(archive, toArchive, result);
+        }
+        if (maxBytes > 0 && Files.exists(archive)) {
+            long total = folderBytes - result.archivedFolderBytes + (dryRun ? archiveBytes + result.archiveGrowth
+                    : Files.size(archive));
+            if (total > maxBytes) {
+                dropOldestArchivedRuns(archive, index.getRuns(), total - maxBytes, result);
+            }
+        }
+        LOGGER.info(result.toString());
+        return result;
+    }
+
+    // Newest runs, and newest failed runs, stay; only runs old enough may go
+    private List<Path> selectRuns(ReportIndex index, List<Path> folders, long now) throws IOException {
+        Set<Path> keep = new HashSet<>();
+        int failedKept = 0;
+        for (int i = folders.size() - 1; i >= 0; i--) {
+            Path folder = folders.get(i);
+            if (keep.size() < keepRuns) {
+                keep.add(folder);
+            } else if (failedKept < keepFailedRuns && index.hasFailures(folder.getFileName().toString())) {
+                keep.add(folder);
+                failedKept++;
+            }
+        }
+        List<Path> selected = new ArrayList<>();
+        for (Path folder : folders) {
+            if (!keep.contains(folder) && isOld(folder, now)) {
+                selected.add(folder);
+            }
+        }
+        return selected;
+    }
+
+    private void cleanDownloads(Path directory, long now, Result result) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (PARTIAL_DOWNLOAD.matcher(name).matches() && isOld(file, now)) {
+                    delete(file, "partial download", result);
+                } else if (SAVED_IMAGE.matcher(name).matches() && downloadMaxAgeMillis > 0
+                        && now - Files.getLastModifiedTime(file).toMillis() > downloadMaxAgeMillis) {
+                    delete(file, "saved image", result);
+                }
+            }
+        }
+    }
+
+    private void delete(Path file, String kind, Result result) throws IOException {
+        long bytes = Files.size(file);
+        if (!dryRun) {
+            Files.delete(file);
+        }
+        result.add("delete " + kind + " " + file + " (" + format(bytes) + ")", bytes);
+        result.deletedFiles++;
+    }
+
+    // Moves run folders into the archive, storing each distinct screenshot once
+    private void archive(Path archive, List<Path> folders, Result result) throws IOException {
+        Set<String> stored = new HashSet<>();
+        if (Files.exists(archive)) {
+            try (FileSystem zip = openArchive(archive, false)) {
+                Path screenshots = zip.getPath(SCREENSHOTS);
+                if (Files.isDirectory(screenshots)) {
+                    try (DirectoryStream<Path> entries = Files.newDirectoryStream(screenshots)) {
+                        for (Path entry : entries) {
+                            stored.add(entry.getFileName().toString());
+                        }
+                    }
+                }
+            }
+        }
+        // A dry run only plans; the zip file system would write the archive when closed
+        try (FileSystem zip = dryRun ? null : openArchive(archive, true)) {
+            for (Path folder : folders) {
+                String run = folder.getFileName().toString();
+                long growth = 0;
+                List<Path> files = new ArrayList<>();
+                try (Stream<Path> walk = Files.walk(folder)) {
+                    walk.filter(Files::isRegularFile).forEach(files::add);
+                }
+                Map<String, String> screenshots = new HashMap<>();
+                List<Path> others = new ArrayList<>();
+                for (Path file : files) {
+                    Path relative = folder.relativize(file);
+                    if (relative.getNameCount() != 2 || !relative.getName(0).toString().equals("Screenshots")) {
+                        others.add(file);
+                        continue;
+                    }
+                    String name = hash(file) + extension(file.getFileName().toString());
+                    screenshots.put(file.getFileName().toString(), name);
+                    if (stored.add(name)) {
+                        growth += Files.size(file);
+                        if (zip != null) {
+                            Path entry = zip.getPath(SCREENSHOTS + name);
+                            Files.createDirectories(entry.getParent());
+                            Files.copy(file, entry);
+                        }
+                    }
+                }
+                for (Path file : others) {
+                    Path relative = folder.relativize(file);
+                    growth += Files.size(file);
+                    if (zip == null) {
+                        continue;
+                    }
+                    Path entry = zip.getPath(RUNS + run).resolve(relative.toString());
+                    Files.createDirectories(entry.getParent());
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(".html") || name.endsWith(".jsonl")) {
+                        Files.write(entry, relink(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                                screenshots, relative.getNameCount()).getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        Files.copy(file, entry);
+                    }
+                }
+                long bytes = size(folder);
+                result.archivedFolderBytes += bytes;
+                result.archiveGrowth += growth;
+                result.add("archive run " + run + " (" + format(bytes) + ", adds at most " + format(growth)
+                        + " to the archive)", bytes - growth);
+                result.archivedRuns++;
+            }
+        }
+        if (!dryRun) {
+            // Only once the archive was written in full
+            for (Path folder : folders) {
+                deleteTree(folder);
+            }
+        }
+    }
+
+    // Points screenshot links at the shared screenshots/ entries
+    private static String relink(String text, Map<String, String> screenshots, int depth) {
+        StringBuilder prefix = new StringBuilder();
+        // runs/<folder>/<file> needs ../../ to reach the archive root
+        for (int i = 0; i < depth + 1; i++) {
+            prefix.append("../");
+        }
+        Matcher matcher = SCREENSHOT_LINK.matcher(text);
+        StringBuffer relinked = new StringBuffer();
+        while (matcher.find()) {
+            String stored = screenshots.get(matcher.group(1));
+            matcher.appendReplacement(relinked, Matcher.quoteReplacement(
+                    stored == null ? matcher.group() : prefix + SCREENSHOTS + stored));
+        }
+        matcher.appendTail(relinked);
+        return relinked.toString();
+    }
+
+    // Removes archived runs, oldest first, until the archive is the given number of bytes smaller
+    private void dropOldestArchivedRuns(Path archive, List<String> runsOldestFirst, long excess, Result result)
+            throws IOException {
+        try (FileSystem zip = openArchive(archive, false)) {
+            Set<String> archived = listRuns(zip);
+            // Screenshots are shared, so count how many archived runs link to each
+            Map<String, Set<String>> links = new LinkedHashMap<>();
+            Map<String, Integer> linkCounts = new HashMap<>();
+            for (String run : runsOldestFirst) {
+                if (archived.contains(run)) {
+                    Set<String> linked = new HashSet<>();
+                    collectLinks(zip.getPath(RUNS + run), linked);
+                    links.put(run, linked);
+                    for (String screenshot : linked) {
+                        linkCounts.merge(screenshot, 1, Integer::sum);
+                    }
+                }
+            }
+            long freed = 0;
+            for (Map.Entry<String, Set<String>> run : links.entrySet()) {
+                if (freed >= excess) {
+                    break;
+                }
+                Path entries = zip.getPath(RUNS + run.getKey());
+                long bytes = compressedSize(entries);
+                int orphans = 0;
+                for (String screenshot : run.getValue()) {
+                    Path entry = zip.getPath(SCREENSHOTS + screenshot);
+                    if (linkCounts.merge(screenshot, -1, Integer::sum) == 0 && Files.exists(entry)) {
+                        bytes += compressedSize(entry);
+                        orphans++;
+                        if (!dryRun) {
+                            Files.delete(entry);
+                        }
+                    }
+                }
+                if (!dryRun) {
+                    deleteTree(entries);
+                }
+                freed += bytes;
+                result.add("drop archived run " + run.getKey() + " and " + orphans
+                        + " screenshot(s) no other run uses (" + format(bytes) + ")", bytes);
+                result.droppedRuns++;
+            }
+        }
+    }
+
+    private static void collectLinks(Path directory, Set<String> linked) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Matcher matcher = ARCHIVED_SCREENSHOT.matcher(new String(Files.readAllBytes(file),
+                        StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    linked.add(matcher.group(1));
+                }
+            }
+        }
+    }
+
+    private static Set<String> listRuns(FileSystem zip) throws IOException {
+        Path runs = zip.getPath(RUNS);
+        Set<String> names = new LinkedHashSet<>();
+        if (Files.isDirectory(runs)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(runs)) {
+                for (Path entry : entries) {
+                    names.add(entry.getFileName().toString().replace("/", ""));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static FileSystem openArchive(Path archive, boolean create) throws IOException {
+        Map<String, String> env = new HashMap<>();
+        env.put("create", String.valueOf(create));
+        return FileSystems.newFileSystem(URI.create("jar:" + archive.toAbsolutePath().toUri()), env);
+    }
+
+    private boolean isOld(Path path, long now) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (now - Files.getLastModifiedTime(file).toMillis() < minAgeMillis) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return now - Files.getLastModifiedTime(path).toMillis() >= minAgeMillis;
+    }
+
+    private static long size(Path directory) throws IOException {
+        long bytes = 0;
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                bytes += Files.size(file);
+            }
+        }
+        return bytes;
+    }
+
+    private static long compressedSize(Path entry) throws IOException {
+        if (!Files.isDirectory(entry)) {
+            Object size = Files.getAttribute(entry, "zip:compressedSize");
+            return size instanceof Number ? ((Number) size).longValue() : Files.size(entry);
+        }
+        long bytes = 0;
+        try (Stream<Path> files = Files.walk(entry)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                bytes += compressedSize(file);
+            }
+        }
+        return bytes;
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.forEach(paths::add);
+        }
+        paths.sort(Comparator.reverseOrder());
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot).toLowerCase(Locale.ROOT);
+    }
+
+    private static String format(long bytes) {
+        return bytes < 1024 * 1024 ? String.format(Locale.ROOT, "%d KB", bytes / 1024)
+                : String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * Outcome of one retention run.
+     */
+    public static class Result {
+        private final boolean dryRun;
+        private final List<String> actions = new ArrayList<>();
+        private long reclaimedBytes;
+        private long archivedFolderBytes;
+        private long archiveGrowth;
+        private int deletedFiles;
+        private int archivedRuns;
+        private int droppedRuns;
+
+        Result(boolean dryRun) {
+            this.dryRun = dryRun;
+        }
+
+        private void add(String action, long bytes) {
+            actions.add((dryRun ? "would " : "") + action);
+            reclaimedBytes += bytes;
+        }
+
+        /**
+         * @return One line per file deleted, run archived or run dropped
+         */
+        public List<String> getActions() {
+            return actions;
+        }
+
+        /**
+         * @return Disk space freed; in a dry run, a lower bound for it, since the
+         *         archive is compressed
+         */
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+
+        public int getDeletedFiles() {
+            return deletedFiles;
+        }
+
+        public int getArchivedRuns() {
+            return archivedRuns;
+        }
+
+        public int getDroppedRuns() {
+            return droppedRuns;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s%s: %d file(s) deleted, %d run(s) archived, %d archived run(s) dropped",
+                    dryRun ? "Dry run, would reclaim at least " : "Reclaimed ", format(reclaimedBytes), deletedFiles,
+                    archivedRuns, droppedRuns);
+        }
+    }
+}
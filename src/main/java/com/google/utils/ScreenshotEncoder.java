@@ -0,0 +1,172 @@
+package com.google.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Re-encodes raw PNG screenshots according to the {@code imageQuality} setting
+ * in data.properties:
+ * <ul>
+ * <li>{@code low} - PNG downscaled by {@code imageScale}</li>
+ * <li>{@code medium} - full-resolution JPEG at {@code imageCompression}</li>
+ * <li>{@code high} - the PNG exactly as captured</li>
+ * </ul>
+ */
+public class ScreenshotEncoder {
+
+    /**
+     * Screenshot quality tiers, from smallest to largest file.
+     */
+    public enum Quality {
+        LOW("png"), MEDIUM("jpg"), HIGH("png");
+
+        private final String extension;
+
+        Quality(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return File extension of images written at this quality
+         */
+        public String extension() {
+            return extension;
+        }
+
+        /**
+         * Parses the {@code imageQuality} property; unknown or missing values keep
+         * the full-resolution capture.
+         * @param value Property value, e.g. "low"
+         * @return Matching quality tier
+         */
+        public static Quality fromProperty(String value) {
+            if (value != null) {
+                for (Quality quality : values()) {
+                    if (quality.name().equalsIgnoreCase(value.trim())) {
+                        return quality;
+                    }
+                }
+            }
+            return HIGH;
+        }
+    }
+
+    private final Quality quality;
+    private final double scale;
+    private final float compression;
+
+    /**
+     * @param quality Quality tier to encode at
+     * @param scale Downscale factor used by {@link Quality#LOW}, between 0 and 1
+     * @param compression JPEG quality used by {@link Quality#MEDIUM}, between 0 and 1
+     */
+    public ScreenshotEncoder(Quality quality, double scale, float compression) {
+        if (scale <= 0 || scale > 1) {
+            throw new IllegalArgumentException("imageScale must be in (0, 1] but was " + scale);
+        }
+        if (compression < 0 || compression > 1) {
+            throw new IllegalArgumentException("imageCompression must be in [0, 1] but was " + compression);
+        }
+        this.quality = quality;
+        this.scale = scale;
+        this.compression = compression;
+    }
+
+    /**
+     * @return Quality tier this encoder writes
+     */
+    public Quality getQuality() {
+        return quality;
+    }
+
+    /**
+     * Encodes a screenshot captured by the driver.
+     * @param png Raw PNG bytes returned by {@code getScreenshotAs(OutputType.BYTES)}
+     * @return Encoded image bytes, in the format given by {@link Quality#extension()}
+     * @throws IOException if the image cannot be decoded or encoded
+     */
+    public byte[] encode(byte[] png) throws IOException {
+        switch (quality) {
+        case LOW:
+            return scale == 1 ? png : writePng(downscale(decode(png)));
+        case MEDIUM:
+            return writeJpeg(toRgb(decode(png)));
+        case HIGH:
+        default:
+            return png;
+        }
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("Screenshot is not a readable image");
+        }
+        return image;
+    }
+
+    private BufferedImage downscale(BufferedImage source) {
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    // JPEG has no alpha channel, so screenshots are flattened to RGB first
+    private static BufferedImage toRgb(BufferedImage source) {
+        if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+            return source;
+        }
+        BufferedImage rgb = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(source, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+
+    private static byte[] writePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private byte[] writeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(compression);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s (scale=%.2f, compression=%.2f)", quality, scale, compression);
+    }
+}
@@ -0,0 +1,296 @@
+package com.google.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes report screenshots on a small pool of background threads so that
+ * encoding and disk I/O stay off the test thread. The queue is bounded; what
+ * happens when it is full is decided by the configured {@link BackPressure}.
+ * Files are named after a hash of the captured bytes, so identical frames are
+ * encoded and stored only once. With a {@link VisualCheck}, every frame that
+ * names a checkpoint, repeated or not, is also checked against its baseline on
+ * the writer threads.
+ */
+public class ScreenshotPipeline {
+    final static Logger LOGGER = LogManager.getLogger(ScreenshotPipeline.class);
+
+    /**
+     * Policy applied when a screenshot is submitted while the queue is full.
+     */
+    public enum BackPressure {
+        /** Block the test thread until the queue has room. */
+        BLOCK,
+        /** Write the screenshot on the test thread. */
+        CALLER_RUNS,
+        /** Discard the screenshot and count it as dropped. */
+        DROP
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final BackPressure backPressure;
+    private final ScreenshotEncoder encoder;
+    private final VisualCheck visualCheck;
+    // Files already queued or written, so repeated frames are stored once
+    private final Set<String> storedFiles = ConcurrentHashMap.newKeySet();
+    // The flushing thread is the one permanent party; each queued write registers itself
+    private final Phaser pending = new Phaser(1);
+
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytesCaptured = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+
+    /**
+     * @param threads       number of background writer threads
+     * @param queueCapacity maximum number of screenshots waiting to be written
+     * @param backPressure  policy applied when the queue is full
+     * @param encoder       encoder applying the configured image quality
+     */
+    public ScreenshotPipeline(int threads, int queueCapacity, BackPressure backPressure, ScreenshotEncoder encoder) {
+        this(threads, queueCapacity, backPressure, encoder, null);
+    }
+
+    /**
+     * @param threads       number of background writer threads
+     * @param queueCapacity maximum number of screenshots waiting to be written
+     * @param backPressure  policy applied when the queue is full
+     * @param encoder       encoder applying the configured image quality
+     * @param visualCheck   visual check applied to frames submitted with a checkpoint, or null
+     */
+    public ScreenshotPipeline(int threads, int queueCapacity, BackPressure backPressure, ScreenshotEncoder encoder,
+            VisualCheck visualCheck) {
+        this.backPressure = backPressure;
+        this.encoder = encoder;
+        this.visualCheck = visualCheck;
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue,
+                new WriterThreadFactory(), rejectionHandler(backPressure));
+    }
+
+    /**
+     * Queues a screenshot to be encoded and written to disk. Returns as soon as the
+     * write is queued (or, depending on the back-pressure policy, written or
+     * dropped). A frame identical to one already stored is not written again.
+     * @param image Raw PNG bytes as returned by the driver
+     * @param directory Directory the screenshot is written to
+     * @return Name of the file, relative to the directory
+     */
+    public String submit(byte[] image, File directory) {
+        return submit(image, directory, null);
+    }
+
+    /**
+     * Like {@link #submit(byte[], File)}, and checks the frame against the
+     * baseline of the checkpoint once it is written.
+     * @param image Raw PNG bytes as returned by the driver
+     * @param directory Directory the screenshot is written to
+     * @param checkpoint Checkpoint of the frame, see {@link VisualCheck#checkpoint()}, or null
+     * @return Name of the file, relative to the directory
+     */
+    public String submit(byte[] image, File directory, String checkpoint) {
+        captured.increment();
+        bytesCaptured.add(image.length);
+        String frameId = contentHash(image);
+        String fileName = "screenshot_" + frameId + "." + encoder.getQuality().extension();
+        File target = new File(directory, fileName);
+        String check = visualCheck == null ? null : checkpoint;
+        if (!storedFiles.add(target.getPath())) {
+            duplicates.increment();
+            if (check == null) {
+                return fileName;
+            }
+            // Only the check: a repeated frame may still differ from this checkpoint's baseline
+            target = null;
+        }
+        pending.register();
+        executor.execute(new WriteTask(image, target, frameId, check));
+        return fileName;
+    }
+
+    /**
+     * Waits until every screenshot submitted so far has been written.
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @return true if all writes completed, false if the timeout elapsed first
+     */
+    public synchronized boolean flush(long timeout, TimeUnit unit) {
+        int phase = pending.arrive();
+        try {
+            pending.awaitAdvanceInterruptibly(phase, timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Flushes pending writes and stops the writer threads.
+     * @param timeout Maximum time to wait for pending writes
+     * @param unit Unit of the timeout
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        if (!flush(timeout, unit)) {
+            LOGGER.warn("Timed out waiting for screenshot writes; " + executor.getQueue().size() + " still queued");
+        }
+        executor.shutdown();
+        LOGGER.info("Screenshot pipeline stopped: " + getStats());
+    }
+
+    /**
+     * @return one-line summary of the pipeline's counters, disk usage and encode time
+     */
+    public String getStats() {
+        long encodedFrames = written.sum() + failed.sum();
+        double avgEncodeMs = encodedFrames == 0 ? 0 : encodeNanos.sum() / 1_000_000.0 / encodedFrames;
+        return String.format(Locale.ROOT,
+                "quality=%s, captured=%d, duplicates=%d, written=%d, dropped=%d, failed=%d, "
+                        + "capturedKB=%d, diskKB=%d, avgEncodeMs=%.1f, backPressure=%s",
+                encoder, captured.sum(), duplicates.sum(), written.sum(), dropped.sum(), failed.sum(),
+                bytesCaptured.sum() / 1024, bytesWritten.sum() / 1024, avgEncodeMs, backPressure);
+    }
+
+    // Collisions on an 80-bit prefix of SHA-256 are not a practical concern for report frames
+    private static String contentHash(byte[] image) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(image);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private RejectedExecutionHandler rejectionHandler(BackPressure policy) {
+        switch (policy) {
+        case CALLER_RUNS:
+            return new ThreadPoolExecutor.CallerRunsPolicy();
+        case DROP:
+            return (task, pool) -> {
+                dropped.increment();
+                ((WriteTask) task).discard();
+            };
+        case BLOCK:
+        default:
+            return (task, pool) -> {
+                try {
+                    pool.getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                    ((WriteTask) task).discard();
+                }
+            };
+        }
+    }
+
+    /**
+     * A single queued screenshot write and/or visual check. Always leaves the
+     * flush barrier, whether the write succeeds, fails or is discarded.
+     */
+    private class WriteTask implements Runnable {
+        private final byte[] image;
+        private final File target;
+        private final String frameId;
+        private final String checkpoint;
+
+        WriteTask(byte[] image, File target, String frameId, String checkpoint) {
+            this.image = image;
+            this.target = target;
+            this.frameId = frameId;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (target != null) {
+                    write();
+                }
+                if (checkpoint != null) {
+                    check();
+                }
+            } finally {
+                pending.arriveAndDeregister();
+            }
+        }
+
+        private void write() {
+            try {
+                long start = System.nanoTime();
+                byte[] encoded = encoder.encode(image);
+                encodeNanos.add(System.nanoTime() - start);
+
+                Path path = target.toPath();
+                Files.createDirectories(path.getParent());
+                Files.write(path, encoded);
+                written.increment();
+                bytesWritten.add(encoded.length);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(target.getPath() + " written");
+                }
+            } catch (IOException e) {
+                failed.increment();
+                storedFiles.remove(target.getPath());
+                LOGGER.error("Error while writing screenshot " + target.getPath(), e);
+            }
+        }
+
+        private void check() {
+            try {
+                visualCheck.check(checkpoint, frameId, image);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Error while checking screenshot " + frameId + " at " + checkpoint, e);
+            }
+        }
+
+        void discard() {
+            LOGGER.warn("Screenshot queue full, dropping " + (target != null ? target.getPath() : "check at " + checkpoint));
+            if (target != null) {
+                storedFiles.remove(target.getPath());
+            }
+            pending.arriveAndDeregister();
+        }
+    }
+
+    private static class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "screenshot-writer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
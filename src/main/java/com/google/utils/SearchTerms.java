@@ -0,0 +1,146 @@
+package com.google.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonException;
+
+/**
+ * Loads lists of search terms. A {@code .jsonl} file has one object per line
+ * with a {@code term} field; any other file is read as CSV with the term in the
+ * first column and an optional {@code term} header. Blank lines and lines
+ * starting with {@code #} are skipped, and duplicates are dropped.
+ */
+public final class SearchTerms {
+	// Followed by a test class name, selects the rows a sharded worker runs
+	static final String ROWS_PREFIX = "searchTerms.rows.";
+
+	// Private constructor to prevent instantiation
+	private SearchTerms() {
+	}
+
+	/**
+	 * Loads the terms from the file named by {@code key}, or from the
+	 * comma-separated {@code searchText} property when the key is not set.
+	 *
+	 * @param key Configuration key naming the terms file
+	 * @return search terms in file order
+	 * @throws IOException if the file cannot be read
+	 */
+	public static List<String> fromConfig(String key) throws IOException {
+		String file = ConfigManager.get(key, null);
+		if (file != null) {
+			return load(Paths.get(file));
+		}
+		Set<String> terms = new LinkedHashSet<>();
+		for (String term : ConfigManager.get("searchText", "").split(",")) {
+			if (!term.trim().isEmpty()) {
+				terms.add(term.trim());
+			}
+		}
+		return new ArrayList<>(terms);
+	}
+
+	/**
+	 * Keeps the rows of a test class that this JVM runs. {@link ShardedSuiteRunner}
+	 * splits the rows of data-driven classes across its workers and lists each
+	 * worker's share as comma-separated row indexes in
+	 * {@code searchTerms.rows.<simple class name>}; without that key every row
+	 * is kept.
+	 *
+	 * @param testClass Class requesting the terms
+	 * @param terms     All search terms, in file order
+	 * @return Terms of the selected rows, in file order
+	 */
+	public static List<String> forClass(Class<?> testClass, List<String> terms) {
+		String rows = ConfigManager.get(ROWS_PREFIX + testClass.getSimpleName(), null);
+		return rows == null ? terms : selectRows(terms, rows);
+	}
+
+	/**
+	 * @param terms All search terms, in file order
+	 * @param rows  Comma-separated row indexes, as in {@code searchTerms.rows.<class>}
+	 * @return Terms of the given rows, in the order listed
+	 */
+	public static List<String> selectRows(List<String> terms, String rows) {
+		List<String> selected = new ArrayList<>();
+		for (String row : rows.split(",")) {
+			if (!row.trim().isEmpty()) {
+				selected.add(terms.get(Integer.parseInt(row.trim())));
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * @param file CSV or JSONL file of search terms
+	 * @return search terms in file order
+	 * @throws IOException if the file cannot be read or a JSONL line is invalid
+	 */
+	public static List<String> load(Path file) throws IOException {
+		boolean jsonLines = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jsonl");
+		Json json = new Json();
+		Set<String> terms = new LinkedHashSet<>();
+		int lineNumber = 0;
+		boolean firstRecord = true;
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			lineNumber++;
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+				continue;
+			}
+			String term;
+			if (jsonLines) {
+				try {
+					Map<?, ?> record = json.toType(trimmed, Map.class);
+					term = record.get("term") == null ? "" : String.valueOf(record.get("term")).trim();
+				} catch (JsonException | ClassCastException e) {
+					throw new IOException("Invalid JSON on line " + lineNumber + " of " + file, e);
+				}
+			} else {
+				term = firstColumn(trimmed);
+				if (firstRecord && "term".equalsIgnoreCase(term)) {
+					firstRecord = false;
+					continue;
+				}
+			}
+			firstRecord = false;
+			if (!term.isEmpty()) {
+				terms.add(term);
+			}
+		}
+		return new ArrayList<>(terms);
+	}
+
+	// First CSV field; a quoted field may contain commas and "" escapes
+	private static String firstColumn(String line) {
+		if (!line.startsWith("\"")) {
+			return line.split(",")[0].trim();
+		}
+		StringBuilder field = new StringBuilder();
+		for (int i = 1; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					break;
+				}
+			} else {
+				field.append(c);
+			}
+		}
+		return field.toString().trim();
+	}
+}
@@ -0,0 +1,601 @@
+package com.google.utils;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Runs a TestNG suite in several local worker JVMs and merges their results
+ * into one report folder and one {@code testng-results.xml}.
+ * <p>
+ * The suite's classes are split into units: a whole class, or one search term
+ * row of a class whose tests are all fed by the {@code searchTerms} data
+ * provider. Each unit is estimated from the median durations in the
+ * {@link ReportIndex} ({@link TestDurations}), or {@code shard.defaultTestSeconds}
+ * per test method when it has no history, and the units are assigned longest
+ * first to the least loaded shard. Every shard runs as
+ * {@code org.testng.TestNG} in its own JVM with a generated suite file, writes
+ * its report to {@code ReportGenerator/<run>/shard-<n>} and its TestNG output
+ * to {@code shard.outputDir/shard-<n>}. Afterwards the journals, screenshots
+ * and metrics are merged into {@code ReportGenerator/<run>}, which is rendered,
+ * indexed and subject to retention like a single-JVM run.
+ * <p>
+ * Usage: {@code ShardedSuiteRunner [--shards N] [suite.xml] [key=value ...]};
+ * key=value pairs override the configuration in the runner and every worker.
+ * Run it with the test classpath, e.g.
+ * {@code mvn test-compile exec:exec -Dexec.executable=java
+ * -Dexec.args="-cp %classpath com.google.utils.ShardedSuiteRunner --shards 4"}.
+ */
+public class ShardedSuiteRunner {
+	// Logger to record the plan and the outcome of each shard
+	private static final Logger logger = LoggerFactory.getLogger(ShardedSuiteRunner.class);
+	public static final String RESULTS_FILE = "testng-results.xml";
+
+	public static void main(String[] args) throws Exception {
+		int shardCount = ConfigManager.getInt("shard.count", 0);
+		Path suiteFile = Paths.get("testng.xml");
+		Map<String, String> overrides = new LinkedHashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--shards") && i + 1 < args.length) {
+				shardCount = Integer.parseInt(args[++i]);
+			} else if (args[i].contains("=")) {
+				String[] pair = args[i].split("=", 2);
+				overrides.put(pair[0], pair[1]);
+				System.setProperty(pair[0], pair[1]);
+			} else if (!args[i].startsWith("-")) {
+				suiteFile = Paths.get(args[i]);
+			} else {
+				System.err.println("Usage: ShardedSuiteRunner [--shards N] [suite.xml] [key=value ...]");
+				System.exit(2);
+			}
+		}
+		ConfigManager.reload();
+		System.exit(new ShardedSuiteRunner(suiteFile, shardCount, overrides).run() ? 0 : 1);
+	}
+
+	private final Path suiteFile;
+	private final int shardCount;
+	private final Map<String, String> overrides;
+
+	/**
+	 * @param suiteFile  TestNG suite to split
+	 * @param shardCount Number of worker JVMs; 0 uses the number of cores divided
+	 *                   by {@code shard.threadsPerWorker}
+	 * @param overrides  Configuration overrides passed to every worker
+	 */
+	public ShardedSuiteRunner(Path suiteFile, int shardCount, Map<String, String> overrides) {
+		this.suiteFile = suiteFile;
+		this.shardCount = shardCount;
+		this.overrides = overrides;
+	}
+
+	/**
+	 * Plans the shards, runs them and merges their output.
+	 *
+	 * @return true if every worker exited normally and every test passed
+	 * @throws IOException if the suite cannot be read or the output merged
+	 */
+	public boolean run() throws IOException {
+		Document suite = parse(suiteFile);
+		int threadsPerWorker = Math.max(1, ConfigManager.getInt("shard.threadsPerWorker", 1));
+		int shards = shardCount > 0 ? shardCount
+				: Math.max(1, Runtime.getRuntime().availableProcessors() / threadsPerWorker);
+		List<Unit> units = units(attributes(suite, "class", "name"), SearchTerms.fromConfig("searchTerms.file"),
+				TestDurations.fromConfig(), ConfigManager.getLong("shard.defaultTestSeconds", 30) * 1000);
+		List<Shard> plan = plan(units, shards);
+		for (Shard shard : plan) {
+			logger.info("Shard {}: predicted {} s, {}", shard.index, shard.predictedMillis / 1000, shard.units);
+		}
+
+		String runFolder = ConfigManager.get("releaseName") + "-"
+				+ new SimpleDateFormat("MM-dd-yyyy-HH-mm-ss").format(new Date());
+		Path reportRoot = Paths.get("ReportGenerator");
+		Path outputDir = Paths.get(ConfigManager.get("shard.outputDir", "test-output"));
+		String suiteName = suite.getDocumentElement().getAttribute("name");
+		List<String> listeners = attributes(suite, "listener", "class-name");
+		long timeoutMillis = ConfigManager.getLong("shard.timeoutMinutes", 60) * 60_000;
+
+		List<Process> processes = new ArrayList<>();
+		for (Shard shard : plan) {
+			Path shardOutput = Files.createDirectories(outputDir.resolve("shard-" + shard.index));
+			Path shardSuite = shardOutput.resolve("suite.xml");
+			Files.write(shardSuite, suiteXml(suiteName + " (shard " + shard.index + ")", listeners, shard)
+					.getBytes(StandardCharsets.UTF_8));
+			List<String> command = command(shard, runFolder + "/shard-" + shard.index, threadsPerWorker);
+			command.addAll(Arrays.asList("org.testng.TestNG", "-d", shardOutput.toString(), shardSuite.toString()));
+			shard.started = System.nanoTime();
+			processes.add(new ProcessBuilder(command).redirectErrorStream(true)
+					.redirectOutput(shardOutput.resolve("worker.log").toFile()).start());
+		}
+		// Polled rather than waited for in turn, so each shard's time ends when its worker does
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		List<Shard> running = new ArrayList<>(plan);
+		while (!running.isEmpty()) {
+			for (Shard shard : new ArrayList<>(running)) {
+				Process process = processes.get(plan.indexOf(shard));
+				boolean timedOut = System.nanoTime() > deadline;
+				if (process.isAlive() && !timedOut) {
+					continue;
+				}
+				if (process.isAlive()) {
+					logger.error("Shard {} did not finish within {} min and is killed", shard.index,
+							timeoutMillis / 60_000);
+					process.destroyForcibly();
+				} else {
+					shard.exitCode = process.exitValue();
+				}
+				shard.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - shard.started);
+				running.remove(shard);
+				logger.info("Shard {} exited with {} after {} s (predicted {} s)", shard.index, shard.exitCode,
+						shard.elapsedMillis / 1000, shard.predictedMillis / 1000);
+			}
+			try {
+				if (!running.isEmpty()) {
+					Thread.sleep(200);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Process process : processes) {
+					process.destroyForcibly();
+				}
+				throw new IOException("Interrupted while waiting for the shards", e);
+			}
+		}
+
+		List<Path> results = new ArrayList<>();
+		for (Shard shard : plan) {
+			Path result = outputDir.resolve("shard-" + shard.index).resolve(RESULTS_FILE);
+			if (Files.exists(result)) {
+				results.add(result);
+			} else {
+				logger.error("Shard {} wrote no {}", shard.index, RESULTS_FILE);
+			}
+		}
+		mergeResults(results, outputDir.resolve(RESULTS_FILE));
+		Path merged = mergeReports(reportRoot.resolve(runFolder), plan);
+		logger.info("Merged report of {} shard(s): {}", plan.size(), merged);
+
+		if (ConfigManager.getBoolean("report.index", true)) {
+			ReportIndex.update(reportRoot);
+		}
+		if (ConfigManager.getBoolean("retention.enabled", true)) {
+			ReportRetention.fromConfig().run();
+		}
+		for (Shard shard : plan) {
+			if (shard.exitCode != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// JVM command of a worker, with the settings that keep workers from competing for shared files
+	private List<String> command(Shard shard, String reportFolder, int threadsPerWorker) {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		for (String option : ConfigManager.get("shard.jvmArgs", "").trim().split("\\s+")) {
+			if (!option.isEmpty()) {
+				command.add(option);
+			}
+		}
+		command.add("-cp");
+		command.add(ConfigManager.get("shard.classpath", System.getProperty("java.class.path")));
+		Map<String, String> properties = new LinkedHashMap<>(overrides);
+		if (System.getProperty("config.dir") != null) {
+			properties.put("config.dir", System.getProperty("config.dir"));
+		}
+		properties.put("report.folder", reportFolder);
+		properties.put("report.resume", "false");
+		// The runner indexes and prunes the merged report once all workers are done
+		properties.put("report.index", "false");
+		properties.put("retention.enabled", "false");
+		properties.put("parallel.threads", String.valueOf(threadsPerWorker));
+		properties.putAll(shard.rowProperties());
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			command.add("-D" + property.getKey() + "=" + property.getValue());
+		}
+		return command;
+	}
+
+	/**
+	 * Splits test classes into units of work. Classes whose tests all use the
+	 * {@code searchTerms} data provider are split into one unit per term.
+	 *
+	 * @param classes         Fully qualified test class names, in suite order
+	 * @param terms           Search terms of the data-driven tests
+	 * @param durations       Past durations to estimate the units from
+	 * @param defaultMillis   Estimate per test method without history
+	 * @return Units with their estimated duration
+	 */
+	public static List<Unit> units(List<String> classes, List<String> terms, TestDurations durations,
+			long defaultMillis) {
+		List<Unit> units = new ArrayList<>();
+		for (String className : classes) {
+			String simpleName = className.substring(className.lastIndexOf('.') + 1);
+			int tests = 0;
+			boolean dataDriven = true;
+			try {
+				for (Method method : Class.forName(className, false, ShardedSuiteRunner.class.getClassLoader())
+						.getMethods()) {
+					Test test = method.getAnnotation(Test.class);
+					if (test != null) {
+						tests++;
+						dataDriven &= "searchTerms".equals(test.dataProvider());
+					}
+				}
+			} catch (ClassNotFoundException e) {
+				logger.warn("Test class {} is not on the classpath; it is scheduled without an estimate", className);
+			}
+			if (tests > 0 && dataDriven && !terms.isEmpty()) {
+				for (int row = 0; row < terms.size(); row++) {
+					long known = durations.forRow(simpleName, terms.get(row));
+					units.add(new Unit(className, row, known >= 0 ? known : defaultMillis * tests));
+				}
+			} else {
+				long known = durations.forClass(simpleName);
+				units.add(new Unit(className, -1, known >= 0 ? known : defaultMillis * Math.max(1, tests)));
+			}
+		}
+		return units;
+	}
+
+	/**
+	 * Assigns units to shards longest first, each to the shard with the least
+	 * estimated work so far (longest processing time first).
+	 *
+	 * @param units      Units to assign
+	 * @param shardCount Maximum number of shards
+	 * @return Non-empty shards, numbered from 1
+	 */
+	public static List<Shard> plan(List<Unit> units, int shardCount) {
+		List<Shard> shards = new ArrayList<>();
+		PriorityQueue<Shard> leastLoaded = new PriorityQueue<>(
+				Comparator.comparingLong((Shard shard) -> shard.predictedMillis).thenComparingInt(shard -> shard.index));
+		for (int i = 1; i <= Math.max(1, Math.min(shardCount, units.size())); i++) {
+			Shard shard = new Shard(i);
+			shards.add(shard);
+			leastLoaded.add(shard);
+		}
+		List<Unit> longestFirst = new ArrayList<>(units);
+		longestFirst.sort(Comparator.comparingLong((Unit unit) -> unit.estimateMillis).reversed());
+		for (Unit unit : longestFirst) {
+			Shard shard = leastLoaded.poll();
+			shard.units.add(unit);
+			shard.predictedMillis += unit.estimateMillis;
+			leastLoaded.add(shard);
+		}
+		shards.removeIf(shard -> shard.units.isEmpty());
+		return shards;
+	}
+
+	/**
+	 * @param name      Name of the generated suite
+	 * @param listeners Listener classes of the original suite
+	 * @param shard     Shard whose classes the suite runs
+	 * @return TestNG suite file running the shard's classes
+	 */
+	static String suiteXml(String name, List<String> listeners, Shard shard) {
+		StringBuilder xml = new StringBuilder("<!DOCTYPE suite SYSTEM \"https://testng.org/testng-1.0.dtd\">\n");
+		xml.append("<suite name=\"").append(escape(name)).append("\">\n    <listeners>\n");
+		for (String listener : listeners) {
+			xml.append("        <listener class-name=\"").append(escape(listener)).append("\"/>\n");
+		}
+		xml.append("    </listeners>\n    <test name=\"Shard ").append(shard.index).append("\">\n        <classes>\n");
+		for (String testClass : shard.classes()) {
+			xml.append("            <class name=\"").append(escape(testClass)).append("\"/>\n");
+		}
+		return xml.append("        </classes>\n    </test>\n</suite>\n").toString();
+	}
+
+	/**
+	 * Merges the {@code testng-results.xml} files of the shards: the counters of
+	 * the root element are added up and every suite is kept.
+	 *
+	 * @param inputs Result files of the shards
+	 * @param output File to write
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public static void mergeResults(List<Path> inputs, Path output) throws IOException {
+		Document merged = newBuilder().newDocument();
+		Element root = merged.createElement("testng-results");
+		merged.appendChild(root);
+		Element reporterOutput = merged.createElement("reporter-output");
+		root.appendChild(reporterOutput);
+		Map<String, Long> counters = new LinkedHashMap<>();
+		for (String counter : new String[] { "ignored", "total", "passed", "failed", "skipped" }) {
+			counters.put(counter, 0L);
+		}
+		for (Path input : inputs) {
+			Element shardRoot = parse(input).getDocumentElement();
+			for (Map.Entry<String, Long> counter : counters.entrySet()) {
+				String value = shardRoot.getAttribute(counter.getKey());
+				if (!value.isEmpty()) {
+					counter.setValue(counter.getValue() + Long.parseLong(value));
+				}
+			}
+			NodeList children = shardRoot.getChildNodes();
+			for (int i = 0; i < children.getLength(); i++) {
+				Node child = children.item(i);
+				if (child instanceof Element && "reporter-output".equals(child.getNodeName())) {
+					NodeList lines = child.getChildNodes();
+					for (int j = 0; j < lines.getLength(); j++) {
+						reporterOutput.appendChild(merged.importNode(lines.item(j), true));
+					}
+				} else if (child instanceof Element) {
+					root.appendChild(merged.importNode(child, true));
+				}
+			}
+		}
+		for (Map.Entry<String, Long> counter : counters.entrySet()) {
+			root.setAttribute(counter.getKey(), String.valueOf(counter.getValue()));
+		}
+		try {
+			Transformer transformer = TransformerFactory.newInstance().newTransformer();
+			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+			Files.createDirectories(output.toAbsolutePath().getParent());
+			transformer.transform(new DOMSource(merged), new StreamResult(output.toFile()));
+		} catch (TransformerException e) {
+			throw new IOException("Failed to write " + output, e);
+		}
+	}
+
+	/**
+	 * Merges the report folders of the shards into one: test records are copied
+	 * in shard order, screenshots (named after their content) and metrics are
+	 * moved, and system info that differs between shards is kept per shard. The
+	 * merged run only counts as finished if every shard's did. The shard folders
+	 * are deleted and the report is rendered.
+	 *
+	 * @param runFolder Folder of the merged report
+	 * @param shards    Shards whose folders are {@code <runFolder>/shard-<n>}
+	 * @return Path of the rendered report
+	 * @throws IOException if a journal cannot be read or the report written
+	 */
+	public static Path mergeReports(Path runFolder, List<Shard> shards) throws IOException {
+		Map<String, Map<Integer, String>> systemInfo = new LinkedHashMap<>();
+		boolean complete = true;
+		try (ReportJournal journal = ReportJournal.open(runFolder)) {
+			journal.runEvent("start");
+			for (Shard shard : shards) {
+				Path folder = runFolder.resolve("shard-" + shard.index);
+				Path file = folder.resolve(ReportJournal.FILE_NAME);
+				if (!Files.exists(file)) {
+					logger.error("Shard {} wrote no report journal", shard.index);
+					complete = false;
+					continue;
+				}
+				complete &= ReportJournal.isComplete(file);
+				ReportJournal.forEach(file, record -> {
+					if ("test".equals(record.get("type"))) {
+						journal.append(record);
+					} else if ("systemInfo".equals(record.get("type"))) {
+						systemInfo.computeIfAbsent(String.valueOf(record.get("key")), key -> new LinkedHashMap<>())
+								.put(shard.index, String.valueOf(record.get("value")));
+					}
+				});
+				moveContents(folder, runFolder, shard.index);
+			}
+			for (Map.Entry<String, Map<Integer, String>> entry : systemInfo.entrySet()) {
+				if (entry.getValue().size() == 1 || entry.getValue().values().stream().distinct().count() == 1) {
+					journal.systemInfo(entry.getKey(), entry.getValue().values().iterator().next());
+				} else {
+					for (Map.Entry<Integer, String> value : entry.getValue().entrySet()) {
+						journal.systemInfo(entry.getKey() + " (shard " + value.getKey() + ")", value.getValue());
+					}
+				}
+			}
+			StringBuilder summary = new StringBuilder();
+			for (Shard shard : shards) {
+				summary.append(summary.length() == 0 ? "" : "<br>").append(shard);
+			}
+			journal.systemInfo("Shards", summary.toString());
+			if (complete) {
+				journal.runEvent("end");
+			}
+		}
+		return ReportRenderer.render(runFolder);
+	}
+
+	// Moves screenshots, visual diffs and metrics of a shard folder into the run folder and deletes the rest
+	private static void moveContents(Path folder, Path runFolder, int index) throws IOException {
+		for (String images : new String[] { "Screenshots", VisualCheck.DIFF_FOLDER }) {
+			Path source = folder.resolve(images);
+			if (!Files.isDirectory(source)) {
+				continue;
+			}
+			Path target = Files.createDirectories(runFolder.resolve(images));
+			try (Stream<Path> files = Files.list(source)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					// The same screenshot name is the same image, captured by another shard; diffs are named per test
+					if (!Files.exists(target.resolve(file.getFileName()))) {
+						Files.move(file, target.resolve(file.getFileName()));
+					}
+				}
+			}
+		}
+		Path metrics = folder.resolve("metrics.prom");
+		if (Files.exists(metrics)) {
+			Files.move(metrics, runFolder.resolve("metrics-shard-" + index + ".prom"),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		try (Stream<Path> files = Files.walk(folder)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	// Values of an attribute of every element with the given name
+	private static List<String> attributes(Document document, String element, String attribute) {
+		List<String> values = new ArrayList<>();
+		NodeList nodes = document.getElementsByTagName(element);
+		for (int i = 0; i < nodes.getLength(); i++) {
+			values.add(((Element) nodes.item(i)).getAttribute(attribute));
+		}
+		return values;
+	}
+
+	private static Document parse(Path file) throws IOException {
+		try {
+			return newBuilder().parse(file.toFile());
+		} catch (SAXException e) {
+			throw new IOException("Failed to parse " + file, e);
+		}
+	}
+
+	// Suite files reference the TestNG DTD by URL; it is neither fetched nor validated against
+	private static DocumentBuilder newBuilder() throws IOException {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+			return factory.newDocumentBuilder();
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+	}
+
+	/**
+	 * A test class, or one data row of a data-driven test class.
+	 */
+	public static final class Unit {
+		private final String testClass;
+		private final int row;
+		private final long estimateMillis;
+
+		/**
+		 * @param testClass      Fully qualified test class name
+		 * @param row            Index of the search term, or -1 for the whole class
+		 * @param estimateMillis Expected duration
+		 */
+		public Unit(String testClass, int row, long estimateMillis) {
+			this.testClass = testClass;
+			this.row = row;
+			this.estimateMillis = estimateMillis;
+		}
+
+		public String getTestClass() {
+			return testClass;
+		}
+
+		public int getRow() {
+			return row;
+		}
+
+		public long getEstimateMillis() {
+			return estimateMillis;
+		}
+
+		@Override
+		public String toString() {
+			return testClass.substring(testClass.lastIndexOf('.') + 1) + (row < 0 ? "" : "[" + row + "]");
+		}
+	}
+
+	/**
+	 * The units one worker JVM runs, with its predicted and actual duration.
+	 */
+	public static final class Shard {
+		private final int index;
+		private final List<Unit> units = new ArrayList<>();
+		private long predictedMillis;
+		private long started;
+		private long elapsedMillis;
+		// -1 until the worker exits normally
+		private int exitCode = -1;
+
+		Shard(int index) {
+			this.index = index;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public List<Unit> getUnits() {
+			return units;
+		}
+
+		public long getPredictedMillis() {
+			return predictedMillis;
+		}
+
+		// Test classes of the shard, in first-assigned order
+		List<String> classes() {
+			List<String> classes = new ArrayList<>();
+			for (Unit unit : units) {
+				if (!classes.contains(unit.testClass)) {
+					classes.add(unit.testClass);
+				}
+			}
+			return classes;
+		}
+
+		/**
+		 * @return {@code searchTerms.rows.<class>} settings selecting the data rows
+		 *         of the shard's data-driven classes
+		 */
+		Map<String, String> rowProperties() {
+			Map<String, List<Integer>> rows = new LinkedHashMap<>();
+			for (Unit unit : units) {
+				if (unit.row >= 0) {
+					rows.computeIfAbsent(unit.testClass, name -> new ArrayList<>()).add(unit.row);
+				}
+			}
+			Map<String, String> properties = new LinkedHashMap<>();
+			for (Map.Entry<String, List<Integer>> entry : rows.entrySet()) {
+				List<Integer> sorted = new ArrayList<>(entry.getValue());
+				sorted.sort(null);
+				String simpleName = entry.getKey().substring(entry.getKey().lastIndexOf('.') + 1);
+				properties.put(SearchTerms.ROWS_PREFIX + simpleName, sorted.toString().replaceAll("[\\[\\] ]", ""));
+			}
+			return properties;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "shard %d: %d unit(s), predicted %.1f s, took %.1f s, exit %d", index,
+					units.size(), predictedMillis / 1000.0, elapsedMillis / 1000.0, exitCode);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.google.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-step timing of page-object methods. A step is opened with
+ * {@code try (StepMetrics.Step step = StepMetrics.step("GoogleHomePage.open"))}
+ * and records its duration in a {@link LatencyHistogram} when closed. While it
+ * is open, WebDriver commands (counted by {@link CommandMetrics}) and
+ * report screenshots are attributed to it. Steps opened inside another step
+ * are named {@code parent/child}; a step's duration includes its children,
+ * while commands and screenshots count only towards the innermost step.
+ * <p>
+ * Metrics are run-wide. {@link #writePrometheus(Path)} exports them in the
+ * Prometheus text format and {@link #getStats()} summarizes them for the
+ * report.
+ */
+public final class StepMetrics {
+	// Logger to record where the metrics were exported
+	private static final Logger logger = LoggerFactory.getLogger(StepMetrics.class);
+
+	// Commands and screenshots outside any step are counted under this name
+	static final String NO_STEP = "(no step)";
+
+	private static final Map<String, Stats> STEPS = new ConcurrentHashMap<>();
+	// Innermost step open on this thread
+	private static final ThreadLocal<Step> current = new ThreadLocal<>();
+	// Nanoseconds per step closed on this thread since resetTestSteps(); null when not tracked
+	private static final ThreadLocal<Map<String, Long>> testSteps = new ThreadLocal<>();
+
+	// Private constructor to prevent instantiation
+	private StepMetrics() {
+	}
+
+	/**
+	 * Opens a step on the current thread. Close it, preferably with
+	 * try-with-resources, on the same thread.
+	 *
+	 * @param name Name of the step, e.g. {@code GoogleHomePage.open}
+	 * @return the open step
+	 */
+	public static Step step(String name) {
+		Step parent = current.get();
+		Step step = new Step(parent == null ? name : parent.name + "/" + name, parent);
+		current.set(step);
+		return step;
+	}
+
+	/**
+	 * @return name of the innermost step open on the current thread, or
+	 *         {@code (no step)}
+	 */
+	public static String currentStep() {
+		Step step = current.get();
+		return step == null ? NO_STEP : step.name;
+	}
+
+	/**
+	 * Counts one WebDriver command against the current step.
+	 *
+	 * @param command Name of the command, e.g. {@code findElement}
+	 */
+	public static void recordCommand(String command) {
+		stats(currentStep()).commands.computeIfAbsent(command, c -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Counts one screenshot and its size against the current step.
+	 *
+	 * @param bytes Size of the captured screenshot
+	 */
+	public static void recordScreenshot(long bytes) {
+		Stats stats = stats(currentStep());
+		stats.screenshots.increment();
+		stats.screenshotBytes.add(bytes);
+	}
+
+	/**
+	 * @param step Full name of a step
+	 * @return Duration histogram of the step, or null if it never completed
+	 */
+	public static LatencyHistogram getHistogram(String step) {
+		Stats stats = STEPS.get(step);
+		return stats == null || stats.latency.getCount() == 0 ? null : stats.latency;
+	}
+
+	/**
+	 * @param step Full name of a step
+	 * @param command Name of a WebDriver command
+	 * @return Number of times the command ran within the step
+	 */
+	public static long getCommandCount(String step, String command) {
+		Stats stats = STEPS.get(step);
+		LongAdder count = stats == null ? null : stats.commands.get(command);
+		return count == null ? 0 : count.sum();
+	}
+
+	/**
+	 * @return One line per step, slowest total first: duration summary, command
+	 *         count and screenshot bytes; or null if nothing was recorded
+	 */
+	public static String getStats() {
+		if (STEPS.isEmpty()) {
+			return null;
+		}
+		List<Map.Entry<String, Stats>> entries = new ArrayList<>(STEPS.entrySet());
+		entries.sort((a, b) -> Double.compare(b.getValue().latency.getTotalMillis(),
+				a.getValue().latency.getTotalMillis()));
+		StringBuilder stats = new StringBuilder();
+		for (Map.Entry<String, Stats> entry : entries) {
+			Stats step = entry.getValue();
+			long commands = 0;
+			for (LongAdder count : step.commands.values()) {
+				commands += count.sum();
+			}
+			stats.append(entry.getKey()).append(": ");
+			if (step.latency.getCount() > 0) {
+				stats.append(step.latency).append(", ");
+			}
+			stats.append(String.format(Locale.ROOT, "commands=%d, screenshots=%d (%d KB)\n", commands,
+					step.screenshots.sum(), step.screenshotBytes.sum() / 1024));
+		}
+		return stats.toString().trim();
+	}
+
+	/**
+	 * Writes all step metrics in the Prometheus text exposition format:
+	 * {@code selenium_step_duration_seconds} (histogram),
+	 * {@code selenium_step_commands_total},
+	 * {@code selenium_step_screenshots_total} and
+	 * {@code selenium_step_screenshot_bytes_total}.
+	 *
+	 * @param file File to write, e.g. {@code ReportGenerator/<reportFolder>/metrics.prom}
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writePrometheus(Path file) throws IOException {
+		Map<String, Stats> steps = new TreeMap<>(STEPS);
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("# HELP selenium_step_duration_seconds Duration of page-object steps, including nested steps.\n");
+			out.write("# TYPE selenium_step_duration_seconds histogram\n");
+			for (Map.Entry<String, Stats> entry : steps.entrySet()) {
+				LatencyHistogram latency = entry.getValue().latency;
+				if (latency.getCount() == 0) {
+					continue;
+				}
+				String step = "step=\"" + escapeLabel(entry.getKey()) + "\"";
+				long[] buckets = latency.getBucketCounts();
+				int last = buckets.length - 1;
+				while (last > 0 && buckets[last] == 0) {
+					last--;
+				}
+				int first = 0;
+				while (first < last && buckets[first] == 0) {
+					first++;
+				}
+				long cumulative = 0;
+				for (int i = first; i <= last; i++) {
+					cumulative += buckets[i];
+					out.write(String.format(Locale.ROOT, "selenium_step_duration_seconds_bucket{%s,le=\"%s\"} %d\n",
+							step, Double.toString((1L << i) / 1_000_000.0), cumulative));
+				}
+				out.write("selenium_step_duration_seconds_bucket{" + step + ",le=\"+Inf\"} " + latency.getCount() + "\n");
+				out.write(String.format(Locale.ROOT, "selenium_step_duration_seconds_sum{%s} %s\n", step,
+						Double.toString(latency.getTotalMillis() / 1000.0)));
+				out.write("selenium_step_duration_seconds_count{" + step + "} " + latency.getCount() + "\n");
+			}
+			out.write("# HELP selenium_step_commands_total WebDriver commands issued within a step.\n");
+			out.write("# TYPE selenium_step_commands_total counter\n");
+			for (Map.Entry<String, Stats> entry : steps.entrySet()) {
+				for (Map.Entry<String, LongAdder> command : new TreeMap<>(entry.getValue().commands).entrySet()) {
+					out.write("selenium_step_commands_total{step=\"" + escapeLabel(entry.getKey()) + "\",command=\""
+							+ escapeLabel(command.getKey()) + "\"} " + command.getValue().sum() + "\n");
+				}
+			}
+			out.write("# HELP selenium_step_screenshots_total Report screenshots captured within a step.\n");
+			out.write("# TYPE selenium_step_screenshots_total counter\n");
+			for (Map.Entry<String, Stats> entry : steps.entrySet()) {
+				out.write("selenium_step_screenshots_total{step=\"" + escapeLabel(entry.getKey()) + "\"} "
+						+ entry.getValue().screenshots.sum() + "\n");
+			}
+			out.write("# HELP selenium_step_screenshot_bytes_total Size of the raw screenshots captured within a step.\n");
+			out.write("# TYPE selenium_step_screenshot_bytes_total counter\n");
+			for (Map.Entry<String, Stats> entry : steps.entrySet()) {
+				out.write("selenium_step_screenshot_bytes_total{step=\"" + escapeLabel(entry.getKey()) + "\"} "
+						+ entry.getValue().screenshotBytes.sum() + "\n");
+			}
+		}
+		logger.info("Wrote metrics of {} step(s) to {}", steps.size(), file);
+	}
+
+	/**
+	 * Starts collecting the time spent in each step on the current thread, for
+	 * the test about to run on it.
+	 */
+	public static void resetTestSteps() {
+		testSteps.set(new LinkedHashMap<>());
+	}
+
+	/**
+	 * Returns the time spent in each step on the current thread since
+	 * {@link #resetTestSteps()}, and stops collecting it.
+	 *
+	 * @return Milliseconds per full step name, in the order the steps first
+	 *         ended; a step that ran several times counts with its total
+	 */
+	public static Map<String, Long> takeTestSteps() {
+		Map<String, Long> steps = testSteps.get();
+		testSteps.remove();
+		Map<String, Long> millis = new LinkedHashMap<>();
+		if (steps != null) {
+			for (Map.Entry<String, Long> step : steps.entrySet()) {
+				millis.put(step.getKey(), TimeUnit.NANOSECONDS.toMillis(step.getValue()));
+			}
+		}
+		return millis;
+	}
+
+	/**
+	 * Clears all recorded step metrics.
+	 */
+	public static void resetStats() {
+		STEPS.clear();
+	}
+
+	private static Stats stats(String step) {
+		return STEPS.computeIfAbsent(step, name -> new Stats());
+	}
+
+	private static String escapeLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * A step open on the current thread; closing it records its duration and
+	 * makes its parent the current step again.
+	 */
+	public static final class Step implements AutoCloseable {
+		private final String name;
+		private final Step parent;
+		private final long start = System.nanoTime();
+		private boolean closed;
+
+		private Step(String name, Step parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		/**
+		 * @return Full name of the step
+		 */
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			long elapsed = System.nanoTime() - start;
+			stats(name).latency.record(elapsed);
+			Map<String, Long> steps = testSteps.get();
+			if (steps != null) {
+				steps.merge(name, elapsed, Long::sum);
+			}
+			if (parent == null) {
+				current.remove();
+			} else {
+				current.set(parent);
+			}
+		}
+	}
+
+	// Run-wide metrics of one step name
+	private static final class Stats {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final Map<String, LongAdder> commands = new ConcurrentHashMap<>();
+		private final LongAdder screenshots = new LongAdder();
+		private final LongAdder screenshotBytes = new LongAdder();
+	}
+}
@@ -0,0 +1,288 @@
+package com.google.utils;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openqa.selenium.ElementClickInterceptedException;
+import org.openqa.selenium.ElementNotInteractableException;
+import org.openqa.selenium.ScriptTimeoutException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.interactions.MoveTargetOutOfBoundsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs page-object steps under a retry and fail-fast policy.
+ * <ul>
+ * <li>Failures are classified as transient (the page was re-rendering, an
+ * overlay took the click, a connection dropped) or fatal (everything else,
+ * including wait timeouts, missing elements, lost sessions and
+ * assertions).</li>
+ * <li>Transient failures are retried up to {@code policy.maxAttempts} times
+ * with exponential backoff and full jitter, as long as the test's time budget
+ * ({@code policy.testBudgetSeconds}) allows.</li>
+ * <li>The first fatal failure, or a transient one that runs out of attempts or
+ * budget, fails the step and marks the test as aborted: later steps of the
+ * same test fail immediately instead of waiting out their own timeouts.</li>
+ * </ul>
+ * Time spent in failed attempts and backoff sleeps is counted as wasted, per
+ * test ({@link #endTest()}) and for the run ({@link #getStats()}). Each step
+ * also runs as a {@link StepMetrics} step.
+ */
+public final class StepPolicy {
+	// Logger to record retries and aborted tests
+	private static final Logger logger = LoggerFactory.getLogger(StepPolicy.class);
+
+	private static final List<Class<? extends Throwable>> TRANSIENT = new ArrayList<>(Arrays.asList(
+			StaleElementReferenceException.class, ElementClickInterceptedException.class,
+			ElementNotInteractableException.class, MoveTargetOutOfBoundsException.class,
+			ScriptTimeoutException.class, ConnectException.class, InterruptedIOException.class));
+
+	private static final ThreadLocal<TestState> state = new ThreadLocal<>();
+
+	private static final LongAdder steps = new LongAdder();
+	private static final LongAdder retries = new LongAdder();
+	private static final LongAdder recovered = new LongAdder();
+	private static final LongAdder failed = new LongAdder();
+	private static final LongAdder abortedTests = new LongAdder();
+	private static final LongAdder wastedNanos = new LongAdder();
+
+	static {
+		for (String name : ConfigManager.get("policy.transient", "").split(",")) {
+			if (!name.trim().isEmpty()) {
+				try {
+					TRANSIENT.add(Class.forName(name.trim()).asSubclass(Throwable.class));
+				} catch (ClassNotFoundException | ClassCastException e) {
+					logger.warn("Ignoring policy.transient entry {}: not a Throwable class", name.trim());
+				}
+			}
+		}
+	}
+
+	// Private constructor to prevent instantiation
+	private StepPolicy() {
+	}
+
+	/**
+	 * A step body that may throw checked exceptions.
+	 */
+	@FunctionalInterface
+	public interface Action {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Starts the time budget of a test on the current thread and clears any
+	 * abort left by the previous test.
+	 */
+	public static void startTest() {
+		startTest(ConfigManager.getInt("policy.testBudgetSeconds", 120));
+	}
+
+	/**
+	 * Starts a test with the given time budget instead of
+	 * {@code policy.testBudgetSeconds}.
+	 *
+	 * @param budgetSeconds Time the test's steps may spend before retries stop
+	 */
+	public static void startTest(long budgetSeconds) {
+		state.set(new TestState(TimeUnit.SECONDS.toNanos(budgetSeconds)));
+	}
+
+	/**
+	 * Ends the test running on the current thread.
+	 *
+	 * @return Retries, wasted time and abort cause of the test, or null if no
+	 *         test was started
+	 */
+	public static String endTest() {
+		TestState test = state.get();
+		state.remove();
+		if (test == null) {
+			return null;
+		}
+		if (test.abortedBy != null) {
+			abortedTests.increment();
+		}
+		return String.format(Locale.ROOT, "retries=%d, wasted=%.1fs%s", test.retries, test.wastedNanos / 1e9,
+				test.abortedBy == null ? "" : ", aborted by " + test.abortedBy);
+	}
+
+	/**
+	 * Runs a step without a result. See {@link #call(String, Callable)}.
+	 *
+	 * @param name   Name of the step, e.g. {@code GoogleHomePage.open}
+	 * @param action Step body
+	 */
+	public static void run(String name, Action action) {
+		call(name, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Runs a step, retrying it on transient failures.
+	 *
+	 * @param name   Name of the step, e.g. {@code GoogleHomePage.open}
+	 * @param action Step body; it runs again from the start on a retry, so it
+	 *               must be safe to repeat
+	 * @return Result of the first successful attempt
+	 * @throws StepFailedException if the step failed, or was skipped because an
+	 *                             earlier step of the test failed
+	 */
+	public static <T> T call(String name, Callable<T> action) {
+		TestState test = state.get();
+		if (test == null) {
+			// Outside a test (e.g. a benchmark): attempts are limited, time is not
+			test = new TestState(Long.MAX_VALUE);
+		}
+		if (test.abortedBy != null) {
+			throw new StepFailedException(name + " skipped: the test was aborted by " + test.abortedBy, null);
+		}
+		steps.increment();
+		int maxAttempts = Math.max(1, ConfigManager.getInt("policy.maxAttempts", 3));
+		long backoffMillis = ConfigManager.getLong("policy.backoffMillis", 250);
+		long maxBackoffMillis = ConfigManager.getLong("policy.maxBackoffMillis", 4000);
+
+		try (StepMetrics.Step step = StepMetrics.step(name)) {
+			for (int attempt = 1;; attempt++) {
+				long attemptStart = System.nanoTime();
+				try {
+					T result = action.call();
+					if (attempt > 1) {
+						recovered.increment();
+						logger.info("{} recovered on attempt {}", name, attempt);
+					}
+					return result;
+				} catch (Exception | AssertionError e) {
+					long attemptNanos = System.nanoTime() - attemptStart;
+					String reason = retryRefusal(e, attempt, maxAttempts);
+					long sleepMillis = 0;
+					if (reason == null) {
+						// Full jitter: anywhere between zero and the exponential backoff
+						long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+						sleepMillis = ThreadLocalRandom.current().nextLong(ceiling + 1);
+						if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sleepMillis) - test.deadline > 0) {
+							reason = "the test's time budget is used up";
+						}
+					}
+					if (reason != null) {
+						fail(test, name, e, attempt, reason, attemptNanos);
+						if (e instanceof RuntimeException) {
+							throw (RuntimeException) e;
+						}
+						if (e instanceof AssertionError) {
+							throw (AssertionError) e;
+						}
+						throw new StepFailedException(name + " failed: " + e.getMessage(), e);
+					}
+					logger.warn("{} failed on attempt {} with {}; retrying in {} ms", name, attempt, e.toString(),
+							sleepMillis);
+					retries.increment();
+					test.retries++;
+					long slept = sleep(sleepMillis);
+					waste(test, attemptNanos + slept);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param failure Exception thrown by a step
+	 * @return true if retrying the step may succeed
+	 */
+	public static boolean isTransient(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			for (Class<? extends Throwable> type : TRANSIENT) {
+				if (type.isInstance(cause)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Retry and abort counts and the time wasted on retries, or null if
+	 *         no step ran
+	 */
+	public static String getStats() {
+		if (steps.sum() == 0) {
+			return null;
+		}
+		return String.format(Locale.ROOT,
+				"steps=%d, retries=%d, recovered=%d, failed=%d, abortedTests=%d, wastedOnRetries=%.1fs", steps.sum(),
+				retries.sum(), recovered.sum(), failed.sum(), abortedTests.sum(), wastedNanos.sum() / 1e9);
+	}
+
+	// Why the failure must not be retried, or null if it may be
+	private static String retryRefusal(Throwable failure, int attempt, int maxAttempts) {
+		if (!isTransient(failure)) {
+			return "fatal";
+		}
+		if (attempt >= maxAttempts) {
+			return "out of attempts";
+		}
+		return null;
+	}
+
+	private static void fail(TestState test, String name, Throwable failure, int attempt, String reason,
+			long attemptNanos) {
+		failed.increment();
+		if (attempt > 1) {
+			// The retries before the final attempt bought nothing, and neither did the final attempt
+			waste(test, attemptNanos);
+		}
+		test.abortedBy = failure.getClass().getSimpleName() + " in " + name;
+		logger.error("{} failed on attempt {} ({}); skipping the remaining steps of the test: {}", name, attempt,
+				reason, failure.toString());
+	}
+
+	private static void waste(TestState test, long nanos) {
+		test.wastedNanos += nanos;
+		wastedNanos.add(nanos);
+	}
+
+	private static long sleep(long millis) {
+		long start = System.nanoTime();
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return System.nanoTime() - start;
+	}
+
+	// Budget and outcome of the test running on one thread
+	private static final class TestState {
+		private final long deadline;
+		private int retries;
+		private long wastedNanos;
+		private String abortedBy;
+
+		TestState(long budgetNanos) {
+			this.deadline = budgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + budgetNanos;
+		}
+	}
+
+	/**
+	 * Thrown when a step fails with a checked exception, or is skipped because
+	 * an earlier step of the test failed.
+	 */
+	public static class StepFailedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public StepFailedException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.google.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Median durations of past test invocations, read from the {@link ReportIndex}
+ * of a report root as last written; the index is only read, never updated,
+ * so schedulers and shard workers can use it while a run is in progress. Report test names have the form
+ * {@code <class>::<method>::<browser>} followed by the parameters of
+ * data-driven invocations, e.g. {@code ImageDownloadTest::testImageDownload::chrome[Zomato]};
+ * only invocations on the given browser are used.
+ */
+public final class TestDurations {
+	// Logger for an index that cannot be read
+	private static final Logger logger = LoggerFactory.getLogger(TestDurations.class);
+
+	private final Map<String, Long> medians;
+	private final String browser;
+
+	TestDurations(Map<String, Long> medians, String browser) {
+		this.medians = medians;
+		this.browser = browser;
+	}
+
+	/**
+	 * Reads the durations of the configured release and browser from
+	 * {@code ReportGenerator}. Runs of all releases are used when the release has
+	 * none yet.
+	 *
+	 * @return Durations, empty if nothing has been indexed
+	 */
+	public static TestDurations fromConfig() {
+		return load(Paths.get("ReportGenerator"), ConfigManager.get("releaseName", ""),
+				ConfigManager.get("browser", "chrome").toLowerCase());
+	}
+
+	/**
+	 * @param root    Directory holding the report folders and their index
+	 * @param release Release whose runs to prefer
+	 * @param browser Browser the durations were measured on
+	 * @return Durations, empty if the index does not exist or cannot be read
+	 */
+	public static TestDurations load(Path root, String release, String browser) {
+		Map<String, Long> medians = new HashMap<>();
+		if (Files.isDirectory(root)) {
+			try {
+				ReportIndex index = ReportIndex.load(root);
+				Map<String, ReportIndex.Summary> tests = index.testDurations(
+						index.getReleases().contains(release) ? release : null);
+				for (Map.Entry<String, ReportIndex.Summary> test : tests.entrySet()) {
+					medians.put(test.getKey(), test.getValue().getP50Millis());
+				}
+			} catch (IOException e) {
+				// Without history every test gets the same estimate
+				logger.warn("Failed to read test durations", e);
+			}
+		}
+		return new TestDurations(Collections.unmodifiableMap(medians), browser);
+	}
+
+	/**
+	 * @return true if no duration is known
+	 */
+	public boolean isEmpty() {
+		return medians.isEmpty();
+	}
+
+	/**
+	 * @param testClass Simple name of the test class
+	 * @return Sum of the median durations of every known invocation of the
+	 *         class, or -1 if none is known
+	 */
+	public long forClass(String testClass) {
+		return sum(testClass + "::", null);
+	}
+
+	/**
+	 * @param testClass Simple name of the test class
+	 * @param row       Search term of the data row
+	 * @return Sum of the median durations of the class's invocations with that
+	 *         term, or -1 if none is known
+	 */
+	public long forRow(String testClass, String row) {
+		return sum(testClass + "::", "::" + browser + "[" + row + "]");
+	}
+
+	/**
+	 * @param testClass Simple name of the test class
+	 * @param method    Name of the test method
+	 * @return Mean of the median durations of the method's known invocations
+	 *         (one per data row), or -1 if none is known
+	 */
+	public long perInvocation(String testClass, String method) {
+		String prefix = testClass + "::" + method + "::" + browser;
+		long total = 0;
+		int invocations = 0;
+		for (Map.Entry<String, Long> test : medians.entrySet()) {
+			String name = test.getKey();
+			if (name.equals(prefix) || name.startsWith(prefix + "[")) {
+				total += test.getValue();
+				invocations++;
+			}
+		}
+		return invocations == 0 ? -1 : total / invocations;
+	}
+
+	private long sum(String prefix, String suffix) {
+		long total = -1;
+		for (Map.Entry<String, Long> test : medians.entrySet()) {
+			String name = test.getKey();
+			if (name.startsWith(prefix) && (suffix != null ? name.endsWith(suffix)
+					: name.substring(prefix.length()).contains("::" + browser))) {
+				total = Math.max(total, 0) + test.getValue();
+			}
+		}
+		return total;
+	}
+}
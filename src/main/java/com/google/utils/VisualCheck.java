@@ -0,0 +1,488 @@
+package com.google.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Visual regression checks over report screenshots. Every frame captured by
+ * {@link ExtentUtility#takeScreenShotForExtentReport} belongs to a checkpoint,
+ * {@code <test> > <step>} (numbered from the second frame of the same step in
+ * a test), and is compared with the baseline stored for that checkpoint:
+ * <ol>
+ * <li>The frame's perceptual hash is computed on the screenshot writer
+ * thread: a 256-bit difference hash (dHash) of a 17x16 grey-level grid, so
+ * one frame costs one pass over its pixels and a comparison four XORs.</li>
+ * <li>If the hash is within {@code visual.hashThreshold} bits of the
+ * baseline's, the frame matches.</li>
+ * <li>Otherwise the frame is compared with the baseline image pixel by pixel.
+ * If more than {@code visual.maxDiffRatio} of the pixels differ by more than
+ * {@code visual.pixelTolerance} in a channel, the frame has changed and a diff
+ * image (changed pixels in red over a faded copy of the frame) is written to
+ * {@code ReportGenerator/<reportFolder>/VisualDiffs}.</li>
+ * </ol>
+ * A checkpoint without a baseline records the frame as its baseline, as does
+ * every checkpoint when {@code visual.updateBaselines=true}. Baselines live in
+ * {@code visual.baselineDir}: {@code baselines.txt} holds one line per
+ * checkpoint with its hash and reference frame, and the reference frames are
+ * stored once per distinct image under {@code frames/}. They are only read
+ * when a hash comparison escalates.
+ */
+public class VisualCheck {
+    final static Logger LOGGER = LogManager.getLogger(VisualCheck.class);
+    public static final String BASELINE_FILE = "baselines.txt";
+    public static final String DIFF_FOLDER = "VisualDiffs";
+
+    // The hash compares horizontally adjacent cells of a (GRID + 1) x GRID grid
+    private static final int GRID = 16;
+    // Grey levels two cells must differ by to set a bit, so flat areas hash the same despite noise
+    private static final double MIN_GRADIENT = 1.0;
+
+    /**
+     * Result of checking one frame.
+     */
+    public enum Outcome {
+        /** The frame became the checkpoint's baseline. */
+        NEW,
+        /** The frame matches the baseline, by hash or, after escalation, by pixels. */
+        MATCH,
+        /** The frame differs from the baseline; a diff image was written. */
+        CHANGED
+    }
+
+    private static final ThreadLocal<String> currentTest = new ThreadLocal<>();
+    // Frames taken per step name by the current test on this thread
+    private static final ThreadLocal<Map<String, Integer>> frameCounts = ThreadLocal.withInitial(HashMap::new);
+
+    private final Path baselineDir;
+    private final Path diffDir;
+    private final int hashThreshold;
+    private final double maxDiffRatio;
+    private final int pixelTolerance;
+    private final boolean updateBaselines;
+    private final Map<String, Baseline> baselines = new ConcurrentHashMap<>();
+    // Baselines recorded by this run, written by save()
+    private final Map<String, Baseline> recorded = new ConcurrentHashMap<>();
+    // Hash per frame id, so a frame captured again at another checkpoint is not decoded again
+    private final Map<String, long[]> hashes = new ConcurrentHashMap<>();
+    private final Map<String, String> changes = new ConcurrentSkipListMap<>();
+
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder escalated = new LongAdder();
+    private final LongAdder changed = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final LongAdder hashedFrames = new LongAdder();
+
+    /**
+     * @param baselineDir     Directory of the baselines
+     * @param diffDir         Directory the diff images are written to
+     * @param hashThreshold   Hash bits that may differ before the frame is diffed
+     * @param maxDiffRatio    Share of pixels that may differ in a matching frame
+     * @param pixelTolerance  Channel difference below which pixels are equal
+     * @param updateBaselines true to replace the baselines with this run's frames
+     * @throws IOException if the baseline file cannot be read
+     */
+    public VisualCheck(Path baselineDir, Path diffDir, int hashThreshold, double maxDiffRatio, int pixelTolerance,
+            boolean updateBaselines) throws IOException {
+        this.baselineDir = baselineDir;
+        this.diffDir = diffDir;
+        this.hashThreshold = hashThreshold;
+        this.maxDiffRatio = maxDiffRatio;
+        this.pixelTolerance = pixelTolerance;
+        this.updateBaselines = updateBaselines;
+        baselines.putAll(read(baselineDir.resolve(BASELINE_FILE)));
+    }
+
+    /**
+     * @param reportFolder Report folder the diff images go to
+     * @return Visual check configured by the {@code visual.*} properties, or null
+     *         if {@code visual.enabled=false}
+     * @throws IOException if the baseline file cannot be read
+     */
+    public static VisualCheck fromConfig(Path reportFolder) throws IOException {
+        if (!ConfigManager.getBoolean("visual.enabled", true)) {
+            return null;
+        }
+        return new VisualCheck(Paths.get(ConfigManager.get("visual.baselineDir", "visual-baselines")),
+                reportFolder.resolve(DIFF_FOLDER), ConfigManager.getInt("visual.hashThreshold", 2),
+                ConfigManager.getDouble("visual.maxDiffRatio", 0.001), ConfigManager.getInt("visual.pixelTolerance", 16),
+                ConfigManager.getBoolean("visual.updateBaselines", false));
+    }
+
+    /**
+     * Starts naming checkpoints after a test on the current thread.
+     * @param testName Report name of the test, e.g. {@code GoogleHomePageTest::testGoogleHomePage::chrome[Zomato]}
+     */
+    public static void startTest(String testName) {
+        currentTest.set(testName);
+        frameCounts.get().clear();
+    }
+
+    /**
+     * Names the frame about to be captured on the current thread after its test
+     * and the current {@link StepMetrics} step. Call it before the capture.
+     * @return Checkpoint of the frame
+     */
+    public static String checkpoint() {
+        String step = StepMetrics.currentStep();
+        String test = currentTest.get();
+        int count = frameCounts.get().merge(step, 1, Integer::sum);
+        return (test == null ? "(no test)" : test) + " > " + step + (count > 1 ? " #" + count : "");
+    }
+
+    /**
+     * Checks a frame against the baseline of its checkpoint. Thread-safe; called
+     * by the screenshot writer threads.
+     * @param checkpoint Checkpoint of the frame
+     * @param frameId Content hash naming the frame, the same for identical frames
+     * @param png Raw PNG bytes as returned by the driver
+     * @return Outcome of the check
+     * @throws IOException if the frame or a baseline file cannot be read or written
+     */
+    public Outcome check(String checkpoint, String frameId, byte[] png) throws IOException {
+        frames.increment();
+        BufferedImage image = null;
+        long[] hash = hashes.get(frameId);
+        if (hash == null) {
+            long start = System.nanoTime();
+            image = decode(png);
+            hash = dHash(image);
+            hashNanos.add(System.nanoTime() - start);
+            hashedFrames.increment();
+            hashes.put(frameId, hash);
+        }
+
+        Baseline baseline = baselines.get(checkpoint);
+        if (baseline == null || (updateBaselines && !recorded.containsKey(checkpoint))) {
+            record(checkpoint, frameId, png, hash);
+            created.increment();
+            return Outcome.NEW;
+        }
+        int distance = distance(hash, baseline.hash);
+        if (distance <= hashThreshold) {
+            matched.increment();
+            return Outcome.MATCH;
+        }
+
+        escalated.increment();
+        Path referenceFile = baselineDir.resolve(baseline.frame);
+        if (!Files.exists(referenceFile)) {
+            changed.increment();
+            changes.put(checkpoint, distance + " bits, baseline frame " + baseline.frame + " is missing");
+            return Outcome.CHANGED;
+        }
+        BufferedImage reference = decode(Files.readAllBytes(referenceFile));
+        Diff diff = diff(reference, image != null ? image : decode(png), pixelTolerance);
+        if (diff.ratio <= maxDiffRatio) {
+            matched.increment();
+            return Outcome.MATCH;
+        }
+        String fileName = fileName(checkpoint);
+        Files.createDirectories(diffDir);
+        ImageIO.write(diff.image, "png", diffDir.resolve(fileName).toFile());
+        changed.increment();
+        changes.put(checkpoint, String.format(Locale.ROOT, "%d bits, %.2f%% of pixels, <a href='%s/%s'>diff</a>",
+                distance, diff.ratio * 100, DIFF_FOLDER, fileName));
+        LOGGER.warn("Visual change at " + checkpoint + ": " + distance + " hash bits, "
+                + String.format(Locale.ROOT, "%.2f%%", diff.ratio * 100) + " of pixels; diff written to "
+                + diffDir.resolve(fileName));
+        return Outcome.CHANGED;
+    }
+
+    /**
+     * Writes the baselines recorded by this run into the baseline file. Entries
+     * recorded concurrently by other JVMs (e.g. shards) are kept.
+     * @throws IOException if the baseline file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if (recorded.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(baselineDir);
+        Path file = baselineDir.resolve(BASELINE_FILE);
+        try (FileChannel lockFile = FileChannel.open(baselineDir.resolve(BASELINE_FILE + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = lockFile.lock()) {
+            Map<String, Baseline> merged = new TreeMap<>(read(file));
+            Set<String> replacedFrames = new HashSet<>();
+            for (Map.Entry<String, Baseline> entry : recorded.entrySet()) {
+                Baseline previous = merged.put(entry.getKey(), entry.getValue());
+                if (previous != null) {
+                    replacedFrames.add(previous.frame);
+                }
+            }
+            List<String> lines = new ArrayList<>();
+            lines.add("# Visual baselines: <dHash> <reference frame> <checkpoint>");
+            for (Map.Entry<String, Baseline> entry : merged.entrySet()) {
+                lines.add(toHex(entry.getValue().hash) + " " + entry.getValue().frame + " " + entry.getKey());
+                replacedFrames.remove(entry.getValue().frame);
+            }
+            Path temp = baselineDir.resolve(BASELINE_FILE + ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Reference frames no checkpoint uses any more
+            for (String frame : replacedFrames) {
+                Files.deleteIfExists(baselineDir.resolve(frame));
+            }
+        }
+        LOGGER.info("Saved " + recorded.size() + " visual baseline(s) to " + file);
+        recorded.clear();
+    }
+
+    /**
+     * @return Number of frames that changed from their baseline
+     */
+    public long getChanged() {
+        return changed.sum();
+    }
+
+    /**
+     * @return Counters of the run and one line per changed checkpoint, with a
+     *         link to its diff image
+     */
+    public String getStats() {
+        long hashed = hashedFrames.sum();
+        StringBuilder stats = new StringBuilder(String.format(Locale.ROOT,
+                "frames=%d, new=%d, matched=%d, escalated=%d, changed=%d, avgHashMs=%.2f, baselines=%d",
+                frames.sum(), created.sum(), matched.sum(), escalated.sum(), changed.sum(),
+                hashed == 0 ? 0 : hashNanos.sum() / 1_000_000.0 / hashed, baselines.size()));
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            stats.append('\n').append(change.getKey()).append(": ").append(change.getValue());
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Computes the difference hash of an image: the image is averaged down to a
+     * grid of grey levels and each bit tells whether a cell is brighter than its
+     * right-hand neighbour.
+     * @param image Image to hash
+     * @return 256-bit hash as four longs
+     */
+    public static long[] dHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] columnCells = new int[width];
+        int[] columnCounts = new int[GRID + 1];
+        for (int x = 0; x < width; x++) {
+            columnCells[x] = x * (GRID + 1) / width;
+            columnCounts[columnCells[x]]++;
+        }
+        int[] rowCounts = new int[GRID];
+        // Luminance sums, weighted by 1000
+        long[] sums = new long[(GRID + 1) * GRID];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            luminance(image, y, row);
+            int cellRow = y * GRID / height;
+            rowCounts[cellRow]++;
+            int offset = cellRow * (GRID + 1);
+            for (int x = 0; x < width; x++) {
+                sums[offset + columnCells[x]] += row[x];
+            }
+        }
+        long[] hash = new long[GRID * GRID / 64];
+        for (int y = 0; y < GRID; y++) {
+            for (int x = 0; x < GRID; x++) {
+                int cell = y * (GRID + 1) + x;
+                double left = mean(sums[cell], rowCounts[y] * columnCounts[x]);
+                double right = mean(sums[cell + 1], rowCounts[y] * columnCounts[x + 1]);
+                if (left > right + MIN_GRADIENT) {
+                    int bit = y * GRID + x;
+                    hash[bit / 64] |= 1L << (bit % 64);
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static double mean(long sum, int count) {
+        return count == 0 ? 0 : sum / 1000.0 / count;
+    }
+
+    // Luminance of one row, weighted by 1000; reads the pixels of decoded PNGs directly rather than through getRGB
+    private static void luminance(BufferedImage image, int y, int[] row) {
+        int width = image.getWidth();
+        Raster raster = image.getRaster();
+        int type = image.getType();
+        if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && raster.getDataBuffer() instanceof DataBufferByte && raster.getParent() == null) {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int pixelStride = type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+            // Bytes are B, G, R, preceded by A for ABGR
+            int index = y * width * pixelStride + pixelStride - 3;
+            for (int x = 0; x < width; x++, index += pixelStride) {
+                row[x] = (data[index + 2] & 0xff) * 299 + (data[index + 1] & 0xff) * 587 + (data[index] & 0xff) * 114;
+            }
+            return;
+        }
+        image.getRGB(0, y, width, 1, row, 0, width);
+        for (int x = 0; x < width; x++) {
+            int rgb = row[x];
+            row[x] = (rgb >> 16 & 0xff) * 299 + (rgb >> 8 & 0xff) * 587 + (rgb & 0xff) * 114;
+        }
+    }
+
+    /**
+     * @param a Hash of one image
+     * @param b Hash of another image
+     * @return Number of bits that differ
+     */
+    public static int distance(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    // Stores the frame as the checkpoint's baseline; identical frames share one reference file
+    private void record(String checkpoint, String frameId, byte[] png, long[] hash) throws IOException {
+        Baseline baseline = new Baseline(hash, "frames/" + frameId + ".png");
+        Path frame = baselineDir.resolve(baseline.frame);
+        if (!Files.exists(frame)) {
+            Files.createDirectories(frame.getParent());
+            Path temp = Files.createTempFile(frame.getParent(), frameId, ".tmp");
+            Files.write(temp, png);
+            Files.move(temp, frame, StandardCopyOption.REPLACE_EXISTING);
+        }
+        baselines.put(checkpoint, baseline);
+        recorded.put(checkpoint, baseline);
+    }
+
+    // Changed pixels in red over a faded grey copy of the frame; pixels outside either image count as changed
+    private static Diff diff(BufferedImage reference, BufferedImage frame, int tolerance) {
+        int width = Math.max(reference.getWidth(), frame.getWidth());
+        int height = Math.max(reference.getHeight(), frame.getHeight());
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] expected = new int[width];
+        int[] actual = new int[width];
+        int[] out = new int[width];
+        long changedPixels = 0;
+        for (int y = 0; y < height; y++) {
+            int expectedWidth = y < reference.getHeight() ? reference.getWidth() : 0;
+            int actualWidth = y < frame.getHeight() ? frame.getWidth() : 0;
+            if (expectedWidth > 0) {
+                reference.getRGB(0, y, expectedWidth, 1, expected, 0, width);
+            }
+            if (actualWidth > 0) {
+                frame.getRGB(0, y, actualWidth, 1, actual, 0, width);
+            }
+            for (int x = 0; x < width; x++) {
+                boolean same = x < expectedWidth && x < actualWidth
+                        && Math.abs((expected[x] >> 16 & 0xff) - (actual[x] >> 16 & 0xff)) <= tolerance
+                        && Math.abs((expected[x] >> 8 & 0xff) - (actual[x] >> 8 & 0xff)) <= tolerance
+                        && Math.abs((expected[x] & 0xff) - (actual[x] & 0xff)) <= tolerance;
+                if (same) {
+                    int rgb = actual[x];
+                    int grey = 192 + ((rgb >> 16 & 0xff) + (rgb >> 8 & 0xff) + (rgb & 0xff)) / 12;
+                    out[x] = grey << 16 | grey << 8 | grey;
+                } else {
+                    out[x] = 0xff0000;
+                    changedPixels++;
+                }
+            }
+            image.setRGB(0, y, width, 1, out, 0, width);
+        }
+        return new Diff(image, width * height == 0 ? 0 : changedPixels / (double) ((long) width * height));
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("Screenshot is not a readable image");
+        }
+        return image;
+    }
+
+    private static Map<String, Baseline> read(Path file) throws IOException {
+        Map<String, Baseline> baselines = new HashMap<>();
+        if (!Files.exists(file)) {
+            return baselines;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(" ", 3);
+            if (fields.length < 3 || fields[0].length() != GRID * GRID / 4) {
+                LOGGER.warn("Ignoring malformed line in " + file + ": " + line);
+                continue;
+            }
+            baselines.put(fields[2], new Baseline(fromHex(fields[0]), fields[1]));
+        }
+        return baselines;
+    }
+
+    private static String toHex(long[] hash) {
+        StringBuilder hex = new StringBuilder();
+        for (long word : hash) {
+            hex.append(String.format("%016x", word));
+        }
+        return hex.toString();
+    }
+
+    private static long[] fromHex(String hex) {
+        long[] hash = new long[hex.length() / 16];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = Long.parseUnsignedLong(hex.substring(i * 16, i * 16 + 16), 16);
+        }
+        return hash;
+    }
+
+    // File name of a checkpoint's diff image; the hash keeps names that sanitize alike apart
+    private static String fileName(String checkpoint) {
+        String name = checkpoint.replaceAll("[^A-Za-z0-9._-]+", "_");
+        if (name.length() > 100) {
+            name = name.substring(0, 100);
+        }
+        return name + "_" + String.format("%08x", checkpoint.hashCode()) + ".png";
+    }
+
+    private static class Baseline {
+        private final long[] hash;
+        private final String frame;
+
+        Baseline(long[] hash, String frame) {
+            this.hash = hash;
+            this.frame = frame;
+        }
+    }
+
+    private static class Diff {
+        private final BufferedImage image;
+        private final double ratio;
+
+        Diff(BufferedImage image, double ratio) {
+            this.image = image;
+            this.ratio = ratio;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.google.utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits replaces the implicit wait and per-call {@code WebDriverWait}s. One
+ * instance is kept per driver. A condition is checked immediately; while it is
+ * not met the wait sleeps for an interval that starts at
+ * {@code waits.minPollMillis} and doubles up to {@code waits.maxPollMillis}.
+ * When {@code waits.domEvents=true} the sleep happens inside the page behind a
+ * MutationObserver, so the condition is re-checked as soon as the DOM changes
+ * instead of at the next fixed tick. The time spent in every wait is recorded
+ * in a histogram per label (the locator for element waits) so slow steps can be
+ * found in the report.
+ */
+public class Waits {
+	// Logger to record slow and failed waits
+	private static final Logger logger = LoggerFactory.getLogger(Waits.class);
+
+	// Resolves true on the first DOM mutation, false once the interval has passed
+	private static final String AWAIT_MUTATION_SCRIPT = "var done = arguments[arguments.length - 1];"
+			+ "var root = document.documentElement;"
+			+ "if (!root || typeof MutationObserver === 'undefined') { setTimeout(function() { done(false); }, arguments[0]); return; }"
+			+ "var timer, observer = new MutationObserver(function() { observer.disconnect(); clearTimeout(timer); done(true); });"
+			+ "observer.observe(root, { childList: true, subtree: true, attributes: true, characterData: true });"
+			+ "timer = setTimeout(function() { observer.disconnect(); done(false); }, arguments[0]);";
+
+	private static final Map<WebDriver, Waits> INSTANCES = new ConcurrentHashMap<>();
+	private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+	private final WebDriver driver;
+	private final Duration timeout;
+	private final long minPollMillis;
+	private final long maxPollMillis;
+	private final boolean domEvents;
+
+	/**
+	 * @param driver        Driver the conditions are evaluated against
+	 * @param timeout       Default time to wait for a condition
+	 * @param minPollMillis First sleep between checks
+	 * @param maxPollMillis Longest sleep between checks
+	 * @param domEvents     Whether to wake up on DOM mutations instead of sleeping
+	 */
+	public Waits(WebDriver driver, Duration timeout, long minPollMillis, long maxPollMillis, boolean domEvents) {
+		this.driver = driver;
+		this.timeout = timeout;
+		this.minPollMillis = Math.max(1, minPollMillis);
+		this.maxPollMillis = Math.max(this.minPollMillis, maxPollMillis);
+		this.domEvents = domEvents && driver instanceof JavascriptExecutor;
+	}
+
+	/**
+	 * Returns the wait instance of a driver, creating it from the {@code waits.*}
+	 * configuration on first use.
+	 *
+	 * @param driver Driver to wait on
+	 * @return Shared wait instance for the driver
+	 */
+	public static Waits forDriver(WebDriver driver) {
+		// Keyed by the thread's actual driver, so release() drops it when that driver is quit
+		return INSTANCES.computeIfAbsent(LazyDriver.resolve(driver),
+				d -> new Waits(d, Duration.ofSeconds(ConfigManager.getLong("waits.timeoutSeconds", 10)),
+						ConfigManager.getLong("waits.minPollMillis", 10),
+						ConfigManager.getLong("waits.maxPollMillis", 250),
+						ConfigManager.getBoolean("waits.domEvents", true)));
+	}
+
+	/**
+	 * Drops the wait instance of a driver that has been quit.
+	 *
+	 * @param driver Driver that is no longer used
+	 */
+	public static void release(WebDriver driver) {
+		if (driver != null) {
+			INSTANCES.remove(driver);
+		}
+	}
+
+	/**
+	 * @param locator Element to wait for
+	 * @return The element once it is present in the DOM
+	 */
+	public WebElement present(By locator) {
+		return until(locator.toString(), ExpectedConditions.presenceOfElementLocated(locator));
+	}
+
+	/**
+	 * @param locator Element to wait for
+	 * @return The element once it is visible
+	 */
+	public WebElement visible(By locator) {
+		return until(locator.toString(), ExpectedConditions.visibilityOfElementLocated(locator));
+	}
+
+	/**
+	 * @param locator Element to wait for
+	 * @return The element once it is visible and enabled
+	 */
+	public WebElement clickable(By locator) {
+		return until(locator.toString(), ExpectedConditions.elementToBeClickable(locator));
+	}
+
+	/**
+	 * Waits for a condition using the default timeout.
+	 *
+	 * @param label     Name the wait time is recorded under
+	 * @param condition Condition returning a non-null, non-false value when met
+	 * @return The condition's value
+	 * @throws TimeoutException if the condition is not met in time
+	 */
+	public <T> T until(String label, Function<? super WebDriver, T> condition) {
+		return until(label, condition, timeout);
+	}
+
+	/**
+	 * Waits for a condition. {@link NotFoundException} and
+	 * {@link StaleElementReferenceException} thrown by the condition count as
+	 * "not yet".
+	 *
+	 * @param label     Name the wait time is recorded under
+	 * @param condition Condition returning a non-null, non-false value when met
+	 * @param timeout   Maximum time to wait
+	 * @return The condition's value
+	 * @throws TimeoutException if the condition is not met in time
+	 */
+	public <T> T until(String label, Function<? super WebDriver, T> condition, Duration timeout) {
+		long start = System.nanoTime();
+		long deadline = start + timeout.toNanos();
+		long interval = minPollMillis;
+		RuntimeException lastError = null;
+		try {
+			while (true) {
+				try {
+					T value = condition.apply(driver);
+					if (value != null && !Boolean.FALSE.equals(value)) {
+						return value;
+					}
+				} catch (NotFoundException | StaleElementReferenceException e) {
+					lastError = e;
+				}
+
+				long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remainingMillis <= 0) {
+					throw new TimeoutException(String.format(Locale.ROOT, "Timed out after %d ms waiting for %s",
+							timeout.toMillis(), label), lastError);
+				}
+				long pause = Math.min(interval, remainingMillis);
+				if (!awaitChange(pause)) {
+					// Nothing happened; back off. A DOM change keeps the interval short.
+					interval = Math.min(maxPollMillis, interval * 2);
+				}
+			}
+		} finally {
+			HISTOGRAMS.computeIfAbsent(label, l -> new LatencyHistogram()).record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Sleeps for up to {@code millis}, returning early with true when the page's
+	 * DOM changes and DOM events are enabled.
+	 */
+	private boolean awaitChange(long millis) {
+		if (domEvents) {
+			try {
+				return Boolean.TRUE.equals(((JavascriptExecutor) driver).executeAsyncScript(AWAIT_MUTATION_SCRIPT, millis));
+			} catch (WebDriverException e) {
+				// Typically a navigation in progress; fall back to a plain sleep for this round
+				logger.debug("DOM change wait failed, sleeping instead: {}", e.getMessage());
+			}
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WebDriverException("Interrupted while waiting", e);
+		}
+		return false;
+	}
+
+	/**
+	 * @return Per-label wait histograms, slowest total first, one label per line;
+	 *         null if nothing was waited for
+	 */
+	public static String getStats() {
+		if (HISTOGRAMS.isEmpty()) {
+			return null;
+		}
+		List<Map.Entry<String, LatencyHistogram>> entries = new ArrayList<>(HISTOGRAMS.entrySet());
+		entries.sort((a, b) -> Double.compare(b.getValue().getTotalMillis(), a.getValue().getTotalMillis()));
+		StringBuilder stats = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry : entries) {
+			stats.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+		return stats.toString().trim();
+	}
+
+	/**
+	 * @param label Label a wait was recorded under, e.g. a locator's toString
+	 * @return Histogram for the label, or null if it was never waited for
+	 */
+	public static LatencyHistogram getHistogram(String label) {
+		return HISTOGRAMS.get(label);
+	}
+
+	/**
+	 * Clears all recorded wait times.
+	 */
+	public static void resetStats() {
+		HISTOGRAMS.clear();
+	}
+}
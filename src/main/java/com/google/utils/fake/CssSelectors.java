@@ -0,0 +1,343 @@
+package com.google.utils.fake;
+
+import java.util.Locale;
+
+import org.openqa.selenium.InvalidSelectorException;
+
+/**
+ * Translates CSS selectors to XPath 1.0 so the fake driver can evaluate every
+ * locator with the JDK's XPath engine. Supported: type and universal
+ * selectors, {@code #id}, {@code .class}, attribute selectors ({@code =},
+ * {@code ~=}, {@code ^=}, {@code $=}, {@code *=}, {@code |=}), the
+ * descendant, {@code >}, {@code +} and {@code ~} combinators, selector lists,
+ * and {@code :first-child}, {@code :last-child}, {@code :nth-child(n)} and
+ * {@code :not(simple)}. That covers what {@code By.id}, {@code By.name} and
+ * {@code By.className} send, and typical page-object selectors.
+ */
+final class CssSelectors {
+
+	// Private constructor to prevent instantiation
+	private CssSelectors() {
+	}
+
+	/**
+	 * @param css      CSS selector
+	 * @param relative true to match descendants of a context element rather
+	 *                 than of the document
+	 * @return Equivalent XPath expression
+	 * @throws InvalidSelectorException if the selector uses unsupported syntax
+	 */
+	static String toXPath(String css, boolean relative) {
+		Parser parser = new Parser(css);
+		StringBuilder xpath = new StringBuilder();
+		do {
+			if (xpath.length() > 0) {
+				xpath.append(" | ");
+			}
+			xpath.append(relative ? ".//" : "//");
+			parser.selector(xpath);
+		} while (parser.consume(','));
+		parser.expectEnd();
+		return xpath.toString();
+	}
+
+	/**
+	 * @param value Text to quote
+	 * @return XPath string literal for the text, using concat() when it
+	 *         contains both quote characters
+	 */
+	static String literal(String value) {
+		if (value.indexOf('\'') < 0) {
+			return "'" + value + "'";
+		}
+		if (value.indexOf('"') < 0) {
+			return "\"" + value + "\"";
+		}
+		StringBuilder concat = new StringBuilder("concat(");
+		String[] parts = value.split("'", -1);
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				concat.append(", \"'\", ");
+			}
+			concat.append('\'').append(parts[i]).append('\'');
+		}
+		return concat.append(')').toString();
+	}
+
+	private static final class Parser {
+		private final String css;
+		private int pos;
+
+		Parser(String css) {
+			this.css = css.trim();
+		}
+
+		// compound (combinator compound)*
+		void selector(StringBuilder xpath) {
+			compound(xpath);
+			while (true) {
+				boolean whitespace = skipWhitespace();
+				if (atEnd() || peek() == ',' || peek() == ')') {
+					return;
+				}
+				char c = peek();
+				if (c == '>') {
+					pos++;
+					skipWhitespace();
+					xpath.append('/');
+				} else if (c == '+') {
+					pos++;
+					skipWhitespace();
+					xpath.append("/following-sibling::*[1]/self::");
+				} else if (c == '~') {
+					pos++;
+					skipWhitespace();
+					xpath.append("/following-sibling::");
+				} else if (whitespace) {
+					xpath.append("//");
+				} else {
+					throw invalid("Unexpected '" + c + "'");
+				}
+				compound(xpath);
+			}
+		}
+
+		// type? (#id | .class | [attr] | :pseudo)*
+		void compound(StringBuilder xpath) {
+			boolean parsed = true;
+			if (!atEnd() && peek() == '*') {
+				pos++;
+				xpath.append('*');
+			} else if (!atEnd() && isNameChar(peek())) {
+				xpath.append(identifier().toLowerCase(Locale.ROOT));
+			} else {
+				xpath.append('*');
+				parsed = false;
+			}
+			while (!atEnd()) {
+				String predicate = simple();
+				if (predicate == null) {
+					break;
+				}
+				xpath.append('[').append(predicate).append(']');
+				parsed = true;
+			}
+			if (!parsed) {
+				throw invalid("Expected a selector");
+			}
+		}
+
+		// One #id, .class, [attr] or :pseudo as an XPath predicate, or null
+		String simple() {
+			char c = peek();
+			if (c == '#') {
+				pos++;
+				return "@id=" + literal(identifier());
+			}
+			if (c == '.') {
+				pos++;
+				return "contains(concat(' ', normalize-space(@class), ' '), " + literal(" " + identifier() + " ") + ")";
+			}
+			if (c == '[') {
+				pos++;
+				return attribute();
+			}
+			if (c == ':') {
+				pos++;
+				return pseudo();
+			}
+			return null;
+		}
+
+		String attribute() {
+			skipWhitespace();
+			String name = identifier();
+			skipWhitespace();
+			if (consume(']')) {
+				return "@" + name;
+			}
+			String operator;
+			if (consume('=')) {
+				operator = "=";
+			} else {
+				char c = peek();
+				if ("~^$*|".indexOf(c) < 0 || pos + 1 >= css.length() || css.charAt(pos + 1) != '=') {
+					throw invalid("Unsupported attribute operator");
+				}
+				pos += 2;
+				operator = c + "=";
+			}
+			skipWhitespace();
+			String value = peek() == '"' || peek() == '\'' ? quoted() : identifier();
+			skipWhitespace();
+			if (consume('i') || consume('I')) {
+				skipWhitespace();
+			}
+			expect(']');
+			String attr = "@" + name;
+			String quotedValue = literal(value);
+			switch (operator) {
+			case "=":
+				return attr + "=" + quotedValue;
+			case "~=":
+				return "contains(concat(' ', normalize-space(" + attr + "), ' '), " + literal(" " + value + " ") + ")";
+			case "^=":
+				return "starts-with(" + attr + ", " + quotedValue + ")";
+			case "$=":
+				return "substring(" + attr + ", string-length(" + attr + ") - " + value.length() + " + 1) = "
+						+ quotedValue;
+			case "*=":
+				return "contains(" + attr + ", " + quotedValue + ")";
+			default:
+				return attr + "=" + quotedValue + " or starts-with(" + attr + ", " + literal(value + "-") + ")";
+			}
+		}
+
+		String pseudo() {
+			String name = identifier().toLowerCase(Locale.ROOT);
+			switch (name) {
+			case "first-child":
+				return "not(preceding-sibling::*)";
+			case "last-child":
+				return "not(following-sibling::*)";
+			case "nth-child": {
+				expect('(');
+				skipWhitespace();
+				int start = pos;
+				while (!atEnd() && Character.isDigit(peek())) {
+					pos++;
+				}
+				if (start == pos) {
+					throw invalid(":nth-child supports a plain number only");
+				}
+				int n = Integer.parseInt(css.substring(start, pos));
+				skipWhitespace();
+				expect(')');
+				return "count(preceding-sibling::*) = " + (n - 1);
+			}
+			case "not": {
+				expect('(');
+				skipWhitespace();
+				String predicate;
+				if (!atEnd() && isNameChar(peek())) {
+					predicate = "self::" + identifier().toLowerCase(Locale.ROOT);
+				} else {
+					predicate = simple();
+					if (predicate == null) {
+						throw invalid(":not supports a simple selector only");
+					}
+				}
+				skipWhitespace();
+				expect(')');
+				return "not(" + predicate + ")";
+			}
+			default:
+				throw invalid("Unsupported pseudo-class :" + name);
+			}
+		}
+
+		String quoted() {
+			char quote = css.charAt(pos++);
+			StringBuilder value = new StringBuilder();
+			while (!atEnd() && peek() != quote) {
+				char c = css.charAt(pos++);
+				value.append(c == '\\' ? escape() : String.valueOf(c));
+			}
+			expect(quote);
+			return value.toString();
+		}
+
+		String identifier() {
+			StringBuilder name = new StringBuilder();
+			while (!atEnd()) {
+				char c = peek();
+				if (c == '\\') {
+					pos++;
+					name.append(escape());
+				} else if (isNameChar(c)) {
+					name.append(c);
+					pos++;
+				} else {
+					break;
+				}
+			}
+			if (name.length() == 0) {
+				throw invalid("Expected a name");
+			}
+			return name.toString();
+		}
+
+		// Character after a backslash: up to six hex digits and one optional space, or the character itself
+		String escape() {
+			if (atEnd()) {
+				throw invalid("Incomplete escape");
+			}
+			int start = pos;
+			while (pos < css.length() && pos - start < 6 && Character.digit(css.charAt(pos), 16) >= 0) {
+				pos++;
+			}
+			if (pos == start) {
+				return String.valueOf(css.charAt(pos++));
+			}
+			int codePoint = Integer.parseInt(css.substring(start, pos), 16);
+			if (!atEnd() && peek() == ' ') {
+				pos++;
+			}
+			return new String(Character.toChars(codePoint));
+		}
+
+		boolean skipWhitespace() {
+			int start = pos;
+			while (!atEnd() && Character.isWhitespace(peek())) {
+				pos++;
+			}
+			return pos > start;
+		}
+
+		boolean consume(char c) {
+			skipWhitespaceIf(c == ',');
+			if (!atEnd() && peek() == c) {
+				pos++;
+				skipWhitespaceIf(c == ',');
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWhitespaceIf(boolean condition) {
+			if (condition) {
+				skipWhitespace();
+			}
+		}
+
+		void expect(char c) {
+			if (atEnd() || peek() != c) {
+				throw invalid("Expected '" + c + "'");
+			}
+			pos++;
+		}
+
+		void expectEnd() {
+			skipWhitespace();
+			if (!atEnd()) {
+				throw invalid("Unexpected '" + peek() + "'");
+			}
+		}
+
+		boolean atEnd() {
+			return pos >= css.length();
+		}
+
+		char peek() {
+			return css.charAt(pos);
+		}
+
+		static boolean isNameChar(char c) {
+			return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c > 0x7f;
+		}
+
+		InvalidSelectorException invalid(String message) {
+			return new InvalidSelectorException(message + " at position " + pos + " of CSS selector: " + css);
+		}
+	}
+}
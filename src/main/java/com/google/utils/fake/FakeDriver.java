@@ -0,0 +1,606 @@
+package com.google.utils.fake;
+
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.openqa.selenium.Alert;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.ImmutableCapabilities;
+import org.openqa.selenium.InvalidSelectorException;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoAlertPresentException;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.NoSuchFrameException;
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.NoSuchWindowException;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WindowType;
+import org.openqa.selenium.logging.Logs;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.google.utils.ConfigManager;
+
+/**
+ * In-process WebDriver for {@code browser=fake}. Pages come from the XHTML
+ * fixtures in {@code fake.fixtures} (see {@link Fixtures}), or from a local
+ * server (see {@link PageLoad}), and live in a W3C DOM, so locators, clicks,
+ * typing, form submission, links, cookies and navigation history behave like
+ * a browser without JavaScript. Every locator
+ * strategy is evaluated as XPath; CSS selectors are translated by
+ * {@link CssSelectors}. The scripts the framework itself runs are emulated by
+ * {@link FakeScripts}, and screenshots are rendered from the page's text by
+ * {@link PageRenderer}.
+ * <p>
+ * Like a real driver, an instance is meant to be used by one thread at a time.
+ */
+public class FakeDriver implements WebDriver, JavascriptExecutor, TakesScreenshot, HasCapabilities {
+	private static final Dimension DEFAULT_WINDOW = new Dimension(1280, 800);
+	private static final Dimension MAXIMIZED_WINDOW = new Dimension(1920, 1080);
+
+	private final Fixtures fixtures;
+	private final String windowHandle = "fake-" + Integer.toHexString(System.identityHashCode(this));
+	private final XPath xpath = XPathFactory.newInstance().newXPath();
+	private final Map<String, XPathExpression> compiled = new HashMap<>();
+	private final Map<String, Cookie> cookies = new LinkedHashMap<>();
+	private final List<String> history = new ArrayList<>();
+	private int historyIndex = -1;
+
+	private PageLoad page;
+	private Document document;
+	private String url = "about:blank";
+	private Element focused;
+	// Incremented on every change to the page, so a screenshot can be reused until then
+	private long revision;
+	private long screenshotRevision = -1;
+	private byte[] screenshot;
+	private Dimension windowSize = DEFAULT_WINDOW;
+	private Point windowPosition = new Point(0, 0);
+	private boolean closed;
+
+	/**
+	 * @param fixtureDirectory Directory with the fixture pages and routes.txt
+	 */
+	public FakeDriver(Path fixtureDirectory) {
+		this.fixtures = Fixtures.in(fixtureDirectory);
+		load("about:blank", true);
+	}
+
+	/**
+	 * @return Fake driver serving the fixtures in {@code fake.fixtures}
+	 */
+	public static FakeDriver fromConfig() {
+		return new FakeDriver(Paths.get(ConfigManager.get("fake.fixtures", "src/test/resources/fixtures")));
+	}
+
+	@Override
+	public void get(String url) {
+		checkOpen();
+		load(resolveUrl(url), true);
+	}
+
+	@Override
+	public String getCurrentUrl() {
+		checkOpen();
+		return url;
+	}
+
+	@Override
+	public String getTitle() {
+		checkOpen();
+		NodeList titles = document.getElementsByTagName("title");
+		return titles.getLength() == 0 ? "" : titles.item(0).getTextContent().trim();
+	}
+
+	@Override
+	public List<WebElement> findElements(By by) {
+		checkOpen();
+		return find(document, by, false);
+	}
+
+	@Override
+	public WebElement findElement(By by) {
+		return first(findElements(by), by);
+	}
+
+	@Override
+	public String getPageSource() {
+		checkOpen();
+		try {
+			Transformer transformer = TransformerFactory.newInstance().newTransformer();
+			transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			StringWriter source = new StringWriter();
+			transformer.transform(new DOMSource(document), new StreamResult(source));
+			return source.toString();
+		} catch (TransformerException e) {
+			throw new WebDriverException("Failed to serialize the page", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		// The fake has a single window; closing it ends the session like in a browser
+		quit();
+	}
+
+	@Override
+	public void quit() {
+		closed = true;
+		document = null;
+		screenshot = null;
+	}
+
+	@Override
+	public Set<String> getWindowHandles() {
+		checkOpen();
+		return Collections.singleton(windowHandle);
+	}
+
+	@Override
+	public String getWindowHandle() {
+		checkOpen();
+		return windowHandle;
+	}
+
+	@Override
+	public TargetLocator switchTo() {
+		checkOpen();
+		return new FakeTargetLocator();
+	}
+
+	@Override
+	public Navigation navigate() {
+		checkOpen();
+		return new FakeNavigation();
+	}
+
+	@Override
+	public Options manage() {
+		checkOpen();
+		return new FakeOptions();
+	}
+
+	@Override
+	public Object executeScript(String script, Object... args) {
+		checkOpen();
+		return FakeScripts.execute(this, script, args, false);
+	}
+
+	@Override
+	public Object executeAsyncScript(String script, Object... args) {
+		checkOpen();
+		return FakeScripts.execute(this, script, args, true);
+	}
+
+	@Override
+	public <X> X getScreenshotAs(OutputType<X> target) {
+		checkOpen();
+		if (screenshot == null || screenshotRevision != revision) {
+			screenshot = PageRenderer.render(document, getTitle(), url, windowSize);
+			screenshotRevision = revision;
+		}
+		// Callers may keep or modify the bytes, so each gets its own copy
+		return target.convertFromPngBytes(screenshot.clone());
+	}
+
+	@Override
+	public Capabilities getCapabilities() {
+		return new ImmutableCapabilities("browserName", "fake");
+	}
+
+	@Override
+	public String toString() {
+		return "FakeDriver[" + windowHandle + ", " + url + "]";
+	}
+
+	/**
+	 * Loads a URL into the window.
+	 *
+	 * @param absoluteUrl URL to open
+	 * @param record      true to add it to the history, false when moving
+	 *                    through the history
+	 */
+	void load(String absoluteUrl, boolean record) {
+		load(absoluteUrl, record, record ? "navigate" : "back_forward");
+	}
+
+	private void load(String absoluteUrl, boolean record, String navigationType) {
+		page = PageLoad.open(fixtures, absoluteUrl, navigationType);
+		document = page.document();
+		url = absoluteUrl;
+		focused = null;
+		modified();
+		if (record) {
+			while (history.size() > historyIndex + 1) {
+				history.remove(history.size() - 1);
+			}
+			history.add(absoluteUrl);
+			historyIndex = history.size() - 1;
+		}
+	}
+
+	/**
+	 * Records a change to the page, invalidating the cached screenshot.
+	 */
+	void modified() {
+		revision++;
+	}
+
+	Document document() {
+		checkOpen();
+		return document;
+	}
+
+	PageLoad page() {
+		checkOpen();
+		return page;
+	}
+
+	void focus(Element element) {
+		focused = element;
+	}
+
+	/**
+	 * @param reference URL as written in the page, possibly relative
+	 * @return Absolute URL resolved against the current page
+	 */
+	String resolveUrl(String reference) {
+		if (reference == null || reference.isEmpty()) {
+			return url;
+		}
+		try {
+			URI base = new URI(url);
+			if (!base.isAbsolute() || base.isOpaque()) {
+				return new URI(reference).toString();
+			}
+			return base.resolve(new URI(reference.replace(" ", "%20"))).toString();
+		} catch (URISyntaxException e) {
+			return reference;
+		}
+	}
+
+	void checkOpen() {
+		if (closed) {
+			throw new NoSuchSessionException("Session was closed");
+		}
+	}
+
+	/**
+	 * Finds the elements matching a locator below a context node.
+	 *
+	 * @param context  Document or element to search from
+	 * @param by       Locator
+	 * @param relative true when the context is an element
+	 * @return Matching elements in document order
+	 */
+	List<WebElement> find(Node context, By by, boolean relative) {
+		List<WebElement> direct = findDirect(context, by);
+		if (direct != null) {
+			return direct;
+		}
+		String expression = toXPath(by, relative);
+		if (expression == null) {
+			// Composite locators (ByChained, ByAll) call back into findElements with their parts
+			return by.findElements(relative ? new FakeElement(this, (Element) context) : this);
+		}
+		NodeList nodes;
+		try {
+			XPathExpression xpathExpression = compiled.get(expression);
+			if (xpathExpression == null) {
+				xpathExpression = xpath.compile(expression);
+				compiled.put(expression, xpathExpression);
+			}
+			nodes = (NodeList) xpathExpression.evaluate(context, XPathConstants.NODESET);
+		} catch (XPathExpressionException e) {
+			throw new InvalidSelectorException("Invalid selector " + by + " (" + expression + ")", e);
+		}
+		List<WebElement> elements = new ArrayList<>(nodes.getLength());
+		for (int i = 0; i < nodes.getLength(); i++) {
+			if (nodes.item(i) instanceof Element) {
+				elements.add(new FakeElement(this, (Element) nodes.item(i)));
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Walks the DOM for the attribute and tag locators page objects use most.
+	 * The JDK's XPath engine copies the whole document into its own model on
+	 * every evaluation, which costs far more than a plain walk of a page.
+	 *
+	 * @return Matching elements, or null if the locator needs XPath
+	 */
+	private List<WebElement> findDirect(Node context, By by) {
+		if (!(by instanceof By.Remotable)) {
+			return null;
+		}
+		By.Remotable.Parameters parameters = ((By.Remotable) by).getRemoteParameters();
+		String value = String.valueOf(parameters.value());
+		String using = parameters.using();
+		String attribute;
+		if ("id".equals(using) || "name".equals(using)) {
+			attribute = using;
+		} else if ("tag name".equals(using) && value.matches("[A-Za-z][A-Za-z0-9-]*")) {
+			attribute = null;
+		} else {
+			return null;
+		}
+		// Fixture markup is lower case, like the HTML DOM reports it
+		String tag = attribute == null ? value.toLowerCase(Locale.ROOT) : "*";
+		NodeList nodes = context instanceof Document ? ((Document) context).getElementsByTagName(tag)
+				: ((Element) context).getElementsByTagName(tag);
+		List<WebElement> elements = new ArrayList<>();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Element element = (Element) nodes.item(i);
+			if (attribute == null || value.equals(element.getAttribute(attribute))) {
+				elements.add(new FakeElement(this, element));
+			}
+		}
+		return elements;
+	}
+
+	static WebElement first(List<WebElement> elements, By by) {
+		if (elements.isEmpty()) {
+			throw new NoSuchElementException("Unable to locate element: " + by);
+		}
+		return elements.get(0);
+	}
+
+	// XPath for a standard locator, or null for composite locators
+	private static String toXPath(By by, boolean relative) {
+		if (!(by instanceof By.Remotable)) {
+			return null;
+		}
+		By.Remotable.Parameters parameters = ((By.Remotable) by).getRemoteParameters();
+		String value = String.valueOf(parameters.value());
+		String descendants = relative ? ".//" : "//";
+		switch (parameters.using()) {
+		case "xpath":
+			return value;
+		case "css selector":
+			return CssSelectors.toXPath(value, relative);
+		case "id":
+			return descendants + "*[@id=" + CssSelectors.literal(value) + "]";
+		case "name":
+			return descendants + "*[@name=" + CssSelectors.literal(value) + "]";
+		case "class name":
+			return CssSelectors.toXPath("." + value, relative);
+		case "tag name":
+			return CssSelectors.toXPath(value, relative);
+		case "link text":
+			return descendants + "a[normalize-space(.)=" + CssSelectors.literal(value.trim()) + "]";
+		case "partial link text":
+			return descendants + "a[contains(normalize-space(.), " + CssSelectors.literal(value.trim()) + ")]";
+		default:
+			throw new InvalidSelectorException("Unsupported locator strategy: " + parameters.using());
+		}
+	}
+
+	private class FakeNavigation implements Navigation {
+		@Override
+		public void back() {
+			if (historyIndex > 0) {
+				historyIndex--;
+				load(history.get(historyIndex), false);
+			}
+		}
+
+		@Override
+		public void forward() {
+			if (historyIndex < history.size() - 1) {
+				historyIndex++;
+				load(history.get(historyIndex), false);
+			}
+		}
+
+		@Override
+		public void to(String url) {
+			get(url);
+		}
+
+		@Override
+		public void to(URL url) {
+			get(url.toString());
+		}
+
+		@Override
+		public void refresh() {
+			load(url, false, "reload");
+		}
+	}
+
+	private class FakeOptions implements Options {
+		@Override
+		public void addCookie(Cookie cookie) {
+			cookies.put(cookie.getName(), cookie);
+		}
+
+		@Override
+		public void deleteCookieNamed(String name) {
+			cookies.remove(name);
+		}
+
+		@Override
+		public void deleteCookie(Cookie cookie) {
+			cookies.remove(cookie.getName());
+		}
+
+		@Override
+		public void deleteAllCookies() {
+			cookies.clear();
+		}
+
+		@Override
+		public Set<Cookie> getCookies() {
+			return new HashSet<>(cookies.values());
+		}
+
+		@Override
+		public Cookie getCookieNamed(String name) {
+			return cookies.get(name);
+		}
+
+		@Override
+		public Timeouts timeouts() {
+			return new FakeTimeouts();
+		}
+
+		@Override
+		public Window window() {
+			return new FakeWindow();
+		}
+
+		@Override
+		public Logs logs() {
+			throw new UnsupportedCommandException("Logs are not available from the fake driver");
+		}
+	}
+
+	// Nothing in the fake waits, so timeouts are accepted and ignored
+	private static class FakeTimeouts implements Timeouts {
+		@Deprecated
+		@Override
+		public Timeouts implicitlyWait(long time, TimeUnit unit) {
+			return this;
+		}
+
+		@Deprecated
+		@Override
+		public Timeouts setScriptTimeout(long time, TimeUnit unit) {
+			return this;
+		}
+
+		@Deprecated
+		@Override
+		public Timeouts pageLoadTimeout(long time, TimeUnit unit) {
+			return this;
+		}
+	}
+
+	private class FakeWindow implements Window {
+		@Override
+		public Dimension getSize() {
+			return windowSize;
+		}
+
+		@Override
+		public void setSize(Dimension targetSize) {
+			windowSize = targetSize;
+			modified();
+		}
+
+		@Override
+		public Point getPosition() {
+			return windowPosition;
+		}
+
+		@Override
+		public void setPosition(Point targetPosition) {
+			windowPosition = targetPosition;
+		}
+
+		@Override
+		public void maximize() {
+			setSize(MAXIMIZED_WINDOW);
+		}
+
+		@Override
+		public void minimize() {
+		}
+
+		@Override
+		public void fullscreen() {
+			maximize();
+		}
+	}
+
+	private class FakeTargetLocator implements TargetLocator {
+		@Override
+		public WebDriver frame(int index) {
+			throw new NoSuchFrameException("The fake driver does not support frames");
+		}
+
+		@Override
+		public WebDriver frame(String nameOrId) {
+			throw new NoSuchFrameException("The fake driver does not support frames");
+		}
+
+		@Override
+		public WebDriver frame(WebElement frameElement) {
+			throw new NoSuchFrameException("The fake driver does not support frames");
+		}
+
+		@Override
+		public WebDriver parentFrame() {
+			return FakeDriver.this;
+		}
+
+		@Override
+		public WebDriver window(String nameOrHandle) {
+			if (!windowHandle.equals(nameOrHandle)) {
+				throw new NoSuchWindowException("No window " + nameOrHandle);
+			}
+			return FakeDriver.this;
+		}
+
+		@Override
+		public WebDriver newWindow(WindowType typeHint) {
+			throw new UnsupportedCommandException("The fake driver has a single window");
+		}
+
+		@Override
+		public WebDriver defaultContent() {
+			return FakeDriver.this;
+		}
+
+		@Override
+		public WebElement activeElement() {
+			Element active = focused != null && focused.getOwnerDocument() == document ? focused
+					: (Element) document.getElementsByTagName("body").item(0);
+			return active == null ? null : new FakeElement(FakeDriver.this, active);
+		}
+
+		@Override
+		public Alert alert() {
+			throw new NoAlertPresentException("The fake driver has no alerts");
+		}
+	}
+}
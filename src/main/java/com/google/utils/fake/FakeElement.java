@@ -0,0 +1,334 @@
+package com.google.utils.fake;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.ElementNotInteractableException;
+import org.openqa.selenium.Keys;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsDriver;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Element of a {@link FakeDriver} page. An element goes stale when the driver
+ * navigates away or the node is removed, as in a browser.
+ */
+class FakeElement implements WebElement, WrapsDriver {
+	private static final Set<String> BOOLEAN_ATTRIBUTES = new HashSet<>(Arrays.asList("checked", "selected",
+			"disabled", "readonly", "required", "multiple", "hidden", "autofocus"));
+	private static final Set<String> URL_ATTRIBUTES = new HashSet<>(Arrays.asList("href", "src", "action"));
+	private static final Set<String> NOT_RENDERED = new HashSet<>(Arrays.asList("head", "script", "style",
+			"template", "noscript", "title", "meta", "link"));
+	private static final Set<String> FIELDS = new HashSet<>(Arrays.asList("input", "textarea", "select"));
+
+	private final FakeDriver driver;
+	private final Element node;
+
+	FakeElement(FakeDriver driver, Element node) {
+		this.driver = driver;
+		this.node = node;
+	}
+
+	/**
+	 * @return DOM node behind the element
+	 * @throws StaleElementReferenceException if the node left the current page
+	 */
+	Element node() {
+		if (node.getOwnerDocument() != driver.document()) {
+			throw new StaleElementReferenceException("Element belongs to a page that is no longer loaded");
+		}
+		Node ancestor = node;
+		while (ancestor.getParentNode() != null) {
+			ancestor = ancestor.getParentNode();
+		}
+		if (ancestor != node.getOwnerDocument()) {
+			throw new StaleElementReferenceException("Element is no longer attached to the page");
+		}
+		return node;
+	}
+
+	@Override
+	public void click() {
+		Element element = node();
+		if (!isDisplayed()) {
+			throw new ElementNotInteractableException("Element is not displayed: " + this);
+		}
+		driver.focus(element);
+		String tag = tagOf(element);
+		String type = element.getAttribute("type").toLowerCase(Locale.ROOT);
+		if ("input".equals(tag) && ("checkbox".equals(type) || "radio".equals(type))) {
+			if (element.hasAttribute("checked") && "checkbox".equals(type)) {
+				element.removeAttribute("checked");
+			} else {
+				element.setAttribute("checked", "checked");
+			}
+			driver.modified();
+			return;
+		}
+		if (("input".equals(tag) || "button".equals(tag)) && isSubmitButton(element)) {
+			submitForm(element);
+			return;
+		}
+		// Clicking anything inside a link follows the link
+		for (Node current = element; current instanceof Element; current = current.getParentNode()) {
+			Element ancestor = (Element) current;
+			if ("a".equals(tagOf(ancestor)) && ancestor.hasAttribute("href")) {
+				driver.load(driver.resolveUrl(ancestor.getAttribute("href")), true);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void submit() {
+		submitForm(node());
+	}
+
+	@Override
+	public void sendKeys(CharSequence... keysToSend) {
+		Element element = node();
+		if (!FIELDS.contains(tagOf(element)) || element.hasAttribute("disabled")) {
+			throw new ElementNotInteractableException("Element does not accept text: " + this);
+		}
+		driver.focus(element);
+		StringBuilder value = new StringBuilder(value(element));
+		for (CharSequence keys : keysToSend) {
+			for (int i = 0; i < keys.length(); i++) {
+				char c = keys.charAt(i);
+				if (c == Keys.ENTER.charAt(0) || c == Keys.RETURN.charAt(0) || c == '\n') {
+					setValue(element, value.toString());
+					submitForm(element);
+					return;
+				} else if (c == Keys.BACK_SPACE.charAt(0)) {
+					if (value.length() > 0) {
+						value.setLength(value.length() - 1);
+					}
+				} else if (c < '\uE000' || c > '\uF8FF') {
+					// Other special keys are private-use characters and do not type anything
+					value.append(c);
+				}
+			}
+		}
+		setValue(element, value.toString());
+	}
+
+	@Override
+	public void clear() {
+		setValue(node(), "");
+	}
+
+	@Override
+	public String getTagName() {
+		return tagOf(node());
+	}
+
+	@Override
+	public String getAttribute(String name) {
+		Element element = node();
+		String key = name.toLowerCase(Locale.ROOT);
+		if ("value".equals(key) && FIELDS.contains(tagOf(element))) {
+			return value(element);
+		}
+		if (BOOLEAN_ATTRIBUTES.contains(key)) {
+			return element.hasAttribute(key) ? "true" : null;
+		}
+		if (!element.hasAttribute(key)) {
+			return null;
+		}
+		return URL_ATTRIBUTES.contains(key) ? driver.resolveUrl(element.getAttribute(key)) : element.getAttribute(key);
+	}
+
+	@Override
+	public String getDomAttribute(String name) {
+		Element element = node();
+		return element.hasAttribute(name) ? element.getAttribute(name) : null;
+	}
+
+	@Override
+	public String getDomProperty(String name) {
+		return getAttribute(name);
+	}
+
+	@Override
+	public boolean isSelected() {
+		Element element = node();
+		return element.hasAttribute("checked") || element.hasAttribute("selected");
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return !node().hasAttribute("disabled");
+	}
+
+	@Override
+	public String getText() {
+		if (!isDisplayed()) {
+			return "";
+		}
+		return node().getTextContent().replaceAll("\\s+", " ").trim();
+	}
+
+	@Override
+	public List<WebElement> findElements(By by) {
+		return driver.find(node(), by, true);
+	}
+
+	@Override
+	public WebElement findElement(By by) {
+		return FakeDriver.first(findElements(by), by);
+	}
+
+	@Override
+	public boolean isDisplayed() {
+		for (Node current = node(); current instanceof Element; current = current.getParentNode()) {
+			Element element = (Element) current;
+			String style = element.getAttribute("style").replace(" ", "").toLowerCase(Locale.ROOT);
+			if (element.hasAttribute("hidden") || NOT_RENDERED.contains(tagOf(element))
+					|| style.contains("display:none") || style.contains("visibility:hidden")
+					|| ("input".equals(tagOf(element)) && "hidden".equalsIgnoreCase(element.getAttribute("type")))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Point getLocation() {
+		return new Point(0, 0);
+	}
+
+	@Override
+	public Dimension getSize() {
+		Element element = node();
+		return new Dimension(pixels(element.getAttribute("width")), pixels(element.getAttribute("height")));
+	}
+
+	@Override
+	public Rectangle getRect() {
+		return new Rectangle(getLocation(), getSize());
+	}
+
+	@Override
+	public String getCssValue(String propertyName) {
+		for (String declaration : node().getAttribute("style").split(";")) {
+			int colon = declaration.indexOf(':');
+			if (colon > 0 && declaration.substring(0, colon).trim().equalsIgnoreCase(propertyName)) {
+				return declaration.substring(colon + 1).trim();
+			}
+		}
+		return "";
+	}
+
+	@Override
+	public <X> X getScreenshotAs(OutputType<X> target) {
+		node();
+		return driver.getScreenshotAs(target);
+	}
+
+	@Override
+	public WebDriver getWrappedDriver() {
+		return driver;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof FakeElement && ((FakeElement) other).node == node;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(node);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder description = new StringBuilder("<").append(node.getTagName());
+		for (String attribute : new String[] { "id", "name", "class" }) {
+			if (node.hasAttribute(attribute)) {
+				description.append(' ').append(attribute).append("=\"").append(node.getAttribute(attribute)).append('"');
+			}
+		}
+		return description.append('>').toString();
+	}
+
+	// Submits the form containing the element as a GET request
+	private void submitForm(Element element) {
+		Element form = element;
+		while (form != null && !"form".equals(tagOf(form))) {
+			form = form.getParentNode() instanceof Element ? (Element) form.getParentNode() : null;
+		}
+		if (form == null) {
+			return;
+		}
+		StringBuilder query = new StringBuilder();
+		NodeList fields = form.getElementsByTagName("*");
+		for (int i = 0; i < fields.getLength(); i++) {
+			Element field = (Element) fields.item(i);
+			String type = field.getAttribute("type").toLowerCase(Locale.ROOT);
+			boolean unchecked = ("checkbox".equals(type) || "radio".equals(type)) && !field.hasAttribute("checked");
+			boolean otherButton = isSubmitButton(field) && field != element;
+			if (!FIELDS.contains(tagOf(field)) && !"button".equals(tagOf(field)) || !field.hasAttribute("name")
+					|| field.hasAttribute("disabled") || unchecked || otherButton) {
+				continue;
+			}
+			query.append(query.length() == 0 ? "" : "&").append(encode(field.getAttribute("name"))).append('=')
+					.append(encode(value(field)));
+		}
+		String action = driver.resolveUrl(form.hasAttribute("action") ? form.getAttribute("action") : "");
+		int existingQuery = action.indexOf('?');
+		driver.load((existingQuery < 0 ? action : action.substring(0, existingQuery)) + "?" + query, true);
+	}
+
+	private void setValue(Element element, String value) {
+		if ("textarea".equals(tagOf(element))) {
+			element.setTextContent(value);
+		} else {
+			element.setAttribute("value", value);
+		}
+		driver.modified();
+	}
+
+	private static String value(Element element) {
+		return "textarea".equals(tagOf(element)) ? element.getTextContent() : element.getAttribute("value");
+	}
+
+	private static boolean isSubmitButton(Element element) {
+		String type = element.getAttribute("type").toLowerCase(Locale.ROOT);
+		return "button".equals(tagOf(element)) ? type.isEmpty() || "submit".equals(type)
+				: "input".equals(tagOf(element)) && ("submit".equals(type) || "image".equals(type));
+	}
+
+	private static String tagOf(Element element) {
+		return element.getTagName().toLowerCase(Locale.ROOT);
+	}
+
+	private static int pixels(String value) {
+		try {
+			return value.isEmpty() ? 0 : Integer.parseInt(value.replace("px", "").trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.google.utils.fake;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptException;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsElement;
+import org.w3c.dom.Element;
+
+/**
+ * Stands in for a JavaScript engine in {@link FakeDriver}. There is no
+ * interpreter: each script the framework sends is recognised by a marker it
+ * contains and answered with the same result a browser would give on the
+ * fixture page. Scripts that are not recognised fail with
+ * {@link UnsupportedCommandException}, so a new script shows up as a clear
+ * error rather than a silently wrong result.
+ */
+final class FakeScripts {
+	// arguments[n].setAttribute('name', 'value'), as sent by BaseClass.highlightElement
+	private static final Pattern SET_ATTRIBUTE = Pattern
+			.compile("^\\s*arguments\\[(\\d+)]\\.setAttribute\\('([^']*)',\\s*'([^']*)'\\);?\\s*$");
+
+	// Private constructor to prevent instantiation
+	private FakeScripts() {
+	}
+
+	static Object execute(FakeDriver driver, String script, Object[] args, boolean async) {
+		Object[] arguments = new Object[args == null ? 0 : args.length];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = unwrap(args[i]);
+		}
+
+		Matcher setAttribute = SET_ATTRIBUTE.matcher(script);
+		if (setAttribute.matches()) {
+			Element element = element(arguments, Integer.parseInt(setAttribute.group(1)));
+			element.setAttribute(setAttribute.group(2), setAttribute.group(3));
+			driver.modified();
+			return null;
+		}
+		if (async && script.contains("MutationObserver")) {
+			// Waits: pages never change on their own, so the observer always times out
+			sleep(((Number) arguments[0]).longValue());
+			return Boolean.FALSE;
+		}
+		if (async && script.contains("fetch(arguments[0]")) {
+			return fetch(String.valueOf(arguments[0]));
+		}
+		if (script.contains("currentSrc") && script.contains("srcset")) {
+			// ImageDownloader.resolveImageUrl
+			Element image = element(arguments, 0);
+			Map<String, Object> sources = new HashMap<>();
+			sources.put("currentSrc", image.hasAttribute("src") ? driver.resolveUrl(image.getAttribute("src")) : "");
+			sources.put("srcset", image.getAttribute("srcset"));
+			sources.put("src", image.hasAttribute("src") ? image.getAttribute("src") : image.getAttribute("data-src"));
+			return sources;
+		}
+		if (async && script.contains("performance.getEntriesByType")) {
+			// PagePerformance: timings of the current page load
+			return driver.page().entries();
+		}
+		if (script.contains("document.querySelectorAll(arguments[0])")) {
+			return collectImageUrls(driver, String.valueOf(arguments[0]), ((Number) arguments[1]).intValue());
+		}
+		if (script.contains("localStorage.clear")) {
+			return null;
+		}
+		if (script.contains("document.readyState")) {
+			return "complete";
+		}
+		throw new UnsupportedCommandException("The fake driver cannot run this script: " + abbreviate(script));
+	}
+
+	// ImageHarvester: src or data-src of the matching images as absolute URLs, up to the limit
+	private static List<Object> collectImageUrls(FakeDriver driver, String selector, int limit) {
+		List<Object> urls = new ArrayList<>();
+		for (WebElement image : driver.findElements(By.cssSelector(selector))) {
+			if (urls.size() >= limit) {
+				break;
+			}
+			Element node = ((FakeElement) image).node();
+			String url = node.hasAttribute("src") ? driver.resolveUrl(node.getAttribute("src"))
+					: node.hasAttribute("data-src") ? driver.resolveUrl(node.getAttribute("data-src")) : "";
+			if (!url.isEmpty()) {
+				urls.add(url);
+			}
+		}
+		return urls;
+	}
+
+	// ImageDownloader's browser fetch, limited to what needs no network: data: and file: URLs
+	private static Map<String, Object> fetch(String url) {
+		Map<String, Object> result = new HashMap<>();
+		if (url.startsWith("data:")) {
+			result.put("dataUrl", url);
+		} else if (url.startsWith("file:")) {
+			try {
+				Path file = Paths.get(URI.create(url));
+				byte[] bytes = Files.readAllBytes(file);
+				String contentType = Files.probeContentType(file);
+				result.put("dataUrl", "data:" + (contentType == null ? "application/octet-stream" : contentType)
+						+ ";base64," + Base64.getEncoder().encodeToString(bytes));
+			} catch (IOException e) {
+				result.put("error", "TypeError: Failed to fetch " + url);
+			}
+		} else {
+			result.put("error", "TypeError: Failed to fetch " + url + " (the fake driver has no network)");
+		}
+		return result;
+	}
+
+	private static Element element(Object[] arguments, int index) {
+		if (index >= arguments.length || !(arguments[index] instanceof FakeElement)) {
+			throw new JavascriptException("arguments[" + index + "] is not an element of this page");
+		}
+		return ((FakeElement) arguments[index]).node();
+	}
+
+	// Elements arrive wrapped when the driver is decorated, e.g. for command metrics
+	private static Object unwrap(Object argument) {
+		Object unwrapped = argument;
+		while (unwrapped instanceof WrapsElement && !(unwrapped instanceof FakeElement)) {
+			unwrapped = ((WrapsElement) unwrapped).getWrappedElement();
+		}
+		if (unwrapped instanceof List) {
+			List<Object> list = new ArrayList<>();
+			for (Object item : (List<?>) unwrapped) {
+				list.add(unwrap(item));
+			}
+			return list;
+		}
+		return unwrapped;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String abbreviate(String script) {
+		String oneLine = script.replaceAll("\\s+", " ").trim();
+		return oneLine.length() > 80 ? oneLine.substring(0, 77) + "..." : oneLine;
+	}
+}
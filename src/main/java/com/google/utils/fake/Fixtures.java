@@ -0,0 +1,192 @@
+package com.google.utils.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * HTML fixtures served by the fake driver. A fixture directory holds XHTML
+ * pages and a {@code routes.txt} with one {@code <url regex> <file>} pair per
+ * line; the first pattern matching the whole URL wins. {@code file:} URLs are
+ * loaded directly, and pages of a local server that no route matches are
+ * fetched over HTTP by {@link PageLoad}. Pages must be well-formed XML
+ * (numeric character references instead of named entities such as
+ * {@code &nbsp;}).
+ * <p>
+ * Each page is parsed once per JVM; navigations get a deep copy, so a test can
+ * modify its page without affecting others.
+ */
+final class Fixtures {
+	// Logger to record fixture loading
+	private static final Logger logger = LoggerFactory.getLogger(Fixtures.class);
+
+	private static final String ROUTES_FILE = "routes.txt";
+	private static final Map<Path, Fixtures> DIRECTORIES = new ConcurrentHashMap<>();
+
+	private final Path directory;
+	private final List<Route> routes;
+	private final Map<Path, Document> templates = new ConcurrentHashMap<>();
+
+	private Fixtures(Path directory) {
+		this.directory = directory;
+		this.routes = loadRoutes(directory.resolve(ROUTES_FILE));
+	}
+
+	/**
+	 * @param directory Fixture directory
+	 * @return Shared fixtures of the directory
+	 */
+	static Fixtures in(Path directory) {
+		return DIRECTORIES.computeIfAbsent(directory.toAbsolutePath().normalize(), Fixtures::new);
+	}
+
+	/**
+	 * @param url URL being navigated to
+	 * @return Fresh copy of the page routed to the URL
+	 * @throws WebDriverException if no route matches or the page cannot be parsed
+	 */
+	Document load(String url) {
+		if ("about:blank".equals(url)) {
+			return parse("<html><head><title></title></head><body/></html>");
+		}
+		Path file = route(url);
+		if (file == null) {
+			throw new WebDriverException("No fixture routed for " + url + " in " + directory.resolve(ROUTES_FILE));
+		}
+		Document template = templates.computeIfAbsent(file.normalize(), Fixtures::parseFile);
+		synchronized (template) {
+			// DOM implementations are not thread-safe, even for reading
+			return (Document) template.cloneNode(true);
+		}
+	}
+
+	/**
+	 * @param url URL being navigated to
+	 * @return Fixture file routed to the URL, or null if no route matches
+	 */
+	Path route(String url) {
+		if (url.startsWith("file:")) {
+			return Paths.get(URI.create(url));
+		}
+		for (Route route : routes) {
+			if (route.pattern.matcher(url).matches()) {
+				return directory.resolve(route.file);
+			}
+		}
+		return null;
+	}
+
+	private static Document parseFile(Path file) {
+		try (InputStream in = Files.newInputStream(file)) {
+			Document document = newBuilder().parse(in, file.toUri().toString());
+			logger.debug("Parsed fixture {}", file);
+			return document;
+		} catch (IOException | SAXException e) {
+			throw new WebDriverException("Failed to load fixture " + file, e);
+		}
+	}
+
+	/**
+	 * @param xhtml Well-formed XHTML markup
+	 * @return Parsed document
+	 */
+	static Document parse(String xhtml) {
+		try (InputStream in = new ByteArrayInputStream(xhtml.getBytes(StandardCharsets.UTF_8))) {
+			return newBuilder().parse(in);
+		} catch (IOException | SAXException e) {
+			throw new WebDriverException("Invalid markup", e);
+		}
+	}
+
+	/**
+	 * @param markup   Well-formed XHTML markup, e.g. a page served over HTTP
+	 * @param systemId URL the markup was loaded from
+	 * @return Parsed document
+	 */
+	static Document parse(byte[] markup, String systemId) {
+		try (InputStream in = new ByteArrayInputStream(markup)) {
+			return newBuilder().parse(in, systemId);
+		} catch (IOException | SAXException e) {
+			throw new WebDriverException("Invalid markup served by " + systemId, e);
+		}
+	}
+
+	// Not namespace-aware, so XPath matches XHTML elements by their plain names
+	private static DocumentBuilder newBuilder() {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(false);
+			factory.setValidating(false);
+			factory.setExpandEntityReferences(false);
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			builder.setErrorHandler(null);
+			return builder;
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException("XML parser is not available", e);
+		}
+	}
+
+	private static List<Route> loadRoutes(Path file) {
+		List<Route> routes = new ArrayList<>();
+		if (!Files.exists(file)) {
+			logger.warn("No {} found; only file: URLs can be opened", file);
+			return routes;
+		}
+		try {
+			int lineNumber = 0;
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				lineNumber++;
+				String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+					continue;
+				}
+				int space = trimmed.lastIndexOf(' ');
+				if (space < 0) {
+					throw new IllegalStateException("Expected '<url regex> <file>' on line " + lineNumber + " of " + file);
+				}
+				try {
+					routes.add(new Route(Pattern.compile(trimmed.substring(0, space).trim()),
+							trimmed.substring(space + 1)));
+				} catch (PatternSyntaxException e) {
+					throw new IllegalStateException("Invalid pattern on line " + lineNumber + " of " + file, e);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read " + file, e);
+		}
+		return routes;
+	}
+
+	private static final class Route {
+		private final Pattern pattern;
+		private final String file;
+
+		Route(Pattern pattern, String file) {
+			this.pattern = pattern;
+			this.file = file;
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package com.google.utils.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.WebDriverException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * One page load of the fake driver, with the timings a browser exposes
+ * through the Navigation, Resource and Paint Timing APIs.
+ * <p>
+ * Fixture pages are read from disk: they have no network phase and their
+ * timings only cover parsing. Pages of a local server ({@code localhost} or a
+ * loopback address) that no route matches are fetched over HTTP, followed by
+ * their stylesheets, scripts and images, one after another. There is no
+ * layout: the first contentful paint is taken to happen once the
+ * render-blocking stylesheets and scripts have loaded, and the largest
+ * contentful paint once the largest image (by its width and height
+ * attributes) has loaded.
+ */
+final class PageLoad {
+	private static final int TIMEOUT_MILLIS = 30_000;
+
+	private final Document document;
+	private final String url;
+	private final long timeOrigin;
+	private final long startNanos;
+	private final Map<String, Object> navigation;
+	private final List<Map<String, Object>> resources;
+	private final double firstContentfulPaint;
+	private final double largestContentfulPaint;
+
+	private PageLoad(Document document, String url, long timeOrigin, long startNanos, Map<String, Object> navigation,
+			List<Map<String, Object>> resources, double firstContentfulPaint, double largestContentfulPaint) {
+		this.document = document;
+		this.url = url;
+		this.timeOrigin = timeOrigin;
+		this.startNanos = startNanos;
+		this.navigation = navigation;
+		this.resources = resources;
+		this.firstContentfulPaint = firstContentfulPaint;
+		this.largestContentfulPaint = largestContentfulPaint;
+	}
+
+	/**
+	 * Loads a page.
+	 *
+	 * @param fixtures Fixtures of the driver
+	 * @param url      Absolute URL to load
+	 * @param type     Navigation type: {@code navigate}, {@code reload} or
+	 *                 {@code back_forward}
+	 * @return Loaded page
+	 * @throws WebDriverException if the page cannot be loaded or parsed
+	 */
+	static PageLoad open(Fixtures fixtures, String url, String type) {
+		long timeOrigin = System.currentTimeMillis();
+		long start = System.nanoTime();
+		if ("about:blank".equals(url) || fixtures.route(url) != null || !isLocalServer(url)) {
+			Document document = fixtures.load(url);
+			double parsed = since(start);
+			return new PageLoad(document, url, timeOrigin, start, navigation(url, type, 0, 0, parsed, parsed, 0),
+					Collections.emptyList(), parsed, parsed);
+		}
+
+		Response page;
+		try {
+			page = fetch(url, start);
+		} catch (IOException e) {
+			throw new WebDriverException("Failed to load " + url + ": " + e, e);
+		}
+		Document document = Fixtures.parse(page.body, url);
+		List<Map<String, Object>> resources = new ArrayList<>();
+		Set<String> fetched = new HashSet<>();
+		for (Element element : subresources(document, true)) {
+			load(url, element, start, fetched, resources);
+		}
+		double domContentLoaded = since(start);
+		double largestContentfulPaint = domContentLoaded;
+		long largestArea = -1;
+		for (Element element : subresources(document, false)) {
+			Map<String, Object> resource = load(url, element, start, fetched, resources);
+			if (resource != null && "img".equals(resource.get("initiatorType"))) {
+				long area = dimension(element, "width") * dimension(element, "height");
+				if (area > largestArea) {
+					largestArea = area;
+					largestContentfulPaint = Math.max(domContentLoaded,
+							(Double) resource.get("startTime") + (Double) resource.get("duration"));
+				}
+			}
+		}
+		return new PageLoad(document, url, timeOrigin, start, navigation(url, type, page.responseStart,
+				page.responseEnd, domContentLoaded, since(start), page.transferSize), resources, domContentLoaded,
+				largestContentfulPaint);
+	}
+
+	Document document() {
+		return document;
+	}
+
+	/**
+	 * Answers the performance timeline script of {@code PagePerformance}.
+	 *
+	 * @return Navigation, paint and resource entries and the largest contentful
+	 *         paint, in the shape the script returns them
+	 */
+	Map<String, Object> entries() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("url", url);
+		result.put("timeOrigin", timeOrigin);
+		result.put("now", since(startNanos));
+		result.put("navigation", navigation);
+		result.put("paint", Arrays.asList(paint("first-paint", firstContentfulPaint),
+				paint("first-contentful-paint", firstContentfulPaint)));
+		result.put("resources", resources);
+		result.put("lcp", largestContentfulPaint);
+		return result;
+	}
+
+	// Stylesheets and synchronous scripts when blocking, otherwise images and deferred scripts, in document order
+	private static List<Element> subresources(Document document, boolean blocking) {
+		List<Element> elements = new ArrayList<>();
+		NodeList all = document.getElementsByTagName("*");
+		for (int i = 0; i < all.getLength(); i++) {
+			Element element = (Element) all.item(i);
+			String tag = element.getTagName().toLowerCase(Locale.ROOT);
+			boolean isBlocking;
+			if (tag.equals("link") && element.hasAttribute("href")
+					&& Arrays.asList(element.getAttribute("rel").toLowerCase(Locale.ROOT).split("\\s+"))
+							.contains("stylesheet")) {
+				isBlocking = true;
+			} else if (tag.equals("script") && element.hasAttribute("src")) {
+				isBlocking = !element.hasAttribute("async") && !element.hasAttribute("defer");
+			} else if (tag.equals("img") && element.hasAttribute("src")) {
+				isBlocking = false;
+			} else {
+				continue;
+			}
+			if (isBlocking == blocking) {
+				elements.add(element);
+			}
+		}
+		return elements;
+	}
+
+	// Fetches the resource of an element once per page; a failed fetch still gets an entry, without bytes
+	private static Map<String, Object> load(String pageUrl, Element element, long start, Set<String> fetched,
+			List<Map<String, Object>> resources) {
+		String url;
+		try {
+			url = new URI(pageUrl).resolve(new URI(element.getAttribute(
+					element.hasAttribute("href") ? "href" : "src").replace(" ", "%20"))).toString();
+		} catch (Exception e) {
+			return null;
+		}
+		if (!(url.startsWith("http:") || url.startsWith("https:")) || !fetched.add(url)) {
+			return null;
+		}
+		Response response;
+		try {
+			response = fetch(url, start);
+		} catch (IOException e) {
+			double failedAt = since(start);
+			response = new Response(failedAt, failedAt, failedAt, new byte[0], 0);
+		}
+		Map<String, Object> resource = new LinkedHashMap<>();
+		resource.put("name", url);
+		resource.put("initiatorType", element.getTagName().toLowerCase(Locale.ROOT));
+		resource.put("startTime", response.startTime);
+		resource.put("duration", round(response.responseEnd - response.startTime));
+		resource.put("transferSize", response.transferSize);
+		resources.add(resource);
+		return resource;
+	}
+
+	private static Response fetch(String url, long start) throws IOException {
+		double startTime = since(start);
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		try {
+			int status = connection.getResponseCode();
+			double responseStart = since(start);
+			long headerBytes = 0;
+			for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+				for (String value : header.getValue()) {
+					headerBytes += (header.getKey() == null ? 0 : header.getKey().length() + 2) + value.length() + 2;
+				}
+			}
+			InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			byte[] body = in == null ? new byte[0] : readAll(in);
+			return new Response(startTime, responseStart, since(start), body, headerBytes + body.length);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try (InputStream input = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; (read = input.read(buffer)) != -1;) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static boolean isLocalServer(String url) {
+		try {
+			URI uri = new URI(url);
+			String host = uri.getHost();
+			return ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme()))
+					&& host != null && (host.equalsIgnoreCase("localhost") || host.startsWith("127.")
+							|| host.equals("[::1]"));
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static Map<String, Object> navigation(String url, String type, double responseStart, double responseEnd,
+			double domContentLoaded, double load, long transferSize) {
+		Map<String, Object> navigation = new LinkedHashMap<>();
+		navigation.put("name", url);
+		navigation.put("type", type);
+		navigation.put("startTime", 0.0);
+		navigation.put("responseStart", responseStart);
+		navigation.put("responseEnd", responseEnd);
+		navigation.put("domContentLoadedEventEnd", domContentLoaded);
+		navigation.put("loadEventEnd", load);
+		navigation.put("transferSize", transferSize);
+		return navigation;
+	}
+
+	private static Map<String, Object> paint(String name, double startTime) {
+		Map<String, Object> paint = new LinkedHashMap<>();
+		paint.put("name", name);
+		paint.put("startTime", startTime);
+		return paint;
+	}
+
+	private static long dimension(Element element, String attribute) {
+		try {
+			return Long.parseLong(element.getAttribute(attribute).trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	// Milliseconds since the start of the load, like performance.now()
+	private static double since(long startNanos) {
+		return round((System.nanoTime() - startNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	private static double round(double millis) {
+		return Math.round(millis * 10) / 10.0;
+	}
+
+	private static final class Response {
+		private final double startTime;
+		private final double responseStart;
+		private final double responseEnd;
+		private final byte[] body;
+		private final long transferSize;
+
+		Response(double startTime, double responseStart, double responseEnd, byte[] body, long transferSize) {
+			this.startTime = startTime;
+			this.responseStart = responseStart;
+			this.responseEnd = responseEnd;
+			this.body = body;
+			this.transferSize = transferSize;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.google.utils.fake;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.WebDriverException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Draws the screenshots of {@link FakeDriver}: an address bar followed by the
+ * page's visible text, one block element per line, with outlines for inputs
+ * and images. It is not a layout engine; the point is a real PNG of realistic
+ * size whose content changes with the page, so reports and the screenshot
+ * pipeline do the same work as with a browser.
+ */
+final class PageRenderer {
+	private static final Set<String> BLOCKS = new HashSet<>(Arrays.asList("p", "div", "h1", "h2", "h3", "h4", "li",
+			"form", "tr", "section", "header", "footer", "nav", "a", "button", "label"));
+	private static final Set<String> SKIPPED = new HashSet<>(Arrays.asList("head", "script", "style", "template",
+			"noscript"));
+	private static final int BAR_HEIGHT = 36;
+	private static final int MARGIN = 16;
+
+	// Private constructor to prevent instantiation
+	private PageRenderer() {
+	}
+
+	/**
+	 * @param document Page to draw
+	 * @param title    Page title, shown in the address bar
+	 * @param url      Current URL
+	 * @param size     Window size, which becomes the image size
+	 * @return PNG bytes
+	 */
+	static byte[] render(Document document, String title, String url, Dimension size) {
+		BufferedImage image = new BufferedImage(Math.max(size.getWidth(), 1), Math.max(size.getHeight(), 1),
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			graphics.setColor(Color.WHITE);
+			graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+			graphics.setColor(new Color(0xF1, 0xF3, 0xF4));
+			graphics.fillRect(0, 0, image.getWidth(), BAR_HEIGHT);
+			graphics.setColor(Color.DARK_GRAY);
+			graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+			graphics.drawString(title.isEmpty() ? url : title + "  \u2014  " + url, MARGIN, 23);
+
+			graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 15));
+			Cursor cursor = new Cursor(graphics, image.getWidth(), image.getHeight());
+			NodeList bodies = document.getElementsByTagName("body");
+			if (bodies.getLength() > 0) {
+				draw(bodies.item(0), cursor);
+			}
+		} finally {
+			graphics.dispose();
+		}
+		try (ByteArrayOutputStream png = new ByteArrayOutputStream()) {
+			ImageIO.write(image, "png", png);
+			return png.toByteArray();
+		} catch (IOException e) {
+			throw new WebDriverException("Failed to encode screenshot", e);
+		}
+	}
+
+	private static void draw(Node node, Cursor cursor) {
+		if (cursor.full()) {
+			return;
+		}
+		if (node.getNodeType() == Node.TEXT_NODE) {
+			cursor.text(node.getNodeValue());
+			return;
+		}
+		if (!(node instanceof Element)) {
+			return;
+		}
+		Element element = (Element) node;
+		String tag = element.getTagName().toLowerCase(Locale.ROOT);
+		String style = element.getAttribute("style").replace(" ", "");
+		if (SKIPPED.contains(tag) || element.hasAttribute("hidden") || style.contains("display:none")) {
+			return;
+		}
+		if ("img".equals(tag)) {
+			cursor.box(Math.min(intAttribute(element, "width", 120), 400), Math.min(intAttribute(element, "height", 90),
+					300), element.getAttribute("alt"), new Color(0xDA, 0xDC, 0xE0));
+			return;
+		}
+		if ("input".equals(tag) || "textarea".equals(tag)) {
+			if (!"hidden".equalsIgnoreCase(element.getAttribute("type"))) {
+				String value = "textarea".equals(tag) ? element.getTextContent() : element.getAttribute("value");
+				cursor.box(360, 28, value, new Color(0x9A, 0xA0, 0xA6));
+			}
+			return;
+		}
+		boolean block = BLOCKS.contains(tag);
+		if (block) {
+			cursor.newLine();
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			draw(child, cursor);
+		}
+		if (block) {
+			cursor.newLine();
+		}
+	}
+
+	private static int intAttribute(Element element, String name, int fallback) {
+		try {
+			return Integer.parseInt(element.getAttribute(name).replace("px", "").trim());
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+
+	// Position of the next text run; wraps at the right margin and stops below the window
+	private static final class Cursor {
+		private final Graphics2D graphics;
+		private final FontMetrics metrics;
+		private final int width;
+		private final int height;
+		private int x = MARGIN;
+		private int y = BAR_HEIGHT + MARGIN;
+		private int lineHeight;
+
+		Cursor(Graphics2D graphics, int width, int height) {
+			this.graphics = graphics;
+			this.metrics = graphics.getFontMetrics();
+			this.width = width;
+			this.height = height;
+			this.lineHeight = metrics.getHeight();
+		}
+
+		boolean full() {
+			return y > height;
+		}
+
+		void text(String text) {
+			for (String word : text.trim().split("\\s+")) {
+				if (word.isEmpty()) {
+					continue;
+				}
+				int wordWidth = metrics.stringWidth(word + " ");
+				if (x + wordWidth > width - MARGIN && x > MARGIN) {
+					newLine();
+				}
+				graphics.setColor(Color.BLACK);
+				graphics.drawString(word, x, y + metrics.getAscent());
+				x += wordWidth;
+				lineHeight = Math.max(lineHeight, metrics.getHeight());
+			}
+		}
+
+		void box(int boxWidth, int boxHeight, String label, Color color) {
+			if (x + boxWidth > width - MARGIN && x > MARGIN) {
+				newLine();
+			}
+			graphics.setColor(color);
+			graphics.drawRect(x, y, boxWidth, boxHeight);
+			if (label != null && !label.isEmpty()) {
+				graphics.setColor(Color.GRAY);
+				graphics.drawString(label, x + 6, y + Math.min(boxHeight, metrics.getHeight() + 4) - 6);
+			}
+			x += boxWidth + 8;
+			lineHeight = Math.max(lineHeight, boxHeight + 4);
+		}
+
+		void newLine() {
+			if (x > MARGIN) {
+				y += lineHeight + 4;
+				x = MARGIN;
+				lineHeight = metrics.getHeight();
+			}
+		}
+	}
+}
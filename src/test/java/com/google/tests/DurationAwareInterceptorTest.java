@@ -0,0 +1,78 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.utils.DurationAwareInterceptor;
+import com.google.utils.TestDurations;
+
+/**
+ * Estimates test methods from a testng-results.xml written to a temporary
+ * directory and checks the predicted wall time of schedules.
+ */
+public class DurationAwareInterceptorTest {
+
+    @Test
+    public void estimatesKnownAndNewMethods() throws IOException {
+        try (TempDir dir = TempDir.create("schedule")) {
+            Path results = writeResults(dir);
+            TestDurations noIndex = TestDurations.load(dir.resolve("missing-report-root"), "1.0", "chrome");
+            DurationAwareInterceptor.History history = DurationAwareInterceptor.History.load(results, noIndex, 30_000);
+
+            Assert.assertTrue(history.isKnown("com.google.tests.ImageDownloadTest", "testImageDownload"));
+            // 17 s per invocation, now with three search terms
+            Assert.assertEquals(history.estimate("com.google.tests.ImageDownloadTest", "testImageDownload", 3),
+                    51_000);
+            // Two rows at a time: the third one starts when the first two are done
+            Assert.assertEquals(history.estimate("com.google.tests.ImageDownloadTest", "testImageDownload", 3, 2),
+                    34_000);
+            Assert.assertEquals(history.estimate("com.google.tests.GoogleHomePageTest", "testGoogleHomePage", 1, 2),
+                    4000);
+
+            // A new method of a known class takes the median of its class, a new class the median of all
+            Assert.assertFalse(history.isKnown("com.google.tests.ImageDownloadTest", "testImageFormat"));
+            Assert.assertEquals(history.estimate("com.google.tests.ImageDownloadTest", "testImageFormat", 1), 17_000);
+            Assert.assertEquals(history.estimate("com.google.tests.NewTest", "testNew", 2), 8000);
+
+            DurationAwareInterceptor.History empty = DurationAwareInterceptor.History.load(
+                    dir.resolve("missing.xml"), noIndex, 30_000);
+            Assert.assertEquals(empty.estimate("com.google.tests.NewTest", "testNew", 1), 30_000);
+        }
+    }
+
+    @Test
+    public void longestFirstShortensTheSuite() {
+        List<Long> declared = Arrays.asList(2000L, 3000L, 2000L, 3000L, 2000L, 9000L);
+        Assert.assertEquals(DurationAwareInterceptor.makespan(declared, 2), 15_000);
+
+        List<Long> longestFirst = new ArrayList<>(declared);
+        longestFirst.sort(Collections.reverseOrder());
+        Assert.assertEquals(DurationAwareInterceptor.makespan(longestFirst, 2), 11_000);
+        Assert.assertEquals(DurationAwareInterceptor.makespan(longestFirst, 1), 21_000);
+    }
+
+    private static Path writeResults(TempDir dir) throws IOException {
+        Path results = dir.resolve("testng-results.xml");
+        // Two invocations of a data-driven test, one plain test and a configuration method
+        Files.write(results, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testng-results total=\"3\">"
+                + "<suite name=\"Google Suite\"><test name=\"Google Tests\">"
+                + "<class name=\"com.google.tests.ImageDownloadTest\">"
+                + "<test-method is-config=\"true\" name=\"setUp\" duration-ms=\"1092\" status=\"PASS\"/>"
+                + "<test-method name=\"testImageDownload\" duration-ms=\"16000\" status=\"PASS\"/>"
+                + "<test-method name=\"testImageDownload\" duration-ms=\"18000\" status=\"FAIL\"/>"
+                + "<test-method name=\"testImageSize\" duration-ms=\"3000\" status=\"PASS\"/>"
+                + "</class><class name=\"com.google.tests.GoogleHomePageTest\">"
+                + "<test-method name=\"testGoogleHomePage\" duration-ms=\"4000\" status=\"PASS\"/>"
+                + "</class></test></suite></testng-results>").getBytes(StandardCharsets.UTF_8));
+        return results;
+    }
+}
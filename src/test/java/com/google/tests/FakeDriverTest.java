@@ -0,0 +1,127 @@
+package com.google.tests;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebElement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.utils.ImageDownloader;
+import com.google.utils.fake.FakeDriver;
+
+import base.BaseClass;
+
+/**
+ * Drives the fake browser through the same locators and scripts the page
+ * objects use, against the fixtures in src/test/resources/fixtures.
+ */
+public class FakeDriverTest {
+
+    @Test
+    public void searchesAndOpensImagesTab() {
+        FakeDriver driver = newDriver();
+        try {
+            driver.get("https://www.Google.com/");
+            Assert.assertEquals(driver.getTitle(), "Google");
+
+            WebElement searchBox = driver.findElement(By.name("q"));
+            searchBox.sendKeys("Zomato");
+            searchBox.submit();
+            Assert.assertTrue(driver.getCurrentUrl().startsWith("https://www.Google.com/search?q=Zomato"),
+                    driver.getCurrentUrl());
+            Assert.assertEquals(driver.getTitle(), "Zomato - Google Search");
+
+            driver.findElement(By.xpath("(//div[contains(text(),'Images')])[1]")).click();
+            Assert.assertTrue(driver.getCurrentUrl().contains("tbm=isch"), driver.getCurrentUrl());
+            WebElement firstImage = driver.findElement(By.xpath("(//div[@class='H8Rx8c']//img)[1]"));
+            Assert.assertTrue(firstImage.isDisplayed());
+            Assert.assertTrue(ImageDownloader.resolveImageUrl(driver, firstImage).startsWith("data:image/png;base64,"));
+
+            driver.navigate().back();
+            Assert.assertEquals(driver.getTitle(), "Zomato - Google Search");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void translatesCssSelectors() {
+        FakeDriver driver = newDriver();
+        try {
+            driver.get("https://www.google.com/search?q=Zomato&tbm=isch");
+            Assert.assertEquals(
+                    driver.findElements(By.cssSelector("div.eA0Zlc > div.H8Rx8c img[alt^='Zomato']")).size(), 4);
+            Assert.assertEquals(driver.findElements(By.cssSelector("#islrg .toI8Rb, textarea[name=q]")).size(), 5);
+            Assert.assertEquals(driver.findElements(By.cssSelector(".eA0Zlc:first-child img")).size(), 1);
+            Assert.assertEquals(driver.findElements(By.className("H8Rx8c")).size(), 4);
+            List<WebElement> links = driver.findElements(By.partialLinkText("Imag"));
+            Assert.assertEquals(links.size(), 1);
+            Assert.assertEquals(links.get(0).findElements(By.tagName("div")).size(), 1);
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void elementsGoStaleAfterNavigation() {
+        FakeDriver driver = newDriver();
+        try {
+            driver.get("https://www.google.com/");
+            WebElement searchBox = driver.findElement(By.name("q"));
+            driver.get("https://www.google.com/search?q=Zomato");
+            Assert.assertThrows(StaleElementReferenceException.class, searchBox::getText);
+            Assert.assertThrows(NoSuchElementException.class, () -> driver.findElement(By.id("missing")));
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void runsFrameworkScriptsOnly() {
+        FakeDriver driver = newDriver();
+        try {
+            driver.get("https://www.google.com/");
+            WebElement searchBox = driver.findElement(By.name("q"));
+            BaseClass.highlightElement(driver, searchBox);
+            Assert.assertEquals(searchBox.getCssValue("border"), "2px solid red");
+            Assert.assertThrows(UnsupportedCommandException.class, () -> driver.executeScript("return 1 + 1;"));
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void rendersScreenshotsAsPng() throws IOException {
+        FakeDriver driver = newDriver();
+        try {
+            driver.get("https://www.google.com/search?q=Zomato&tbm=isch");
+            byte[] png = driver.getScreenshotAs(OutputType.BYTES);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+            Assert.assertEquals(image.getWidth(), 1280);
+            Assert.assertEquals(image.getHeight(), 800);
+            Assert.assertEquals(driver.getScreenshotAs(OutputType.BYTES), png);
+
+            driver.quit();
+            Assert.assertThrows(NoSuchSessionException.class, driver::getTitle);
+        } finally {
+            driver.quit();
+        }
+    }
+
+    // Test methods may run in parallel, so each one drives a browser of its own
+    private static FakeDriver newDriver() {
+        return new FakeDriver(Paths.get("src/test/resources/fixtures"));
+    }
+}
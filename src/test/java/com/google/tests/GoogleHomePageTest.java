@@ -1,9 +1,5 @@
 package com.google.tests;
-import org.openqa.selenium.WebDriver;
-import org.testng.annotations.AfterClass;
-import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
-import com.google.utils.DriverManager;
 
 import base.BaseClass;
 
@@ -11,24 +7,12 @@ import com.google.pages.GoogleHomePage;
 
 public class GoogleHomePageTest extends BaseClass {
 
-    private WebDriver driver;
-    private GoogleHomePage googleHomePage;
-
-    @Override
-    @BeforeClass
-    public void setUp() {
-        super.setUp(); // Call the setup from BaseClass
-        googleHomePage = new GoogleHomePage(driver);
-    }
-    @Test
-    public void testGoogleHomePage() {
+    @Test(dataProvider = "searchTerms", dataProviderClass = SearchTermsProvider.class)
+    public void testGoogleHomePage(String searchTerm) {
+        // Page objects are per invocation so parallel invocations never share a driver
+        GoogleHomePage googleHomePage = new GoogleHomePage(getThreadDriver());
         googleHomePage.open();
-        googleHomePage.searchFor("Selenium WebDriver");
+        googleHomePage.searchFor(searchTerm);
         // Add further assertions or interactions here
     }
-
-    @AfterClass
-    public void tearDown() {
-        DriverManager.quitDriver();
-    }
 }
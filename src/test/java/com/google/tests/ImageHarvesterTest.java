@@ -0,0 +1,212 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.openqa.selenium.json.Json;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.utils.ImageDownloader;
+import com.google.utils.ImageDownloader.DownloadResult;
+import com.google.utils.ImageHarvester;
+import com.google.utils.ImageHarvester.HarvestItem;
+import com.google.utils.ImageHarvester.HarvestReport;
+import com.google.utils.fake.FakeDriver;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the download half of the harvester against a local HTTP stand-in, so no
+ * browser or network access is needed. The server answers on both
+ * "localhost" and "127.0.0.1", which the harvester treats as two hosts. The
+ * URL collection half runs against the fake results page of {@link FakeDriver}.
+ * The tests share the server's request counters, so they run one at a time.
+ */
+@Test(singleThreaded = true)
+public class ImageHarvesterTest {
+
+    private HttpServer server;
+    private int port;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Map<String, List<Long>> requestTimes = new ConcurrentHashMap<>();
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/img/", exchange -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            requestTimes.computeIfAbsent(exchange.getRequestHeaders().getFirst("Host").split(":")[0],
+                    host -> new CopyOnWriteArrayList<>()).add(System.nanoTime());
+            try {
+                Thread.sleep(50); // simulate a slow image host
+                String name = exchange.getRequestURI().getPath().substring("/img/".length());
+                if (name.startsWith("missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                // "same-a" and "same-b" serve identical bytes to exercise content de-duplication
+                byte[] image = ("PNG:" + (name.startsWith("same") ? "same" : name)).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, image.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(image);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHarvestDownloadsDeduplicatesAndWritesManifest() throws IOException {
+        maxInFlight.set(0);
+        List<HarvestItem> items = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            items.add(new HarvestItem("cats", i, url("localhost", "cat" + i)));
+            items.add(new HarvestItem("dogs", i, url("127.0.0.1", "dog" + i)));
+        }
+        items.add(new HarvestItem("dogs", 7, url("127.0.0.1", "dog1"))); // same URL again
+        items.add(new HarvestItem("cats", 7, url("localhost", "same-a")));
+        items.add(new HarvestItem("cats", 8, url("localhost", "same-b"))); // same bytes, other URL
+        items.add(new HarvestItem("cats", 9, url("localhost", "missing")));
+
+        try (TempDir outputDir = TempDir.create("harvest")) {
+            HarvestReport report = new ImageHarvester(4, 50).download(items, outputDir.path());
+
+            Assert.assertEquals(report.getDownloaded(), 13, "Distinct images downloaded");
+            Assert.assertEquals(report.getDuplicates(), 2, "Duplicate URL and duplicate content skipped");
+            Assert.assertEquals(report.getFailed(), 1, "Missing image reported as failed");
+            Assert.assertTrue(maxInFlight.get() <= 4, "In-flight requests exceeded the limit: " + maxInFlight.get());
+
+            Assert.assertTrue(Files.exists(report.getManifest()), "Manifest was not written");
+            Map<String, Object> manifest = new Json().toType(
+                    new String(Files.readAllBytes(report.getManifest()), StandardCharsets.UTF_8), Map.class);
+            Assert.assertEquals(((List<?>) manifest.get("images")).size(), 15, "One manifest entry per unique URL");
+            Map<?, ?> stats = (Map<?, ?>) manifest.get("stats");
+            Assert.assertEquals(((Number) stats.get("downloaded")).intValue(), 13);
+            Assert.assertTrue(((Number) stats.get("imagesPerSecond")).doubleValue() > 0, "Throughput not recorded");
+            try (Stream<Path> files = Files.list(outputDir.resolve("cats"))) {
+                Assert.assertEquals(files.count(), 7L, "Image files written for 'cats'");
+            }
+        }
+    }
+
+    @Test
+    public void testRequestsAreRateLimitedPerHost() throws IOException {
+        requestTimes.clear();
+        List<HarvestItem> items = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            items.add(new HarvestItem("slow", i, url("localhost", "slow" + i)));
+        }
+        for (int i = 1; i <= 5; i++) {
+            items.add(new HarvestItem("other", i, url("127.0.0.1", "other" + i)));
+        }
+
+        // 10 requests per second per host: five requests to one host span at least 400 ms
+        try (TempDir outputDir = TempDir.create("harvest")) {
+            HarvestReport report = new ImageHarvester(10, 10).download(items, outputDir.path());
+
+            Assert.assertEquals(report.getDownloaded(), 10);
+            Assert.assertEquals(requestTimes.keySet().size(), 2);
+            for (Map.Entry<String, List<Long>> host : requestTimes.entrySet()) {
+                List<Long> times = new ArrayList<>(host.getValue());
+                times.sort(null);
+                long spanMillis = (times.get(times.size() - 1) - times.get(0)) / 1_000_000;
+                Assert.assertTrue(spanMillis >= 350, host.getKey() + " was not rate limited: " + spanMillis + " ms");
+            }
+            // Hosts are limited independently: the second host's requests start while the first one's still run
+            long firstEnd = Long.MAX_VALUE;
+            long lastStart = 0;
+            for (List<Long> times : requestTimes.values()) {
+                firstEnd = Math.min(firstEnd, times.stream().mapToLong(Long::longValue).max().getAsLong());
+                lastStart = Math.max(lastStart, times.stream().mapToLong(Long::longValue).min().getAsLong());
+            }
+            Assert.assertTrue(lastStart < firstEnd, "Hosts were not fetched in parallel");
+        }
+    }
+
+    @Test
+    public void testUnparsableUrlIsRecordedAsFailed() throws IOException {
+        List<HarvestItem> items = new ArrayList<>();
+        items.add(new HarvestItem("cats", 1, "not a url"));
+        // Not a valid URI (a second '#'), as found in real results, but a valid URL
+        items.add(new HarvestItem("cats", 2, url("localhost", "cat2#a#b")));
+        items.add(new HarvestItem("cats", 3, url("localhost", "cat3")));
+
+        try (TempDir outputDir = TempDir.create("harvest")) {
+            HarvestReport report = new ImageHarvester(1, 50).download(items, outputDir.path());
+
+            Assert.assertEquals(report.getFailed(), 1, report.toString());
+            Assert.assertEquals(report.getDownloaded(), 2, report.toString());
+        }
+    }
+
+    @Test
+    public void testPercentEncodedDataUriKeepsPlusSigns() throws Exception {
+        try (TempDir outputDir = TempDir.create("harvest")) {
+            DownloadResult result = ImageDownloader.downloadAsync(
+                    "data:image/svg+xml,<svg><text>1+1%3D2</text></svg>", outputDir.path(), "plus").get();
+
+            Assert.assertEquals(new String(Files.readAllBytes(result.getPath()), StandardCharsets.UTF_8),
+                    "<svg><text>1+1=2</text></svg>");
+            Assert.assertEquals(result.getSha256(), ImageDownloader.checksumOf(result.getPath()));
+        }
+    }
+
+    @Test
+    public void testHarvestCollectsUrlsFromTheResultsPage() throws IOException {
+        FakeDriver driver = new FakeDriver(Paths.get("src/test/resources/fixtures"));
+        try (TempDir outputDir = TempDir.create("harvest")) {
+            HarvestReport report = new ImageHarvester(2, 50).harvest(driver, Arrays.asList("Zomato"), 3,
+                    outputDir.path());
+
+            Assert.assertEquals(report.getDownloaded(), 3, report.toString());
+            Map<String, Object> manifest = new Json().toType(
+                    new String(Files.readAllBytes(report.getManifest()), StandardCharsets.UTF_8), Map.class);
+            List<?> images = (List<?>) manifest.get("images");
+            Assert.assertEquals(images.size(), 3);
+            Assert.assertEquals(((Map<?, ?>) images.get(0)).get("term"), "Zomato");
+            Assert.assertEquals(((Number) ((Map<?, ?>) images.get(2)).get("rank")).intValue(), 3);
+            try (Stream<Path> files = Files.list(outputDir.resolve("Zomato"))) {
+                Assert.assertEquals(files.count(), 3L, "Image files written for 'Zomato'");
+            }
+        } finally {
+            driver.quit();
+        }
+    }
+
+    private String url(String host, String name) {
+        return "http://" + host + ":" + port + "/img/" + name;
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.tests;
+
+import java.util.Collections;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WrapsDriver;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.google.utils.DriverManager;
+
+/**
+ * Checks when the lazy driver of {@link DriverManager} launches and releases
+ * the browser of the configured type. Run with {@code -Dbrowser=fake} to use
+ * the fake browser.
+ */
+public class LazyDriverTest {
+
+    @AfterMethod(alwaysRun = true)
+    public void releaseDriver() {
+        DriverManager.quitDriver();
+        DriverManager.bindScope(null);
+    }
+
+    @Test
+    public void launchesOnceOnTheFirstCommand() {
+        String scope = bindScope("launchesOnceOnTheFirstCommand");
+        // Constructing test classes used to launch a browser each
+        ImageDownloadTest first = new ImageDownloadTest();
+        GoogleHomePageTest second = new GoogleHomePageTest();
+        WebDriver driver = DriverManager.lazyDriver();
+        Assert.assertTrue(driver.toString().contains("not launched"), driver.toString());
+        driver.quit();
+        Assert.assertFalse(DriverManager.hasDriver());
+        Assert.assertEquals(openBrowsers(scope), 0);
+
+        driver.getWindowHandle();
+        Assert.assertTrue(DriverManager.hasDriver());
+        WebDriver launched = ((WrapsDriver) driver).getWrappedDriver();
+        driver.getWindowHandles();
+        Assert.assertSame(((WrapsDriver) driver).getWrappedDriver(), launched);
+        Assert.assertEquals(openBrowsers(scope), 1, DriverManager.getOpenScopes().toString());
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+    }
+
+    @Test
+    public void quitReleasesTheBrowserOfTheScope() {
+        String scope = bindScope("quitReleasesTheBrowserOfTheScope");
+        WebDriver driver = DriverManager.lazyDriver();
+        driver.getWindowHandle();
+        Assert.assertEquals(openBrowsers(scope), 1, DriverManager.getOpenScopes().toString());
+
+        driver.quit();
+        Assert.assertFalse(DriverManager.hasDriver());
+        Assert.assertEquals(openBrowsers(scope), 0, DriverManager.getOpenScopes().toString());
+
+        // The next command acquires a new browser for the same scope
+        driver.getWindowHandle();
+        Assert.assertEquals(openBrowsers(scope), 1, DriverManager.getOpenScopes().toString());
+    }
+
+    // Test methods may run in parallel, so each one owns a scope of its own
+    private static String bindScope(String method) {
+        // Start from a thread without a driver, as a fresh test thread would
+        DriverManager.quitDriver();
+        String scope = "LazyDriverTest::" + method + " (method)";
+        DriverManager.bindScope(scope);
+        return scope;
+    }
+
+    private static int openBrowsers(String scope) {
+        return Collections.frequency(DriverManager.getOpenScopes(), scope);
+    }
+}
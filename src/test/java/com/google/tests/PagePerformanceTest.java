@@ -0,0 +1,132 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.utils.PagePerformance;
+import com.google.utils.StepPolicy;
+import com.google.utils.fake.FakeDriver;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures pages of a local fixture server, whose responses are delayed by a
+ * known amount, through the fake browser.
+ */
+public class PagePerformanceTest {
+
+    private static final String PAGE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>Fixture</title>"
+            + "<link rel=\"stylesheet\" href=\"/app.css\"/></head><body><p>Hello</p>"
+            + "<img src=\"/hero.png\" width=\"600\" height=\"400\"/><img src=\"/icon.png\" width=\"16\" height=\"16\"/>"
+            + "</body></html>";
+
+    private static final PagePerformance.Budgets NO_BUDGETS = new PagePerformance.Budgets(
+            Collections.<String, Double>emptyMap(), false);
+
+    private HttpServer server;
+    private String origin;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        // Delay before the response headers of each path
+        Map<String, Integer> delays = new HashMap<>();
+        delays.put("/", 50);
+        delays.put("/app.css", 30);
+        delays.put("/hero.png", 120);
+        delays.put("/icon.png", 10);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin = "http://127.0.0.1:" + server.getAddress().getPort();
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            try {
+                Thread.sleep(delays.getOrDefault(path, 0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = path.equals("/") ? PAGE.getBytes(StandardCharsets.UTF_8) : new byte[2048];
+            exchange.sendResponseHeaders(delays.containsKey(path) ? 200 : 404, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void measuresNavigationPaintAndResources() {
+        FakeDriver driver = new FakeDriver(Paths.get("src/test/resources/fixtures"));
+        try {
+            driver.get(origin + "/");
+            PagePerformance.Sample sample = PagePerformance.capture(driver, "Fixture.open", NO_BUDGETS);
+            Assert.assertTrue(sample.isNavigation());
+            Assert.assertTrue(sample.get("ttfb") >= 50, sample.toString());
+            // The stylesheet blocks the first paint, the large image is the largest contentful paint
+            Assert.assertTrue(sample.get("fcp") >= sample.get("ttfb") + 30, sample.toString());
+            Assert.assertTrue(sample.get("lcp") >= sample.get("fcp") + 120, sample.toString());
+            Assert.assertTrue(sample.get("load") >= sample.get("lcp"), sample.toString());
+            Assert.assertEquals(sample.get("resources"), 4.0, "the document and its three subresources");
+            Assert.assertTrue(sample.get("transferSize") > 6, sample.toString());
+            Assert.assertNull(sample.get("jsHeap"), "the fake driver has no DevTools");
+
+            // A step that loads no new document only reports what it loaded itself
+            PagePerformance.Sample again = PagePerformance.capture(driver, "Fixture.recheck", NO_BUDGETS);
+            Assert.assertFalse(again.isNavigation());
+            Assert.assertEquals(again.get("resources"), 0.0);
+            Assert.assertNull(again.get("lcp"));
+
+            // Fixture pages are read from disk, without a network phase
+            driver.get("https://www.google.com/");
+            Assert.assertEquals(PagePerformance.capture(driver, "Fixture.open", NO_BUDGETS).get("ttfb"), 0.0);
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void failsStepsOverBudget() {
+        // Budgets are passed in: the configured ones apply to the browser tests running at the same time
+        Map<String, Double> limits = new HashMap<>();
+        limits.put("lcp", 100.0);
+        FakeDriver driver = new FakeDriver(Paths.get("src/test/resources/fixtures"));
+        try {
+            PagePerformance.Budgets budgets = new PagePerformance.Budgets(limits, true);
+            PagePerformance.BudgetExceededException failure = Assert.expectThrows(
+                    PagePerformance.BudgetExceededException.class, () -> StepPolicy.run("Fixture.budget", () -> {
+                        driver.get(origin + "/");
+                        PagePerformance.record(driver, budgets);
+                    }));
+            Assert.assertTrue(failure.getMessage().startsWith("Fixture.budget is over its performance budget: lcp "),
+                    failure.getMessage());
+            Assert.assertEquals(failure.getSample().getViolations().size(), 1);
+
+            // A step's own budget overrides the one for every step
+            limits.put("Fixture.budget.lcp", 60000.0);
+            PagePerformance.Budgets stepBudgets = new PagePerformance.Budgets(limits, true);
+            StepPolicy.run("Fixture.budget", () -> {
+                driver.get(origin + "/");
+                Assert.assertTrue(PagePerformance.record(driver, stepBudgets).isWithinBudget());
+            });
+            // The run-wide stats are shared with the other tests; only this test records this step
+            Assert.assertTrue(PagePerformance.getStats().contains("Fixture.budget: samples=2, overBudget=1, ttfb p50="),
+                    PagePerformance.getStats());
+        } finally {
+            driver.quit();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.google.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.utils.ReplayServer;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Records a local stand-in for the live site, then replays it with the
+ * stand-in stopped.
+ */
+public class ReplayServerTest {
+
+    private HttpServer upstream;
+    private String upstreamOrigin;
+    private final AtomicInteger upstreamRequests = new AtomicInteger();
+    private Path recordings;
+
+    @BeforeClass
+    public void startUpstream() throws IOException {
+        recordings = Files.createTempDirectory("replay");
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        upstreamOrigin = "http://127.0.0.1:" + upstream.getAddress().getPort();
+        upstream.createContext("/", exchange -> {
+            upstreamRequests.incrementAndGet();
+            try {
+                Thread.sleep(40); // simulate the latency of the live site
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String path = exchange.getRequestURI().getPath();
+            if ("/moved".equals(path)) {
+                exchange.getResponseHeaders().set("Location", upstreamOrigin + "/");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = ("<html><body><a href=\"" + upstreamOrigin + "/search?q="
+                    + exchange.getRequestURI().getQuery() + "\">next</a></body></html>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.getResponseHeaders().set("Content-Security-Policy", "default-src 'self'");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        upstream.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopUpstream() throws IOException {
+        if (upstream != null) {
+            upstream.stop(0);
+        }
+        try (Stream<Path> files = Files.list(recordings)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(recordings);
+    }
+
+    @Test
+    public void replaysRecordedResponsesWithoutTheLiveSite() throws IOException {
+        ReplayServer recorder = new ReplayServer(ReplayServer.Mode.RECORD, recordings, upstreamOrigin + "/",
+                Collections.<String>emptyList(), new HashSet<>(Arrays.asList("ei")));
+        recorder.start(0);
+        String recorded;
+        try {
+            recorded = get(recorder.toLocal(upstreamOrigin + "/search?q=zomato&ei=first"), 200);
+            Assert.assertTrue(recorded.contains(recorder.getLocalOrigin() + "/search?q="), recorded);
+            Assert.assertFalse(recorded.contains(upstreamOrigin), recorded);
+            get(recorder.getLocalOrigin() + "/moved", 302);
+        } finally {
+            recorder.stop();
+        }
+        int liveRequests = upstreamRequests.get();
+        upstream.stop(0);
+        upstream = null;
+
+        ReplayServer player = new ReplayServer(ReplayServer.Mode.REPLAY, recordings, upstreamOrigin,
+                Collections.<String>emptyList(), new HashSet<>(Arrays.asList("ei")));
+        player.start(0);
+        try {
+            // ei changes on every visit and is not part of the match
+            String replayed = get(player.getLocalOrigin() + "/search?ei=second&q=zomato", 200);
+            Assert.assertEquals(replayed, recorded.replace(recorder.getLocalOrigin(), player.getLocalOrigin()));
+            HttpURLConnection redirect = open(player.getLocalOrigin() + "/moved");
+            Assert.assertEquals(redirect.getResponseCode(), 302);
+            Assert.assertEquals(redirect.getHeaderField("Location"), player.getLocalOrigin() + "/");
+            get(player.getLocalOrigin() + "/search?q=other", 404);
+        } finally {
+            player.stop();
+        }
+        Assert.assertEquals(upstreamRequests.get(), liveRequests);
+        String stats = player.getStats();
+        Assert.assertTrue(stats.startsWith("mode=replay, requests=3, misses=1"), stats);
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        return connection;
+    }
+
+    private static String get(String url, int expectedStatus) throws IOException {
+        HttpURLConnection connection = open(url);
+        Assert.assertEquals(connection.getResponseCode(), expectedStatus, url);
+        // Security headers of the live site would block the rewritten links
+        Assert.assertNull(connection.getHeaderField("Content-Security-Policy"));
+        InputStream in = expectedStatus >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,115 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.utils.ReportIndex;
+import com.google.utils.ReportJournal;
+
+/**
+ * Builds report folders like those under ReportGenerator in a temporary
+ * directory and queries their index.
+ */
+public class ReportIndexTest {
+
+    @Test
+    public void indexesNewRunsIncrementallyAndFindsRegressions() throws IOException {
+        try (TempDir dir = TempDir.create("reports")) {
+            Path root = dir.path();
+            // 1000 runs of release 1.0, then 1000 of 1.1 where search got slower
+            for (int run = 0; run < 2000; run++) {
+                String release = run < 1000 ? "1.0" : "1.1";
+                writeJournal(root, release, run, run < 1000 ? 1000 + run % 100 : 1500 + run % 100);
+            }
+            ReportIndex index = ReportIndex.update(root);
+            Assert.assertEquals(index.getRunCount(), 2000);
+            Assert.assertEquals(index.getReleases().toString(), "[1.0, 1.1]");
+            Assert.assertEquals(ReportIndex.update(root).getRunCount(), 2000, "nothing new to index");
+
+            // Queries only read the index file, never the report folders
+            long start = System.nanoTime();
+            ReportIndex loaded = ReportIndex.load(root);
+            Map<String, ReportIndex.Summary> steps = loaded.stepLatency("1.1");
+            List<ReportIndex.Regression> regressions = loaded.regressions("1.0", "1.1", 1.2, 10);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            Assert.assertTrue(elapsedMillis < 1000, "Loading and querying took " + elapsedMillis + " ms");
+
+            ReportIndex.Summary search = steps.get("GoogleHomePage.searchFor");
+            Assert.assertEquals(search.getCount(), 2000); // both tests of each run search
+            Assert.assertEquals(search.getP50Millis(), 1549);
+            Assert.assertEquals(search.getP95Millis(), 1594);
+            Assert.assertEquals(steps.keySet().iterator().next(), "GoogleHomePage.searchFor", "slowest step first");
+
+            Assert.assertEquals(regressions.size(), 1);
+            Assert.assertEquals(regressions.get(0).getTest(), "ImageDownloadTest::testImageDownload::fake[cats]");
+            Assert.assertEquals(loaded.testDurations("1.1").get("GoogleHomePageTest::testGoogleHomePage::fake[cats]")
+                    .getFailures(), 100);
+
+            // A new run is appended; a removed one is forgotten
+            Path indexFile = root.resolve(ReportIndex.FILE_NAME);
+            long size = Files.size(indexFile);
+            writeJournal(root, "1.1", 2000, 1500);
+            Assert.assertEquals(ReportIndex.update(root).getRunCount(), 2001);
+            Assert.assertTrue(Files.size(indexFile) > size && Files.size(indexFile) < size + 200, "appended one run");
+            Path removed = root.resolve(folderName("1.0", 0));
+            Files.delete(removed.resolve(ReportJournal.FILE_NAME));
+            Files.delete(removed);
+            Assert.assertEquals(ReportIndex.update(root).getRunCount(), 2000);
+            Assert.assertEquals(ReportIndex.load(root).getRunCount(), 2000);
+        }
+    }
+
+    @Test
+    public void readsReportsWrittenBeforeJournals() throws IOException {
+        try (TempDir dir = TempDir.create("reports")) {
+            Path root = dir.path();
+            Path folder = Files.createDirectories(
+                    root.resolve("Google Img Download Functionality-07-21-2024-12-41-02"));
+            String test = "<span class='test-name'>ImageDownloadTest::testImageDownload::chrome </span>"
+                    + "<span class='test-status label right outline capitalize %s'>%s</span>"
+                    + "<span class='test-time-taken label'>0h 0m %ds+305ms</span>"
+                    + "<img class='report-img' src='Screenshots/a.png' />"
+                    + "<img class='report-img' src='Screenshots/b.png' />";
+            Files.write(folder.resolve("TestReport.html"), ("<html><body>" + String.format(test, "pass", "pass", 16)
+                    + String.format(test, "fail", "fail", 20) + "</body></html>").getBytes(StandardCharsets.UTF_8));
+
+            ReportIndex.Summary summary = ReportIndex.update(root).testDurations("Google Img Download Functionality")
+                    .get("ImageDownloadTest::testImageDownload::chrome");
+            Assert.assertEquals(summary.getCount(), 2);
+            Assert.assertEquals(summary.getFailures(), 1);
+            Assert.assertEquals(summary.getP50Millis(), 16305);
+            Assert.assertEquals(summary.getMaxMillis(), 20305);
+        }
+    }
+
+    private static void writeJournal(Path root, String release, int run, long searchMillis) throws IOException {
+        Path folder = Files.createDirectories(root.resolve(folderName(release, run)));
+        try (Writer out = Files.newBufferedWriter(folder.resolve(ReportJournal.FILE_NAME), StandardCharsets.UTF_8)) {
+            out.write("{\"type\":\"run\",\"event\":\"start\",\"time\":0}\n");
+            out.write(testRecord("GoogleHomePageTest::testGoogleHomePage::fake[cats]",
+                    run % 10 == 0 ? "fail" : "pass", 2000, searchMillis));
+            out.write(testRecord("ImageDownloadTest::testImageDownload::fake[cats]", "pass",
+                    run < 1000 ? 5000 : 9000, searchMillis));
+            out.write("{\"type\":\"run\",\"event\":\"end\",\"time\":1}\n");
+        }
+    }
+
+    private static String testRecord(String name, String status, long durationMs, long searchMillis) {
+        return "{\"type\":\"test\",\"name\":\"" + name + "\",\"status\":\"" + status + "\",\"durationMs\":"
+                + durationMs + ",\"logs\":[{\"status\":\"PASS\",\"details\":\"<img src='Screenshots/x.png'>\"}],"
+                + "\"steps\":{\"GoogleHomePage.open\":300,\"GoogleHomePage.searchFor\":" + searchMillis + "}}\n";
+    }
+
+    private static String folderName(String release, int run) {
+        // One run per minute from January 1st
+        return String.format("%s-01-%02d-2026-%02d-%02d-00", release, run / 1440 + 1, run / 60 % 24, run % 60);
+    }
+}
@@ -0,0 +1,139 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.utils.ReportIndex;
+import com.google.utils.ReportJournal;
+import com.google.utils.ReportRetention;
+
+/**
+ * Applies the retention policy to report folders and downloads created in a
+ * temporary directory.
+ */
+public class ReportRetentionTest {
+
+    private static final byte[] SCREENSHOT = new byte[20_000];
+
+    static {
+        new Random(42).nextBytes(SCREENSHOT); // incompressible, like a real PNG
+    }
+
+    @Test
+    public void dryRunReportsWithoutTouchingAnything() throws IOException {
+        try (TempDir workspace = TempDir.create("retention")) {
+            Path root = createReports(workspace.path());
+            ReportRetention.Result result = job(root, workspace.path(), 1, 0, 0, true).run();
+            Assert.assertEquals(result.getArchivedRuns(), 3);
+            Assert.assertEquals(result.getDeletedFiles(), 2);
+            // Three folders of 20 KB screenshots each go into an archive that stores one of them
+            Assert.assertTrue(result.getReclaimedBytes() > 40_000, result.toString());
+            Assert.assertTrue(result.getActions().get(0).startsWith("would "), result.getActions().toString());
+            Assert.assertTrue(Files.exists(workspace.resolve("Zomato_21072024122314.png.crdownload")));
+            Assert.assertTrue(Files.isDirectory(root.resolve(folder(1))));
+            Assert.assertFalse(Files.exists(root.resolve(ReportRetention.ARCHIVE_FILE)));
+        }
+    }
+
+    @Test
+    public void archivesOldRunsKeepingFailuresLonger() throws IOException {
+        try (TempDir workspace = TempDir.create("retention")) {
+            Path root = createReports(workspace.path());
+            ReportRetention.Result result = job(root, workspace.path(), 1, 1, 0, false).run();
+            Assert.assertEquals(result.getArchivedRuns(), 2, result.getActions().toString());
+            Assert.assertFalse(Files.exists(workspace.resolve("Zomato_21072024122314.png.crdownload")));
+            Assert.assertFalse(Files.exists(workspace.resolve("Zomato_21072024124116.png")));
+            Assert.assertTrue(Files.exists(workspace.resolve("notes.png")), "not a saved image");
+
+            // The newest run and the failed one stay as folders
+            Assert.assertFalse(Files.exists(root.resolve(folder(1))));
+            Assert.assertTrue(Files.isDirectory(root.resolve(folder(2))));
+            Assert.assertFalse(Files.exists(root.resolve(folder(3))));
+            Assert.assertTrue(Files.isDirectory(root.resolve(folder(4))));
+            Assert.assertEquals(ReportRetention.archivedRuns(root),
+                    new HashSet<>(Arrays.asList(folder(1), folder(3))));
+
+            URI archive = URI.create("jar:" + root.resolve(ReportRetention.ARCHIVE_FILE).toUri());
+            try (FileSystem zip = FileSystems.newFileSystem(archive, Collections.<String, Object>emptyMap())) {
+                List<Path> screenshots;
+                try (Stream<Path> entries = Files.list(zip.getPath("screenshots/"))) {
+                    screenshots = entries.collect(Collectors.toList());
+                }
+                Assert.assertEquals(screenshots.size(), 1, "stored once");
+                String journal = new String(Files.readAllBytes(zip.getPath("runs/" + folder(1) + "/"
+                        + ReportJournal.FILE_NAME)), StandardCharsets.UTF_8);
+                Assert.assertTrue(journal.contains("../../screenshots/" + screenshots.get(0).getFileName()), journal);
+            }
+            // Archived runs stay in the trends
+            Assert.assertEquals(ReportIndex.update(root).getRunCount(), 4);
+        }
+    }
+
+    @Test
+    public void dropsOldestArchivedRunsOverTheSizeLimit() throws IOException {
+        try (TempDir workspace = TempDir.create("retention")) {
+            Path root = createReports(workspace.path());
+            job(root, workspace.path(), 1, 0, 0, false).run();
+            // The live folder and the archive hold about 20 KB each; 25 KB leaves no room for the archived runs
+            ReportRetention.Result result = job(root, workspace.path(), 1, 0, 25_000, false).run();
+            Assert.assertEquals(result.getDroppedRuns(), 3, result.getActions().toString());
+            Assert.assertTrue(ReportRetention.archivedRuns(root).isEmpty());
+            Assert.assertTrue(Files.size(root.resolve(ReportRetention.ARCHIVE_FILE)) < 1000);
+            Assert.assertTrue(Files.isDirectory(root.resolve(folder(4))), "the newest run is never archived");
+        }
+    }
+
+    // Four runs that all captured the same screenshot, the second one failed, and downloads next to them
+    private static Path createReports(Path workspace) throws IOException {
+        Path root = Files.createDirectories(workspace.resolve("ReportGenerator"));
+        for (int run = 1; run <= 4; run++) {
+            writeRun(root, run, run == 2 ? "fail" : "pass");
+        }
+        Files.write(workspace.resolve("Zomato_21072024122314.png.crdownload"), new byte[100]);
+        Files.write(workspace.resolve("Zomato_21072024124116.png"), new byte[200]);
+        Files.write(workspace.resolve("notes.png"), new byte[300]);
+        try (Stream<Path> files = Files.walk(workspace)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()
+                        - TimeUnit.DAYS.toMillis(30)));
+            }
+        }
+        return root;
+    }
+
+    private static ReportRetention job(Path root, Path workspace, int keepRuns, int keepFailedRuns, long maxBytes,
+            boolean dryRun) {
+        return new ReportRetention(root, keepRuns, keepFailedRuns, maxBytes, TimeUnit.MINUTES.toMillis(60),
+                TimeUnit.DAYS.toMillis(7), Collections.singletonList(workspace), dryRun);
+    }
+
+    private static void writeRun(Path root, int run, String status) throws IOException {
+        Path folder = Files.createDirectories(root.resolve(folder(run)).resolve("Screenshots"));
+        Files.write(folder.resolve("run" + run + ".png"), SCREENSHOT);
+        String record = "{\"type\":\"test\",\"name\":\"ImageDownloadTest::testImageDownload::fake\",\"status\":\""
+                + status + "\",\"durationMs\":1000,\"logs\":[{\"status\":\"PASS\",\"details\":"
+                + "\"<img class='report-img' src='Screenshots/run" + run + ".png' />\"}]}\n";
+        Files.write(folder.getParent().resolve(ReportJournal.FILE_NAME), record.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String folder(int run) {
+        return "Suite-01-0" + run + "-2026-10-00-00";
+    }
+}
@@ -0,0 +1,28 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+
+import com.google.utils.SearchTerms;
+
+/**
+ * Supplies the search terms from {@code searchTerms.file} to data-driven
+ * tests. Invocations run in parallel on TestNG's data-provider threads. A
+ * worker of {@code ShardedSuiteRunner} only gets the rows of its shard.
+ */
+public class SearchTermsProvider {
+
+    @DataProvider(name = "searchTerms", parallel = true)
+    public static Object[][] searchTerms(Method method) throws IOException {
+        List<String> terms = SearchTerms.forClass(method.getDeclaringClass(),
+                SearchTerms.fromConfig("searchTerms.file"));
+        Object[][] data = new Object[terms.size()][];
+        for (int i = 0; i < terms.size(); i++) {
+            data[i] = new Object[] { terms.get(i) };
+        }
+        return data;
+    }
+}
@@ -0,0 +1,142 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.utils.ReportJournal;
+import com.google.utils.SearchTerms;
+import com.google.utils.ShardedSuiteRunner;
+import com.google.utils.TestDurations;
+
+/**
+ * Plans shards and merges shard output written to a temporary directory; no
+ * worker JVM is started.
+ */
+public class ShardedSuiteRunnerTest {
+
+    @Test
+    public void assignsLongestUnitsFirstToTheLeastLoadedShard() {
+        List<ShardedSuiteRunner.Unit> units = new ArrayList<>();
+        for (long seconds : new long[] { 3, 7, 2, 5, 3, 4 }) {
+            units.add(new ShardedSuiteRunner.Unit("com.google.tests.Test" + seconds, -1, seconds * 1000));
+        }
+        List<ShardedSuiteRunner.Shard> shards = ShardedSuiteRunner.plan(units, 2);
+        Assert.assertEquals(shards.size(), 2);
+        // 7+3+2 and 5+4+3; round-robin in suite order would give 3+2+3 and 7+5+4
+        Assert.assertEquals(shards.get(0).getPredictedMillis(), 12_000);
+        Assert.assertEquals(shards.get(1).getPredictedMillis(), 12_000);
+        Assert.assertEquals(shards.get(0).getUnits().get(0).getEstimateMillis(), 7000);
+
+        Assert.assertEquals(ShardedSuiteRunner.plan(units.subList(0, 1), 4).size(), 1, "no empty shards");
+    }
+
+    @Test
+    public void splitsDataDrivenClassesIntoRows() throws IOException {
+        try (TempDir workspace = TempDir.create("shards")) {
+            List<String> classes = Arrays.asList(GoogleHomePageTest.class.getName(), ReportIndexTest.class.getName());
+            TestDurations noHistory = TestDurations.load(workspace.resolve("ReportGenerator"), "1.0", "chrome");
+            List<ShardedSuiteRunner.Unit> units = ShardedSuiteRunner.units(classes,
+                    Arrays.asList("cats", "dogs", "owls"), noHistory, 1000);
+            Assert.assertEquals(units.toString(), "[GoogleHomePageTest[0], GoogleHomePageTest[1], "
+                    + "GoogleHomePageTest[2], ReportIndexTest]");
+            Assert.assertEquals(units.get(3).getEstimateMillis(), 2000, "one default per test method");
+
+            // A worker only gets the rows of its shard; without a row list every row runs
+            Assert.assertEquals(SearchTerms.selectRows(Arrays.asList("cats", "dogs", "owls"), "0,2"),
+                    Arrays.asList("cats", "owls"));
+            Assert.assertEquals(SearchTerms.forClass(ImageDownloadTest.class, Arrays.asList("cats", "dogs")),
+                    Arrays.asList("cats", "dogs"));
+        }
+    }
+
+    @Test
+    public void mergesTestngResults() throws IOException {
+        try (TempDir workspace = TempDir.create("shards")) {
+            List<Path> inputs = new ArrayList<>();
+            for (int shard = 1; shard <= 2; shard++) {
+                Path file = workspace.resolve("shard-" + shard + ".xml");
+                Files.write(file, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<testng-results ignored=\"0\" total=\"3\" passed=\"" + (shard + 1) + "\" failed=\""
+                        + (2 - shard) + "\" skipped=\"0\">"
+                        + "<reporter-output><line>shard " + shard + "</line></reporter-output>"
+                        + "<suite name=\"Google Suite (shard " + shard + ")\" duration-ms=\"10\"/></testng-results>")
+                        .getBytes(StandardCharsets.UTF_8));
+                inputs.add(file);
+            }
+            Path merged = workspace.resolve("out").resolve(ShardedSuiteRunner.RESULTS_FILE);
+            ShardedSuiteRunner.mergeResults(inputs, merged);
+            String xml = new String(Files.readAllBytes(merged), StandardCharsets.UTF_8);
+            Assert.assertTrue(xml.contains("total=\"6\""), xml);
+            Assert.assertTrue(xml.contains("passed=\"5\""), xml);
+            Assert.assertTrue(xml.contains("failed=\"1\""), xml);
+            Assert.assertTrue(xml.contains("Google Suite (shard 1)") && xml.contains("Google Suite (shard 2)"), xml);
+            Assert.assertTrue(xml.indexOf("<line>shard 2</line>") > xml.indexOf("<line>shard 1</line>"), xml);
+        }
+    }
+
+    @Test
+    public void mergesShardReportsIntoOneRun() throws IOException {
+        try (TempDir workspace = TempDir.create("shards")) {
+            Path run = workspace.resolve("Google-01-01-2026-00-00-00");
+            List<ShardedSuiteRunner.Shard> shards = ShardedSuiteRunner.plan(Arrays.asList(
+                    new ShardedSuiteRunner.Unit("A", -1, 2), new ShardedSuiteRunner.Unit("B", -1, 1)), 2);
+            for (ShardedSuiteRunner.Shard shard : shards) {
+                Path folder = run.resolve("shard-" + shard.getIndex());
+                Files.createDirectories(folder.resolve("Screenshots"));
+                // Screenshots are named after their content, so both shards may have taken the same one
+                Files.write(folder.resolve("Screenshots").resolve("same.png"), new byte[] { 1 });
+                Files.write(folder.resolve("Screenshots").resolve("shard" + shard.getIndex() + ".png"),
+                        new byte[] { 2 });
+                Files.write(folder.resolve("metrics.prom"), "steps 1\n".getBytes(StandardCharsets.UTF_8));
+                try (ReportJournal journal = ReportJournal.open(folder)) {
+                    journal.runEvent("start");
+                    journal.systemInfo("Environment", "QA");
+                    journal.systemInfo("Driver Pool", "checkouts=" + shard.getIndex());
+                    Map<String, Object> record = new LinkedHashMap<>();
+                    record.put("type", "test");
+                    record.put("name", "Test" + shard.getIndex());
+                    record.put("status", "pass");
+                    record.put("durationMs", 1000);
+                    record.put("logs", Collections.emptyList());
+                    journal.append(record);
+                    journal.runEvent("end");
+                }
+            }
+
+            Path report = ShardedSuiteRunner.mergeReports(run, shards);
+            Assert.assertTrue(Files.exists(report));
+            Path journal = run.resolve(ReportJournal.FILE_NAME);
+            Assert.assertTrue(ReportJournal.isComplete(journal));
+            List<String> tests = new ArrayList<>();
+            Map<String, String> systemInfo = new LinkedHashMap<>();
+            ReportJournal.forEach(journal, record -> {
+                if ("test".equals(record.get("type"))) {
+                    tests.add(String.valueOf(record.get("name")));
+                } else if ("systemInfo".equals(record.get("type"))) {
+                    systemInfo.put(String.valueOf(record.get("key")), String.valueOf(record.get("value")));
+                }
+            });
+            Assert.assertEquals(tests, Arrays.asList("Test1", "Test2"));
+            Assert.assertEquals(systemInfo.get("Environment"), "QA");
+            Assert.assertEquals(systemInfo.get("Driver Pool (shard 2)"), "checkouts=2");
+            Assert.assertTrue(systemInfo.get("Shards").startsWith("shard 1: 1 unit(s), predicted"),
+                    systemInfo.toString());
+
+            Assert.assertTrue(Files.exists(run.resolve("Screenshots/same.png")));
+            Assert.assertTrue(Files.exists(run.resolve("Screenshots/shard2.png")));
+            Assert.assertTrue(Files.exists(run.resolve("metrics-shard-1.prom")));
+            Assert.assertFalse(Files.exists(run.resolve("shard-1")));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.google.tests;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.google.utils.StepPolicy;
+
+/**
+ * Drives {@link StepPolicy} with steps that fail on purpose; no browser is
+ * needed.
+ */
+public class StepPolicyTest {
+
+    @AfterMethod(alwaysRun = true)
+    public void endTest() {
+        StepPolicy.endTest();
+    }
+
+    @Test
+    public void retriesTransientFailuresUntilTheStepPasses() {
+        StepPolicy.startTest();
+        AtomicInteger attempts = new AtomicInteger();
+        String result = StepPolicy.call("flaky", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new StaleElementReferenceException("re-rendered");
+            }
+            return "done";
+        });
+        Assert.assertEquals(result, "done");
+        Assert.assertEquals(attempts.get(), 3);
+        String summary = StepPolicy.endTest();
+        Assert.assertTrue(summary.startsWith("retries=2, wasted="), summary);
+        Assert.assertFalse(summary.contains("aborted"), summary);
+    }
+
+    @Test
+    public void fatalFailureSkipsTheRemainingSteps() {
+        StepPolicy.startTest();
+        AtomicInteger attempts = new AtomicInteger();
+        Assert.assertThrows(NoSuchSessionException.class, () -> StepPolicy.run("open", () -> {
+            attempts.incrementAndGet();
+            throw new NoSuchSessionException("browser crashed");
+        }));
+        Assert.assertEquals(attempts.get(), 1);
+
+        AtomicInteger laterSteps = new AtomicInteger();
+        Assert.assertThrows(StepPolicy.StepFailedException.class,
+                () -> StepPolicy.run("search", laterSteps::incrementAndGet));
+        Assert.assertEquals(laterSteps.get(), 0);
+        String summary = StepPolicy.endTest();
+        Assert.assertTrue(summary.endsWith("aborted by NoSuchSessionException in open"), summary);
+
+        // The next test starts clean
+        StepPolicy.startTest();
+        StepPolicy.run("search", laterSteps::incrementAndGet);
+        Assert.assertEquals(laterSteps.get(), 1);
+    }
+
+    @Test
+    public void transientFailureIsNotRetriedOnceTheBudgetIsUsedUp() {
+        // Other tests run at the same time, so the budget is passed in rather than configured
+        StepPolicy.startTest(0);
+        AtomicInteger attempts = new AtomicInteger();
+        Assert.assertThrows(StaleElementReferenceException.class, () -> StepPolicy.run("click", () -> {
+            attempts.incrementAndGet();
+            throw new StaleElementReferenceException("re-rendered");
+        }));
+        Assert.assertEquals(attempts.get(), 1);
+    }
+
+    @Test
+    public void checkedExceptionsAreWrapped() {
+        StepPolicy.startTest();
+        StepPolicy.StepFailedException failure = Assert.expectThrows(StepPolicy.StepFailedException.class,
+                () -> StepPolicy.run("download", () -> {
+                    throw new java.io.FileNotFoundException("image.png");
+                }));
+        Assert.assertTrue(failure.getCause() instanceof java.io.FileNotFoundException);
+        Assert.assertTrue(StepPolicy.isTransient(new RuntimeException(new java.net.SocketTimeoutException())));
+        Assert.assertFalse(StepPolicy.isTransient(new AssertionError("expected")));
+    }
+}
@@ -0,0 +1,51 @@
+package com.google.tests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A temporary directory that is deleted with everything in it when closed.
+ * Test methods may run in parallel, so each test opens its own in a
+ * try-with-resources block rather than sharing a field set by
+ * {@code @BeforeMethod}.
+ */
+final class TempDir implements AutoCloseable {
+
+    private final Path path;
+
+    private TempDir(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @param prefix Prefix of the directory name
+     * @return New empty directory
+     * @throws IOException if the directory cannot be created
+     */
+    static TempDir create(String prefix) throws IOException {
+        return new TempDir(Files.createTempDirectory(prefix));
+    }
+
+    Path path() {
+        return path;
+    }
+
+    Path resolve(String other) {
+        return path.resolve(other);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.google.tests;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.utils.ScreenshotEncoder;
+import com.google.utils.ScreenshotPipeline;
+import com.google.utils.StepMetrics;
+import com.google.utils.VisualCheck;
+
+/**
+ * Checks synthetic page images against baselines in a temporary directory.
+ */
+public class VisualCheckTest {
+
+    @Test
+    public void escalatesOnlyFramesWhoseHashDiffers() throws IOException {
+        try (TempDir root = TempDir.create("visual-check")) {
+            VisualCheck check = newCheck(root, false);
+            Assert.assertEquals(check.check("Test > Page.open", "a", png(page(0, false))), VisualCheck.Outcome.NEW);
+            check.save();
+
+            // A fresh run reads the baseline back from the file
+            check = newCheck(root, false);
+            Assert.assertEquals(check.check("Test > Page.open", "b", png(page(2, false))), VisualCheck.Outcome.MATCH,
+                    "slight noise stays within the hash threshold");
+            Assert.assertTrue(check.getStats().contains("escalated=0"), check.getStats());
+
+            Assert.assertEquals(check.check("Test > Page.open", "c", png(page(0, true))), VisualCheck.Outcome.CHANGED);
+            Assert.assertEquals(check.getChanged(), 1);
+            Assert.assertTrue(check.getStats().contains("escalated=1"), check.getStats());
+            Assert.assertTrue(check.getStats().contains("Test > Page.open: "), check.getStats());
+            try (Stream<Path> files = Files.list(diffs(root))) {
+                Path diff = files.findFirst().get();
+                BufferedImage image = ImageIO.read(diff.toFile());
+                // The moved banner is red in the diff, the unchanged text is not
+                Assert.assertEquals(image.getRGB(250, 30) & 0xffffff, 0xff0000);
+                Assert.assertNotEquals(image.getRGB(60, 200) & 0xffffff, 0xff0000);
+            }
+        }
+    }
+
+    @Test
+    public void updatesBaselinesAndKeepsOtherEntries() throws IOException {
+        try (TempDir root = TempDir.create("visual-check")) {
+            VisualCheck check = newCheck(root, false);
+            check.check("Test > Page.open", "a", png(page(0, false)));
+            check.check("Test > Page.search", "a", png(page(0, false)));
+            check.save();
+
+            check = newCheck(root, true);
+            Assert.assertEquals(check.check("Test > Page.open", "b", png(page(0, true))), VisualCheck.Outcome.NEW);
+            check.save();
+
+            List<String> lines = Files.readAllLines(baselines(root).resolve(VisualCheck.BASELINE_FILE),
+                    StandardCharsets.UTF_8);
+            Assert.assertEquals(lines.size(), 3, lines.toString());
+            Assert.assertTrue(lines.get(1).endsWith(" frames/b.png Test > Page.open"), lines.toString());
+            Assert.assertTrue(lines.get(2).endsWith(" frames/a.png Test > Page.search"), lines.toString());
+            Assert.assertTrue(Files.exists(baselines(root).resolve("frames/a.png")), "still used by Page.search");
+
+            check = newCheck(root, false);
+            Assert.assertEquals(check.check("Test > Page.open", "c", png(page(0, true))), VisualCheck.Outcome.MATCH);
+        }
+    }
+
+    @Test
+    public void checksRepeatedFramesAtEachCheckpoint() throws IOException {
+        try (TempDir root = TempDir.create("visual-check")) {
+            VisualCheck check = newCheck(root, false);
+            check.check("Test > Page.open", "a", png(page(0, false)));
+            check.check("Test > Page.search", "b", png(page(0, true)));
+            check.save();
+
+            check = newCheck(root, false);
+            ScreenshotPipeline pipeline = new ScreenshotPipeline(1, 4, ScreenshotPipeline.BackPressure.BLOCK,
+                    new ScreenshotEncoder(ScreenshotEncoder.Quality.HIGH, 1, 1), check);
+            byte[] frame = png(page(0, false));
+            File screenshots = root.resolve("report").resolve("Screenshots").toFile();
+            pipeline.submit(frame, screenshots, "Test > Page.open");
+            pipeline.submit(frame, screenshots, "Test > Page.search");
+            pipeline.shutdown(10, TimeUnit.SECONDS);
+            Assert.assertTrue(pipeline.getStats().contains("duplicates=1, written=1"), pipeline.getStats());
+            Assert.assertTrue(check.getStats().startsWith("frames=2, new=0, matched=1, escalated=1, changed=1"),
+                    check.getStats());
+        }
+    }
+
+    @Test
+    public void namesCheckpointsAfterTestAndStep() {
+        VisualCheck.startTest("SomeTest::run::fake");
+        try (StepMetrics.Step step = StepMetrics.step("Page.open")) {
+            Assert.assertEquals(VisualCheck.checkpoint(), "SomeTest::run::fake > Page.open");
+            Assert.assertEquals(VisualCheck.checkpoint(), "SomeTest::run::fake > Page.open #2");
+        }
+        VisualCheck.startTest("SomeTest::other::fake");
+        try (StepMetrics.Step step = StepMetrics.step("Page.open")) {
+            Assert.assertEquals(VisualCheck.checkpoint(), "SomeTest::other::fake > Page.open");
+        }
+    }
+
+    private static VisualCheck newCheck(TempDir root, boolean update) throws IOException {
+        return new VisualCheck(baselines(root), diffs(root), 2, 0.001, 16, update);
+    }
+
+    private static Path baselines(TempDir root) {
+        return root.resolve("baselines");
+    }
+
+    private static Path diffs(TempDir root) {
+        return root.resolve("report").resolve(VisualCheck.DIFF_FOLDER);
+    }
+
+    // A page with a banner, text lines and a button; noise shifts every pixel by up to the given amount
+    private static BufferedImage page(int noise, boolean movedBanner) {
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 400, 300);
+        graphics.setColor(new Color(66, 133, 244));
+        graphics.fillRect(movedBanner ? 200 : 20, 10, 160, 50);
+        graphics.setColor(Color.DARK_GRAY);
+        for (int y = 100; y < 260; y += 20) {
+            graphics.fillRect(40, y, 300, 8);
+        }
+        graphics.setColor(new Color(52, 168, 83));
+        graphics.fillRect(150, 270, 100, 20);
+        graphics.dispose();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int shift = noise == 0 ? 0 : (x * 31 + y * 17) % (2 * noise + 1) - noise;
+                int rgb = image.getRGB(x, y);
+                int r = clamp((rgb >> 16 & 0xff) + shift);
+                int g = clamp((rgb >> 8 & 0xff) + shift);
+                int b = clamp((rgb & 0xff) + shift);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}